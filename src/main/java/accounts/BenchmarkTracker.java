@@ -0,0 +1,316 @@
+package accounts;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import engine.Bar;
+
+/**
+ * Beta, alpha, correlation, tracking error and information ratio of portfolios
+ * against a benchmark, over the whole run and over a rolling window. The
+ * benchmark of a portfolio is either a ticker or another portfolio of the run.
+ * Everything comes from running sums of the returns, so each bar costs the
+ * same however long the run or the window is.
+ * <p>
+ * Values are read at the close of each bar, which sets where the tracker goes
+ * among the listeners of the exchange, see StockExchange.addBarListener(). Like
+ * PortfolioHistory.metrics() it assumes daily bars when annualizing.
+ */
+public class BenchmarkTracker implements BarListener, Serializable {
+	private static final int TRADING_DAYS = 252;
+
+	/**
+	 * Figures of a portfolio against its benchmark, NaN until there are enough
+	 * returns.
+	 *
+	 * @param beta             slope of the portfolio returns on the benchmark
+	 *                         returns
+	 * @param alpha            annualized return not explained by beta
+	 * @param correlation      correlation of the returns
+	 * @param trackingError    annualized standard deviation of the return
+	 *                         difference
+	 * @param informationRatio annualized mean return difference over the
+	 *                         tracking error
+	 */
+	public record Relative(double beta, double alpha, double correlation, double trackingError,
+			double informationRatio) {
+
+		/**
+		 * The figures with the given prefix on the names, for example for a
+		 * ResultsStore
+		 */
+		public Map<String, Double> toMap(String prefix) {
+			Map<String, Double> map = new LinkedHashMap<>();
+			map.put(prefix + "beta", beta);
+			map.put(prefix + "alpha", alpha);
+			map.put(prefix + "correlation", correlation);
+			map.put(prefix + "tracking_error", trackingError);
+			map.put(prefix + "information_ratio", informationRatio);
+			return map;
+		}
+	}
+
+	private final List<Portfolio> portfolios;
+	private final int window;
+	// Benchmark of each portfolio, a ticker, or null for another portfolio or none
+	private final String[] tickers;
+	// Index of the benchmark portfolio, -1 for a ticker or none
+	private final int[] benchmarkPortfolios;
+	private final Sums[] cumulative;
+	private final Sums[] rolling;
+	private final double[] lastValues;
+	private final double[] values;
+	private final Map<String, Double> lastCloses = new LinkedHashMap<>();
+
+	// Rolling figures recorded at every bar: beta, alpha, correlation, tracking
+	// error and information ratio, per portfolio
+	private double[][][] history;
+	private LocalDateTime[] timestamps = new LocalDateTime[64];
+	private int bars = 0;
+
+	/**
+	 * @param portfolios portfolios to follow, the list may be changed later as
+	 *                   long as its size stays the same
+	 * @param window     number of bars of the rolling figures
+	 */
+	public BenchmarkTracker(List<Portfolio> portfolios, int window) {
+		if (window < 2)
+			throw new IllegalArgumentException("Window must be at least 2");
+		this.portfolios = portfolios;
+		this.window = window;
+		int n = portfolios.size();
+		tickers = new String[n];
+		benchmarkPortfolios = new int[n];
+		Arrays.fill(benchmarkPortfolios, -1);
+		cumulative = new Sums[n];
+		rolling = new Sums[n];
+		lastValues = new double[n];
+		values = new double[n];
+		history = new double[n][5][64];
+	}
+
+	/**
+	 * Measures a portfolio against the close of a ticker. The benchmark return is
+	 * zero on bars without a bar of the ticker
+	 */
+	public void setBenchmark(int portfolio, String ticker) {
+		tickers[portfolio] = ticker;
+		benchmarkPortfolios[portfolio] = -1;
+		reset(portfolio);
+	}
+
+	/**
+	 * Measures a portfolio against the value of another portfolio of the run
+	 */
+	public void setBenchmark(int portfolio, int benchmarkPortfolio) {
+		if (benchmarkPortfolio == portfolio || benchmarkPortfolio < 0 || benchmarkPortfolio >= portfolios.size())
+			throw new IllegalArgumentException("Benchmark has to be another portfolio of the run");
+		tickers[portfolio] = null;
+		benchmarkPortfolios[portfolio] = benchmarkPortfolio;
+		reset(portfolio);
+	}
+
+	private void reset(int portfolio) {
+		cumulative[portfolio] = new Sums(0);
+		rolling[portfolio] = new Sums(window);
+	}
+
+	public boolean hasBenchmark(int portfolio) {
+		return cumulative[portfolio] != null;
+	}
+
+	@Override
+	public void acceptBars(Map<String, Bar> barMap) {
+		int n = portfolios.size();
+		if (bars == timestamps.length) {
+			timestamps = Arrays.copyOf(timestamps, bars * 2);
+			for (double[][] columns : history)
+				for (int c = 0; c < columns.length; c++)
+					columns[c] = Arrays.copyOf(columns[c], bars * 2);
+		}
+		timestamps[bars] = barMap.isEmpty() ? null : barMap.values().iterator().next().timestamp();
+
+		for (int i = 0; i < n; i++)
+			values[i] = portfolios.get(i).getTotalValue();
+		for (int i = 0; i < n; i++) {
+			if (cumulative[i] == null)
+				continue;
+			double benchmark;
+			if (tickers[i] != null) {
+				Bar bar = barMap.get(tickers[i]);
+				Double last = lastCloses.get(tickers[i]);
+				if (last == null)
+					benchmark = Double.NaN;
+				else
+					benchmark = bar == null ? 0.0 : bar.close() / last - 1.0;
+			} else {
+				int b = benchmarkPortfolios[i];
+				benchmark = lastValues[b] > 0 ? values[b] / lastValues[b] - 1.0 : Double.NaN;
+			}
+			double own = lastValues[i] > 0 ? values[i] / lastValues[i] - 1.0 : Double.NaN;
+			if (!Double.isNaN(own) && !Double.isNaN(benchmark)) {
+				cumulative[i].add(own, benchmark);
+				rolling[i].add(own, benchmark);
+			}
+			rolling[i].record(history[i], bars);
+		}
+		System.arraycopy(values, 0, lastValues, 0, n);
+		for (String ticker : tickers) {
+			Bar bar = ticker == null ? null : barMap.get(ticker);
+			if (bar != null)
+				lastCloses.put(ticker, bar.close());
+		}
+		bars++;
+	}
+
+	/* ================================= Access ================================= */
+
+	/**
+	 * Figures over every return of the run, null without a benchmark
+	 */
+	public Relative getCumulative(int portfolio) {
+		return cumulative[portfolio] == null ? null : cumulative[portfolio].relative();
+	}
+
+	/**
+	 * Figures over the last window returns, null without a benchmark
+	 */
+	public Relative getRolling(int portfolio) {
+		return rolling[portfolio] == null ? null : rolling[portfolio].relative();
+	}
+
+	/**
+	 * Rolling figures of a portfolio at every bar: beta, alpha, correlation,
+	 * tracking error and information ratio, in the order of the Relative fields
+	 */
+	public double[][] getRollingHistory(int portfolio) {
+		double[][] columns = new double[5][];
+		for (int c = 0; c < columns.length; c++)
+			columns[c] = Arrays.copyOf(history[portfolio][c], bars);
+		return columns;
+	}
+
+	/**
+	 * Timestamps of the bars in the histories
+	 */
+	public LocalDateTime[] getTimestamps() {
+		return Arrays.copyOf(timestamps, bars);
+	}
+
+	/**
+	 * Name of the benchmark ticker, or null for a portfolio or none
+	 */
+	public String getTicker(int portfolio) {
+		return tickers[portfolio];
+	}
+
+	/**
+	 * Index of the benchmark portfolio, or -1 for a ticker or none
+	 */
+	public int getBenchmarkPortfolio(int portfolio) {
+		return benchmarkPortfolios[portfolio];
+	}
+
+	public int getWindow() {
+		return window;
+	}
+
+	/**
+	 * Number of portfolios followed
+	 */
+	public int size() {
+		return tickers.length;
+	}
+
+	/**
+	 * Running sums of the returns p of a portfolio and b of its benchmark, over
+	 * everything or over a window of the last pairs. A window keeps its pairs in a
+	 * ring, removes the oldest from the sums, and adds them up afresh once per
+	 * window as the sums drift a little with every removal
+	 */
+	static final class Sums implements Serializable {
+		private final double[] ringP;
+		private final double[] ringB;
+		private long count = 0;
+		private double p, b, pp, bb, pb;
+
+		Sums(int window) {
+			ringP = new double[window];
+			ringB = new double[window];
+		}
+
+		void add(double own, double benchmark) {
+			int window = ringP.length;
+			if (window > 0) {
+				int slot = (int) (count % window);
+				if (count >= window)
+					remove(ringP[slot], ringB[slot]);
+				ringP[slot] = own;
+				ringB[slot] = benchmark;
+			}
+			p += own;
+			b += benchmark;
+			pp += own * own;
+			bb += benchmark * benchmark;
+			pb += own * benchmark;
+			count++;
+			if (window > 0 && count % window == 0)
+				recompute();
+		}
+
+		private void remove(double own, double benchmark) {
+			p -= own;
+			b -= benchmark;
+			pp -= own * own;
+			bb -= benchmark * benchmark;
+			pb -= own * benchmark;
+		}
+
+		private void recompute() {
+			p = b = pp = bb = pb = 0;
+			for (int i = 0; i < ringP.length; i++) {
+				p += ringP[i];
+				b += ringB[i];
+				pp += ringP[i] * ringP[i];
+				bb += ringB[i] * ringB[i];
+				pb += ringP[i] * ringB[i];
+			}
+		}
+
+		long size() {
+			return ringP.length > 0 ? Math.min(count, ringP.length) : count;
+		}
+
+		Relative relative() {
+			long n = size();
+			if (n < 2)
+				return new Relative(Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+			double meanP = p / n;
+			double meanB = b / n;
+			double varP = Math.max(0.0, (pp - n * meanP * meanP) / (n - 1));
+			double varB = Math.max(0.0, (bb - n * meanB * meanB) / (n - 1));
+			double cov = (pb - n * meanP * meanB) / (n - 1);
+			double beta = varB > 0 ? cov / varB : Double.NaN;
+			double alpha = (meanP - beta * meanB) * TRADING_DAYS;
+			double correlation = varP > 0 && varB > 0 ? cov / Math.sqrt(varP * varB) : Double.NaN;
+			double active = Math.sqrt(Math.max(0.0, varP + varB - 2 * cov));
+			double trackingError = active * Math.sqrt(TRADING_DAYS);
+			double informationRatio = active > 0 ? (meanP - meanB) / active * Math.sqrt(TRADING_DAYS)
+					: Double.NaN;
+			return new Relative(beta, alpha, correlation, trackingError, informationRatio);
+		}
+
+		void record(double[][] columns, int bar) {
+			Relative r = relative();
+			columns[0][bar] = r.beta();
+			columns[1][bar] = r.alpha();
+			columns[2][bar] = r.correlation();
+			columns[3][bar] = r.trackingError();
+			columns[4][bar] = r.informationRatio();
+		}
+	}
+}
@@ -0,0 +1,246 @@
+package accounts;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.knowm.xchart.BitmapEncoder;
+import org.knowm.xchart.VectorGraphicsEncoder;
+import org.knowm.xchart.XYChart;
+import org.knowm.xchart.XYChartBuilder;
+import org.knowm.xchart.XYSeries;
+import org.knowm.xchart.style.Styler;
+import org.knowm.xchart.style.XYStyler;
+
+/**
+ * Renders portfolio value charts straight to PNG or SVG files, without a
+ * display. Each series is first downsampled with Largest-Triangle-Three-Buckets
+ * to at most maxPoints points, which keeps the peaks and dips that matter
+ * visually, so long histories render as fast as short ones. With several
+ * charts, each chart renders on its own thread.
+ */
+public class ChartRenderer {
+
+	public enum Format {
+		PNG, SVG
+	}
+
+	private final int maxPoints;
+	private final Format format;
+	private final int width;
+	private final int height;
+
+	public ChartRenderer() {
+		this(2000, Format.PNG, 1000, 600);
+	}
+
+	/**
+	 * @param maxPoints most points drawn per series, at least 3
+	 * @param format    file format
+	 * @param width     width in pixels
+	 * @param height    height in pixels
+	 */
+	public ChartRenderer(int maxPoints, Format format, int width, int height) {
+		if (maxPoints < 3)
+			throw new IllegalArgumentException("Need at least 3 points per series");
+		this.maxPoints = maxPoints;
+		this.format = format;
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Renders one chart with the value of every history as a series
+	 *
+	 * @param file file to write, with the extension of the format
+	 */
+	public void renderCombined(List<PortfolioHistory> histories, List<String> labels, String title, Path file)
+			throws IOException {
+		save(combinedChart(histories, labels, title), file);
+	}
+
+	/**
+	 * Builds the chart renderCombined() writes, also used to show it on screen
+	 */
+	XYChart combinedChart(List<PortfolioHistory> histories, List<String> labels, String title) {
+		if (histories.size() != labels.size())
+			throw new IllegalArgumentException("Histories and labels must be same size");
+		XYChart chart = newChart(title, histories.size() > 1);
+		for (int i = 0; i < histories.size(); i++)
+			addSeries(chart, labels.get(i), histories.get(i));
+		return chart;
+	}
+
+	/**
+	 * Renders one chart per history into dir, named after the label, in
+	 * parallel.
+	 *
+	 * @param threads number of charts rendered at the same time
+	 * @return the written files, in the order of the histories
+	 */
+	public List<Path> renderEach(List<PortfolioHistory> histories, List<String> labels, Path dir, int threads)
+			throws IOException {
+		if (histories.size() != labels.size())
+			throw new IllegalArgumentException("Histories and labels must be same size");
+		if (threads < 1)
+			throw new IllegalArgumentException("Need at least one thread");
+		Files.createDirectories(dir);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Path>> futures = new ArrayList<>();
+			for (int i = 0; i < histories.size(); i++) {
+				String label = labels.get(i);
+				PortfolioHistory history = histories.get(i);
+				Path file = dir.resolve(label.replaceAll("[^a-zA-Z0-9_-]", "_") + "." + extension());
+				futures.add(pool.submit(() -> {
+					XYChart chart = newChart(label, false);
+					addSeries(chart, label, history);
+					save(chart, file);
+					return file;
+				}));
+			}
+			List<Path> files = new ArrayList<>();
+			for (Future<Path> f : futures)
+				files.add(f.get());
+			return files;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while rendering charts", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException io)
+				throw io;
+			throw new IllegalStateException("Rendering a chart failed", e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	public String extension() {
+		return format == Format.PNG ? "png" : "svg";
+	}
+
+	private XYChart newChart(String title, boolean legend) {
+		XYChart chart = new XYChartBuilder()
+				.width(width)
+				.height(height)
+				.title(title)
+				.xAxisTitle("Date")
+				.yAxisTitle("Total Value")
+				.build();
+		XYStyler styler = chart.getStyler();
+		styler.setLegendVisible(legend);
+		styler.setLegendPosition(Styler.LegendPosition.OutsideE);
+		styler.setMarkerSize(0);
+		styler.setChartTitleFont(new Font(Font.SANS_SERIF, Font.BOLD, 18));
+		styler.setAxisTitleFont(new Font(Font.SANS_SERIF, Font.BOLD, 14));
+		styler.setAxisTickLabelsFont(new Font(Font.SANS_SERIF, Font.PLAIN, 12));
+		styler.setPlotBackgroundColor(Color.WHITE);
+		styler.setPlotGridLinesVisible(true);
+		styler.setDefaultSeriesRenderStyle(XYSeries.XYSeriesRenderStyle.Line);
+		// The x values are epoch seconds
+		styler.setxAxisTickLabelsFormattingFunction(
+				x -> LocalDateTime.ofEpochSecond(x.longValue(), 0, ZoneOffset.UTC).toLocalDate().toString());
+		return chart;
+	}
+
+	private void addSeries(XYChart chart, String label, PortfolioHistory history) {
+		double[] x = history.epochSeconds();
+		double[] y = history.values();
+		if (x.length == 0)
+			return;
+		int n = Math.min(x.length, maxPoints);
+		double[] sampledX = new double[n];
+		double[] sampledY = new double[n];
+		lttb(x, y, x.length, n, sampledX, sampledY);
+		chart.addSeries(label, sampledX, sampledY);
+	}
+
+	private void save(XYChart chart, Path file) throws IOException {
+		if (file.getParent() != null)
+			Files.createDirectories(file.getParent());
+		try (OutputStream out = Files.newOutputStream(file)) {
+			if (format == Format.PNG)
+				BitmapEncoder.saveBitmap(chart, out, BitmapEncoder.BitmapFormat.PNG);
+			else
+				VectorGraphicsEncoder.saveVectorGraphic(chart, out, VectorGraphicsEncoder.VectorGraphicsFormat.SVG);
+		}
+	}
+
+	/**
+	 * Largest-Triangle-Three-Buckets downsampling. Keeps the first and last
+	 * point, splits the rest into threshold - 2 buckets and from each bucket keeps
+	 * the point forming the largest triangle with the point kept before it and the
+	 * average of the next bucket. Runs in O(n).
+	 *
+	 * @param x         x values in increasing order
+	 * @param y         y values
+	 * @param n         number of points to use from x and y
+	 * @param threshold number of points to keep
+	 * @param outX      gets the kept x values, at least threshold long
+	 * @param outY      gets the kept y values, at least threshold long
+	 * @return number of points kept, min(n, threshold)
+	 */
+	public static int lttb(double[] x, double[] y, int n, int threshold, double[] outX, double[] outY) {
+		if (threshold >= n) {
+			System.arraycopy(x, 0, outX, 0, n);
+			System.arraycopy(y, 0, outY, 0, n);
+			return n;
+		}
+		if (threshold < 3)
+			throw new IllegalArgumentException("Need to keep at least 3 points");
+
+		double every = (double) (n - 2) / (threshold - 2);
+		int a = 0;
+		int kept = 0;
+		outX[kept] = x[0];
+		outY[kept++] = y[0];
+		for (int i = 0; i < threshold - 2; i++) {
+			// Average of the next bucket, the last point for the last bucket
+			int avgStart = (int) ((i + 1) * every) + 1;
+			int avgEnd = Math.min((int) ((i + 2) * every) + 1, n);
+			double avgX = 0, avgY = 0;
+			for (int j = avgStart; j < avgEnd; j++) {
+				avgX += x[j];
+				avgY += y[j];
+			}
+			int avgCount = avgEnd - avgStart;
+			if (avgCount > 0) {
+				avgX /= avgCount;
+				avgY /= avgCount;
+			} else {
+				avgX = x[n - 1];
+				avgY = y[n - 1];
+			}
+
+			int from = (int) (i * every) + 1;
+			int to = (int) ((i + 1) * every) + 1;
+			double ax = x[a], ay = y[a];
+			double maxArea = -1;
+			int next = from;
+			for (int j = from; j < to; j++) {
+				double area = Math.abs((ax - avgX) * (y[j] - ay) - (ax - x[j]) * (avgY - ay));
+				if (area > maxArea) {
+					maxArea = area;
+					next = j;
+				}
+			}
+			outX[kept] = x[next];
+			outY[kept++] = y[next];
+			a = next;
+		}
+		outX[kept] = x[n - 1];
+		outY[kept++] = y[n - 1];
+		return kept;
+	}
+}
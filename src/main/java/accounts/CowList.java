@@ -0,0 +1,80 @@
+package accounts;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * Append-only list that can be forked cheaply. Forking freezes the elements
+ * added so far into a segment that both lists share, so each list only stores
+ * the elements appended to it after the fork.
+ */
+class CowList<T> extends AbstractList<T> implements RandomAccess, Serializable {
+
+	/**
+	 * Frozen part of a list, never changed after creation. Holds the elements from
+	 * offset onwards, the ones before are in the parent segments.
+	 */
+	private record Segment(Segment parent, Object[] items, int offset) implements Serializable {
+		int end() {
+			return offset + items.length;
+		}
+	}
+
+	private Segment shared;
+	private ArrayList<T> tail = new ArrayList<>();
+
+	CowList() {
+	}
+
+	private CowList(Segment shared) {
+		this.shared = shared;
+	}
+
+	private int sharedSize() {
+		return shared == null ? 0 : shared.end();
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public T get(int index) {
+		Objects.checkIndex(index, size());
+		int base = sharedSize();
+		if (index >= base)
+			return tail.get(index - base);
+		Segment s = shared;
+		while (index < s.offset())
+			s = s.parent();
+		return (T) s.items()[index - s.offset()];
+	}
+
+	@Override
+	public int size() {
+		return sharedSize() + tail.size();
+	}
+
+	/**
+	 * Only appending is supported, index has to be equal to size()
+	 */
+	@Override
+	public void add(int index, T element) {
+		if (index != size())
+			throw new UnsupportedOperationException("CowList only supports appending");
+		tail.add(element);
+		modCount++;
+	}
+
+	/**
+	 * Returns a list with the same elements that shares them with this list.
+	 * Both lists can be appended to independently afterwards.
+	 */
+	CowList<T> fork() {
+		if (!tail.isEmpty()) {
+			shared = new Segment(shared, tail.toArray(), sharedSize());
+			tail = new ArrayList<>();
+		}
+		return new CowList<>(shared);
+	}
+}
@@ -0,0 +1,13 @@
+package accounts;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+import resources.enums.OrderType;
+
+/**
+ * An executed order: what was traded, when and at what price
+ */
+public record Fill(LocalDateTime timestamp, String ticker, OrderType type, int quantity, double price)
+		implements Serializable {
+}
@@ -0,0 +1,309 @@
+package accounts;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import resources.enums.OrderType;
+
+/**
+ * Robustness check of a finished run: resamples its daily returns or its
+ * trades many times and gives the distribution of the final value, the max
+ * drawdown and the Sharpe ratio.
+ * <ul>
+ * <li>Block bootstrap draws blocks of consecutive daily returns with
+ * replacement, wrapping around at the end, which keeps short term dependence
+ * between days</li>
+ * <li>Trade shuffle puts the returns of the closed trades in random order. The
+ * final value and Sharpe ratio stay the same, only the path changes</li>
+ * <li>Trade bootstrap draws the trades with replacement</li>
+ * </ul>
+ * Resamples are split into chunks, and every chunk gets its own random
+ * generator split from the seed in order. The results only depend on the seed,
+ * not on the number of threads. Paths are computed in primitive arrays without
+ * Portfolio objects.
+ */
+public final class MonteCarlo {
+	private static final int CHUNK = 1024;
+	private static final double TRADING_DAYS = 252;
+
+	/**
+	 * Sorted values of one measure across all resamples
+	 */
+	public record Distribution(double[] sorted) {
+
+		/**
+		 * Value at the given fraction of the distribution, interpolating between
+		 * neighbours. percentile(0.05) is the 5th percentile
+		 */
+		public double percentile(double p) {
+			if (sorted.length == 0)
+				return Double.NaN;
+			double pos = Math.min(1.0, Math.max(0.0, p)) * (sorted.length - 1);
+			int i = (int) pos;
+			if (i + 1 >= sorted.length)
+				return sorted[sorted.length - 1];
+			return sorted[i] + (pos - i) * (sorted[i + 1] - sorted[i]);
+		}
+
+		public double mean() {
+			double sum = 0;
+			for (double v : sorted)
+				sum += v;
+			return sorted.length == 0 ? Double.NaN : sum / sorted.length;
+		}
+
+		/**
+		 * Fraction of resamples with a value below the threshold
+		 */
+		public double fractionBelow(double threshold) {
+			int i = Arrays.binarySearch(sorted, threshold);
+			if (i < 0)
+				i = -i - 1;
+			while (i > 0 && sorted[i - 1] == threshold)
+				i--;
+			return sorted.length == 0 ? Double.NaN : (double) i / sorted.length;
+		}
+	}
+
+	/**
+	 * Distributions of the resampled paths. Sharpe ratios of paths without any
+	 * variation are left out
+	 */
+	public record Result(Distribution finalValue, Distribution maxDrawdown, Distribution sharpe) {
+
+		public String summary() {
+			return String.format(
+					"Final value  5%%: %.2f  50%%: %.2f  95%%: %.2f%n"
+							+ "Max drawdown 5%%: %.2f%%  50%%: %.2f%%  95%%: %.2f%%%n"
+							+ "Sharpe       5%%: %.2f  50%%: %.2f  95%%: %.2f",
+					finalValue.percentile(0.05), finalValue.percentile(0.5), finalValue.percentile(0.95),
+					maxDrawdown.percentile(0.05) * 100, maxDrawdown.percentile(0.5) * 100,
+					maxDrawdown.percentile(0.95) * 100, sharpe.percentile(0.05), sharpe.percentile(0.5),
+					sharpe.percentile(0.95));
+		}
+	}
+
+	private final long seed;
+	private final int threads;
+
+	public MonteCarlo(long seed, int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("Need at least one thread");
+		this.seed = seed;
+		this.threads = threads;
+	}
+
+	/* ================================= Inputs ================================= */
+
+	/**
+	 * Returns from one snapshot of the history to the next
+	 */
+	public static double[] dailyReturns(PortfolioHistory history) {
+		double[] values = history.values();
+		double[] returns = new double[Math.max(0, values.length - 1)];
+		for (int i = 0; i < returns.length; i++)
+			returns[i] = values[i + 1] / values[i] - 1.0;
+		return returns;
+	}
+
+	/**
+	 * Return of every sell, as the realized profit over the average cost of the
+	 * shares, relative to the portfolio value before the fill that opened the
+	 * position. For one position at a time, compounding these returns gives the
+	 * portfolio's own path. Assumes long only trading. Positions that are still
+	 * open at the end are not counted
+	 */
+	public static double[] tradeReturns(Portfolio portfolio) {
+		List<PortfolioHistory.Snapshot> snapshots = portfolio.getHistoryTracker().getSnapshots();
+		Map<String, Integer> held = new HashMap<>();
+		Map<String, Double> cost = new HashMap<>();
+		Map<String, Double> entryValue = new HashMap<>();
+		double[] returns = new double[portfolio.getFills().size()];
+		int n = 0;
+		int s = 0;
+		for (Fill fill : portfolio.getFills()) {
+			// The snapshot of the fill's bar holds the value before the fill
+			while (s + 1 < snapshots.size() && !snapshots.get(s + 1).getTimestamp().isAfter(fill.timestamp()))
+				s++;
+			double value = snapshots.isEmpty() ? portfolio.getStartingCash() : snapshots.get(s).getTotalValue();
+			String t = fill.ticker();
+			int quantity = held.getOrDefault(t, 0);
+			if (fill.type() == OrderType.BUY) {
+				if (quantity == 0)
+					entryValue.put(t, value);
+				cost.merge(t, fill.quantity() * fill.price(), Double::sum);
+				held.put(t, quantity + fill.quantity());
+				continue;
+			}
+			int sold = Math.min(quantity, fill.quantity());
+			if (sold <= 0)
+				continue;
+			double averageCost = cost.get(t) / quantity;
+			cost.put(t, averageCost * (quantity - sold));
+			held.put(t, quantity - sold);
+			returns[n++] = sold * (fill.price() - averageCost) / entryValue.get(t);
+		}
+		return Arrays.copyOf(returns, n);
+	}
+
+	/**
+	 * Number of closed trades per year, for annualizing the Sharpe ratio of trade
+	 * resamples
+	 */
+	public static double tradesPerYear(Portfolio portfolio, int trades) {
+		List<PortfolioHistory.Snapshot> snapshots = portfolio.getHistoryTracker().getSnapshots();
+		if (snapshots.size() < 2 || trades == 0)
+			return 1.0;
+		double days = Duration.between(snapshots.get(0).getTimestamp(),
+				snapshots.get(snapshots.size() - 1).getTimestamp()).toSeconds() / 86400.0;
+		return days > 0 ? trades / (days / 365.25) : 1.0;
+	}
+
+	/* ================================ Resampling ============================== */
+
+	/**
+	 * Circular block bootstrap of daily returns.
+	 *
+	 * @param returns     daily returns of the run
+	 * @param blockLength number of consecutive days drawn at a time
+	 * @param startValue  value the paths start at
+	 * @param resamples   number of paths
+	 */
+	public Result blockBootstrap(double[] returns, int blockLength, double startValue, int resamples) {
+		if (blockLength < 1)
+			throw new IllegalArgumentException("Block length must be positive");
+		int n = returns.length;
+		return run(resamples, n, TRADING_DAYS, startValue, (random, path) -> {
+			for (int k = 0; k < n;) {
+				int from = random.nextInt(n);
+				int length = Math.min(blockLength, n - k);
+				int head = Math.min(length, n - from);
+				System.arraycopy(returns, from, path, k, head);
+				System.arraycopy(returns, 0, path, k + head, length - head);
+				k += length;
+			}
+		});
+	}
+
+	/**
+	 * Resamples the order of the trades.
+	 *
+	 * @param tradeReturns    returns of the closed trades, see tradeReturns()
+	 * @param withReplacement true to draw trades with replacement, false to
+	 *                        shuffle them
+	 * @param tradesPerYear   for annualizing the Sharpe ratio
+	 * @param startValue      value the paths start at
+	 * @param resamples       number of paths
+	 */
+	public Result resampleTrades(double[] tradeReturns, boolean withReplacement, double tradesPerYear,
+			double startValue, int resamples) {
+		int n = tradeReturns.length;
+		return run(resamples, n, tradesPerYear, startValue, (random, path) -> {
+			if (withReplacement) {
+				for (int k = 0; k < n; k++)
+					path[k] = tradeReturns[random.nextInt(n)];
+				return;
+			}
+			System.arraycopy(tradeReturns, 0, path, 0, n);
+			for (int k = n - 1; k > 0; k--) {
+				int j = random.nextInt(k + 1);
+				double tmp = path[k];
+				path[k] = path[j];
+				path[j] = tmp;
+			}
+		});
+	}
+
+	/**
+	 * Fills path with the returns of one resample
+	 */
+	private interface Sampler {
+		void sample(SplittableRandom random, double[] path);
+	}
+
+	private Result run(int resamples, int length, double periodsPerYear, double startValue, Sampler sampler) {
+		if (resamples < 1)
+			throw new IllegalArgumentException("Need at least one resample");
+		if (length == 0)
+			throw new IllegalArgumentException("Nothing to resample");
+		double[] finals = new double[resamples];
+		double[] drawdowns = new double[resamples];
+		double[] sharpes = new double[resamples];
+		double annualize = Math.sqrt(periodsPerYear);
+
+		// Split the generators up front and in order, so they don't depend on threads
+		SplittableRandom root = new SplittableRandom(seed);
+		int chunks = (resamples + CHUNK - 1) / CHUNK;
+		List<SplittableRandom> randoms = new ArrayList<>(chunks);
+		for (int c = 0; c < chunks; c++)
+			randoms.add(root.split());
+
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, chunks));
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int c = 0; c < chunks; c++) {
+				int chunk = c;
+				futures.add(pool.submit(() -> {
+					SplittableRandom random = randoms.get(chunk);
+					double[] path = new double[length];
+					int end = Math.min(resamples, (chunk + 1) * CHUNK);
+					for (int r = chunk * CHUNK; r < end; r++) {
+						sampler.sample(random, path);
+						measure(path, startValue, annualize, finals, drawdowns, sharpes, r);
+					}
+				}));
+			}
+			for (Future<?> f : futures)
+				f.get();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Resampling failed", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while resampling", e);
+		} finally {
+			pool.shutdownNow();
+		}
+
+		Arrays.sort(finals);
+		Arrays.sort(drawdowns);
+		double[] validSharpes = Arrays.stream(sharpes).filter(v -> !Double.isNaN(v)).sorted().toArray();
+		return new Result(new Distribution(finals), new Distribution(drawdowns), new Distribution(validSharpes));
+	}
+
+	/**
+	 * Final value, max drawdown and Sharpe ratio of one path of returns
+	 */
+	private static void measure(double[] path, double startValue, double annualize, double[] finals,
+			double[] drawdowns, double[] sharpes, int r) {
+		double value = startValue, peak = startValue, maxDrawdown = 0, sum = 0, sumSq = 0;
+		// Value below which the drawdown from the peak is a new maximum
+		double floor = startValue;
+		for (double ret : path) {
+			value *= 1.0 + ret;
+			if (value > peak) {
+				peak = value;
+				floor = peak * (1.0 - maxDrawdown);
+			} else if (value < floor) {
+				maxDrawdown = 1.0 - value / peak;
+				floor = value;
+			}
+			sum += ret;
+			sumSq += ret * ret;
+		}
+		int n = path.length;
+		double mean = sum / n;
+		double std = n > 1 ? Math.sqrt(Math.max(0.0, (sumSq - n * mean * mean) / (n - 1))) : 0.0;
+		finals[r] = value;
+		drawdowns[r] = maxDrawdown;
+		sharpes[r] = std > 0 ? mean / std * annualize : Double.NaN;
+	}
+}
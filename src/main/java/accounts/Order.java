@@ -1,8 +1,10 @@
 package accounts;
 
+import java.io.Serializable;
+
 import resources.enums.OrderType;
 
-public class Order {
+public class Order implements Serializable {
 	private final String ticker;
 	private final OrderType type;
 	private final int quantity;
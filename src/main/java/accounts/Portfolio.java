@@ -1,7 +1,9 @@
 package accounts;
 
+import java.io.Serializable;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -9,29 +11,39 @@ import java.util.Map;
 import java.util.Objects;
 
 import engine.Bar;
+import engine.SymbolIndex;
 import io.Logger;
 import resources.enums.OrderType;
 
 /**
  * A portfolio represents an actors assets as well as cash reserves
  */
-public class Portfolio implements BarListener {
+public class Portfolio implements BarListener, Serializable {
 
 	/* ================================= Fields ================================= */
 	private final double startingCash;
 	private double cashReserve;
-	private final Map<String, Integer> positions = new HashMap<>();
-	private final Map<String, Double> closePrices = new HashMap<>();
+	private Map<String, Integer> positions = new HashMap<>();
+	private Map<String, Double> closePrices = new HashMap<>();
 	private final List<Order> pendingOrders = new ArrayList<>();
 
+	/*
+	 * After a fork the maps above are shared with the other portfolio, and are
+	 * copied before they are changed
+	 */
+	private boolean positionsShared = false;
+	private boolean closePricesShared = false;
+
 	/**
 	 * History is now kept in a dumb list. In the future I plan to extend this
 	 * functionalty so each portfolio has its own tracker that keeps track of
 	 * position sizes at different dates and can calculate things like vol, sharpe
 	 * etc
 	 */
-	private final List<Double> history = new ArrayList<>();
-	private final PortfolioHistory historyTracker = new PortfolioHistory();
+	private final CowList<Double> history;
+	private final PortfolioHistory historyTracker;
+	private final CowList<Fill> fills;
+	private LocalDateTime currentTimestamp = null;
 	private final Logger logger;
 
 	/* =============================== Constructor ============================== */
@@ -40,6 +52,50 @@ public class Portfolio implements BarListener {
 		this.startingCash = startingCash;
 		this.cashReserve = startingCash;
 		this.logger = Objects.requireNonNull(logger);
+		this.history = new CowList<>();
+		this.historyTracker = new PortfolioHistory();
+		this.fills = new CowList<>();
+	}
+
+	/**
+	 * Copy constructor used by fork(). Shares the history and the maps of the
+	 * source until either of the portfolios changes them.
+	 */
+	private Portfolio(Portfolio source, Logger logger) {
+		this.startingCash = source.startingCash;
+		this.cashReserve = source.cashReserve;
+		this.logger = Objects.requireNonNull(logger);
+		this.positions = source.positions;
+		this.closePrices = source.closePrices;
+		this.positionsShared = true;
+		this.closePricesShared = true;
+		source.positionsShared = true;
+		source.closePricesShared = true;
+		this.pendingOrders.addAll(source.pendingOrders);
+		this.history = source.history.fork();
+		this.historyTracker = source.historyTracker.fork();
+		this.fills = source.fills.fork();
+		this.currentTimestamp = source.currentTimestamp;
+	}
+
+	/**
+	 * Returns a copy-on-write copy of this portfolio, with the same cash,
+	 * positions, pending orders and history. The two portfolios can keep trading
+	 * independently, and only what changes after the fork takes up extra memory.
+	 * Not safe to call while this portfolio is receiving bars on another thread.
+	 *
+	 * @param logger logger of the new portfolio
+	 */
+	public Portfolio fork(Logger logger) {
+		return new Portfolio(this, logger);
+	}
+
+	private Map<String, Integer> ownPositions() {
+		if (positionsShared) {
+			positions = new HashMap<>(positions);
+			positionsShared = false;
+		}
+		return positions;
 	}
 
        private void executeOrders() {
@@ -70,7 +126,7 @@ public class Portfolio implements BarListener {
                                        logger.error("Dont have enough cash to place order: " + o);
                                        return false;
                                }
-                               positions.put(o.getTicker(), positions.getOrDefault(o.getTicker(), 0) + o.getQuantity());
+                               ownPositions().put(o.getTicker(), positions.getOrDefault(o.getTicker(), 0) + o.getQuantity());
                                cashReserve -= o.getQuantity() * closePrices.get(o.getTicker());
                                }
 
@@ -79,11 +135,13 @@ public class Portfolio implements BarListener {
                                        logger.error("Dont have enough holdings in this stock to sell: " + o);
                                        return false;
                                }
-                               positions.put(o.getTicker(), positions.getOrDefault(o.getTicker(), 0) - o.getQuantity());
+                               ownPositions().put(o.getTicker(), positions.getOrDefault(o.getTicker(), 0) - o.getQuantity());
                                cashReserve += o.getQuantity() * closePrices.get(o.getTicker());
                                }
                        default -> throw new AssertionError();
                }
+               fills.add(new Fill(currentTimestamp, o.getTicker(), o.getOrderType(), o.getQuantity(),
+                               closePrices.get(o.getTicker())));
                return true;
        }
 
@@ -97,7 +155,10 @@ public class Portfolio implements BarListener {
 			throw new IllegalArgumentException("Can't send empty barMap to portfolio");
 
 		LocalDateTime timestamp = barMap.values().stream().findFirst().get().timestamp();
-		Map<String, Integer> positionsSnapshot = Collections.unmodifiableMap(new HashMap<>(positions));
+		currentTimestamp = timestamp;
+		// The snapshot shares the positions map, which is copied on the next trade
+		Map<String, Integer> positionsSnapshot = Collections.unmodifiableMap(positions);
+		positionsShared = true;
 		double totalValue = getTotalValue();
 		historyTracker.record(timestamp, positionsSnapshot, totalValue);
 
@@ -105,7 +166,12 @@ public class Portfolio implements BarListener {
 		history.add(totalValue);
 
 		executeOrders();
-		closePrices.clear();
+		if (closePricesShared) {
+			closePrices = new HashMap<>();
+			closePricesShared = false;
+		} else {
+			closePrices.clear();
+		}
 		for (String t : barMap.keySet()) {
 			Bar bar = barMap.get(t);
 			if (bar != null) {
@@ -119,6 +185,31 @@ public class Portfolio implements BarListener {
 		pendingOrders.add(order);
 	}
 
+	/**
+	 * Places several orders at once. They are executed in the given order
+	 */
+	public void placeOrders(Collection<Order> orders) {
+		pendingOrders.addAll(orders);
+	}
+
+	/**
+	 * Moves the portfolio towards the target weights, as a part of the total
+	 * value, at the latest close prices. Orders still pending for symbols of the
+	 * index are replaced, pending orders for other tickers are kept. The sells are
+	 * placed before the buys so they pay for them. Symbols without a
+	 * price this bar, symbols with a NaN weight and positions in tickers outside
+	 * the index are left as they are.
+	 *
+	 * @param symbols    index of the universe
+	 * @param weights    target weight of each symbol id, 0 to sell all of it
+	 * @param rebalancer lot size, drift threshold and cash buffer to use
+	 * @return number of orders placed
+	 */
+	public int rebalance(SymbolIndex symbols, double[] weights, Rebalancer rebalancer) {
+		pendingOrders.removeIf(o -> symbols.find(o.getTicker()) >= 0);
+		return rebalancer.rebalance(this, symbols, weights);
+	}
+
 	public double getCashReserve() {
 		return cashReserve;
 	}
@@ -171,4 +262,11 @@ public class Portfolio implements BarListener {
 	public List<Double> getHistory() {
 		return history;
 	}
+
+	/**
+	 * Returns all executed orders, oldest first
+	 */
+	public List<Fill> getFills() {
+		return Collections.unmodifiableList(fills);
+	}
 }
@@ -1,20 +1,18 @@
 package accounts;
 
-import java.awt.Color;
-import java.awt.Font;
 import java.time.LocalDateTime;
-import java.time.ZoneId;
-import java.util.ArrayList;
+import java.time.ZoneOffset;
 import java.util.Collections;
-import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.io.IOException;
+import java.io.Serializable;
 import java.io.PrintWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.format.DateTimeFormatter;
-import java.util.stream.Collectors;
 
 import javax.swing.SwingUtilities;
 import java.awt.GraphicsEnvironment;
@@ -22,15 +20,29 @@ import java.awt.HeadlessException;
 
 import org.knowm.xchart.SwingWrapper;
 import org.knowm.xchart.XYChart;
-import org.knowm.xchart.XYChartBuilder;
-import org.knowm.xchart.XYSeries;
-import org.knowm.xchart.style.XYStyler;
 
 /**
  * Tracks portfolio snapshots over time, including positions and total value.
  */
-public class PortfolioHistory {
-	private final List<Snapshot> snapshots = new ArrayList<>();
+public class PortfolioHistory implements Serializable {
+	private static final int TRADING_DAYS = 252;
+	private final CowList<Snapshot> snapshots;
+
+	public PortfolioHistory() {
+		this.snapshots = new CowList<>();
+	}
+
+	private PortfolioHistory(CowList<Snapshot> snapshots) {
+		this.snapshots = snapshots;
+	}
+
+	/**
+	 * Returns a history with the same snapshots, sharing them with this one. Both
+	 * can record new snapshots independently afterwards.
+	 */
+	public PortfolioHistory fork() {
+		return new PortfolioHistory(snapshots.fork());
+	}
 
 	/**
 	 * Record a snapshot of positions and total portfolio value at a given time.
@@ -66,7 +78,84 @@ public class PortfolioHistory {
                 }
         }
 
-	public static class Snapshot {
+        /**
+         * Append the snapshots from index fromIndex onwards to a csv file written
+         * by saveToCsv. Writes the whole file if it does not exist yet.
+         *
+         * @param path      csv file to append to
+         * @param fromIndex index of the first snapshot not yet in the file
+         * @throws IOException if writing fails
+         */
+        public void appendToCsv(Path path, int fromIndex) throws IOException {
+                if (!Files.exists(path)) {
+                        saveToCsv(path);
+                        return;
+                }
+                DateTimeFormatter fmt = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+                try (PrintWriter pw = new PrintWriter(Files.newBufferedWriter(path,
+                                StandardOpenOption.APPEND))) {
+                        for (Snapshot s : snapshots.subList(fromIndex, snapshots.size())) {
+                                String ts = s.getTimestamp().format(fmt);
+                                pw.println(ts + "," + s.getTotalValue());
+                        }
+                }
+        }
+
+	/**
+	 * Returns the total value of every snapshot
+	 */
+	public double[] values() {
+		double[] values = new double[snapshots.size()];
+		for (int i = 0; i < values.length; i++)
+			values[i] = snapshots.get(i).getTotalValue();
+		return values;
+	}
+
+	/**
+	 * Returns the timestamp of every snapshot as epoch seconds in UTC
+	 */
+	public double[] epochSeconds() {
+		double[] seconds = new double[snapshots.size()];
+		for (int i = 0; i < seconds.length; i++)
+			seconds[i] = snapshots.get(i).getTimestamp().toEpochSecond(ZoneOffset.UTC);
+		return seconds;
+	}
+
+	/**
+	 * Summary metrics of the value history, assuming daily bars: total_return,
+	 * volatility and sharpe (annualized, zero risk free rate), and max_drawdown as
+	 * a positive fraction of the peak value
+	 */
+	public Map<String, Double> metrics() {
+		return metrics(values());
+	}
+
+	/**
+	 * The metrics of metrics() for any value series
+	 */
+	public static Map<String, Double> metrics(double[] values) {
+		Map<String, Double> metrics = new LinkedHashMap<>();
+		if (values.length < 2)
+			return metrics;
+		double sum = 0, sumSq = 0, peak = values[0], maxDrawdown = 0;
+		for (int i = 1; i < values.length; i++) {
+			double r = values[i] / values[i - 1] - 1.0;
+			sum += r;
+			sumSq += r * r;
+			peak = Math.max(peak, values[i]);
+			maxDrawdown = Math.max(maxDrawdown, 1.0 - values[i] / peak);
+		}
+		int n = values.length - 1;
+		double mean = sum / n;
+		double std = n > 1 ? Math.sqrt(Math.max(0.0, (sumSq - n * mean * mean) / (n - 1))) : 0.0;
+		metrics.put("total_return", values[values.length - 1] / values[0] - 1.0);
+		metrics.put("volatility", std * Math.sqrt(TRADING_DAYS));
+		metrics.put("sharpe", std > 0 ? mean / std * Math.sqrt(TRADING_DAYS) : Double.NaN);
+		metrics.put("max_drawdown", maxDrawdown);
+		return metrics;
+	}
+
+	public static class Snapshot implements Serializable {
 		private final LocalDateTime timestamp;
 		private final Map<String, Integer> positions;
 		private final double totalValue;
@@ -92,56 +181,13 @@ public class PortfolioHistory {
 
 	/* ============================= XChart Plotting ============================ */
 	public void plotReturnsChart(String title) {
-		List<Date> dates = snapshots.stream()
-				.map(PortfolioHistory.Snapshot::getTimestamp)
-				.map(ts -> Date.from(ts.atZone(ZoneId.systemDefault()).toInstant()))
-				.collect(Collectors.toList());
-
-		List<Double> values = snapshots.stream()
-				.map(PortfolioHistory.Snapshot::getTotalValue)
-				.collect(Collectors.toList());
-
-		// Create Chart
-		XYChart chart = new XYChartBuilder()
-				.width(900)
-				.height(600)
-				.title(title)
-				.xAxisTitle("Date")
-				.yAxisTitle("Total Value")
-				.build();
-
-		// Style Chart
-		XYStyler styler = chart.getStyler();
-		styler.setLegendVisible(false);
-		styler.setDatePattern("yyyy-MM-dd");
-		styler.setMarkerSize(4);
-		styler.setChartTitleFont(new Font(Font.SANS_SERIF, Font.BOLD, 18));
-		styler.setAxisTitleFont(new Font(Font.SANS_SERIF, Font.BOLD, 14));
-		styler.setAxisTickLabelsFont(new Font(Font.SANS_SERIF, Font.PLAIN, 12));
-		styler.setPlotBackgroundColor(Color.WHITE);
-		styler.setPlotGridLinesVisible(true);
-		styler.setDefaultSeriesRenderStyle(XYSeries.XYSeriesRenderStyle.Line);
-
-		// Add data series
-		chart.addSeries("Total Value", dates, values);
-
-                // Display chart unless running headless
-                if (!GraphicsEnvironment.isHeadless()) {
-                        try {
-                                if (SwingUtilities.isEventDispatchThread()) {
-                                        new Thread(() -> new SwingWrapper<>(chart).displayChart()).start();
-                                } else {
-                                        new SwingWrapper<>(chart).displayChart();
-                                }
-                        } catch (HeadlessException ignore) {
-                                // ignore when no display is available
-                        }
-                }
+		display(new ChartRenderer().combinedChart(List.of(this), List.of("Total Value"), title));
 	}
 
 	/**
 	 * Plots the tracked portfolio returns of multiple strategies using XChart on
-	 * the same chart.
+	 * the same chart. Without a display, use ChartRenderer to write it to a file
+	 * instead.
 	 * 
 	 * @param histories List of PortfolioHistory objects
 	 * @param labels    List of labels for each portfolio
@@ -155,47 +201,23 @@ public class PortfolioHistory {
 			System.out.println("Histories and labels must be same size and non-empty.");
 			return;
 		}
-		XYChart chart = new XYChartBuilder()
-				.width(1000)
-				.height(600)
-				.title(title)
-				.xAxisTitle("Date")
-				.yAxisTitle("Total Value")
-				.build();
-		XYStyler styler = chart.getStyler();
-		styler.setLegendVisible(true);
-		styler.setLegendPosition(org.knowm.xchart.style.Styler.LegendPosition.OutsideE);
-		styler.setDatePattern("yyyy-MM-dd");
-		styler.setMarkerSize(4);
-		styler.setChartTitleFont(new Font(Font.SANS_SERIF, Font.BOLD, 18));
-		styler.setAxisTitleFont(new Font(Font.SANS_SERIF, Font.BOLD, 14));
-		styler.setAxisTickLabelsFont(new Font(Font.SANS_SERIF, Font.PLAIN, 12));
-		styler.setPlotBackgroundColor(Color.WHITE);
-		styler.setPlotGridLinesVisible(true);
-		styler.setDefaultSeriesRenderStyle(XYSeries.XYSeriesRenderStyle.Line);
-		for (int i = 0; i < histories.size(); i++) {
-			PortfolioHistory h = histories.get(i);
-			String label = labels.get(i);
-			List<Snapshot> snaps = h.getSnapshots();
-			if (snaps.isEmpty())
-				continue;
-			List<Date> dates = snaps.stream()
-					.map(Snapshot::getTimestamp)
-					.map(ts -> Date.from(ts.atZone(ZoneId.systemDefault()).toInstant()))
-					.collect(Collectors.toList());
-			List<Double> values = snaps.stream().map(Snapshot::getTotalValue).collect(Collectors.toList());
-			chart.addSeries(label, dates, values);
+		display(new ChartRenderer().combinedChart(histories, labels, title));
+	}
+
+	/**
+	 * Shows the chart in a window unless running headless
+	 */
+	private static void display(XYChart chart) {
+		if (!GraphicsEnvironment.isHeadless()) {
+			try {
+				if (SwingUtilities.isEventDispatchThread()) {
+					new Thread(() -> new SwingWrapper<>(chart).displayChart()).start();
+				} else {
+					new SwingWrapper<>(chart).displayChart();
+				}
+			} catch (HeadlessException ignore) {
+				// ignore when no display is available
+			}
 		}
-                if (!GraphicsEnvironment.isHeadless()) {
-                        try {
-                                if (SwingUtilities.isEventDispatchThread()) {
-                                        new Thread(() -> new SwingWrapper<>(chart).displayChart()).start();
-                                } else {
-                                        new SwingWrapper<>(chart).displayChart();
-                                }
-                        } catch (HeadlessException ignore) {
-                                // ignore when no display is available
-                        }
-                }
-        }
+	}
 }
@@ -0,0 +1,241 @@
+package accounts;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Compact summary of a stream of values that answers quantile and tail mean
+ * queries approximately, in the style of a KLL sketch. Values are kept in
+ * levels where an item on level h stands for 2^h values. When a level is full
+ * it is sorted and every other item moves up a level, so memory grows only with
+ * the logarithm of the number of values. The rank error is about 1.7 / k.
+ * <p>
+ * Sketches can be merged, for example from parallel workers, and the result is
+ * a sketch of all their values. The items that move up alternate between the
+ * odd and even positions instead of being picked at random, so results are
+ * repeatable.
+ */
+public final class QuantileSketch implements Serializable {
+	public static final int DEFAULT_K = 200;
+
+	private final int k;
+	private double[][] levels = new double[1][];
+	private int[] sizes = new int[1];
+	private boolean[] odd = new boolean[1];
+	private long count = 0;
+
+	public QuantileSketch() {
+		this(DEFAULT_K);
+	}
+
+	/**
+	 * @param k size of the top level, larger is more accurate
+	 */
+	public QuantileSketch(int k) {
+		if (k < 8)
+			throw new IllegalArgumentException("k must be at least 8");
+		this.k = k;
+		levels[0] = new double[k];
+	}
+
+	public QuantileSketch copy() {
+		QuantileSketch copy = new QuantileSketch(k);
+		copy.levels = new double[levels.length][];
+		for (int h = 0; h < levels.length; h++)
+			copy.levels[h] = levels[h].clone();
+		copy.sizes = sizes.clone();
+		copy.odd = odd.clone();
+		copy.count = count;
+		return copy;
+	}
+
+	public void update(double value) {
+		if (Double.isNaN(value))
+			return;
+		if (sizes[0] == levels[0].length)
+			levels[0] = Arrays.copyOf(levels[0], levels[0].length * 2);
+		levels[0][sizes[0]++] = value;
+		count++;
+		if (sizes[0] >= capacity(0))
+			compress();
+	}
+
+	/**
+	 * Adds all values of another sketch with the same k to this one
+	 */
+	public void merge(QuantileSketch other) {
+		if (other.k != k)
+			throw new IllegalArgumentException("Can't merge sketches with k " + k + " and " + other.k);
+		while (levels.length < other.levels.length)
+			grow();
+		for (int h = 0; h < other.levels.length; h++) {
+			int need = sizes[h] + other.sizes[h];
+			if (levels[h].length < need)
+				levels[h] = Arrays.copyOf(levels[h], Math.max(need, levels[h].length * 2));
+			System.arraycopy(other.levels[h], 0, levels[h], sizes[h], other.sizes[h]);
+			sizes[h] = need;
+		}
+		count += other.count;
+		compress();
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public boolean isEmpty() {
+		return count == 0;
+	}
+
+	/**
+	 * Number of items held, which bounds the memory use
+	 */
+	public int getRetained() {
+		int n = 0;
+		for (int s : sizes)
+			n += s;
+		return n;
+	}
+
+	/* ================================= Levels ================================= */
+
+	/**
+	 * Capacity of a level. The top level holds k items and each level below it
+	 * two thirds of the one above
+	 */
+	private int capacity(int level) {
+		int depth = levels.length - 1 - level;
+		return Math.max(2, (int) Math.ceil(k * Math.pow(2.0 / 3.0, depth)));
+	}
+
+	private void grow() {
+		int n = levels.length;
+		levels = Arrays.copyOf(levels, n + 1);
+		levels[n] = new double[Math.max(2, k)];
+		sizes = Arrays.copyOf(sizes, n + 1);
+		odd = Arrays.copyOf(odd, n + 1);
+	}
+
+	/**
+	 * Compacts every level that is over its capacity, from the bottom up
+	 */
+	private void compress() {
+		for (int h = 0; h < levels.length; h++) {
+			if (sizes[h] < capacity(h))
+				continue;
+			if (h + 1 == levels.length)
+				grow();
+			double[] level = levels[h];
+			int size = sizes[h];
+			Arrays.sort(level, 0, size);
+			// An odd item out stays on this level, so the total weight is kept exactly
+			int pairs = size / 2;
+			int offset = odd[h] ? 1 : 0;
+			odd[h] = !odd[h];
+			int up = sizes[h + 1];
+			if (levels[h + 1].length < up + pairs)
+				levels[h + 1] = Arrays.copyOf(levels[h + 1], Math.max(up + pairs, levels[h + 1].length * 2));
+			for (int i = 0; i < pairs; i++)
+				levels[h + 1][up + i] = level[2 * i + offset];
+			sizes[h + 1] = up + pairs;
+			if (size % 2 == 1) {
+				level[0] = level[size - 1];
+				sizes[h] = 1;
+			} else {
+				sizes[h] = 0;
+			}
+		}
+	}
+
+	/* ================================= Queries ================================ */
+
+	/**
+	 * The items sorted by value, with their weights
+	 */
+	public View view() {
+		double[] values = new double[0];
+		double[] weights = new double[0];
+		int n = 0;
+		for (int h = 0; h < levels.length; h++) {
+			int size = sizes[h];
+			if (size == 0)
+				continue;
+			double[] level = Arrays.copyOf(levels[h], size);
+			Arrays.sort(level);
+			double weight = Math.scalb(1.0, h);
+			// Merge the sorted level into the items so far
+			double[] mergedValues = new double[n + size];
+			double[] mergedWeights = new double[n + size];
+			int i = 0, j = 0, m = 0;
+			while (i < n || j < size) {
+				if (j >= size || i < n && values[i] <= level[j]) {
+					mergedValues[m] = values[i];
+					mergedWeights[m++] = weights[i++];
+				} else {
+					mergedValues[m] = level[j++];
+					mergedWeights[m++] = weight;
+				}
+			}
+			values = mergedValues;
+			weights = mergedWeights;
+			n += size;
+		}
+		return new View(values, weights, n);
+	}
+
+	/**
+	 * Approximate value at the given fraction of the values
+	 */
+	public double quantile(double q) {
+		return View.tail(view(), View.EMPTY, q)[0];
+	}
+
+	/**
+	 * Approximate mean of the lowest fraction q of the values
+	 */
+	public double tailMean(double q) {
+		return View.tail(view(), View.EMPTY, q)[1];
+	}
+
+	/**
+	 * Items of a sketch sorted by value, for answering many queries, or queries
+	 * over several sketches without merging them
+	 */
+	public record View(double[] values, double[] weights, int size) implements Serializable {
+		static final View EMPTY = new View(new double[0], new double[0], 0);
+
+		public double totalWeight() {
+			double total = 0;
+			for (int i = 0; i < size; i++)
+				total += weights[i];
+			return total;
+		}
+
+		/**
+		 * Value at fraction q of the union of two views, and the mean of the values
+		 * below it. NaN for both if the views are empty
+		 */
+		public static double[] tail(View a, View b, double q) {
+			double total = a.totalWeight() + b.totalWeight();
+			if (total == 0)
+				return new double[] { Double.NaN, Double.NaN };
+			double target = Math.max(Math.min(q, 1.0), 0.0) * total;
+			double taken = 0, sum = 0;
+			int i = 0, j = 0;
+			double value = Double.NaN;
+			while (i < a.size || j < b.size) {
+				boolean fromA = j >= b.size || i < a.size && a.values[i] <= b.values[j];
+				value = fromA ? a.values[i] : b.values[j];
+				double weight = fromA ? a.weights[i++] : b.weights[j++];
+				double take = Math.min(weight, target - taken);
+				taken += weight;
+				if (take > 0)
+					sum += take * value;
+				if (taken >= target)
+					break;
+			}
+			// A quantile of zero has no tail, its mean is the lowest value
+			return new double[] { value, target > 0 ? sum / target : value };
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package accounts;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import engine.SymbolIndex;
+import resources.enums.OrderType;
+
+/**
+ * Turns a vector of target weights into the orders that move a portfolio
+ * towards it, see Portfolio.rebalance().
+ * Quantities are computed in primitive arrays indexed by symbol id, which are
+ * reused between calls, so only the orders that are actually placed are
+ * allocated.
+ */
+public class Rebalancer implements Serializable {
+	private final int lotSize;
+	private final double driftThreshold;
+	private final double cashBuffer;
+
+	private int[] deltas = new int[0];
+	private final List<Order> batch = new ArrayList<>();
+
+	/**
+	 * Rebalancer trading single shares, on every difference from the target
+	 */
+	public Rebalancer() {
+		this(1, 0.0, 0.0);
+	}
+
+	/**
+	 * @param lotSize        quantities are bought in multiples of this
+	 * @param driftThreshold a held symbol is only traded when its weight is
+	 *                       further than this from the target, 0.02 for 2
+	 *                       percent. Entries and exits are always traded
+	 * @param cashBuffer     part of the total value that is kept as cash
+	 */
+	public Rebalancer(int lotSize, double driftThreshold, double cashBuffer) {
+		if (lotSize < 1)
+			throw new IllegalArgumentException("Lot size must be at least 1");
+		if (driftThreshold < 0.0 || cashBuffer < 0.0 || cashBuffer >= 1.0)
+			throw new IllegalArgumentException("Invalid drift threshold or cash buffer");
+		this.lotSize = lotSize;
+		this.driftThreshold = driftThreshold;
+		this.cashBuffer = cashBuffer;
+	}
+
+	/**
+	 * Computes the orders and places them on the portfolio as one batch, sells
+	 * first. Returns the number of orders placed, none if the portfolio has no
+	 * value left to spread over the weights.
+	 */
+	int rebalance(Portfolio portfolio, SymbolIndex symbols, double[] weights) {
+		int n = symbols.size();
+		if (weights.length < n)
+			throw new IllegalArgumentException("Need a weight for each of the " + n + " symbols");
+		if (deltas.length < n)
+			deltas = new int[Math.max(n, deltas.length * 2)];
+		Map<String, Integer> positions = portfolio.getPositions();
+		Map<String, Double> closePrices = portfolio.getClosePrices();
+		double total = portfolio.getTotalValue();
+		if (!(total > 0.0))
+			return 0;
+
+		// Wanted change in quantity of each symbol, and the cash the sells free up
+		double cash = portfolio.getCashReserve() - cashBuffer * total;
+		double buyCost = 0.0;
+		for (int id = 0; id < n; id++) {
+			deltas[id] = 0;
+			double w = weights[id];
+			Double price = closePrices.get(symbols.symbol(id));
+			if (Double.isNaN(w) || price == null || price <= 0.0)
+				continue;
+			if (w < 0.0)
+				throw new IllegalArgumentException("Short weights are not supported: " + symbols.symbol(id));
+			int current = positions.getOrDefault(symbols.symbol(id), 0);
+			boolean exit = w == 0.0 && current > 0;
+			boolean entry = w > 0.0 && current == 0;
+			if (!exit && !entry && Math.abs(current * price / total - w) <= driftThreshold)
+				continue;
+			int target = (int) Math.floor(w * total / price / lotSize) * lotSize;
+			int delta = target - current;
+			deltas[id] = delta;
+			if (delta < 0)
+				cash -= delta * price;
+			else
+				buyCost += delta * price;
+		}
+
+		// Scale the buys down if the cash doesn't cover them
+		double scale = buyCost > cash ? Math.max(0.0, cash) / buyCost : 1.0;
+
+		batch.clear();
+		for (int id = 0; id < n; id++) {
+			if (deltas[id] < 0)
+				batch.add(new Order(symbols.symbol(id), OrderType.SELL, -deltas[id]));
+		}
+		for (int id = 0; id < n; id++) {
+			if (deltas[id] <= 0)
+				continue;
+			int quantity = deltas[id];
+			if (scale < 1.0)
+				quantity = (int) Math.floor(quantity * scale / lotSize) * lotSize;
+			if (quantity > 0)
+				batch.add(new Order(symbols.symbol(id), OrderType.BUY, quantity));
+		}
+		portfolio.placeOrders(batch);
+		int placed = batch.size();
+		batch.clear();
+		return placed;
+	}
+}
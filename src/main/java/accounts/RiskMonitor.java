@@ -0,0 +1,227 @@
+package accounts;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import engine.Bar;
+
+/**
+ * Rolling historical value at risk and expected shortfall of every portfolio of
+ * a run, and of the book: the sum of their values. Returns are kept in
+ * quantile sketches instead of full series, so memory stays bounded however
+ * long the run is.
+ * <p>
+ * It reads the values at the close, see StockExchange.addBarListener() for
+ * when to register it. VaR and ES are losses at the given confidence, as
+ * positive fractions of the value. Only the latest values are kept, unless
+ * keepHistory() is called to record them at every bar as well.
+ */
+public class RiskMonitor implements BarListener, Serializable {
+	private static final int BUCKETS = 8;
+
+	private final List<Portfolio> portfolios;
+	private final int window;
+	private final double confidence;
+	private final RollingSketch[] sketches;
+	private final RollingSketch book;
+	private final double[] lastValues;
+	private double lastBook = 0;
+
+	// Latest values, for every portfolio and the book in the last slot
+	private final double[] var;
+	private final double[] shortfall;
+	// The same at every bar, null unless keepHistory() was called
+	private double[][] varHistory = null;
+	private double[][] shortfallHistory = null;
+	private int bars = 0;
+
+	/**
+	 * @param portfolios portfolios to follow, the list may be changed later as
+	 *                   long as its size stays the same
+	 * @param window     number of bars of returns the risk is measured over. The
+	 *                   window is split into eight buckets and the oldest is
+	 *                   dropped as a whole, so up to an eighth more is included
+	 * @param confidence for example 0.95 or 0.99
+	 */
+	public RiskMonitor(List<Portfolio> portfolios, int window, double confidence) {
+		if (window < 1 || !(confidence > 0 && confidence < 1))
+			throw new IllegalArgumentException("Need a positive window and a confidence between 0 and 1");
+		this.portfolios = portfolios;
+		this.window = window;
+		this.confidence = confidence;
+		int n = portfolios.size();
+		sketches = new RollingSketch[n];
+		for (int i = 0; i < n; i++)
+			sketches[i] = new RollingSketch(window);
+		book = new RollingSketch(window);
+		lastValues = new double[n];
+		var = new double[n + 1];
+		shortfall = new double[n + 1];
+	}
+
+	/**
+	 * Records the values at every bar from now on, for the history getters. The
+	 * history grows with the run, unlike the rest of the monitor
+	 */
+	public RiskMonitor keepHistory() {
+		if (varHistory == null) {
+			varHistory = new double[var.length][Math.max(64, bars)];
+			shortfallHistory = new double[var.length][Math.max(64, bars)];
+			for (int i = 0; i < var.length; i++) {
+				Arrays.fill(varHistory[i], 0, bars, Double.NaN);
+				Arrays.fill(shortfallHistory[i], 0, bars, Double.NaN);
+			}
+		}
+		return this;
+	}
+
+	@Override
+	public void acceptBars(Map<String, Bar> barMap) {
+		int n = sketches.length;
+		if (varHistory != null && bars == varHistory[0].length) {
+			for (int i = 0; i <= n; i++) {
+				varHistory[i] = Arrays.copyOf(varHistory[i], bars * 2);
+				shortfallHistory[i] = Arrays.copyOf(shortfallHistory[i], bars * 2);
+			}
+		}
+		double total = 0;
+		for (int i = 0; i < n; i++) {
+			double value = portfolios.get(i).getTotalValue();
+			total += value;
+			record(i, sketches[i], lastValues[i], value);
+			lastValues[i] = value;
+		}
+		record(n, book, lastBook, total);
+		lastBook = total;
+		bars++;
+	}
+
+	private void record(int slot, RollingSketch sketch, double last, double value) {
+		if (last > 0)
+			sketch.add(value / last - 1.0);
+		double[] tail = sketch.tail(1.0 - confidence);
+		var[slot] = -tail[0];
+		shortfall[slot] = -tail[1];
+		if (varHistory != null) {
+			varHistory[slot][bars] = var[slot];
+			shortfallHistory[slot][bars] = shortfall[slot];
+		}
+	}
+
+	/* ================================= Access ================================= */
+
+	/**
+	 * Value at risk of a portfolio at the last bar, NaN before the first return
+	 */
+	public double getVaR(int portfolio) {
+		return bars == 0 ? Double.NaN : var[portfolio];
+	}
+
+	public double getExpectedShortfall(int portfolio) {
+		return bars == 0 ? Double.NaN : shortfall[portfolio];
+	}
+
+	public double getBookVaR() {
+		return getVaR(sketches.length);
+	}
+
+	public double getBookExpectedShortfall() {
+		return getExpectedShortfall(sketches.length);
+	}
+
+	/**
+	 * Value at risk of a portfolio at every bar, NaN before keepHistory() was
+	 * called
+	 */
+	public double[] getVaRHistory(int portfolio) {
+		if (varHistory == null)
+			throw new IllegalStateException("Call keepHistory() before the run to record the history");
+		return Arrays.copyOf(varHistory[portfolio], bars);
+	}
+
+	public double[] getExpectedShortfallHistory(int portfolio) {
+		if (shortfallHistory == null)
+			throw new IllegalStateException("Call keepHistory() before the run to record the history");
+		return Arrays.copyOf(shortfallHistory[portfolio], bars);
+	}
+
+	public double[] getBookVaRHistory() {
+		return getVaRHistory(sketches.length);
+	}
+
+	/**
+	 * Sketch of the returns of a portfolio in the current window. Sketches from
+	 * monitors in other threads or processes can be merged into one, for a pooled
+	 * view of all their returns
+	 */
+	public QuantileSketch sketch(int portfolio) {
+		return sketches[portfolio].merged();
+	}
+
+	/**
+	 * Sketch of the book returns in the current window
+	 */
+	public QuantileSketch bookSketch() {
+		return book.merged();
+	}
+
+	public int getWindow() {
+		return window;
+	}
+
+	public double getConfidence() {
+		return confidence;
+	}
+
+	/**
+	 * Sketch of the last window of values. The window is split into buckets of
+	 * whole sketches, and the oldest bucket is dropped when a new one starts. The
+	 * full buckets are merged once when they change, so a query only combines
+	 * that merge with the open bucket
+	 */
+	static final class RollingSketch implements Serializable {
+		private final int perBucket;
+		private final QuantileSketch[] ring = new QuantileSketch[BUCKETS + 1];
+		private int open = 0;
+		private int inOpen = 0;
+		private QuantileSketch.View closed = new QuantileSketch(QuantileSketch.DEFAULT_K).view();
+
+		RollingSketch(int window) {
+			perBucket = Math.max(1, (window + BUCKETS - 1) / BUCKETS);
+			ring[0] = new QuantileSketch();
+		}
+
+		void add(double value) {
+			ring[open].update(value);
+			if (++inOpen < perBucket)
+				return;
+			open = (open + 1) % ring.length;
+			ring[open] = new QuantileSketch();
+			inOpen = 0;
+			closed = closedSketch().view();
+		}
+
+		private QuantileSketch closedSketch() {
+			QuantileSketch merged = new QuantileSketch();
+			for (int i = 0; i < ring.length; i++)
+				if (i != open && ring[i] != null)
+					merged.merge(ring[i]);
+			return merged;
+		}
+
+		QuantileSketch merged() {
+			QuantileSketch merged = closedSketch();
+			merged.merge(ring[open]);
+			return merged;
+		}
+
+		/**
+		 * Value at fraction q and the mean below it
+		 */
+		double[] tail(double q) {
+			return QuantileSketch.View.tail(closed, ring[open].view(), q);
+		}
+	}
+}
@@ -1,9 +1,18 @@
 package app;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
+import accounts.MonteCarlo;
+import engine.StockExchange;
+import engine.TradingCalendar;
 import io.Logger;
+import io.ResultsStore;
 import strategies.BuyAndHoldStrategy;
 import strategies.EMAStrategy;
 
@@ -11,6 +20,19 @@ public class App {
 
 	public static void main(String[] args) {
 		Logger logger = new Logger(System.out);
+		// With --server the datasets are loaded once and jobs are taken over HTTP
+		if (Arrays.asList(args).contains("--server")) {
+			Map<String, String> data = new LinkedHashMap<>();
+			data.put(StockExchange.AAPL_TICKER, StockExchange.AAPL_PATH);
+			data.put(StockExchange.MSFT_TICKER, StockExchange.MSFT_PATH);
+			data.put(StockExchange.SPY_TICKER, StockExchange.SPY_PATH);
+			try {
+				new BacktestServer(logger, data, 8080, Runtime.getRuntime().availableProcessors()).start();
+			} catch (IOException e) {
+				logger.error("Failed to start the backtest server", e);
+			}
+			return;
+		}
 		List<BacktestOrchestrator.StrategyConfig> configs = new ArrayList<>();
 		configs.add(new BacktestOrchestrator.StrategyConfig(
 				"SPY",
@@ -34,8 +56,57 @@ public class App {
 
 		BacktestOrchestrator orchestrator = new BacktestOrchestrator(logger, configs,
 				1000.0);
-		orchestrator.runBacktest();
+		// With --calendar the tickers are aligned on the sessions of all files, and
+		// missing bars are filled with the last close
+		if (Arrays.asList(args).contains("--calendar")) {
+			try {
+				orchestrator.getExchange().useCalendar(TradingCalendar.MissingBars.FORWARD_FILL);
+			} catch (IOException e) {
+				logger.error("Failed to build the trading calendar", e);
+			}
+		}
+		// Every strategy is measured against the SPY buy and hold
+		orchestrator.setBenchmark("SPY");
+		// With --arrow the results are written as Arrow files, with positions and fills
+		if (Arrays.asList(args).contains("--arrow"))
+			orchestrator.setResultsFormat(ResultsWriter.Format.ARROW);
+		// With --store the runs are appended to the results store instead of files
+		ResultsStore store = null;
+		if (Arrays.asList(args).contains("--store")) {
+			try {
+				store = ResultsStore.open(Path.of("results", "store"));
+				orchestrator.setResultsStore(store);
+			} catch (IOException e) {
+				logger.error("Failed to open the results store", e);
+			}
+		}
+		// With --monte-carlo the summary shows bootstrapped ranges of the results
+		if (Arrays.asList(args).contains("--monte-carlo"))
+			orchestrator.setMonteCarlo(new MonteCarlo(42, Runtime.getRuntime().availableProcessors()), 10_000);
+		// With --risk the rolling 95% VaR and expected shortfall are tracked
+		if (Arrays.asList(args).contains("--risk"))
+			orchestrator.setRiskMonitor(250, 0.95);
+		// With --indicator-cache the EMAs are stored and read back by later runs
+		if (Arrays.asList(args).contains("--indicator-cache")) {
+			try {
+				orchestrator.setIndicatorCache(Path.of("results", "indicators"));
+			} catch (IOException e) {
+				logger.error("Failed to open the indicator cache", e);
+			}
+		}
+		// With --incremental only rows appended since the last run are processed
+		if (Arrays.asList(args).contains("--incremental"))
+			orchestrator.runIncremental(Path.of("results", ".checkpoint"));
+		else
+			orchestrator.runBacktest();
 		orchestrator.onFinish();
+		if (store != null) {
+			try {
+				store.close();
+			} catch (IOException e) {
+				logger.error("Failed to close the results store", e);
+			}
+		}
 		orchestrator.plotPortfolioReturns();
 	}
 }
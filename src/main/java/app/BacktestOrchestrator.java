@@ -1,43 +1,138 @@
 package app;
 
+import java.awt.GraphicsEnvironment;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.function.BiFunction;
 
+import accounts.BenchmarkTracker;
+import accounts.ChartRenderer;
+import accounts.MonteCarlo;
 import accounts.Portfolio;
 import accounts.PortfolioHistory;
+import accounts.RiskMonitor;
+import engine.BarCache;
+import engine.BarSeries;
 import engine.StockExchange;
 import io.Logger;
+import io.ResultsStore;
+import strategies.IndicatorCache;
 import strategies.Strategy;
 
 public class BacktestOrchestrator {
 	private static final String SEPARATOR = "=================================";
+	// Days drawn at a time by the bootstrap, about a trading month
+	private static final int MONTE_CARLO_BLOCK = 20;
+	// Bars in the rolling benchmark figures, about a trading year
+	private static final int BENCHMARK_WINDOW = 252;
 
 	private final List<Portfolio> portfolios = new ArrayList<>();
 	private final List<Strategy> strategies = new ArrayList<>();
 	private final List<String> labels = new ArrayList<>();
 	private final Logger logger;
 	private final StockExchange exchange;
+	private final double startingCash;
+
+	/*
+	 * Number of snapshots per portfolio that are already in the results files when
+	 * a run is resumed from a checkpoint. Null for a full run.
+	 */
+	private List<Integer> writtenSnapshots = null;
+	private ResultsWriter.Format resultsFormat = ResultsWriter.Format.CSV;
+	private final List<Map<String, Double>> params = new ArrayList<>();
+	private ResultsStore resultsStore = null;
+	private MonteCarlo monteCarlo = null;
+	private RiskMonitor riskMonitor = null;
+	// Benchmark of each portfolio, null for none
+	private final List<String> benchmarks = new ArrayList<>();
+	private BenchmarkTracker benchmarkTracker = null;
+	private IndicatorCache indicatorCache = null;
+	private Map<String, BarSeries> indicatorData = null;
+	private int monteCarloResamples = 0;
 
 	public static class StrategyConfig {
 		public final String label;
 		public final BiFunction<Portfolio, Logger, Strategy> factory;
+		/**
+		 * Parameters of the strategy, recorded with the results in a ResultsStore.
+		 * A checkpoint is only resumed with the same params, so they should cover
+		 * the arguments the factory passes to the strategy
+		 */
+		public final Map<String, Double> params;
+		/** Ticker or label of another config to measure against, may be null */
+		public final String benchmark;
 
 		public StrategyConfig(String label, BiFunction<Portfolio, Logger, Strategy> factory) {
+			this(label, Map.of(), factory);
+		}
+
+		public StrategyConfig(String label, Map<String, Double> params,
+				BiFunction<Portfolio, Logger, Strategy> factory) {
+			this(label, params, null, factory);
+		}
+
+		private StrategyConfig(String label, Map<String, Double> params, String benchmark,
+				BiFunction<Portfolio, Logger, Strategy> factory) {
 			this.label = label;
+			this.params = Map.copyOf(params);
+			this.benchmark = benchmark;
 			this.factory = factory;
 		}
+
+		/**
+		 * Returns this config measured against a benchmark, see
+		 * BacktestOrchestrator.setBenchmark()
+		 */
+		public StrategyConfig withBenchmark(String benchmark) {
+			return new StrategyConfig(label, params, benchmark, factory);
+		}
 	}
 
 	public BacktestOrchestrator(Logger logger, List<StrategyConfig> strategyConfigs, double startingCash) {
+		this(logger, StockExchange.demoExchange(logger), strategyConfigs, startingCash);
+	}
+
+	public BacktestOrchestrator(Logger logger, StockExchange exchange, List<StrategyConfig> strategyConfigs,
+			double startingCash) {
 		this.logger = logger;
-		this.exchange = StockExchange.demoExchange(logger);
+		this.exchange = exchange;
+		this.startingCash = startingCash;
 		for (StrategyConfig config : strategyConfigs) {
 			Portfolio p = new Portfolio(startingCash, logger);
 			Strategy s = config.factory.apply(p, logger);
 			portfolios.add(p);
 			strategies.add(s);
 			labels.add(config.label);
+			params.add(config.params);
+			benchmarks.add(config.benchmark);
+		}
+		wireDependencies();
+		if (benchmarks.stream().anyMatch(Objects::nonNull))
+			wireBenchmarks();
+	}
+
+	/**
+	 * Creates an orchestrator around portfolios and strategies that already exist,
+	 * used for the branches of a ForkPoint
+	 */
+	BacktestOrchestrator(Logger logger, StockExchange exchange, List<String> labels, List<Portfolio> portfolios,
+			List<Strategy> strategies, double startingCash) {
+		this.logger = logger;
+		this.exchange = exchange;
+		this.startingCash = startingCash;
+		this.labels.addAll(labels);
+		this.portfolios.addAll(portfolios);
+		this.strategies.addAll(strategies);
+		for (int i = 0; i < labels.size(); i++) {
+			this.params.add(Map.of());
+			this.benchmarks.add(null);
 		}
 		wireDependencies();
 	}
@@ -55,6 +150,88 @@ public class BacktestOrchestrator {
 		exchange.run();
 	}
 
+	/**
+	 * Runs the backtest until the bars at or after the given time have been
+	 * processed. The run can be continued with runBacktest(), or forked with
+	 * forkPoint().
+	 */
+	public void runUntil(LocalDateTime timestamp) {
+		exchange.runUntil(timestamp);
+	}
+
+	/**
+	 * Freezes the current state of all portfolios and strategies, so that any
+	 * number of branches can continue from it. This orchestrator can keep running
+	 * afterwards without affecting the branches.
+	 */
+	public ForkPoint forkPoint() {
+		return new ForkPoint(logger, labels, portfolios, strategies, startingCash);
+	}
+
+	/**
+	 * Runs the backtest incrementally. If the checkpoint of the previous run in
+	 * checkpointDir matches the current configs and their params, code and data,
+	 * the end-of-run state is restored and only the rows appended to the data
+	 * files since are processed. Otherwise the full backtest is run. A new
+	 * checkpoint is written afterwards either way.
+	 *
+	 * @param checkpointDir directory holding the checkpoint
+	 */
+	public void runIncremental(Path checkpointDir) {
+		Path file = checkpointDir.resolve(RunCheckpoint.FILE_NAME);
+		RunCheckpoint.State state = RunCheckpoint.load(file, labels, params, startingCash, strategies,
+				riskMonitor, benchmarkTracker, exchange, logger);
+		if (state != null) {
+			try {
+				for (Map.Entry<String, Long> e : state.offsets().entrySet())
+					exchange.seekStock(e.getKey(), e.getValue());
+				restore(state);
+				logger.info("Resumed from checkpoint, processing appended rows only");
+			} catch (IOException e) {
+				logger.error("Failed to resume from checkpoint", e);
+				throw new IllegalStateException("Exchange is left in an inconsistent state", e);
+			}
+		}
+		runBacktest();
+		try {
+			RunCheckpoint.save(file, labels, params, startingCash, portfolios, strategies, riskMonitor,
+					benchmarkTracker, exchange, logger);
+		} catch (Exception e) {
+			logger.error("Failed to write checkpoint, next run will be a full run", e);
+		}
+	}
+
+	private void restore(RunCheckpoint.State state) {
+		for (Portfolio p : portfolios)
+			exchange.removeBarListener(p);
+		for (Strategy s : strategies)
+			exchange.removeBarListener(s);
+		portfolios.clear();
+		portfolios.addAll(state.portfolios());
+		strategies.clear();
+		strategies.addAll(state.strategies());
+		writtenSnapshots = new ArrayList<>();
+		for (Portfolio p : portfolios)
+			writtenSnapshots.add(p.getHistoryTracker().getSnapshots().size());
+		wireDependencies();
+		if (indicatorCache != null) {
+			for (Strategy s : strategies)
+				s.useIndicatorCache(indicatorCache, indicatorData);
+		}
+		// The saved ones go on with their sums, behind the restored portfolios, see
+		// StockExchange.addBarListener()
+		if (riskMonitor != null) {
+			exchange.removeBarListener(riskMonitor);
+			riskMonitor = state.riskMonitor();
+			exchange.addBarListener(riskMonitor);
+		}
+		if (benchmarkTracker != null) {
+			exchange.removeBarListener(benchmarkTracker);
+			benchmarkTracker = state.benchmarkTracker();
+			exchange.addBarListener(benchmarkTracker);
+		}
+	}
+
 	public StockExchange getExchange() {
 		return exchange;
 	}
@@ -63,6 +240,119 @@ public class BacktestOrchestrator {
 		return logger;
 	}
 
+	public List<Portfolio> getPortfolios() {
+		return Collections.unmodifiableList(portfolios);
+	}
+
+	public List<Strategy> getStrategies() {
+		return Collections.unmodifiableList(strategies);
+	}
+
+	public List<String> getLabels() {
+		return Collections.unmodifiableList(labels);
+	}
+
+	/**
+	 * Sets the format onFinish() writes the results in, CSV by default
+	 */
+	public void setResultsFormat(ResultsWriter.Format format) {
+		this.resultsFormat = Objects.requireNonNull(format);
+	}
+
+	/**
+	 * Makes onFinish() append the runs to the store instead of writing a file per
+	 * strategy. The store is shared and not closed by the orchestrator
+	 */
+	public void setResultsStore(ResultsStore store) {
+		this.resultsStore = store;
+	}
+
+	/**
+	 * Tracks the rolling value at risk and expected shortfall of every portfolio
+	 * and of their sum while the backtest runs. onFinish() prints the last values.
+	 * A resumed incremental run swaps in the monitor of the checkpoint, which
+	 * getRiskMonitor() returns afterwards
+	 *
+	 * @param window     number of bars the risk is measured over
+	 * @param confidence for example 0.95
+	 */
+	public RiskMonitor setRiskMonitor(int window, double confidence) {
+		if (riskMonitor != null)
+			exchange.removeBarListener(riskMonitor);
+		riskMonitor = new RiskMonitor(portfolios, window, confidence);
+		exchange.addBarListener(riskMonitor);
+		return riskMonitor;
+	}
+
+	public RiskMonitor getRiskMonitor() {
+		return riskMonitor;
+	}
+
+	/**
+	 * Measures every strategy without a benchmark of its own against this one:
+	 * the label of another strategy of the run, or else a ticker. onFinish()
+	 * prints the beta, alpha, correlation, tracking error and information ratio,
+	 * and writes their rolling values with the results. A resumed incremental
+	 * run goes on with the figures of the runs before it.
+	 */
+	public void setBenchmark(String benchmark) {
+		for (int i = 0; i < benchmarks.size(); i++)
+			if (benchmarks.get(i) == null && !labels.get(i).equals(benchmark))
+				benchmarks.set(i, benchmark);
+		wireBenchmarks();
+	}
+
+	public BenchmarkTracker getBenchmarkTracker() {
+		return benchmarkTracker;
+	}
+
+	private void wireBenchmarks() {
+		if (benchmarkTracker != null)
+			exchange.removeBarListener(benchmarkTracker);
+		benchmarkTracker = new BenchmarkTracker(portfolios, BENCHMARK_WINDOW);
+		for (int i = 0; i < benchmarks.size(); i++) {
+			String benchmark = benchmarks.get(i);
+			if (benchmark == null)
+				continue;
+			int other = labels.indexOf(benchmark);
+			if (other == i)
+				throw new IllegalArgumentException(benchmark + " can't be its own benchmark");
+			if (other >= 0)
+				benchmarkTracker.setBenchmark(i, other);
+			else
+				benchmarkTracker.setBenchmark(i, benchmark);
+		}
+		exchange.addBarListener(benchmarkTracker);
+	}
+
+	/**
+	 * Makes the signals of every strategy read their values from an
+	 * IndicatorCache in dir instead of computing them, see
+	 * Signal.useIndicatorCache(). The data files of the exchange are loaded
+	 * through the shared BarCache, as the exchange runs through them. Strategies
+	 * restored by runIncremental() get the cache too. onFinish() prints the hits
+	 * and misses
+	 */
+	public IndicatorCache setIndicatorCache(Path dir) throws IOException {
+		Map<String, BarSeries> data = new LinkedHashMap<>();
+		for (Map.Entry<String, String> e : exchange.getDataPaths().entrySet())
+			data.put(e.getKey(), BarCache.shared().getAsExchange(e.getValue()));
+		indicatorCache = new IndicatorCache(dir);
+		indicatorData = data;
+		for (Strategy s : strategies)
+			s.useIndicatorCache(indicatorCache, data);
+		return indicatorCache;
+	}
+
+	/**
+	 * Makes onFinish() print the spread of block bootstrap resamples of every
+	 * portfolio's daily returns
+	 */
+	public void setMonteCarlo(MonteCarlo monteCarlo, int resamples) {
+		this.monteCarlo = monteCarlo;
+		this.monteCarloResamples = resamples;
+	}
+
 	/**
 	 * Prints a comprehensive backtest result summary.
 	 */
@@ -72,25 +362,90 @@ public class BacktestOrchestrator {
                 logger.infoNoFlag(SEPARATOR);
 
                 java.io.File resultsDir = new java.io.File("results");
-                resultsDir.mkdirs();
+                if (resultsStore == null)
+                        resultsDir.mkdirs();
+                String dataHash = resultsStore == null ? null : dataHash();
 
                 for (int i = 0; i < portfolios.size(); i++) {
                         logger.infoNoFlag("\n" + SEPARATOR);
                         logger.infoNoFlag(String.format(" STRATEGY: %-40s ", labels.get(i)));
                         logger.infoNoFlag(SEPARATOR);
                         printPortfolioSummary(portfolios.get(i));
+                        if (riskMonitor != null)
+                                printRisk(riskMonitor.getVaR(i), riskMonitor.getExpectedShortfall(i));
+                        boolean benchmarked = benchmarkTracker != null && benchmarkTracker.hasBenchmark(i);
+                        if (benchmarked)
+                                printBenchmark(i);
                         try {
-                                String safe = labels.get(i).replaceAll("[^a-zA-Z0-9_-]", "_");
-                                java.nio.file.Path out = java.nio.file.Paths.get("results", safe + ".csv");
-                                portfolios.get(i).getHistoryTracker().saveToCsv(out);
+                                if (resultsStore != null) {
+                                        PortfolioHistory history = portfolios.get(i).getHistoryTracker();
+                                        Map<String, Double> metrics = new LinkedHashMap<>(history.metrics());
+                                        if (benchmarked) {
+                                                metrics.putAll(benchmarkTracker.getCumulative(i).toMap(""));
+                                                metrics.putAll(benchmarkTracker.getRolling(i).toMap("rolling_"));
+                                        }
+                                        resultsStore.append(labels.get(i), params.get(i), dataHash, metrics,
+                                                        history.values());
+                                } else {
+                                        String safe = labels.get(i).replaceAll("[^a-zA-Z0-9_-]", "_");
+                                        int fromIndex = writtenSnapshots == null ? -1 : writtenSnapshots.get(i);
+                                        ResultsWriter.write(portfolios.get(i), resultsDir.toPath(), safe,
+                                                        resultsFormat, fromIndex);
+                                        if (benchmarked)
+                                                ResultsWriter.writeBenchmark(benchmarkTracker, i, resultsDir.toPath(),
+                                                                safe, resultsFormat);
+                                }
                         } catch (Exception e) {
                                 logger.error("Failed to write history", e);
                         }
                 }
 
+		if (riskMonitor != null && portfolios.size() > 1) {
+			logger.infoNoFlag("\n--- Book Risk ---");
+			printRisk(riskMonitor.getBookVaR(), riskMonitor.getBookExpectedShortfall());
+		}
+		if (indicatorCache != null) {
+			IndicatorCache.Stats stats = indicatorCache.getStats();
+			logger.infoNoFlag(String.format("Indicator cache: %d hits, %d misses, %d invalidated", stats.hits(),
+					stats.misses(), stats.invalidated()));
+		}
 		logger.infoNoFlag("==============================");
 	}
 
+	private void printBenchmark(int portfolio) {
+		int other = benchmarkTracker.getBenchmarkPortfolio(portfolio);
+		String name = other >= 0 ? labels.get(other) : benchmarkTracker.getTicker(portfolio);
+		logger.infoNoFlag("\n--- Against " + name + " (whole run / last " + benchmarkTracker.getWindow()
+				+ " bars) ---");
+		BenchmarkTracker.Relative all = benchmarkTracker.getCumulative(portfolio);
+		BenchmarkTracker.Relative last = benchmarkTracker.getRolling(portfolio);
+		logger.infoNoFlag(String.format("Beta:               %.2f / %.2f", all.beta(), last.beta()));
+		logger.infoNoFlag(String.format("Alpha:              %.2f%% / %.2f%%", all.alpha() * 100, last.alpha() * 100));
+		logger.infoNoFlag(String.format("Correlation:        %.2f / %.2f", all.correlation(), last.correlation()));
+		logger.infoNoFlag(String.format("Tracking Error:     %.2f%% / %.2f%%", all.trackingError() * 100,
+				last.trackingError() * 100));
+		logger.infoNoFlag(String.format("Information Ratio:  %.2f / %.2f", all.informationRatio(),
+				last.informationRatio()));
+	}
+
+	private void printRisk(double var, double shortfall) {
+		int confidence = (int) Math.round(riskMonitor.getConfidence() * 100);
+		logger.infoNoFlag(String.format("VaR %d%% (%d bars):  %.2f%%", confidence, riskMonitor.getWindow(), var * 100));
+		logger.infoNoFlag(String.format("ES %d%%:             %.2f%%", confidence, shortfall * 100));
+	}
+
+	/**
+	 * Hash of the data files of the exchange, empty if it has none
+	 */
+	private String dataHash() {
+		try {
+			return RunCheckpoint.dataHash(exchange.getDataPaths());
+		} catch (IOException e) {
+			logger.error("Failed to hash the data files", e);
+			return "";
+		}
+	}
+
 	private void printPortfolioSummary(Portfolio portfolio) {
 		logger.infoNoFlag(String.format("Starting Cash:      $%.2f", portfolio.getStartingCash()));
 		logger.infoNoFlag(String.format("Final Portfolio Value: $%.2f", portfolio.getTotalValue()));
@@ -115,16 +470,47 @@ public class BacktestOrchestrator {
 			logger.infoNoFlag(String.format("Max Value:          $%.2f", max));
 			logger.infoNoFlag(String.format("Num Steps:          %d", history.size()));
 		}
+		if (monteCarlo != null && history.size() > 2) {
+			logger.infoNoFlag("\n--- Block Bootstrap (" + monteCarloResamples + " resamples) ---");
+			double[] returns = MonteCarlo.dailyReturns(portfolio.getHistoryTracker());
+			logger.infoNoFlag(monteCarlo.blockBootstrap(returns, MONTE_CARLO_BLOCK, start, monteCarloResamples)
+					.summary());
+		}
 	}
 
 	/**
-	 * Plots the tracked portfolio returns using XChart.
+	 * Plots the tracked portfolio returns using XChart. Without a display the
+	 * chart is written to results/portfolio_returns.png instead.
 	 */
 	public void plotPortfolioReturns() {
 		List<PortfolioHistory> histories = new ArrayList<>();
 		for (Portfolio p : portfolios) {
 			histories.add(p.getHistoryTracker());
 		}
-		PortfolioHistory.plotMultipleReturnsChart(histories, labels, "Portfolio Value Over Time: All Strategies");
+		String title = "Portfolio Value Over Time: All Strategies";
+		if (!GraphicsEnvironment.isHeadless()) {
+			PortfolioHistory.plotMultipleReturnsChart(histories, labels, title);
+			return;
+		}
+		Path file = Path.of("results", "portfolio_returns.png");
+		try {
+			new ChartRenderer().renderCombined(histories, labels, title, file);
+			logger.info("No display, wrote chart to " + file);
+		} catch (IOException e) {
+			logger.error("Failed to write chart", e);
+		}
+	}
+
+	/**
+	 * Writes one chart per strategy into dir, rendering them in parallel
+	 *
+	 * @return the written files, in the order of the strategies
+	 */
+	public List<Path> renderCharts(Path dir, ChartRenderer renderer) throws IOException {
+		List<PortfolioHistory> histories = new ArrayList<>();
+		for (Portfolio p : portfolios)
+			histories.add(p.getHistoryTracker());
+		int threads = Math.max(1, Math.min(histories.size(), Runtime.getRuntime().availableProcessors()));
+		return renderer.renderEach(histories, labels, dir, threads);
 	}
 }
@@ -0,0 +1,319 @@
+package app;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import accounts.Portfolio;
+import accounts.PortfolioHistory;
+import engine.BarCache;
+import engine.BarSeries;
+import engine.StockExchange;
+import io.Logger;
+import strategies.Strategy;
+
+/**
+ * Keeps a warm JVM with the datasets loaded once, and runs backtest jobs sent
+ * over HTTP on localhost, several at a time.
+ * <p>
+ * {@code POST /jobs} with form or query parameters:
+ * <ul>
+ * <li>strategy: class name of the strategy, in the strategies package or fully
+ * qualified</li>
+ * <li>args: comma separated constructor arguments after the portfolio and
+ * logger, optional</li>
+ * <li>from, to: first and last date to run, optional</li>
+ * <li>tickers: comma separated tickers to feed, all datasets by default</li>
+ * <li>cash: starting cash, 1000 by default</li>
+ * </ul>
+ * The response is streamed as csv while the job runs: the value of every bar,
+ * then a summary line starting with "# job=". A job that fails after the
+ * values started ends with a line starting with "# error=" instead, so a cut
+ * off body doesn't pass for a finished one. {@code GET /status} lists the
+ * datasets and the number of jobs run.
+ */
+public class BacktestServer {
+	private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+
+	/**
+	 * A parsed job.
+	 *
+	 * @param args constructor arguments after the portfolio and logger
+	 * @param from first day, null to start at the first bar
+	 * @param to   last day, null to run to the last bar
+	 */
+	record Job(String strategy, List<String> args, LocalDate from, LocalDate to, List<String> tickers,
+			double cash) {
+	}
+
+	private final Map<String, BarSeries> datasets = new LinkedHashMap<>();
+	private final HttpServer server;
+	private final ExecutorService pool;
+	private final Logger logger;
+	private final AtomicLong jobs = new AtomicLong();
+
+	/**
+	 * Loads the datasets and binds to the port on the loopback address. Call
+	 * start() to accept jobs.
+	 *
+	 * @param dataPaths csv file of each ticker, read as addStock() would
+	 * @param port      port to listen on, 0 for any free port
+	 * @param threads   number of jobs run at the same time
+	 */
+	public BacktestServer(Logger logger, Map<String, String> dataPaths, int port, int threads) throws IOException {
+		this.logger = logger;
+		for (Map.Entry<String, String> e : dataPaths.entrySet())
+			datasets.put(e.getKey(), BarCache.shared().getAsExchange(e.getValue()));
+		logger.info("Loaded " + datasets.size() + " datasets");
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		pool = Executors.newFixedThreadPool(threads);
+		server.setExecutor(pool);
+		server.createContext("/jobs", this::handleJob);
+		server.createContext("/status", this::handleStatus);
+	}
+
+	public void start() {
+		server.start();
+		logger.info("Backtest server listening on port " + getPort());
+	}
+
+	public void stop() {
+		server.stop(0);
+		pool.shutdownNow();
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/* ================================ Handlers ================================ */
+
+	private void handleStatus(HttpExchange http) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, BarSeries> e : datasets.entrySet()) {
+			BarSeries series = e.getValue();
+			sb.append(e.getKey()).append(',').append(series.size());
+			if (series.size() > 0)
+				sb.append(',').append(series.timestamp(0).toLocalDate()).append(',')
+						.append(series.timestamp(series.size() - 1).toLocalDate());
+			sb.append('\n');
+		}
+		sb.append("# jobs=").append(jobs.get()).append('\n');
+		respond(http, 200, sb.toString());
+	}
+
+	private void handleJob(HttpExchange http) throws IOException {
+		try {
+			if (!"POST".equals(http.getRequestMethod())) {
+				respond(http, 405, "Use POST\n");
+				return;
+			}
+			long id = jobs.incrementAndGet();
+			long start = System.nanoTime();
+			Logger jobLogger = new Logger(OutputStream.nullOutputStream());
+			Portfolio portfolio;
+			Strategy strategy;
+			StockExchange exchange;
+			Job job;
+			try {
+				String query = http.getRequestURI().getRawQuery();
+				String body = new String(http.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+				job = parseJob(join(query, body));
+				portfolio = new Portfolio(job.cash(), jobLogger);
+				strategy = newStrategy(job.strategy(), job.args(), portfolio, jobLogger);
+				exchange = exchange(job, jobLogger);
+			} catch (IllegalArgumentException e) {
+				respond(http, 400, e.getMessage() + "\n");
+				return;
+			}
+			exchange.addPortfolio(portfolio);
+			exchange.addStrategy(strategy);
+
+			http.getResponseHeaders().set("Content-Type", "text/csv; charset=utf-8");
+			http.sendResponseHeaders(200, 0);
+			Writer out = new BufferedWriter(new OutputStreamWriter(http.getResponseBody(), StandardCharsets.UTF_8));
+			out.write("Timestamp,TotalValue\n");
+			PortfolioHistory history = portfolio.getHistoryTracker();
+			int written = 0;
+			try {
+				while (exchange.step()) {
+					List<PortfolioHistory.Snapshot> snapshots = history.getSnapshots();
+					for (; written < snapshots.size(); written++) {
+						PortfolioHistory.Snapshot s = snapshots.get(written);
+						out.write(s.getTimestamp().format(TIMESTAMP) + "," + s.getTotalValue() + "\n");
+					}
+				}
+			} catch (RuntimeException e) {
+				logger.error("Job " + id + " failed", e);
+				out.write("# error=" + String.valueOf(e).replaceAll("\\s+", " ") + " job=" + id + "\n");
+				out.flush();
+				return;
+			}
+			StringBuilder summary = new StringBuilder("# job=" + id);
+			history.metrics().forEach((k, v) -> summary.append(' ').append(k).append('=').append(v));
+			summary.append(" final_value=").append(portfolio.getTotalValue());
+			summary.append(" fills=").append(portfolio.getFills().size());
+			summary.append(" elapsed_ms=").append((System.nanoTime() - start) / 1_000_000);
+			out.write(summary + "\n");
+			out.flush();
+		} catch (IOException e) {
+			logger.error("Job aborted, client went away", e);
+		} catch (RuntimeException e) {
+			logger.error("Job failed", e);
+		} finally {
+			http.close();
+		}
+	}
+
+	private static void respond(HttpExchange http, int status, String text) throws IOException {
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		http.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		http.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = http.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	/* ================================== Jobs ================================== */
+
+	private static String join(String query, String body) {
+		if (query == null || query.isEmpty())
+			return body;
+		return body.isBlank() ? query : query + "&" + body;
+	}
+
+	static Job parseJob(String form) {
+		Map<String, String> params = new LinkedHashMap<>();
+		for (String pair : form.trim().split("&")) {
+			if (pair.isEmpty())
+				continue;
+			int eq = pair.indexOf('=');
+			String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+			String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+			params.put(key, value);
+		}
+		String strategy = params.get("strategy");
+		if (strategy == null || strategy.isBlank())
+			throw new IllegalArgumentException("Missing strategy");
+		LocalDate from = date("from", params.get("from"));
+		LocalDate to = date("to", params.get("to"));
+		if (from != null && to != null && from.isAfter(to))
+			throw new IllegalArgumentException("Invalid job: from " + from + " is after to " + to);
+		try {
+			return new Job(strategy, list(params.get("args")), from, to, list(params.get("tickers")),
+					Double.parseDouble(params.getOrDefault("cash", "1000")));
+		} catch (RuntimeException e) {
+			throw new IllegalArgumentException("Invalid job: " + e.getMessage(), e);
+		}
+	}
+
+	private static List<String> list(String value) {
+		if (value == null || value.isBlank())
+			return List.of();
+		return Arrays.stream(value.split(",")).map(String::trim).toList();
+	}
+
+	private static LocalDate date(String name, String value) {
+		if (value == null || value.isBlank())
+			return null;
+		try {
+			return LocalDate.parse(value.trim());
+		} catch (DateTimeParseException e) {
+			throw new IllegalArgumentException("Invalid job: " + name + " must be a date like 2020-01-31, got "
+					+ value);
+		}
+	}
+
+	private StockExchange exchange(Job job, Logger jobLogger) {
+		StockExchange exchange = new StockExchange(jobLogger);
+		List<String> tickers = job.tickers().isEmpty() ? new ArrayList<>(datasets.keySet()) : job.tickers();
+		LocalDateTime from = job.from() == null ? null : job.from().atStartOfDay();
+		LocalDateTime to = job.to() == null ? null : job.to().plusDays(1).atStartOfDay();
+		for (String ticker : tickers) {
+			BarSeries series = datasets.get(ticker);
+			if (series == null)
+				throw new IllegalArgumentException("No dataset for " + ticker);
+			exchange.addSource(ticker, series.source(from, to));
+		}
+		return exchange;
+	}
+
+	/**
+	 * Creates the strategy through a public constructor taking a portfolio, a
+	 * logger and then one parameter per argument, of type int, long, double,
+	 * boolean or String
+	 */
+	static Strategy newStrategy(String className, List<String> args, Portfolio portfolio, Logger logger) {
+		Class<?> cls;
+		try {
+			// Not initialized, so no code of a class named in a request runs before
+			// it is known to be a strategy
+			cls = Class.forName(className.contains(".") ? className : "strategies." + className, false,
+					BacktestServer.class.getClassLoader());
+		} catch (ClassNotFoundException | LinkageError e) {
+			throw new IllegalArgumentException("Unknown strategy " + className);
+		}
+		if (!Strategy.class.isAssignableFrom(cls) || Modifier.isAbstract(cls.getModifiers()))
+			throw new IllegalArgumentException(className + " is not a strategy");
+		for (Constructor<?> c : cls.getConstructors()) {
+			Class<?>[] types = c.getParameterTypes();
+			if (types.length != args.size() + 2 || types[0] != Portfolio.class || types[1] != Logger.class)
+				continue;
+			Object[] values = new Object[types.length];
+			values[0] = portfolio;
+			values[1] = logger;
+			try {
+				for (int i = 0; i < args.size(); i++)
+					values[i + 2] = convert(args.get(i), types[i + 2]);
+			} catch (IllegalArgumentException e) {
+				continue;
+			}
+			try {
+				return (Strategy) c.newInstance(values);
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalArgumentException("Could not create " + className + ": " + e.getCause(), e);
+			}
+		}
+		throw new IllegalArgumentException("No constructor of " + className + " takes the arguments " + args);
+	}
+
+	private static Object convert(String value, Class<?> type) {
+		if (type == String.class)
+			return value;
+		if (type == int.class || type == Integer.class)
+			return Integer.parseInt(value);
+		if (type == long.class || type == Long.class)
+			return Long.parseLong(value);
+		if (type == double.class || type == Double.class)
+			return Double.parseDouble(value);
+		if (type == boolean.class || type == Boolean.class) {
+			if (!value.equals("true") && !value.equals("false"))
+				throw new IllegalArgumentException("Not a boolean: " + value);
+			return Boolean.parseBoolean(value);
+		}
+		throw new IllegalArgumentException("Unsupported parameter type " + type.getName());
+	}
+}
@@ -0,0 +1,295 @@
+package app;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.ToDoubleFunction;
+
+import accounts.MonteCarlo.Distribution;
+import accounts.Portfolio;
+import accounts.PortfolioHistory;
+import app.BacktestOrchestrator.StrategyConfig;
+import engine.BarSeries;
+import engine.StockExchange;
+import io.Logger;
+
+/**
+ * Combinatorial purged cross-validation for picking between strategy configs.
+ * The bars are split into groups, and every combination of testGroups groups
+ * is a split: the config with the best objective on the other groups is
+ * evaluated on the test groups. Training bars just before a test group are
+ * purged and bars just after it are embargoed, so training doesn't use bars
+ * whose trades overlap the test period. The test groups of the splits are
+ * combined into paths, each covering the whole history once, which gives a
+ * distribution of out-of-sample results instead of a single backtest.
+ * <p>
+ * Every config is run once over the whole history, with the bars shared, and
+ * its return at every bar is kept. The splits only slice these returns, so no
+ * combination replays bars or rebuilds indicator state, and hundreds of
+ * combinations cost little more than one run per config.
+ */
+public class CombinatorialCV {
+
+	/**
+	 * One combination of test groups.
+	 *
+	 * @param testGroups indices of the test groups, ascending
+	 * @param best       index of the config picked on the training groups
+	 * @param trainScore its objective on the training groups
+	 */
+	public record Split(int[] testGroups, int best, double trainScore) {
+	}
+
+	/**
+	 * Outcome of a run.
+	 *
+	 * @param splits      every combination, in lexicographic order
+	 * @param groupStarts first bar of every group, followed by the number of bars
+	 * @param paths       out-of-sample equity of every path, one value per bar
+	 *                    recorded like a PortfolioHistory, followed by the final
+	 *                    value
+	 */
+	public record Result(List<Split> splits, int[] groupStarts, double[][] paths) {
+
+		/**
+		 * Metrics of every path, see PortfolioHistory.metrics()
+		 */
+		public List<Map<String, Double>> pathMetrics() {
+			List<Map<String, Double>> metrics = new ArrayList<>();
+			for (double[] path : paths)
+				metrics.add(PortfolioHistory.metrics(path));
+			return metrics;
+		}
+
+		/**
+		 * Distribution of one metric across the paths
+		 */
+		public Distribution distribution(String metric) {
+			return new Distribution(pathMetrics().stream().mapToDouble(m -> m.getOrDefault(metric, Double.NaN))
+					.filter(v -> !Double.isNaN(v)).sorted().toArray());
+		}
+
+		/**
+		 * How often each config was picked, by index
+		 */
+		public int[] picks(int candidates) {
+			int[] picks = new int[candidates];
+			for (Split s : splits)
+				picks[s.best()]++;
+			return picks;
+		}
+	}
+
+	private final Logger logger;
+	private final Map<String, BarSeries> data;
+	private final List<StrategyConfig> candidates;
+	private final double startingCash;
+
+	/**
+	 * @param data         bars of every ticker, shared by all runs
+	 * @param candidates   configs to choose from in every split
+	 * @param startingCash cash of every run
+	 */
+	public CombinatorialCV(Logger logger, Map<String, BarSeries> data, List<StrategyConfig> candidates,
+			double startingCash) {
+		if (candidates.isEmpty())
+			throw new IllegalArgumentException("Need at least one candidate");
+		this.logger = Objects.requireNonNull(logger);
+		this.data = new LinkedHashMap<>(data);
+		this.candidates = List.copyOf(candidates);
+		this.startingCash = startingCash;
+	}
+
+	/**
+	 * Objective picking the config with the highest value of a metric of
+	 * PortfolioHistory.metrics() on the training bars. NaN counts as worst
+	 */
+	public static ToDoubleFunction<double[]> maximize(String metric) {
+		return values -> PortfolioHistory.metrics(values).getOrDefault(metric, Double.NaN);
+	}
+
+	/* ================================= Running ================================ */
+
+	/**
+	 * Runs the cross-validation.
+	 *
+	 * @param groups      number of groups the bars are split into
+	 * @param testGroups  number of test groups per split
+	 * @param purgeBars   training bars left out before every test group
+	 * @param embargoBars training bars left out after every test group
+	 * @param objective   score of the equity on the training bars, higher is
+	 *                    better
+	 * @param threads     number of runs at the same time
+	 */
+	public Result run(int groups, int testGroups, int purgeBars, int embargoBars, ToDoubleFunction<double[]> objective,
+			int threads) {
+		if (testGroups < 1 || testGroups >= groups)
+			throw new IllegalArgumentException("Need between 1 and " + (groups - 1) + " test groups");
+		if (purgeBars < 0 || embargoBars < 0 || threads < 1)
+			throw new IllegalArgumentException("Negative purge or embargo, or no threads");
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			double[][] returns = barReturns(pool);
+			int bars = returns[0].length;
+			if (bars < groups)
+				throw new IllegalArgumentException("Only " + bars + " bars for " + groups + " groups");
+			int[] starts = new int[groups + 1];
+			for (int g = 0; g <= groups; g++)
+				starts[g] = (int) ((long) bars * g / groups);
+
+			List<int[]> combinations = combinations(groups, testGroups);
+			List<Future<Split>> futures = new ArrayList<>();
+			for (int[] test : combinations)
+				futures.add(pool.submit(() -> split(returns, starts, test, purgeBars, embargoBars, objective)));
+			List<Split> splits = new ArrayList<>();
+			for (Future<Split> f : futures)
+				splits.add(f.get());
+			return new Result(splits, starts, paths(returns, starts, splits));
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Cross-validation failed", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted during cross-validation", e);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Runs every config once over all bars, in parallel, and returns its return at
+	 * every bar: from the close before the bar to the bar's close
+	 */
+	private double[][] barReturns(ExecutorService pool) throws InterruptedException, ExecutionException {
+		List<Future<double[]>> futures = new ArrayList<>();
+		for (StrategyConfig config : candidates) {
+			futures.add(pool.submit(() -> {
+				BacktestOrchestrator run = new BacktestOrchestrator(logger, exchange(), List.of(config),
+						startingCash);
+				run.runBacktest();
+				Portfolio p = run.getPortfolios().get(0);
+				// Snapshots hold the value at the previous close, the last close is the total
+				double[] values = p.getHistoryTracker().values();
+				double[] r = new double[values.length];
+				for (int t = 0; t < values.length; t++)
+					r[t] = (t + 1 < values.length ? values[t + 1] : p.getTotalValue()) / values[t] - 1.0;
+				return r;
+			}));
+		}
+		double[][] returns = new double[futures.size()][];
+		for (int c = 0; c < returns.length; c++) {
+			returns[c] = futures.get(c).get();
+			if (returns[c].length != returns[0].length)
+				throw new IllegalStateException("Configs were run over a different number of bars");
+		}
+		return returns;
+	}
+
+	private StockExchange exchange() {
+		StockExchange exchange = new StockExchange(logger);
+		data.forEach((ticker, series) -> exchange.addSource(ticker, series.source()));
+		return exchange;
+	}
+
+	/**
+	 * Picks the config with the best objective on the training bars of a split
+	 */
+	private Split split(double[][] returns, int[] starts, int[] test, int purge, int embargo,
+			ToDoubleFunction<double[]> objective) {
+		boolean[] train = trainMask(starts, test, purge, embargo);
+		int count = 0;
+		for (boolean b : train)
+			if (b)
+				count++;
+		double[] values = new double[count + 1];
+		int best = -1;
+		double bestScore = Double.NaN;
+		for (int c = 0; c < returns.length; c++) {
+			values[0] = 1.0;
+			int k = 0;
+			for (int t = 0; t < train.length; t++) {
+				if (train[t]) {
+					values[k + 1] = values[k] * (1.0 + returns[c][t]);
+					k++;
+				}
+			}
+			double score = objective.applyAsDouble(values);
+			if (best < 0 || WalkForward.better(score, c, bestScore, best)) {
+				best = c;
+				bestScore = score;
+			}
+		}
+		return new Split(test, best, bestScore);
+	}
+
+	/**
+	 * Bars used for training: those outside the test groups, the purge before
+	 * them and the embargo after them
+	 */
+	static boolean[] trainMask(int[] starts, int[] test, int purge, int embargo) {
+		int bars = starts[starts.length - 1];
+		boolean[] train = new boolean[bars];
+		Arrays.fill(train, true);
+		for (int g : test) {
+			int from = Math.max(0, starts[g] - purge);
+			int to = Math.min(bars, starts[g + 1] + embargo);
+			Arrays.fill(train, from, to, false);
+		}
+		return train;
+	}
+
+	/**
+	 * Combines the test groups into paths. Every group is tested in the same
+	 * number of splits, and path p takes each group from the p-th split that
+	 * tests it
+	 */
+	private double[][] paths(double[][] returns, int[] starts, List<Split> splits) {
+		int groups = starts.length - 1;
+		List<List<Split>> byGroup = new ArrayList<>();
+		for (int g = 0; g < groups; g++)
+			byGroup.add(new ArrayList<>());
+		for (Split s : splits)
+			for (int g : s.testGroups())
+				byGroup.get(g).add(s);
+		int count = byGroup.get(0).size();
+		int bars = starts[groups];
+		double[][] paths = new double[count][bars + 1];
+		for (int p = 0; p < count; p++) {
+			double[] path = paths[p];
+			path[0] = startingCash;
+			for (int g = 0; g < groups; g++) {
+				double[] r = returns[byGroup.get(g).get(p).best()];
+				for (int t = starts[g]; t < starts[g + 1]; t++)
+					path[t + 1] = path[t] * (1.0 + r[t]);
+			}
+		}
+		return paths;
+	}
+
+	/**
+	 * All ways to pick k of n indices, in lexicographic order
+	 */
+	static List<int[]> combinations(int n, int k) {
+		List<int[]> result = new ArrayList<>();
+		int[] c = new int[k];
+		for (int i = 0; i < k; i++)
+			c[i] = i;
+		while (true) {
+			result.add(c.clone());
+			int i = k - 1;
+			while (i >= 0 && c[i] == n - k + i)
+				i--;
+			if (i < 0)
+				return result;
+			c[i]++;
+			for (int j = i + 1; j < k; j++)
+				c[j] = c[j - 1] + 1;
+		}
+	}
+}
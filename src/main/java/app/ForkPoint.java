@@ -0,0 +1,142 @@
+package app;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import accounts.Portfolio;
+import engine.StockExchange;
+import io.Logger;
+import io.StateSerializer;
+import strategies.Strategy;
+
+/**
+ * Frozen state of a run at some point in time, which any number of branches
+ * can continue from, for example on different stress scenarios.
+ * Portfolios are forked copy-on-write, so a branch shares the history and
+ * positions up to the fork and only stores what it changes afterwards.
+ * Strategies and their signals are small, and are deep copied for every
+ * branch.
+ */
+public class ForkPoint {
+
+	/**
+	 * A branch to run from the fork point.
+	 *
+	 * @param name       name of the scenario
+	 * @param futureData creates the exchange with the bars after the fork point
+	 * @param adjust     called on the branch before it runs, for example to change
+	 *                   strategy parameters. May be null
+	 */
+	public record Scenario(String name, Function<Logger, StockExchange> futureData,
+			Consumer<BacktestOrchestrator> adjust) {
+	}
+
+	private final List<String> labels;
+	private final double startingCash;
+
+	/*
+	 * Frozen copies of the portfolios, which never receive bars. Branches are
+	 * forked from these
+	 */
+	private final List<Portfolio> portfolios = new ArrayList<>();
+
+	/*
+	 * Serialized strategies. The logger and portfolios they refer to are written as
+	 * externals, and are swapped for the ones of the branch when reading
+	 */
+	private final byte[] strategies;
+
+	ForkPoint(Logger logger, List<String> labels, List<Portfolio> portfolios, List<Strategy> strategies,
+			double startingCash) {
+		this.labels = List.copyOf(labels);
+		this.startingCash = startingCash;
+		for (Portfolio p : portfolios)
+			this.portfolios.add(p.fork(logger));
+		List<Object> externals = new ArrayList<>();
+		externals.add(logger);
+		externals.addAll(portfolios);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			StateSerializer.write(new ArrayList<>(strategies), out, externals);
+			this.strategies = out.toByteArray();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Strategies have to be serializable to be forked", e);
+		}
+	}
+
+	/**
+	 * Creates a branch that continues from the fork point on the given exchange.
+	 * Can be called from several threads at once.
+	 *
+	 * @param exchange exchange with the bars after the fork point, not started
+	 * @param logger   logger of the branch
+	 */
+	public BacktestOrchestrator branch(StockExchange exchange, Logger logger) {
+		List<Object> externals = new ArrayList<>();
+		externals.add(logger);
+		List<Portfolio> forked = new ArrayList<>();
+		synchronized (this) {
+			for (Portfolio p : portfolios)
+				forked.add(p.fork(logger));
+		}
+		externals.addAll(forked);
+		List<Strategy> copies = new ArrayList<>();
+		try {
+			for (Object o : (List<?>) StateSerializer.read(new ByteArrayInputStream(strategies), externals))
+				copies.add((Strategy) o);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return new BacktestOrchestrator(logger, exchange, labels, forked, copies, startingCash);
+	}
+
+	/**
+	 * Runs every scenario as its own branch, in parallel.
+	 *
+	 * @param scenarios scenarios to run
+	 * @param logger    logger shared by the branches
+	 * @param threads   number of branches running at the same time
+	 * @return the finished branches, in the order of the scenarios
+	 */
+	public List<BacktestOrchestrator> runScenarios(List<Scenario> scenarios, Logger logger, int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("Need at least one thread");
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<BacktestOrchestrator>> futures = new ArrayList<>();
+			for (Scenario s : scenarios) {
+				futures.add(pool.submit(() -> {
+					BacktestOrchestrator branch = branch(s.futureData().apply(logger), logger);
+					if (s.adjust() != null)
+						s.adjust().accept(branch);
+					branch.runBacktest();
+					return branch;
+				}));
+			}
+			List<BacktestOrchestrator> results = new ArrayList<>();
+			for (int i = 0; i < futures.size(); i++) {
+				try {
+					results.add(futures.get(i).get());
+				} catch (ExecutionException e) {
+					throw new IllegalStateException("Scenario " + scenarios.get(i).name() + " failed", e.getCause());
+				}
+			}
+			return results;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while running scenarios", e);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,366 @@
+package app;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+
+import accounts.Portfolio;
+import accounts.PortfolioHistory;
+import app.BacktestOrchestrator.StrategyConfig;
+import engine.BarSeries;
+import engine.StockExchange;
+import io.Logger;
+import strategies.Strategy;
+
+/**
+ * Searches strategy parameters with a genetic algorithm, for spaces too large
+ * for a grid. Every generation is a population of parameter vectors. The best
+ * few are kept as they are, and the rest are bred from parents picked by
+ * tournament, with uniform crossover and gaussian mutation.
+ * <p>
+ * A generation is evaluated in parallel, each vector as a backtest on the
+ * shared bars. Vectors seen before are taken from a cache instead of run
+ * again. All random choices are made on the calling thread from the seed, so a
+ * run is repeatable regardless of the number of threads. The search stops
+ * after the given number of generations, when the best fitness has not
+ * improved for a while, or when the time budget is used up.
+ */
+public class GeneticOptimizer {
+
+	/**
+	 * A parameter to optimize, between min and max inclusive
+	 *
+	 * @param integer true if only whole numbers are allowed
+	 */
+	public record Parameter(String name, double min, double max, boolean integer) {
+		public Parameter {
+			if (!(min <= max))
+				throw new IllegalArgumentException("Empty range for " + name);
+		}
+
+		public static Parameter real(String name, double min, double max) {
+			return new Parameter(name, min, max, false);
+		}
+
+		public static Parameter integer(String name, int min, int max) {
+			return new Parameter(name, min, max, true);
+		}
+
+		double clamp(double value) {
+			double v = Math.min(max, Math.max(min, value));
+			return integer ? Math.round(v) : v;
+		}
+	}
+
+	/**
+	 * Outcome of a search.
+	 *
+	 * @param best        parameters of the fittest vector found
+	 * @param fitness     its fitness
+	 * @param bestByGen   best fitness after every generation
+	 * @param evaluations number of backtests run
+	 * @param cacheHits   number of vectors taken from the cache
+	 */
+	public record Result(Map<String, Double> best, double fitness, double[] bestByGen, int evaluations,
+			int cacheHits, Duration elapsed) {
+
+		public int generations() {
+			return bestByGen.length;
+		}
+
+		public double evaluationsPerSecond() {
+			double seconds = elapsed.toNanos() / 1e9;
+			return seconds > 0 ? evaluations / seconds : Double.NaN;
+		}
+	}
+
+	private final Logger logger;
+	private final Map<String, BarSeries> data;
+	private final List<Parameter> parameters;
+	private final Function<Map<String, Double>, BiFunction<Portfolio, Logger, Strategy>> factory;
+	private final double startingCash;
+
+	private int populationSize = 40;
+	private int maxGenerations = 50;
+	private int elite = 2;
+	private int tournament = 3;
+	private double crossoverRate = 0.9;
+	private double mutationRate = 0.2;
+	private double mutationScale = 0.1;
+	private int patience = 10;
+	private double tolerance = 1e-9;
+	private Duration timeBudget = null;
+	private Predicate<Map<String, Double>> constraint = params -> true;
+
+	/**
+	 * @param data         bars of every ticker, shared by all backtests
+	 * @param parameters   the parameters to search
+	 * @param factory      makes the strategy factory for a set of parameters
+	 * @param startingCash cash of every backtest
+	 */
+	public GeneticOptimizer(Logger logger, Map<String, BarSeries> data, List<Parameter> parameters,
+			Function<Map<String, Double>, BiFunction<Portfolio, Logger, Strategy>> factory, double startingCash) {
+		if (parameters.isEmpty())
+			throw new IllegalArgumentException("Need at least one parameter");
+		this.logger = Objects.requireNonNull(logger);
+		this.data = new LinkedHashMap<>(data);
+		this.parameters = List.copyOf(parameters);
+		this.factory = factory;
+		this.startingCash = startingCash;
+	}
+
+	/* ================================ Settings ================================ */
+
+	public void setPopulation(int size, int elite) {
+		if (size < 2 || elite < 0 || elite >= size)
+			throw new IllegalArgumentException("Need at least two vectors and fewer elite than vectors");
+		this.populationSize = size;
+		this.elite = elite;
+	}
+
+	public void setGenerations(int generations) {
+		if (generations < 1)
+			throw new IllegalArgumentException("Need at least one generation");
+		this.maxGenerations = generations;
+	}
+
+	/**
+	 * @param rate  chance that each parameter of a child is mutated
+	 * @param scale standard deviation of a mutation, as a fraction of the range
+	 */
+	public void setMutation(double rate, double scale) {
+		this.mutationRate = rate;
+		this.mutationScale = scale;
+	}
+
+	public void setCrossoverRate(double rate) {
+		this.crossoverRate = rate;
+	}
+
+	/**
+	 * Stops when the best fitness has improved by less than tolerance for
+	 * patience generations
+	 */
+	public void setConvergence(int patience, double tolerance) {
+		this.patience = patience;
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * Stops after the first generation that ends past the budget. Null for no
+	 * budget. Note that a time budget makes the result depend on the speed of the
+	 * machine
+	 */
+	public void setTimeBudget(Duration budget) {
+		this.timeBudget = budget;
+	}
+
+	/**
+	 * Only vectors accepted by the constraint are evaluated, for example a fast
+	 * period below the slow one. Rejected children are bred again
+	 */
+	public void setConstraint(Predicate<Map<String, Double>> constraint) {
+		this.constraint = Objects.requireNonNull(constraint);
+	}
+
+	/* ================================= Running ================================ */
+
+	/**
+	 * Runs the search.
+	 *
+	 * @param objective fitness of a backtest, higher is better, see
+	 *                  WalkForward.maximize()
+	 * @param seed      seed of all random choices
+	 * @param threads   number of backtests at the same time
+	 */
+	public Result run(ToDoubleFunction<PortfolioHistory> objective, long seed, int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("Need at least one thread");
+		long started = System.nanoTime();
+		SplittableRandom random = new SplittableRandom(seed);
+		int evaluations = 0, hits = 0;
+		List<Double> bestByGen = new ArrayList<>();
+		double best = Double.NaN;
+		double[] bestGenome = null;
+		int stale = 0;
+		// Fitness of every vector evaluated so far
+		Map<List<Double>, Double> cache = new HashMap<>();
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<double[]> population = new ArrayList<>();
+			while (population.size() < populationSize)
+				population.add(valid(() -> randomGenome(random)));
+
+			for (int gen = 0; gen < maxGenerations; gen++) {
+				// Evaluate the vectors not in the cache, each distinct one once
+				Map<List<Double>, Future<Double>> pending = new LinkedHashMap<>();
+				for (double[] genome : population) {
+					List<Double> key = key(genome);
+					if (cache.containsKey(key) || pending.containsKey(key)) {
+						hits++;
+						continue;
+					}
+					pending.put(key, pool.submit(() -> evaluate(genome, objective)));
+				}
+				for (Map.Entry<List<Double>, Future<Double>> e : pending.entrySet())
+					cache.put(e.getKey(), e.getValue().get());
+				evaluations += pending.size();
+
+				double[] fitness = new double[population.size()];
+				for (int i = 0; i < fitness.length; i++)
+					fitness[i] = cache.get(key(population.get(i)));
+				Integer[] order = rank(fitness);
+				double genBest = fitness[order[0]];
+				if (bestGenome == null || WalkForward.better(genBest, 0, best, 1)) {
+					stale = Double.isNaN(best) || genBest - best > tolerance ? 0 : stale + 1;
+					best = genBest;
+					bestGenome = population.get(order[0]);
+				} else {
+					stale++;
+				}
+				bestByGen.add(best);
+
+				if (gen + 1 == maxGenerations || stale >= patience || overBudget(started))
+					break;
+				population = breed(population, fitness, order, random);
+			}
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Fitness evaluation failed", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while optimizing", e);
+		} finally {
+			pool.shutdownNow();
+		}
+
+		Duration elapsed = Duration.ofNanos(System.nanoTime() - started);
+		Result result = new Result(params(bestGenome), best, bestByGen.stream().mapToDouble(Double::doubleValue)
+				.toArray(), evaluations, hits, elapsed);
+		logger.info(String.format("Genetic optimizer: %d generations, %d evaluations (%.1f/s), %d cached, best %s = %.4f",
+				result.generations(), evaluations, result.evaluationsPerSecond(), hits, result.best(), best));
+		return result;
+	}
+
+	private boolean overBudget(long started) {
+		return timeBudget != null && System.nanoTime() - started >= timeBudget.toNanos();
+	}
+
+	/**
+	 * Indices of the population from fittest to least fit. NaN is last and ties
+	 * keep the population order
+	 */
+	private static Integer[] rank(double[] fitness) {
+		Integer[] order = new Integer[fitness.length];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		Arrays.sort(order, Comparator.comparingDouble((Integer i) -> Double.isNaN(fitness[i])
+				? Double.NEGATIVE_INFINITY
+				: fitness[i]).reversed());
+		return order;
+	}
+
+	private List<double[]> breed(List<double[]> population, double[] fitness, Integer[] order,
+			SplittableRandom random) {
+		List<double[]> next = new ArrayList<>();
+		for (int i = 0; i < elite; i++)
+			next.add(population.get(order[i]));
+		while (next.size() < populationSize) {
+			next.add(valid(() -> {
+				double[] a = population.get(select(fitness, random));
+				double[] b = population.get(select(fitness, random));
+				double[] child = a.clone();
+				if (random.nextDouble() < crossoverRate) {
+					for (int p = 0; p < child.length; p++)
+						if (random.nextBoolean())
+							child[p] = b[p];
+				}
+				for (int p = 0; p < child.length; p++) {
+					if (random.nextDouble() < mutationRate) {
+						Parameter param = parameters.get(p);
+						double sigma = Math.max((param.max() - param.min()) * mutationScale, param.integer() ? 1 : 0);
+						child[p] = param.clamp(child[p] + random.nextGaussian() * sigma);
+					}
+				}
+				return child;
+			}));
+		}
+		return next;
+	}
+
+	/**
+	 * Index of the fittest of a few random vectors
+	 */
+	private int select(double[] fitness, SplittableRandom random) {
+		int winner = random.nextInt(fitness.length);
+		for (int i = 1; i < tournament; i++) {
+			int other = random.nextInt(fitness.length);
+			if (WalkForward.better(fitness[other], other, fitness[winner], winner))
+				winner = other;
+		}
+		return winner;
+	}
+
+	/**
+	 * Makes vectors until one meets the constraint
+	 */
+	private double[] valid(Supplier<double[]> make) {
+		for (int attempt = 0; attempt < 1000; attempt++) {
+			double[] genome = make.get();
+			if (constraint.test(params(genome)))
+				return genome;
+		}
+		throw new IllegalStateException("Could not find parameters that meet the constraint");
+	}
+
+	private double[] randomGenome(SplittableRandom random) {
+		double[] genome = new double[parameters.size()];
+		for (int p = 0; p < genome.length; p++) {
+			Parameter param = parameters.get(p);
+			double v = param.integer() ? random.nextLong((long) param.min(), (long) param.max() + 1)
+					: param.min() + random.nextDouble() * (param.max() - param.min());
+			genome[p] = param.clamp(v);
+		}
+		return genome;
+	}
+
+	private double evaluate(double[] genome, ToDoubleFunction<PortfolioHistory> objective) {
+		Map<String, Double> params = params(genome);
+		StrategyConfig config = new StrategyConfig(params.toString(), params, factory.apply(params));
+		StockExchange exchange = new StockExchange(logger);
+		data.forEach((ticker, series) -> exchange.addSource(ticker, series.source()));
+		BacktestOrchestrator run = new BacktestOrchestrator(logger, exchange, List.of(config), startingCash);
+		run.runBacktest();
+		return objective.applyAsDouble(run.getPortfolios().get(0).getHistoryTracker());
+	}
+
+	private Map<String, Double> params(double[] genome) {
+		Map<String, Double> params = new LinkedHashMap<>();
+		for (int p = 0; p < genome.length; p++)
+			params.put(parameters.get(p).name(), genome[p]);
+		return params;
+	}
+
+	private static List<Double> key(double[] genome) {
+		List<Double> key = new ArrayList<>(genome.length);
+		for (double v : genome)
+			key.add(v);
+		return key;
+	}
+}
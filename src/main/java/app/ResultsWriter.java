@@ -0,0 +1,145 @@
+package app;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Map;
+
+import accounts.BenchmarkTracker;
+import accounts.Fill;
+import accounts.Portfolio;
+import accounts.PortfolioHistory;
+import io.ArrowFileWriter;
+import io.ArrowFileWriter.Column;
+import io.ArrowFileWriter.Type;
+
+/**
+ * Writes the results of a portfolio to the results directory.
+ * CSV writes the value history only, as before. ARROW writes three Arrow IPC
+ * files: name.history.arrow with the value, return and drawdown of every bar,
+ * name.positions.arrow with the quantity of every held ticker at every bar,
+ * and name.fills.arrow with every executed order.
+ */
+public final class ResultsWriter {
+
+	public enum Format {
+		CSV, ARROW
+	}
+
+	private static final List<Column> HISTORY = List.of(new Column("Timestamp", Type.TIMESTAMP),
+			new Column("TotalValue", Type.FLOAT64), new Column("Return", Type.FLOAT64),
+			new Column("Drawdown", Type.FLOAT64));
+	private static final List<Column> POSITIONS = List.of(new Column("Timestamp", Type.TIMESTAMP),
+			new Column("Ticker", Type.UTF8), new Column("Quantity", Type.INT32));
+	private static final List<Column> FILLS = List.of(new Column("Timestamp", Type.TIMESTAMP),
+			new Column("Ticker", Type.UTF8), new Column("Side", Type.UTF8), new Column("Quantity", Type.INT32),
+			new Column("Price", Type.FLOAT64));
+
+	private static final List<Column> BENCHMARK = List.of(new Column("Timestamp", Type.TIMESTAMP),
+			new Column("Beta", Type.FLOAT64), new Column("Alpha", Type.FLOAT64),
+			new Column("Correlation", Type.FLOAT64), new Column("TrackingError", Type.FLOAT64),
+			new Column("InformationRatio", Type.FLOAT64));
+
+	private ResultsWriter() {
+	}
+
+	/**
+	 * @param fromIndex for CSV, index of the first snapshot not yet in the file,
+	 *                  or -1 to write the whole file. Arrow files are always
+	 *                  written in full
+	 */
+	static void write(Portfolio portfolio, Path dir, String name, Format format, int fromIndex)
+			throws IOException {
+		PortfolioHistory history = portfolio.getHistoryTracker();
+		if (format == Format.CSV) {
+			Path out = dir.resolve(name + ".csv");
+			if (fromIndex < 0)
+				history.saveToCsv(out);
+			else
+				history.appendToCsv(out, fromIndex);
+			return;
+		}
+		writeHistory(history, dir.resolve(name + ".history.arrow"));
+		writePositions(history, dir.resolve(name + ".positions.arrow"));
+		writeFills(portfolio.getFills(), dir.resolve(name + ".fills.arrow"));
+	}
+
+	/**
+	 * Writes the rolling benchmark figures of a portfolio at every bar to
+	 * name.benchmark.csv or name.benchmark.arrow, always in full
+	 */
+	static void writeBenchmark(BenchmarkTracker tracker, int portfolio, Path dir, String name, Format format)
+			throws IOException {
+		LocalDateTime[] timestamps = tracker.getTimestamps();
+		double[][] columns = tracker.getRollingHistory(portfolio);
+		if (format == Format.CSV) {
+			try (BufferedWriter out = Files.newBufferedWriter(dir.resolve(name + ".benchmark.csv"))) {
+				out.write("Timestamp,Beta,Alpha,Correlation,TrackingError,InformationRatio\n");
+				for (int bar = 0; bar < timestamps.length; bar++) {
+					StringBuilder row = new StringBuilder(timestamps[bar].format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
+					for (double[] column : columns)
+						row.append(',').append(Double.isNaN(column[bar]) ? "" : String.valueOf(column[bar]));
+					out.write(row.append('\n').toString());
+				}
+			}
+			return;
+		}
+		try (ArrowFileWriter out = new ArrowFileWriter(dir.resolve(name + ".benchmark.arrow"), BENCHMARK)) {
+			for (int bar = 0; bar < timestamps.length; bar++) {
+				out.setTimestamp(0, timestamps[bar]);
+				for (int c = 0; c < columns.length; c++)
+					out.setDouble(c + 1, columns[c][bar]);
+				out.endRow();
+			}
+		}
+	}
+
+	static void writeHistory(PortfolioHistory history, Path path) throws IOException {
+		try (ArrowFileWriter out = new ArrowFileWriter(path, HISTORY)) {
+			double previous = Double.NaN;
+			double peak = Double.NEGATIVE_INFINITY;
+			for (PortfolioHistory.Snapshot s : history.getSnapshots()) {
+				double value = s.getTotalValue();
+				peak = Math.max(peak, value);
+				out.setTimestamp(0, s.getTimestamp());
+				out.setDouble(1, value);
+				out.setDouble(2, value / previous - 1.0);
+				out.setDouble(3, peak > 0 ? value / peak - 1.0 : 0.0);
+				out.endRow();
+				previous = value;
+			}
+		}
+	}
+
+	static void writePositions(PortfolioHistory history, Path path) throws IOException {
+		try (ArrowFileWriter out = new ArrowFileWriter(path, POSITIONS)) {
+			for (PortfolioHistory.Snapshot s : history.getSnapshots()) {
+				for (Map.Entry<String, Integer> position : s.getPositions().entrySet()) {
+					if (position.getValue() == 0)
+						continue;
+					out.setTimestamp(0, s.getTimestamp());
+					out.setString(1, position.getKey());
+					out.setInt(2, position.getValue());
+					out.endRow();
+				}
+			}
+		}
+	}
+
+	static void writeFills(List<Fill> fills, Path path) throws IOException {
+		try (ArrowFileWriter out = new ArrowFileWriter(path, FILLS)) {
+			for (Fill f : fills) {
+				out.setTimestamp(0, f.timestamp());
+				out.setString(1, f.ticker());
+				out.setString(2, f.type().name());
+				out.setInt(3, f.quantity());
+				out.setDouble(4, f.price());
+				out.endRow();
+			}
+		}
+	}
+}
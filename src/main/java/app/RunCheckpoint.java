@@ -0,0 +1,386 @@
+package app;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import accounts.BenchmarkTracker;
+import accounts.Portfolio;
+import accounts.RiskMonitor;
+import engine.StockExchange;
+import io.BarFileIndex;
+import io.CSVparser;
+import io.Logger;
+import io.StateSerializer;
+import strategies.Signal;
+import strategies.Strategy;
+
+/**
+ * End-of-run state of a BacktestOrchestrator. It lets the next run continue on
+ * the rows appended to the data files since, instead of starting over.
+ * A checkpoint is only used if the strategy setup, the code of the classes
+ * involved and the already processed part of every data file are unchanged.
+ */
+class RunCheckpoint {
+	static final String FILE_NAME = "checkpoint.bin";
+
+	/**
+	 * A class of each package whose code decides the simulated results. Every
+	 * class in these packages is fingerprinted, so classes added later are
+	 * covered without being listed
+	 */
+	private static final List<Class<?>> ENGINE_PACKAGES = List.of(StockExchange.class, Portfolio.class,
+			Strategy.class);
+
+	/**
+	 * Classes of other packages whose code decides the simulated results
+	 */
+	private static final List<Class<?>> ENGINE_CLASSES = List.of(CSVparser.class, BarFileIndex.class);
+
+	/**
+	 * What the checkpoint was made from. Written in front of the state, so it can
+	 * be checked before the state is read. The params are those of each
+	 * StrategyConfig. The risk and benchmark setups are empty without a
+	 * RiskMonitor or BenchmarkTracker.
+	 */
+	record Manifest(List<String> labels, List<String> strategyClasses, List<Map<String, Double>> params,
+			double startingCash, String riskSetup, String benchmarkSetup, String codeFingerprint,
+			Map<String, DataFingerprint> data) implements Serializable {
+	}
+
+	/**
+	 * Length and hash of a data file at the end of the run
+	 */
+	record DataFingerprint(String path, long length, String sha256, boolean endsWithNewline)
+			implements Serializable {
+	}
+
+	/**
+	 * Portfolios, strategies and the listeners following them read back from a
+	 * checkpoint. The risk monitor and benchmark tracker are null if the run had
+	 * none
+	 */
+	record State(List<Portfolio> portfolios, List<Strategy> strategies, RiskMonitor riskMonitor,
+			BenchmarkTracker benchmarkTracker, Map<String, Long> offsets) {
+	}
+
+	private RunCheckpoint() {
+	}
+
+	/* ================================= Saving ================================= */
+
+	/**
+	 * Writes the state at the end of a run. The risk monitor and benchmark
+	 * tracker are written with the portfolios they follow, so a resumed run goes
+	 * on with their sums instead of starting them over
+	 *
+	 * @param riskMonitor      monitor of the run, may be null
+	 * @param benchmarkTracker tracker of the run, may be null
+	 */
+	static void save(Path file, List<String> labels, List<Map<String, Double>> params, double startingCash,
+			List<Portfolio> portfolios, List<Strategy> strategies, RiskMonitor riskMonitor,
+			BenchmarkTracker benchmarkTracker, StockExchange exchange, Logger logger) throws IOException {
+		Map<String, DataFingerprint> data = new LinkedHashMap<>();
+		for (Map.Entry<String, String> e : exchange.getDataPaths().entrySet())
+			data.put(e.getKey(), fingerprint(Path.of(e.getValue())));
+		Manifest manifest = new Manifest(List.copyOf(labels), classNames(strategies), sorted(params), startingCash,
+				riskSetup(riskMonitor), benchmarkSetup(benchmarkTracker), codeFingerprint(strategies), data);
+
+		Files.createDirectories(file.toAbsolutePath().getParent());
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+			ByteArrayOutputStream header = new ByteArrayOutputStream();
+			try (ObjectOutputStream oos = new ObjectOutputStream(header)) {
+				oos.writeObject(manifest);
+			}
+			out.writeInt(header.size());
+			header.writeTo(out);
+			List<Object> state = Arrays.asList(new ArrayList<>(portfolios), new ArrayList<>(strategies), riskMonitor,
+					benchmarkTracker);
+			StateSerializer.write(state, out, List.of(logger));
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/* ================================= Loading ================================ */
+
+	/**
+	 * Reads the checkpoint if it matches the current setup and data.
+	 *
+	 * @param file         checkpoint file
+	 * @param labels       labels of the current configs
+	 * @param params       params of the current configs
+	 * @param startingCash starting cash of the current run
+	 * @param strategies   freshly built strategies of the current run
+	 * @param riskMonitor  monitor of the current run, may be null
+	 * @param tracker      benchmark tracker of the current run, may be null
+	 * @param exchange     exchange of the current run, not started yet
+	 * @param logger       logger given to the restored portfolios and strategies
+	 * @return the restored state, or null if a full run is needed
+	 */
+	static State load(Path file, List<String> labels, List<Map<String, Double>> params, double startingCash,
+			List<Strategy> strategies, RiskMonitor riskMonitor, BenchmarkTracker tracker, StockExchange exchange,
+			Logger logger) {
+		if (!Files.exists(file)) {
+			logger.info("No checkpoint at " + file + ", running full backtest");
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			byte[] header = new byte[in.readInt()];
+			in.readFully(header);
+			Manifest saved = (Manifest) new ObjectInputStream(new ByteArrayInputStream(header)).readObject();
+			String reason = mismatch(saved, labels, params, startingCash, strategies, riskMonitor, tracker,
+					exchange);
+			if (reason != null) {
+				logger.info("Checkpoint not usable (" + reason + "), running full backtest");
+				return null;
+			}
+			List<?> state = (List<?>) StateSerializer.read(in, List.of(logger));
+			List<Portfolio> portfolios = new ArrayList<>();
+			for (Object o : (List<?>) state.get(0))
+				portfolios.add((Portfolio) o);
+			List<Strategy> restored = new ArrayList<>();
+			for (Object o : (List<?>) state.get(1))
+				restored.add((Strategy) o);
+			Map<String, Long> offsets = new LinkedHashMap<>();
+			saved.data().forEach((ticker, fp) -> offsets.put(ticker, fp.length()));
+			return new State(portfolios, restored, (RiskMonitor) state.get(2), (BenchmarkTracker) state.get(3),
+					offsets);
+		} catch (Exception e) {
+			logger.error("Failed to read checkpoint, running full backtest", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Returns why the saved checkpoint can't be continued, or null if it can
+	 */
+	private static String mismatch(Manifest saved, List<String> labels, List<Map<String, Double>> params,
+			double startingCash, List<Strategy> strategies, RiskMonitor riskMonitor, BenchmarkTracker tracker,
+			StockExchange exchange) throws IOException {
+		if (!saved.labels().equals(labels) || saved.startingCash() != startingCash)
+			return "different strategy configs";
+		if (!saved.params().equals(sorted(params)))
+			return "different strategy parameters";
+		if (!saved.riskSetup().equals(riskSetup(riskMonitor))
+				|| !saved.benchmarkSetup().equals(benchmarkSetup(tracker)))
+			return "different risk or benchmark setup";
+		if (!saved.strategyClasses().equals(classNames(strategies)))
+			return "different strategy classes";
+		if (!saved.codeFingerprint().equals(codeFingerprint(strategies)))
+			return "strategy or engine code changed";
+		Map<String, String> paths = exchange.getDataPaths();
+		if (!saved.data().keySet().equals(paths.keySet()))
+			return "different tickers";
+		for (Map.Entry<String, String> e : paths.entrySet()) {
+			DataFingerprint fp = saved.data().get(e.getKey());
+			Path path = Path.of(e.getValue());
+			if (!fp.path().equals(e.getValue()) || !fp.endsWithNewline())
+				return "data file of " + e.getKey() + " can't be continued";
+			if (Files.size(path) < fp.length() || !sha256(path, fp.length()).equals(fp.sha256()))
+				return "historical data of " + e.getKey() + " changed";
+		}
+		return null;
+	}
+
+	/* ============================== Fingerprints ============================== */
+
+	/**
+	 * The params with their names sorted, so the order they were given in doesn't
+	 * matter
+	 */
+	private static List<Map<String, Double>> sorted(List<Map<String, Double>> params) {
+		List<Map<String, Double>> sorted = new ArrayList<>();
+		for (Map<String, Double> p : params)
+			sorted.add(new TreeMap<>(p));
+		return sorted;
+	}
+
+	private static String riskSetup(RiskMonitor monitor) {
+		return monitor == null ? "" : "window=" + monitor.getWindow() + ",confidence=" + monitor.getConfidence();
+	}
+
+	/**
+	 * The window and the benchmark of every portfolio, a ticker or #index of
+	 * another portfolio
+	 */
+	private static String benchmarkSetup(BenchmarkTracker tracker) {
+		if (tracker == null)
+			return "";
+		StringBuilder sb = new StringBuilder("window=").append(tracker.getWindow());
+		for (int i = 0; i < tracker.size(); i++) {
+			sb.append(',');
+			if (tracker.getTicker(i) != null)
+				sb.append(tracker.getTicker(i));
+			else if (tracker.getBenchmarkPortfolio(i) >= 0)
+				sb.append('#').append(tracker.getBenchmarkPortfolio(i));
+		}
+		return sb.toString();
+	}
+
+	private static List<String> classNames(List<Strategy> strategies) {
+		List<String> names = new ArrayList<>();
+		for (Strategy s : strategies)
+			names.add(s.getClass().getName());
+		return names;
+	}
+
+	/**
+	 * Hash of the bytecode of every class of the engine packages, the other engine
+	 * classes, and the strategy classes and their signals, including superclasses
+	 */
+	static String codeFingerprint(List<Strategy> strategies) throws IOException {
+		// By resource name, so the order doesn't depend on the file system
+		Map<String, byte[]> code = new TreeMap<>();
+		for (Class<?> anchor : ENGINE_PACKAGES)
+			addPackage(code, anchor);
+		Set<Class<?>> classes = new LinkedHashSet<>(ENGINE_CLASSES);
+		for (Strategy s : strategies) {
+			addWithSuperclasses(classes, s.getClass());
+			for (Signal signal : s.getSignals())
+				addWithSuperclasses(classes, signal.getClass());
+		}
+		for (Class<?> cls : classes) {
+			String resource = cls.getName().replace('.', '/') + ".class";
+			if (code.containsKey(resource))
+				continue;
+			try (InputStream in = cls.getResourceAsStream("/" + resource)) {
+				if (in == null)
+					throw new IOException("Can't find bytecode of " + cls.getName());
+				code.put(resource, in.readAllBytes());
+			}
+		}
+		MessageDigest digest = newDigest();
+		for (Map.Entry<String, byte[]> e : code.entrySet()) {
+			digest.update(e.getKey().getBytes());
+			digest.update(e.getValue());
+		}
+		return HexFormat.of().formatHex(digest.digest());
+	}
+
+	/**
+	 * Adds the bytecode of every class in the package of the anchor, including
+	 * nested and anonymous classes, from a classes directory or a jar
+	 */
+	private static void addPackage(Map<String, byte[]> code, Class<?> anchor) throws IOException {
+		String dir = anchor.getPackageName().replace('.', '/') + "/";
+		Path root;
+		try {
+			root = Path.of(anchor.getProtectionDomain().getCodeSource().getLocation().toURI());
+		} catch (URISyntaxException | RuntimeException e) {
+			throw new IOException("Can't find the classes of " + anchor.getPackageName(), e);
+		}
+		if (Files.isDirectory(root)) {
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(root.resolve(dir), "*.class")) {
+				for (Path f : files)
+					code.put(dir + f.getFileName(), Files.readAllBytes(f));
+			}
+			return;
+		}
+		try (JarFile jar = new JarFile(root.toFile())) {
+			for (JarEntry entry : Collections.list(jar.entries())) {
+				String name = entry.getName();
+				if (name.startsWith(dir) && name.endsWith(".class") && name.indexOf('/', dir.length()) < 0) {
+					try (InputStream in = jar.getInputStream(entry)) {
+						code.put(name, in.readAllBytes());
+					}
+				}
+			}
+		}
+	}
+
+	private static void addWithSuperclasses(Set<Class<?>> classes, Class<?> cls) {
+		for (Class<?> c = cls; c != null && c != Object.class; c = c.getSuperclass())
+			classes.add(c);
+	}
+
+	private static DataFingerprint fingerprint(Path path) throws IOException {
+		long length = Files.size(path);
+		boolean endsWithNewline = false;
+		if (length > 0) {
+			try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+				ByteBuffer last = ByteBuffer.allocate(1);
+				ch.read(last, length - 1);
+				endsWithNewline = last.get(0) == '\n';
+			}
+		}
+		return new DataFingerprint(path.toString(), length, sha256(path, length), endsWithNewline);
+	}
+
+	/**
+	 * Combined SHA-256 of the tickers and contents of the data files, empty if
+	 * there are none
+	 */
+	static String dataHash(Map<String, String> dataPaths) throws IOException {
+		if (dataPaths.isEmpty())
+			return "";
+		MessageDigest digest = newDigest();
+		for (Map.Entry<String, String> e : new TreeMap<>(dataPaths).entrySet()) {
+			Path path = Path.of(e.getValue());
+			digest.update(e.getKey().getBytes());
+			digest.update(sha256(path, Files.size(path)).getBytes());
+		}
+		return HexFormat.of().formatHex(digest.digest());
+	}
+
+	/**
+	 * SHA-256 of the first length bytes of a file
+	 */
+	static String sha256(Path path, long length) throws IOException {
+		MessageDigest digest = newDigest();
+		try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+			long remaining = length;
+			while (remaining > 0) {
+				buf.clear();
+				if (remaining < buf.capacity())
+					buf.limit((int) remaining);
+				int n = ch.read(buf);
+				if (n < 0)
+					throw new IOException("File shorter than expected: " + path);
+				buf.flip();
+				digest.update(buf);
+				remaining -= n;
+			}
+		}
+		return HexFormat.of().formatHex(digest.digest());
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,333 @@
+package app;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.ToDoubleFunction;
+
+import accounts.Portfolio;
+import accounts.PortfolioHistory;
+import app.BacktestOrchestrator.StrategyConfig;
+import engine.BarCache;
+import engine.BarSeries;
+import engine.StockExchange;
+import io.Logger;
+
+/**
+ * Walk-forward optimization: the timeline is split into training windows, each
+ * followed by a test window. On every training window all candidate configs
+ * are run and the best one by the objective is picked. That run is then forked
+ * and continued on the test window, so its indicators are warmed up without
+ * replaying the training bars. The test windows together give an out-of-sample
+ * equity curve.
+ * <p>
+ * The bars are loaded once and shared by all runs. The training runs of all
+ * windows, and the test runs, are spread over a thread pool.
+ */
+public class WalkForward {
+
+	/**
+	 * How the timeline is split, in bars.
+	 *
+	 * @param trainBars length of the training window, or of the first one if
+	 *                  anchored
+	 * @param testBars  length of each test window
+	 * @param anchored  true if every training window starts at the first bar,
+	 *                  false if it rolls forward with the test window
+	 */
+	public record Windows(int trainBars, int testBars, boolean anchored) {
+		public Windows {
+			if (trainBars < 1 || testBars < 1)
+				throw new IllegalArgumentException("Windows need at least one bar");
+		}
+
+		public static Windows rolling(int trainBars, int testBars) {
+			return new Windows(trainBars, testBars, false);
+		}
+
+		public static Windows anchored(int trainBars, int testBars) {
+			return new Windows(trainBars, testBars, true);
+		}
+	}
+
+	/**
+	 * Outcome of one window.
+	 *
+	 * @param trainFrom  first bar of the training window
+	 * @param testFrom   first bar of the test window
+	 * @param testTo     first bar after the test window, null at the end of the
+	 *                   data
+	 * @param best       index of the picked candidate
+	 * @param trainScore objective of the picked candidate on the training window
+	 * @param testReturn return over the test window
+	 */
+	public record WindowResult(LocalDateTime trainFrom, LocalDateTime testFrom, LocalDateTime testTo, int best,
+			String label, Map<String, Double> params, double trainScore, double testReturn) {
+	}
+
+	/**
+	 * Outcome of a walk-forward run.
+	 *
+	 * @param timestamps epoch seconds of every test bar
+	 * @param equity     out-of-sample value at every test bar, recorded like a
+	 *                   PortfolioHistory and starting at the starting cash
+	 */
+	public record Result(List<WindowResult> windows, long[] timestamps, double[] equity) {
+
+		/**
+		 * Metrics of the out-of-sample equity, see PortfolioHistory.metrics()
+		 */
+		public Map<String, Double> metrics() {
+			return PortfolioHistory.metrics(equity);
+		}
+	}
+
+	private final Logger logger;
+	private final Map<String, BarSeries> data;
+	private final List<StrategyConfig> candidates;
+	private final double startingCash;
+	// Every timestamp that has a bar for some ticker, in order
+	private final long[] timeline;
+
+	/**
+	 * @param data         bars of every ticker, shared by all runs
+	 * @param candidates   configs to choose from on every training window
+	 * @param startingCash cash of every run
+	 */
+	public WalkForward(Logger logger, Map<String, BarSeries> data, List<StrategyConfig> candidates,
+			double startingCash) {
+		if (candidates.isEmpty())
+			throw new IllegalArgumentException("Need at least one candidate");
+		this.logger = Objects.requireNonNull(logger);
+		this.data = new LinkedHashMap<>(data);
+		this.candidates = List.copyOf(candidates);
+		this.startingCash = startingCash;
+		this.timeline = timeline(data);
+	}
+
+	/**
+	 * Loads the data files of an exchange through the shared BarCache, see
+	 * StockExchange.getDataPaths()
+	 */
+	public static Map<String, BarSeries> load(Map<String, String> dataPaths) throws IOException {
+		Map<String, BarSeries> data = new LinkedHashMap<>();
+		for (Map.Entry<String, String> e : dataPaths.entrySet())
+			data.put(e.getKey(), BarCache.shared().getAsExchange(e.getValue()));
+		return data;
+	}
+
+	/**
+	 * Objective picking the candidate with the highest value of a metric of
+	 * PortfolioHistory.metrics(). NaN counts as worst
+	 */
+	public static ToDoubleFunction<PortfolioHistory> maximize(String metric) {
+		return h -> h.metrics().getOrDefault(metric, Double.NaN);
+	}
+
+	/**
+	 * Objective picking the candidate with the lowest value of a metric, like
+	 * max_drawdown
+	 */
+	public static ToDoubleFunction<PortfolioHistory> minimize(String metric) {
+		return h -> -h.metrics().getOrDefault(metric, Double.NaN);
+	}
+
+	/* ================================= Running ================================ */
+
+	/**
+	 * Runs the walk-forward optimization.
+	 *
+	 * @param windows   how to split the timeline
+	 * @param objective score of a training run, higher is better
+	 * @param threads   number of runs at the same time
+	 */
+	public Result run(Windows windows, ToDoubleFunction<PortfolioHistory> objective, int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("Need at least one thread");
+		List<int[]> bounds = new ArrayList<>();
+		for (int testFrom = windows.trainBars(); testFrom < timeline.length; testFrom += windows.testBars()) {
+			int trainFrom = windows.anchored() ? 0 : testFrom - windows.trainBars();
+			bounds.add(new int[] { trainFrom, testFrom, Math.min(timeline.length, testFrom + windows.testBars()) });
+		}
+		if (bounds.isEmpty())
+			throw new IllegalArgumentException("Only " + timeline.length + " bars, need more than "
+					+ windows.trainBars() + " for a test window");
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<CompletableFuture<Window>> futures = new ArrayList<>();
+			for (int[] b : bounds) {
+				Window w = new Window(b[0], b[1], b[2]);
+				CompletableFuture<?>[] training = new CompletableFuture<?>[candidates.size()];
+				for (int c = 0; c < candidates.size(); c++) {
+					int candidate = c;
+					training[c] = CompletableFuture.runAsync(() -> w.train(candidate, objective), pool);
+				}
+				futures.add(CompletableFuture.allOf(training).thenApplyAsync(v -> w.test(), pool));
+			}
+			List<Window> done = new ArrayList<>();
+			for (CompletableFuture<Window> f : futures)
+				done.add(f.join());
+			return stitch(done);
+		} catch (CompletionException e) {
+			throw new IllegalStateException("Walk-forward run failed", e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * One training and test window. Keeps only the best training run, so memory
+	 * doesn't grow with the number of candidates
+	 */
+	private final class Window {
+		final int trainFrom, testFrom, testTo;
+		private BacktestOrchestrator best;
+		private int bestIndex = -1;
+		private double bestScore = Double.NaN;
+
+		// Filled in by test()
+		WindowResult result;
+		long[] timestamps;
+		double[] values;
+		double base;
+		double finalValue;
+
+		Window(int trainFrom, int testFrom, int testTo) {
+			this.trainFrom = trainFrom;
+			this.testFrom = testFrom;
+			this.testTo = testTo;
+		}
+
+		void train(int candidate, ToDoubleFunction<PortfolioHistory> objective) {
+			StrategyConfig config = candidates.get(candidate);
+			BacktestOrchestrator run = new BacktestOrchestrator(logger, exchange(trainFrom, testFrom),
+					List.of(config), startingCash);
+			run.runBacktest();
+			double score = objective.applyAsDouble(run.getPortfolios().get(0).getHistoryTracker());
+			synchronized (this) {
+				if (bestIndex < 0 || better(score, candidate, bestScore, bestIndex)) {
+					best = run;
+					bestIndex = candidate;
+					bestScore = score;
+				}
+			}
+		}
+
+		Window test() {
+			Portfolio trained = best.getPortfolios().get(0);
+			int forkedAt = trained.getHistoryTracker().getSnapshots().size();
+			base = trained.getTotalValue();
+			BacktestOrchestrator branch = best.forkPoint().branch(exchange(testFrom, testTo), logger);
+			best = null;
+			branch.runBacktest();
+
+			Portfolio tested = branch.getPortfolios().get(0);
+			List<PortfolioHistory.Snapshot> snapshots = tested.getHistoryTracker().getSnapshots();
+			int n = snapshots.size() - forkedAt;
+			timestamps = new long[n];
+			values = new double[n];
+			for (int i = 0; i < n; i++) {
+				PortfolioHistory.Snapshot s = snapshots.get(forkedAt + i);
+				timestamps[i] = BarSeries.toEpochSecond(s.getTimestamp());
+				values[i] = s.getTotalValue();
+			}
+			finalValue = tested.getTotalValue();
+			StrategyConfig config = candidates.get(bestIndex);
+			result = new WindowResult(time(trainFrom), time(testFrom), testTo < timeline.length ? time(testTo) : null,
+					bestIndex, config.label, config.params, bestScore, finalValue / base - 1.0);
+			return this;
+		}
+	}
+
+	/**
+	 * True if score a beats score b. NaN loses, and ties go to the earlier
+	 * candidate so the pick doesn't depend on the order runs finish in
+	 */
+	static boolean better(double a, int aIndex, double b, int bIndex) {
+		if (Double.isNaN(a))
+			return Double.isNaN(b) && aIndex < bIndex;
+		if (Double.isNaN(b) || a > b)
+			return true;
+		return a == b && aIndex < bIndex;
+	}
+
+	/**
+	 * Chains the test windows into one equity curve. Each window continues from
+	 * where the previous one ended, scaled by the window's own returns
+	 */
+	private Result stitch(List<Window> windows) {
+		int total = 0;
+		for (Window w : windows)
+			total += w.values.length;
+		long[] timestamps = new long[total];
+		double[] equity = new double[total];
+		double value = startingCash;
+		int k = 0;
+		List<WindowResult> results = new ArrayList<>();
+		for (Window w : windows) {
+			results.add(w.result);
+			for (int i = 0; i < w.values.length; i++, k++) {
+				timestamps[k] = w.timestamps[i];
+				equity[k] = value * w.values[i] / w.base;
+			}
+			value *= w.finalValue / w.base;
+		}
+		return new Result(List.copyOf(results), timestamps, equity);
+	}
+
+	/* ================================== Data ================================== */
+
+	/**
+	 * An exchange over the bars with timeline index from, inclusive, to to,
+	 * exclusive. The series are shared, only the sources are new
+	 */
+	StockExchange exchange(int from, int to) {
+		StockExchange exchange = new StockExchange(logger);
+		LocalDateTime start = time(from);
+		LocalDateTime end = to < timeline.length ? time(to) : null;
+		for (Map.Entry<String, BarSeries> e : data.entrySet())
+			exchange.addSource(e.getKey(), e.getValue().source(start, end));
+		return exchange;
+	}
+
+	private LocalDateTime time(int index) {
+		return LocalDateTime.ofEpochSecond(timeline[index], 0, ZoneOffset.UTC);
+	}
+
+	/**
+	 * Sorted distinct timestamps of all series
+	 */
+	static long[] timeline(Map<String, BarSeries> data) {
+		int total = 0;
+		for (BarSeries s : data.values())
+			total += s.size();
+		long[] all = new long[total];
+		int k = 0;
+		for (BarSeries s : data.values()) {
+			System.arraycopy(s.timestamps(), 0, all, k, s.size());
+			k += s.size();
+		}
+		Arrays.sort(all);
+		int n = 0;
+		for (int i = 0; i < all.length; i++) {
+			if (n == 0 || all[i] != all[n - 1])
+				all[n++] = all[i];
+		}
+		return Arrays.copyOf(all, n);
+	}
+
+	public int getBarCount() {
+		return timeline.length;
+	}
+}
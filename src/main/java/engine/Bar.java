@@ -1,6 +1,7 @@
 package engine;
 
+import java.io.Serializable;
 import java.time.LocalDateTime;
 
-public record Bar(LocalDateTime timestamp, double open, double high, double low, double close, double volume) {
+public record Bar(LocalDateTime timestamp, double open, double high, double low, double close, double volume) implements Serializable {
 }
\ No newline at end of file
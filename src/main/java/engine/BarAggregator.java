@@ -0,0 +1,157 @@
+package engine;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Builds bars from trades, one trade at a time, keeping only the bar being
+ * built. Three kinds of bars are supported:
+ * <ul>
+ * <li>time bars, one per interval that has trades, stamped with the start of
+ * the interval</li>
+ * <li>volume bars, closed by the trade that brings the traded size to the
+ * threshold</li>
+ * <li>dollar bars, closed by the trade that brings price times size to the
+ * threshold</li>
+ * </ul>
+ * Volume and dollar bars are stamped with the time of their first trade. A
+ * trade is never split between bars, so these bars can go above the
+ * threshold.
+ */
+public final class BarAggregator {
+	public enum Kind {
+		TIME, VOLUME, DOLLAR
+	}
+
+	private final Kind kind;
+	private final long interval;
+	private final double threshold;
+
+	// The bar being built
+	private boolean open = false;
+	private long start;
+	private long bucket;
+	private double o, h, l, c, v, amount;
+
+	// The last completed bar
+	private long doneStart;
+	private double doneOpen, doneHigh, doneLow, doneClose, doneVolume;
+
+	private BarAggregator(Kind kind, long interval, double threshold) {
+		this.kind = kind;
+		this.interval = interval;
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Bars covering fixed intervals, aligned to the epoch, so one day bars start
+	 * at midnight UTC
+	 */
+	public static BarAggregator time(Duration interval) {
+		if (interval.isZero() || interval.isNegative())
+			throw new IllegalArgumentException("Interval must be positive");
+		return new BarAggregator(Kind.TIME, interval.toNanos(), 0.0);
+	}
+
+	/**
+	 * Bars of at least the given traded size
+	 */
+	public static BarAggregator volume(double threshold) {
+		if (!(threshold > 0.0))
+			throw new IllegalArgumentException("Threshold must be positive");
+		return new BarAggregator(Kind.VOLUME, 0L, threshold);
+	}
+
+	/**
+	 * Bars of at least the given traded value
+	 */
+	public static BarAggregator dollar(double threshold) {
+		if (!(threshold > 0.0))
+			throw new IllegalArgumentException("Threshold must be positive");
+		return new BarAggregator(Kind.DOLLAR, 0L, threshold);
+	}
+
+	/**
+	 * Adds a trade. Trades have to come in time order.
+	 *
+	 * @param timestamp time of the trade in nanoseconds since the epoch, UTC
+	 * @return true if a bar was completed, which is then available from bar()
+	 *         until the next call
+	 */
+	public boolean add(long timestamp, double price, double size) {
+		boolean completed = false;
+		if (kind == Kind.TIME) {
+			long b = Math.floorDiv(timestamp, interval);
+			if (open && b != bucket) {
+				complete();
+				completed = true;
+			}
+			if (!open) {
+				bucket = b;
+				begin(b * interval, price);
+			}
+		} else if (!open) {
+			begin(timestamp, price);
+		}
+
+		if (price > h)
+			h = price;
+		if (price < l)
+			l = price;
+		c = price;
+		v += size;
+		if (kind == Kind.TIME)
+			return completed;
+
+		amount += kind == Kind.VOLUME ? size : price * size;
+		if (amount >= threshold) {
+			complete();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Completes the bar being built, at the end of the data
+	 *
+	 * @return true if there was a bar, which is then available from bar()
+	 */
+	public boolean flush() {
+		if (!open)
+			return false;
+		complete();
+		return true;
+	}
+
+	private void begin(long timestamp, double price) {
+		open = true;
+		start = timestamp;
+		o = h = l = price;
+		v = 0.0;
+		amount = 0.0;
+	}
+
+	private void complete() {
+		doneStart = start;
+		doneOpen = o;
+		doneHigh = h;
+		doneLow = l;
+		doneClose = c;
+		doneVolume = v;
+		open = false;
+	}
+
+	/**
+	 * The last completed bar
+	 */
+	public Bar bar() {
+		LocalDateTime ts = LocalDateTime.ofEpochSecond(Math.floorDiv(doneStart, 1_000_000_000L),
+				(int) Math.floorMod(doneStart, 1_000_000_000L), ZoneOffset.UTC);
+		return new Bar(ts, doneOpen, doneHigh, doneLow, doneClose, doneVolume);
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+}
@@ -0,0 +1,239 @@
+package engine;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Cache of loaded BarSeries shared by everything in the process, so runs,
+ * servers and tests loading the same files parse each only once. A series is
+ * kept under its file, the file's modification time and size, and the date
+ * range, so a changed file is loaded again. The cache holds at most a budget of
+ * bytes of columns and drops the least recently used series to stay under it.
+ * <p>
+ * Threads asking for a series that is being loaded wait for that load instead
+ * of starting their own. A BarSeries is never modified after loading, so the
+ * same one can be used by any number of runs at once.
+ */
+public final class BarCache {
+	// Bytes per bar: a long timestamp and five double columns
+	static final int BAR_BYTES = 6 * Long.BYTES;
+	private static final long DEFAULT_BUDGET = 256L << 20;
+	private static final BarCache SHARED = new BarCache(DEFAULT_BUDGET);
+
+	/**
+	 * Counts since the cache was made or cleared.
+	 *
+	 * @param hits      series found in the cache, or already being loaded
+	 * @param misses    series that had to be loaded
+	 * @param evictions series dropped to stay under the budget
+	 * @param entries   series held now
+	 * @param bytes     bytes of columns held now
+	 */
+	public record Stats(long hits, long misses, long evictions, int entries, long bytes, long budget) {
+
+		public double hitRate() {
+			return hits + misses == 0 ? Double.NaN : (double) hits / (hits + misses);
+		}
+	}
+
+	/**
+	 * Which series of which version of a file. Range bounds are epoch seconds,
+	 * with the min and max values for no limit. asExchange for the rows of
+	 * BarSeries.loadAsExchange()
+	 */
+	record Key(Path path, long modified, long length, long from, long to, boolean asExchange) {
+	}
+
+	private final Map<Key, BarSeries> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private final Map<Key, CompletableFuture<BarSeries>> loading = new HashMap<>();
+	private long budget;
+	private long bytes = 0;
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	/**
+	 * @param budget most bytes of columns to hold
+	 */
+	public BarCache(long budget) {
+		setBudget(budget);
+	}
+
+	/**
+	 * The cache of the process, with a budget of 256 MiB until changed
+	 */
+	public static BarCache shared() {
+		return SHARED;
+	}
+
+	/**
+	 * Returns the whole file, see BarSeries.load()
+	 */
+	public BarSeries get(String dataPath) throws IOException {
+		return get(dataPath, null, null);
+	}
+
+	/**
+	 * Returns the rows from from, inclusive, to to, exclusive, loading them with
+	 * BarSeries.load() unless the cache has them for the file as it is now
+	 */
+	public BarSeries get(String dataPath, LocalDateTime from, LocalDateTime to) throws IOException {
+		return get(dataPath, from, to, false);
+	}
+
+	/**
+	 * Returns the rows a StockExchange runs through after addStock(), see
+	 * BarSeries.loadAsExchange()
+	 */
+	public BarSeries getAsExchange(String dataPath) throws IOException {
+		return get(dataPath, null, null, true);
+	}
+
+	private BarSeries get(String dataPath, LocalDateTime from, LocalDateTime to, boolean asExchange)
+			throws IOException {
+		Path path = Path.of(dataPath).toAbsolutePath().normalize();
+		Key key = new Key(path, Files.getLastModifiedTime(path).toMillis(), Files.size(path),
+				from == null ? Long.MIN_VALUE : BarSeries.toEpochSecond(from),
+				to == null ? Long.MAX_VALUE : BarSeries.toEpochSecond(to), asExchange);
+
+		CompletableFuture<BarSeries> load;
+		boolean owner = false;
+		synchronized (this) {
+			BarSeries series = entries.get(key);
+			if (series != null) {
+				hits++;
+				return series;
+			}
+			load = loading.get(key);
+			if (load != null) {
+				hits++;
+			} else {
+				misses++;
+				load = new CompletableFuture<>();
+				loading.put(key, load);
+				owner = true;
+				dropOlderVersions(key);
+			}
+		}
+		if (!owner)
+			return await(load);
+
+		try {
+			BarSeries series = asExchange ? BarSeries.loadAsExchange(dataPath) : BarSeries.load(dataPath, from, to);
+			synchronized (this) {
+				loading.remove(key);
+				put(key, series);
+			}
+			load.complete(series);
+			return series;
+		} catch (IOException | RuntimeException e) {
+			synchronized (this) {
+				loading.remove(key);
+			}
+			load.completeExceptionally(e);
+			throw e;
+		}
+	}
+
+	private static BarSeries await(CompletableFuture<BarSeries> load) throws IOException {
+		try {
+			return load.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof IOException io)
+				throw io;
+			if (e.getCause() instanceof RuntimeException re)
+				throw re;
+			throw e;
+		}
+	}
+
+	private void put(Key key, BarSeries series) {
+		long size = bytes(series);
+		if (size > budget)
+			return;
+		entries.put(key, series);
+		bytes += size;
+		evict();
+	}
+
+	/**
+	 * Drops the least recently used series until the rest fit the budget
+	 */
+	private void evict() {
+		Iterator<BarSeries> it = entries.values().iterator();
+		while (bytes > budget && it.hasNext()) {
+			bytes -= bytes(it.next());
+			it.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * Drops the series of the same range of earlier versions of the file, which
+	 * can't be asked for again
+	 */
+	private void dropOlderVersions(Key key) {
+		Iterator<Map.Entry<Key, BarSeries>> it = entries.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Key, BarSeries> e = it.next();
+			Key k = e.getKey();
+			if (k.path().equals(key.path()) && k.from() == key.from() && k.to() == key.to()
+					&& k.asExchange() == key.asExchange()) {
+				bytes -= bytes(e.getValue());
+				it.remove();
+			}
+		}
+	}
+
+	static long bytes(BarSeries series) {
+		return (long) series.size() * BAR_BYTES;
+	}
+
+	/**
+	 * Changes the budget, dropping series if the cache holds more
+	 */
+	public synchronized void setBudget(long budget) {
+		if (budget < 0)
+			throw new IllegalArgumentException("Budget can't be negative");
+		this.budget = budget;
+		evict();
+	}
+
+	/**
+	 * Drops every series of a file
+	 */
+	public synchronized void invalidate(String dataPath) {
+		Path path = Path.of(dataPath).toAbsolutePath().normalize();
+		Iterator<Map.Entry<Key, BarSeries>> it = entries.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Key, BarSeries> e = it.next();
+			if (e.getKey().path().equals(path)) {
+				bytes -= bytes(e.getValue());
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Drops every series and resets the counts. Loads in progress still finish
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		bytes = 0;
+		hits = 0;
+		misses = 0;
+		evictions = 0;
+	}
+
+	public synchronized Stats getStats() {
+		return new Stats(hits, misses, evictions, entries.size(), bytes, budget);
+	}
+}
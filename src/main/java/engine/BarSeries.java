@@ -0,0 +1,322 @@
+package engine;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+
+import io.BarFileIndex;
+import io.CSVparser;
+
+/**
+ * The bars of one ticker stored column by column in primitive arrays, for code
+ * that works on a whole series at once instead of bar by bar.
+ * Timestamps are stored as epoch seconds in UTC. The arrays returned by the
+ * getters are the internal ones and must not be modified.
+ */
+public final class BarSeries {
+	private final long[] timestamps;
+	private final double[] open;
+	private final double[] high;
+	private final double[] low;
+	private final double[] close;
+	private final double[] volume;
+
+	public BarSeries(long[] timestamps, double[] open, double[] high, double[] low, double[] close,
+			double[] volume) {
+		int n = timestamps.length;
+		if (open.length != n || high.length != n || low.length != n || close.length != n || volume.length != n)
+			throw new IllegalArgumentException("All columns must have the same length");
+		this.timestamps = timestamps;
+		this.open = open;
+		this.high = high;
+		this.low = low;
+		this.close = close;
+		this.volume = volume;
+	}
+
+	/**
+	 * Builds a series from bars in time order
+	 */
+	public static BarSeries of(List<Bar> bars) {
+		int n = bars.size();
+		long[] ts = new long[n];
+		double[] o = new double[n], h = new double[n], l = new double[n], c = new double[n], v = new double[n];
+		for (int i = 0; i < n; i++) {
+			Bar b = bars.get(i);
+			ts[i] = toEpochSecond(b.timestamp());
+			o[i] = b.open();
+			h[i] = b.high();
+			l[i] = b.low();
+			c[i] = b.close();
+			v[i] = b.volume();
+		}
+		return new BarSeries(ts, o, h, l, c, v);
+	}
+
+	/**
+	 * Loads a csv file on Date-OHLCV format. Like the StockExchange, rows with
+	 * missing or malformed values and rows with a close price of zero or less are
+	 * left out. Unlike addStock() the first row is kept, see loadAsExchange().
+	 *
+	 * @param dataPath path to the csv file
+	 */
+	public static BarSeries load(String dataPath) throws IOException {
+		return load(dataPath, null, null);
+	}
+
+	/**
+	 * Loads the rows from from, inclusive, to to, exclusive. Either may be null for
+	 * no limit. A limited range seeks to its first row with a BarFileIndex, so
+	 * only the rows of the range are parsed.
+	 *
+	 * @param dataPath path to the csv file
+	 */
+	public static BarSeries load(String dataPath, LocalDateTime from, LocalDateTime to) throws IOException {
+		Path path = Path.of(dataPath);
+		try (BufferedReader reader = Files.newBufferedReader(path)) {
+			int[] cols = columns(reader, dataPath);
+			if (from == null && to == null)
+				return readRows(reader, cols, Long.MIN_VALUE, Long.MAX_VALUE, false);
+
+			BarFileIndex index = BarFileIndex.of(path);
+			try (SeekableByteChannel channel = Files.newByteChannel(path)) {
+				channel.position(index.offsetFor(from));
+				BufferedReader rows = new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8));
+				return readRows(rows, cols, from == null ? Long.MIN_VALUE : toEpochSecond(from),
+						to == null ? Long.MAX_VALUE : toEpochSecond(to), index.isSorted());
+			}
+		}
+	}
+
+	/**
+	 * Loads the bars a StockExchange runs through after addStock(ticker,
+	 * dataPath), which skips the first row of the file. Use this rather than
+	 * load() when results are compared with the event engine, so both see the
+	 * same bars.
+	 *
+	 * @param dataPath path to the csv file
+	 */
+	public static BarSeries loadAsExchange(String dataPath) throws IOException {
+		try (BufferedReader reader = Files.newBufferedReader(Path.of(dataPath))) {
+			int[] cols = columns(reader, dataPath);
+			String first = reader.readLine();
+			while (first != null && first.isBlank())
+				first = reader.readLine();
+			return readRows(reader, cols, Long.MIN_VALUE, Long.MAX_VALUE, false);
+		}
+	}
+
+	/**
+	 * Reads the header row and returns the columns of Open, High, Low, Close and
+	 * Volume
+	 */
+	private static int[] columns(BufferedReader reader, String dataPath) throws IOException {
+		String headerLine = reader.readLine();
+		if (headerLine == null)
+			throw new IOException("CSV file is empty, no header row: " + dataPath);
+		List<String> headers = Arrays.stream(headerLine.split(",")).map(String::trim).toList();
+		int[] cols = { headers.indexOf("Open"), headers.indexOf("High"), headers.indexOf("Low"),
+				headers.indexOf("Close"), headers.indexOf("Volume") };
+		for (int col : cols)
+			if (col < 1)
+				throw new IOException("Expected Date,Open,High,Low,Close,Volume columns in " + dataPath);
+		return cols;
+	}
+
+	/**
+	 * Reads the rows with timestamps from from, inclusive, to to, exclusive
+	 *
+	 * @param stopAtTo true if the rows are in time order, so reading can stop at
+	 *                 the first row at or after to
+	 */
+	private static BarSeries readRows(BufferedReader reader, int[] cols, long from, long to, boolean stopAtTo)
+			throws IOException {
+		Builder builder = new Builder(1024);
+		double[] values = new double[cols.length];
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (line.isBlank())
+				continue;
+			String[] tokens = line.split(",");
+			long ts = toEpochSecond(CSVparser.parseTimestamp(tokens[0]));
+			if (ts < from)
+				continue;
+			if (ts >= to) {
+				if (stopAtTo)
+					break;
+				continue;
+			}
+			if (!parseValues(tokens, cols, values))
+				continue;
+			builder.add(ts, values[0], values[1], values[2], values[3], values[4]);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Parses the OHLCV values of a row, returns false if the row should be skipped
+	 */
+	private static boolean parseValues(String[] tokens, int[] cols, double[] values) {
+		for (int i = 0; i < cols.length; i++) {
+			if (cols[i] >= tokens.length)
+				return false;
+			try {
+				values[i] = Double.parseDouble(tokens[cols[i]]);
+			} catch (NumberFormatException e) {
+				return false;
+			}
+			if (Double.isNaN(values[i]))
+				return false;
+		}
+		return values[3] > 0.0;
+	}
+
+	/**
+	 * Grows the columns while rows are added
+	 */
+	static final class Builder {
+		private long[] ts;
+		private double[] o, h, l, c, v;
+		private int size = 0;
+
+		Builder(int capacity) {
+			ts = new long[capacity];
+			o = new double[capacity];
+			h = new double[capacity];
+			l = new double[capacity];
+			c = new double[capacity];
+			v = new double[capacity];
+		}
+
+		void add(long timestamp, double open, double high, double low, double close, double volume) {
+			if (size == ts.length) {
+				int capacity = Math.max(16, size * 2);
+				ts = Arrays.copyOf(ts, capacity);
+				o = Arrays.copyOf(o, capacity);
+				h = Arrays.copyOf(h, capacity);
+				l = Arrays.copyOf(l, capacity);
+				c = Arrays.copyOf(c, capacity);
+				v = Arrays.copyOf(v, capacity);
+			}
+			ts[size] = timestamp;
+			o[size] = open;
+			h[size] = high;
+			l[size] = low;
+			c[size] = close;
+			v[size] = volume;
+			size++;
+		}
+
+		BarSeries build() {
+			return new BarSeries(Arrays.copyOf(ts, size), Arrays.copyOf(o, size), Arrays.copyOf(h, size),
+					Arrays.copyOf(l, size), Arrays.copyOf(c, size), Arrays.copyOf(v, size));
+		}
+	}
+
+	/* ================================= Access ================================= */
+
+	public int size() {
+		return timestamps.length;
+	}
+
+	public long[] timestamps() {
+		return timestamps;
+	}
+
+	public double[] open() {
+		return open;
+	}
+
+	public double[] high() {
+		return high;
+	}
+
+	public double[] low() {
+		return low;
+	}
+
+	public double[] close() {
+		return close;
+	}
+
+	public double[] volume() {
+		return volume;
+	}
+
+	public LocalDateTime timestamp(int index) {
+		return LocalDateTime.ofEpochSecond(timestamps[index], 0, ZoneOffset.UTC);
+	}
+
+	public Bar bar(int index) {
+		return new Bar(timestamp(index), open[index], high[index], low[index], close[index], volume[index]);
+	}
+
+	/**
+	 * Index of the first bar at or after the timestamp, size() if there is none
+	 */
+	public int indexOf(LocalDateTime timestamp) {
+		int i = Arrays.binarySearch(timestamps, toEpochSecond(timestamp));
+		if (i < 0)
+			return -i - 1;
+		while (i > 0 && timestamps[i - 1] == timestamps[i])
+			i--;
+		return i;
+	}
+
+	/**
+	 * Returns a BarSource stepping through this series, so it can be fed to a
+	 * StockExchange
+	 */
+	public BarSource source() {
+		return source(0, size());
+	}
+
+	/**
+	 * Returns a BarSource stepping through the bars from from, inclusive, to to,
+	 * exclusive. Either may be null for no limit
+	 */
+	public BarSource source(LocalDateTime from, LocalDateTime to) {
+		return source(from == null ? 0 : indexOf(from), to == null ? size() : indexOf(to));
+	}
+
+	/**
+	 * Returns a BarSource stepping through the bars with index from, inclusive, to
+	 * to, exclusive
+	 */
+	public BarSource source(int from, int to) {
+		if (from < 0 || to > size() || from > to)
+			throw new IndexOutOfBoundsException("Range " + from + " to " + to + " of " + size() + " bars");
+		return new BarSource() {
+			private int index = from - 1;
+
+			@Override
+			public boolean goToNext() {
+				if (index >= to - 1)
+					return false;
+				index++;
+				return true;
+			}
+
+			@Override
+			public Bar getBar() {
+				return index < from ? null : bar(index);
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+	}
+
+	public static long toEpochSecond(LocalDateTime timestamp) {
+		return timestamp.toEpochSecond(ZoneOffset.UTC);
+	}
+}
@@ -0,0 +1,25 @@
+package engine;
+
+import java.io.Closeable;
+
+/**
+ * A sequence of bars for one ticker that the StockExchange steps through.
+ * Implemented by the CSVparser for files and by in-memory sources.
+ */
+public interface BarSource extends Closeable {
+
+	/**
+	 * Moves to the next bar
+	 * 
+	 * @return false if there are no more bars
+	 */
+	boolean goToNext();
+
+	/**
+	 * Returns the current bar, or null if it is missing or malformed
+	 */
+	Bar getBar();
+
+	@Override
+	void close();
+}
@@ -0,0 +1,94 @@
+package engine;
+
+/**
+ * Histogram of latencies in nanoseconds with log-linear buckets: every power
+ * of two is split into 16 buckets, so values are kept to within about 6
+ * percent over the whole range, in a fixed array of counts. Not thread safe.
+ */
+public class LatencyHistogram {
+	private static final int SUB_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	private final long[] counts = new long[64 * SUB_BUCKETS];
+	private long count = 0;
+	private long sum = 0;
+	private long max = 0;
+
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		counts[index(value)]++;
+		count++;
+		sum += value;
+		max = Math.max(max, value);
+	}
+
+	/**
+	 * Adds the counts of another histogram, for example one per thread
+	 */
+	public void merge(LatencyHistogram other) {
+		for (int i = 0; i < counts.length; i++)
+			counts[i] += other.counts[i];
+		count += other.count;
+		sum += other.sum;
+		max = Math.max(max, other.max);
+	}
+
+	private static int index(long value) {
+		if (value < SUB_BUCKETS)
+			return (int) value;
+		int exp = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return ((exp - SUB_BITS + 1) << SUB_BITS) + sub;
+	}
+
+	/**
+	 * Largest value that falls in the bucket
+	 */
+	private static long upperBound(int index) {
+		if (index < SUB_BUCKETS)
+			return index;
+		int exp = (index >> SUB_BITS) + SUB_BITS - 1;
+		int sub = index & (SUB_BUCKETS - 1);
+		long lower = (long) (SUB_BUCKETS + sub) << (exp - SUB_BITS);
+		return lower + (1L << (exp - SUB_BITS)) - 1;
+	}
+
+	/**
+	 * Value below which the fraction p of the recorded values fall, 0 if empty
+	 *
+	 * @param p between 0 and 1, 0.99 for the 99th percentile
+	 */
+	public long percentile(double p) {
+		if (count == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(p * count));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank)
+				return Math.min(upperBound(i), max);
+		}
+		return max;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getMean() {
+		return count == 0 ? 0.0 : (double) sum / count;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * One line summary in microseconds
+	 */
+	public String summary() {
+		return String.format("count=%d mean=%.1fus p50=%.1fus p90=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus", count,
+				getMean() / 1e3, percentile(0.5) / 1e3, percentile(0.9) / 1e3, percentile(0.99) / 1e3,
+				percentile(0.999) / 1e3, max / 1e3);
+	}
+}
@@ -0,0 +1,292 @@
+package engine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import io.CSVparser;
+
+/**
+ * A universe of csv files in one directory, for universes too large to keep a
+ * parser open per ticker. Scanning reads only the first timestamp of every
+ * file. Give it to StockExchange.addUniverse(), which starts a ticker when the
+ * run reaches its first bar.
+ * <p>
+ * Each ticker reads its bars in chunks. Between chunks its parser stays in a
+ * pool of open files with a limited size, and the least recently used parser
+ * is closed when the pool is full. A ticker whose parser was closed opens its
+ * file again at the next bar, using the BarFileIndex next to the file to seek
+ * there. A file is closed as soon as its last bar is read. The first chunks of
+ * the tickers starting next are read ahead on a background thread.
+ */
+public class LazyUniverse implements AutoCloseable {
+	// Bars read from a file at a time
+	static final int CHUNK = 256;
+
+	/**
+	 * A file of the universe.
+	 *
+	 * @param ticker file name without the extension, in upper case
+	 * @param first  timestamp of the first row
+	 */
+	public record Entry(String ticker, String path, LocalDateTime first) {
+	}
+
+	private final List<Entry> entries;
+	private final int maxOpen;
+	private final int prefetch;
+	private final Map<Source, CSVparser> open = new LinkedHashMap<>(16, 0.75f, true);
+	private final ExecutorService prefetcher;
+	private int opened = 0;
+	private int maxOpenSeen = 0;
+
+	private LazyUniverse(List<Entry> entries, int maxOpen, int prefetch) {
+		if (maxOpen < 1 || prefetch < 0)
+			throw new IllegalArgumentException("Need at least one open file and no negative prefetch");
+		this.entries = List.copyOf(entries);
+		this.maxOpen = maxOpen;
+		this.prefetch = prefetch;
+		this.prefetcher = prefetch == 0 ? null : Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "universe-prefetch");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Scans the csv files of a directory.
+	 *
+	 * @param maxOpen  most files open at the same time
+	 * @param prefetch number of tickers after each started one whose first chunk is
+	 *                 read ahead, 0 for none
+	 */
+	public static LazyUniverse scan(Path dir, int maxOpen, int prefetch) throws IOException {
+		List<Entry> entries = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.csv")) {
+			for (Path file : files) {
+				LocalDateTime first = firstTimestamp(file);
+				if (first == null)
+					continue;
+				String name = file.getFileName().toString();
+				String ticker = name.substring(0, name.length() - 4).toUpperCase(Locale.ROOT);
+				entries.add(new Entry(ticker, file.toString(), first));
+			}
+		}
+		entries.sort(Comparator.comparing(Entry::first).thenComparing(Entry::ticker));
+		return new LazyUniverse(entries, maxOpen, prefetch);
+	}
+
+	/**
+	 * Timestamp of the first row that has one, null for a file without rows
+	 */
+	static LocalDateTime firstTimestamp(Path file) throws IOException {
+		try (BufferedReader reader = Files.newBufferedReader(file)) {
+			if (reader.readLine() == null)
+				return null;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isBlank())
+					continue;
+				try {
+					return CSVparser.parseTimestamp(line.split(",", 2)[0]);
+				} catch (RuntimeException malformed) {
+					// Try the next row
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Bytes up to and including the end of the header row
+	 */
+	private static long headerLength(Path file) throws IOException {
+		try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+			long length = 0;
+			int b;
+			while ((b = in.read()) != -1) {
+				length++;
+				if (b == '\n')
+					break;
+			}
+			return length;
+		}
+	}
+
+	/**
+	 * The files, by first timestamp
+	 */
+	public List<Entry> entries() {
+		return entries;
+	}
+
+	/**
+	 * Creates the source of a ticker. Nothing is opened until bars are read
+	 */
+	Source source(Entry entry) {
+		return new Source(entry);
+	}
+
+	/**
+	 * Reads the first chunk of the tickers that start after the one at index, on
+	 * the background thread
+	 */
+	void prefetchAfter(int index, List<Source> sources) {
+		if (prefetcher == null)
+			return;
+		for (int i = index + 1; i <= Math.min(index + prefetch, sources.size() - 1); i++) {
+			Source source = sources.get(i);
+			prefetcher.execute(source::prefetch);
+		}
+	}
+
+	/* ================================ Handles ================================= */
+
+	private synchronized CSVparser acquire(Source source) throws IOException {
+		CSVparser parser = open.get(source);
+		if (parser != null)
+			return parser;
+		// Closes the least recently used parser that isn't being read from. If all
+		// are, which only the prefetch thread can cause, the pool goes over for a while
+		Iterator<Map.Entry<Source, CSVparser>> it = open.entrySet().iterator();
+		while (open.size() >= maxOpen && it.hasNext()) {
+			Map.Entry<Source, CSVparser> eldest = it.next();
+			if (eldest.getKey().reading)
+				continue;
+			it.remove();
+			eldest.getValue().close();
+		}
+		// The first open skips only the header, later ones seek to the next row
+		if (source.resumeFrom == null)
+			parser = CSVparser.resumeAt(source.entry.path(), headerLength(Path.of(source.entry.path())));
+		else
+			parser = CSVparser.range(source.entry.path(), source.resumeFrom, null);
+		open.put(source, parser);
+		opened++;
+		maxOpenSeen = Math.max(maxOpenSeen, open.size());
+		return parser;
+	}
+
+	private synchronized void release(Source source) {
+		CSVparser parser = open.remove(source);
+		if (parser != null)
+			parser.close();
+	}
+
+	/**
+	 * Number of files open now
+	 */
+	public synchronized int getOpenFiles() {
+		return open.size();
+	}
+
+	/**
+	 * Most files that were open at the same time
+	 */
+	public synchronized int getMaxOpenFiles() {
+		return maxOpenSeen;
+	}
+
+	/**
+	 * Number of times a file was opened, including opening it again after its
+	 * parser was closed to make room
+	 */
+	public synchronized int getOpenCount() {
+		return opened;
+	}
+
+	@Override
+	public void close() {
+		if (prefetcher != null)
+			prefetcher.shutdownNow();
+		synchronized (this) {
+			open.values().forEach(CSVparser::close);
+			open.clear();
+		}
+	}
+
+	/**
+	 * Bars of one ticker, read a chunk at a time
+	 */
+	final class Source implements BarSource {
+		private final Entry entry;
+		private final ArrayDeque<Bar> chunk = new ArrayDeque<>(CHUNK);
+		private Bar current = null;
+		// Rows before this were read already, null for the start of the file
+		private LocalDateTime resumeFrom = null;
+		private boolean exhausted = false;
+		// Set while a chunk is read, so the parser isn't closed under it
+		private volatile boolean reading = false;
+
+		private Source(Entry entry) {
+			this.entry = entry;
+		}
+
+		Entry entry() {
+			return entry;
+		}
+
+		@Override
+		public synchronized boolean goToNext() {
+			if (chunk.isEmpty() && !exhausted)
+				fill();
+			current = chunk.poll();
+			return current != null;
+		}
+
+		@Override
+		public synchronized Bar getBar() {
+			return current;
+		}
+
+		synchronized void prefetch() {
+			if (chunk.isEmpty() && !exhausted && resumeFrom == null)
+				fill();
+		}
+
+		private void fill() {
+			reading = true;
+			try {
+				CSVparser parser = acquire(this);
+				while (chunk.size() < CHUNK) {
+					if (!parser.goToNext()) {
+						exhausted = true;
+						release(this);
+						return;
+					}
+					// The next chunk starts after this row, even if it's malformed
+					resumeFrom = parser.getTimestamp().plusNanos(1);
+					Bar bar = parser.getBar();
+					if (bar != null)
+						chunk.add(bar);
+				}
+			} catch (IOException e) {
+				throw new IllegalStateException("Failed to read " + entry.path(), e);
+			} finally {
+				reading = false;
+			}
+		}
+
+		@Override
+		public synchronized void close() {
+			exhausted = true;
+			chunk.clear();
+			release(this);
+		}
+	}
+}
@@ -0,0 +1,34 @@
+package engine;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * BarSource over a list of bars held in memory. The first call to goToNext()
+ * moves to the first bar of the list.
+ */
+public class ListBarSource implements BarSource {
+	private final List<Bar> bars;
+	private int index = -1;
+
+	public ListBarSource(List<Bar> bars) {
+		this.bars = Objects.requireNonNull(bars);
+	}
+
+	@Override
+	public boolean goToNext() {
+		if (index >= bars.size() - 1)
+			return false;
+		index++;
+		return true;
+	}
+
+	@Override
+	public Bar getBar() {
+		return index < 0 ? null : bars.get(index);
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,108 @@
+package engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import accounts.BarListener;
+
+/**
+ * Rolls the bars of every ticker up into bars of a longer timeframe, one bar
+ * at a time, and notifies the listeners subscribed to that timeframe.
+ * A bar is complete when the first bar of the next period arrives, since a
+ * period may end early because of holidays. The remaining bars are completed
+ * when the data runs out.
+ */
+final class Resampler {
+	private final Timeframe timeframe;
+	private final List<BarListener> listeners = new ArrayList<>();
+
+	/**
+	 * The bar being built for one ticker
+	 */
+	private static final class Partial {
+		long bucket;
+		double open, high, low, close, volume;
+	}
+
+	private final Map<String, Partial> partials = new HashMap<>();
+	private final Map<String, Bar> completed = new HashMap<>();
+	private final Map<String, Bar> output = Collections.unmodifiableMap(completed);
+
+	Resampler(Timeframe timeframe) {
+		this.timeframe = timeframe;
+	}
+
+	Timeframe getTimeframe() {
+		return timeframe;
+	}
+
+	void addListener(BarListener listener) {
+		if (!listeners.contains(listener))
+			listeners.add(listener);
+	}
+
+	boolean removeListener(BarListener listener) {
+		listeners.remove(listener);
+		return listeners.isEmpty();
+	}
+
+	/**
+	 * Adds the bars of one step and notifies the listeners of the bars they
+	 * complete
+	 */
+	void accept(Map<String, Bar> bars) {
+		for (Map.Entry<String, Bar> entry : bars.entrySet()) {
+			Bar bar = entry.getValue();
+			long bucket = timeframe.bucket(bar.timestamp());
+			Partial p = partials.get(entry.getKey());
+			if (p == null) {
+				p = new Partial();
+				partials.put(entry.getKey(), p);
+				begin(p, bucket, bar);
+				continue;
+			}
+			if (bucket != p.bucket) {
+				completed.put(entry.getKey(), toBar(p));
+				begin(p, bucket, bar);
+				continue;
+			}
+			p.high = Math.max(p.high, bar.high());
+			p.low = Math.min(p.low, bar.low());
+			p.close = bar.close();
+			p.volume += bar.volume();
+		}
+		notifyListeners();
+	}
+
+	/**
+	 * Completes the bars being built, at the end of the data
+	 */
+	void flush() {
+		partials.forEach((ticker, p) -> completed.put(ticker, toBar(p)));
+		partials.clear();
+		notifyListeners();
+	}
+
+	private void notifyListeners() {
+		if (completed.isEmpty())
+			return;
+		listeners.forEach(l -> l.acceptBars(output));
+		completed.clear();
+	}
+
+	private static void begin(Partial p, long bucket, Bar bar) {
+		p.bucket = bucket;
+		p.open = bar.open();
+		p.high = bar.high();
+		p.low = bar.low();
+		p.close = bar.close();
+		p.volume = bar.volume();
+	}
+
+	private Bar toBar(Partial p) {
+		return new Bar(timeframe.start(p.bucket), p.open, p.high, p.low, p.close, p.volume);
+	}
+}
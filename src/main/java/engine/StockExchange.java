@@ -1,9 +1,12 @@
 package engine;
 
 import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -33,9 +36,9 @@ public class StockExchange {
 	public static StockExchange demoExchange(Logger logger) {
 		try {
 			StockExchange ex = new StockExchange(logger);
-			ex.addStock(AAPL_TICKER, AAPL_PATH);
-			ex.addStock(MSFT_TICKER, MSFT_PATH);
-			ex.addStock(SPY_TICKER, SPY_PATH);
+			ex.addCachedStock(AAPL_TICKER, AAPL_PATH);
+			ex.addCachedStock(MSFT_TICKER, MSFT_PATH);
+			ex.addCachedStock(SPY_TICKER, SPY_PATH);
 			return ex;
 
 		} catch (IOException e) {
@@ -46,11 +49,12 @@ public class StockExchange {
 
 	/* ================================= Fields ================================= */
 	/*
-	 * Two maps for keeping track of stocks. One relates the ticker to the CSVparser
-	 * The other one keeps track of what parsers are finished parsing
+	 * Two maps for keeping track of stocks. One relates the ticker to its source
+	 * (usually a CSVparser). The other one keeps track of what sources are finished
 	 */
-	private final Map<String, CSVparser> stockMap = new HashMap<>();
+	private final Map<String, BarSource> stockMap = new HashMap<>();
 	private final Map<String, Boolean> isFinished = new HashMap<>();
+	private final Map<String, String> dataPaths = new LinkedHashMap<>();
 
 	/*
 	 * Both portfolios and strategies register as listeners at the exchange
@@ -59,6 +63,12 @@ public class StockExchange {
 	 */
         private final List<BarListener> listeners = new ArrayList<>();
 
+	/*
+	 * Listeners on longer timeframes. There is one resampler per timeframe, shared
+	 * by all its listeners
+	 */
+	private final Map<Timeframe, Resampler> resamplers = new LinkedHashMap<>();
+
 	/*
 	 * Barmap is filled up each day, and all listeners are notified before moving on
 	 */
@@ -69,8 +79,28 @@ public class StockExchange {
 	 */
 	private boolean isRunning = false;
 	private int frequency = 1;
+	private boolean resamplersFlushed = false;
+	private LocalDateTime lastTimestamp = null;
 	private final Logger logger;
 
+	/*
+	 * With a calendar the exchange steps through its sessions. Each source is read
+	 * ahead by one bar, which waits in pending until its session comes
+	 */
+	private TradingCalendar calendar = null;
+	private TradingCalendar.MissingBars missingBars = TradingCalendar.MissingBars.EXCLUDE;
+	private int session = 0;
+	private final Map<String, Bar> pending = new HashMap<>();
+	private final Map<String, Bar> lastValid = new HashMap<>();
+
+	/*
+	 * Tickers of a lazy universe by first timestamp. They are added to the stock
+	 * map when the run reaches their first bar, from nextStart on
+	 */
+	private LazyUniverse universe = null;
+	private List<LazyUniverse.Source> universeSources = null;
+	private int nextStart = 0;
+
 	/* =============================== Constructor ============================== */
 	public StockExchange(Logger logger) {
 		this.logger = Objects.requireNonNull(logger);
@@ -83,12 +113,84 @@ public class StockExchange {
 
 		stockMap.putIfAbsent(ticker, new CSVparser(dataPath));
 		isFinished.putIfAbsent(ticker, false);
+		dataPaths.putIfAbsent(ticker, dataPath);
+	}
+
+	/**
+	 * Adds a stock with only the bars from from, inclusive, to to, exclusive.
+	 * Either may be null for no limit. The parser seeks straight to the start of
+	 * the range using a sidecar index next to the file, and stops at its end, so
+	 * a short window of a long file is quick to run. Unlike addStock() the first
+	 * row of the range is not skipped.
+	 */
+	public void addStock(String ticker, String dataPath, LocalDateTime from, LocalDateTime to) throws IOException {
+		if (isRunning)
+			throw new IllegalStateException();
+		if (stockMap.containsKey(ticker))
+			return;
+		stockMap.put(ticker, CSVparser.range(dataPath, from, to));
+		isFinished.putIfAbsent(ticker, false);
+		dataPaths.putIfAbsent(ticker, dataPath);
+	}
+
+	/**
+	 * Adds a stock with its bars from the process-wide BarCache, so exchanges
+	 * made over and over in one process parse each file once. Like addStock() the
+	 * first row is skipped, so runs give the same results. Rows with missing or
+	 * malformed values are left out of the series, where addStock() leaves the
+	 * ticker out of that one step.
+	 */
+	public void addCachedStock(String ticker, String dataPath) throws IOException {
+		if (isRunning)
+			throw new IllegalStateException();
+		if (stockMap.containsKey(ticker))
+			return;
+		stockMap.put(ticker, BarCache.shared().getAsExchange(dataPath).source());
+		isFinished.putIfAbsent(ticker, false);
+		dataPaths.putIfAbsent(ticker, dataPath);
+	}
+
+	/**
+	 * Adds a stock whose bars come from another source than a csv file, for
+	 * example bars held in memory
+	 */
+	public void addSource(String ticker, BarSource source) {
+		if (isRunning)
+			throw new IllegalStateException();
+		stockMap.putIfAbsent(ticker, source);
+		isFinished.putIfAbsent(ticker, false);
+	}
+
+	/**
+	 * Makes an added stock continue from a byte offset in its file instead of the
+	 * start. Used when resuming a run on rows appended after the offset.
+	 *
+	 * @param ticker ticker added with addStock
+	 * @param offset byte offset at the start of a line
+	 */
+	public void seekStock(String ticker, long offset) throws IOException {
+		if (isRunning)
+			throw new IllegalStateException();
+		String dataPath = dataPaths.get(ticker);
+		if (dataPath == null)
+			throw new IllegalArgumentException("Unknown ticker: " + ticker);
+		BarSource old = stockMap.put(ticker, CSVparser.resumeAt(dataPath, offset));
+		if (old != null)
+			old.close();
+	}
+
+	/**
+	 * Returns the data file of each added ticker, in the order they were added
+	 */
+	public Map<String, String> getDataPaths() {
+		return Collections.unmodifiableMap(dataPaths);
 	}
 
 	/**
 	 * Sets the frequency of PriceUpdateListener updates.
 	 * Signifies the amount of lines (which in this case corresponds to days)
-	 * to wait before notifying listeners
+	 * to wait before notifying listeners. The lines in between are skipped, use
+	 * addBarListener(listener, timeframe) to get bars that cover them
 	 * 
 	 * @param frequency
 	 */
@@ -100,6 +202,75 @@ public class StockExchange {
 		this.frequency = frequency;
 	}
 
+	/**
+	 * Steps through the sessions of the calendar instead of one row of every file
+	 * at a time, so a ticker that has no bar in a session doesn't shift its later
+	 * bars onto other sessions. Bars of a ticker that are missing, malformed or
+	 * have a close of zero or less are handled by the policy. Bars at timestamps
+	 * that aren't sessions are skipped.
+	 */
+	public void setCalendar(TradingCalendar calendar, TradingCalendar.MissingBars missingBars) {
+		if (isRunning)
+			throw new IllegalStateException();
+		this.calendar = Objects.requireNonNull(calendar);
+		this.missingBars = Objects.requireNonNull(missingBars);
+	}
+
+	/**
+	 * Adds every ticker of a universe. A ticker's file is only opened when the run
+	 * reaches its first bar, and the universe limits how many are open at once.
+	 * The exchange steps through the timestamps of the bars like with a calendar,
+	 * and without one every timestamp a started ticker has a bar at is a session.
+	 * Unlike addStock() the first row of each file is included. Close the universe
+	 * after the run.
+	 */
+	public void addUniverse(LazyUniverse universe) {
+		if (isRunning || this.universe != null)
+			throw new IllegalStateException("Only one universe can be added, before the run");
+		this.universe = universe;
+		universeSources = new ArrayList<>();
+		for (LazyUniverse.Entry entry : universe.entries()) {
+			if (stockMap.containsKey(entry.ticker()))
+				continue;
+			universeSources.add(universe.source(entry));
+			dataPaths.putIfAbsent(entry.ticker(), entry.path());
+		}
+	}
+
+	/**
+	 * Sets what happens to tickers without a valid bar in a session when stepping
+	 * through sessions, EXCLUDE by default
+	 */
+	public void setMissingBars(TradingCalendar.MissingBars missingBars) {
+		if (isRunning)
+			throw new IllegalStateException();
+		this.missingBars = Objects.requireNonNull(missingBars);
+	}
+
+	/**
+	 * Builds a calendar from the data files of the added stocks, logs its
+	 * alignment report and steps through it, see setCalendar()
+	 */
+	public TradingCalendar useCalendar(TradingCalendar.MissingBars missingBars) throws IOException {
+		TradingCalendar built = TradingCalendar.load(dataPaths);
+		for (String line : built.getReport().lines())
+			logger.info("Calendar: " + line);
+		setCalendar(built, missingBars);
+		return built;
+	}
+
+	public TradingCalendar getCalendar() {
+		return calendar;
+	}
+
+	/**
+	 * Index in the calendar of the next session to run, the number of sessions run
+	 * so far
+	 */
+	public int getSession() {
+		return session;
+	}
+
 	/**
 	 * Adds a portfolio to be notified
 	 * 
@@ -118,11 +289,49 @@ public class StockExchange {
                 addBarListener(strategy);
         }
 
+	/**
+	 * Adds a listener to be notified of every bar. Listeners are notified in the
+	 * order they were added, and a portfolio updates its value when notified, so
+	 * listeners that read the values at the close of a bar go after the portfolios
+	 */
         public void addBarListener(BarListener listener) {
                 if (!listeners.contains(listener))
                         listeners.add(listener);
         }
 
+        public void removeBarListener(BarListener listener) {
+                if (isRunning)
+                        throw new IllegalStateException();
+                listeners.remove(listener);
+                resamplers.values().removeIf(r -> r.removeListener(listener));
+        }
+
+	/**
+	 * Adds a strategy that trades on bars of a longer timeframe
+	 *
+	 * @see #addBarListener(BarListener, Timeframe)
+	 */
+	public void addStrategy(Strategy strategy, Timeframe timeframe) {
+		addBarListener(strategy, timeframe);
+	}
+
+	/**
+	 * Adds a listener that gets the bars resampled to a longer timeframe, for
+	 * example weekly bars from daily data. The open, high, low, close and summed
+	 * volume cover all bars of the period, and the bar is stamped with the start
+	 * of the period. Listeners on the same timeframe share one resampler.
+	 * <p>
+	 * A period is complete when the first bar of the next period arrives. Its bars
+	 * are sent before that bar reaches the other listeners, so an order placed on
+	 * a weekly bar is filled at that week's last close, like orders placed on the
+	 * normal bars.
+	 */
+	public void addBarListener(BarListener listener, Timeframe timeframe) {
+		if (isRunning)
+			throw new IllegalStateException();
+		resamplers.computeIfAbsent(timeframe, Resampler::new).addListener(listener);
+	}
+
 	/* =============================== Event Loop =============================== */
 	public void run() {
 		isRunning = true;
@@ -131,9 +340,39 @@ public class StockExchange {
 		logger.info("Finished parsing files");
 	}
 
+	/**
+	 * Runs until listeners have been notified of a bar at or after the given time,
+	 * or the data runs out. The run can be continued with run() or runUntil().
+	 * 
+	 * @param timestamp last time to notify listeners of
+	 * @return false if the data ran out
+	 */
+	public boolean runUntil(LocalDateTime timestamp) {
+		isRunning = true;
+		while (lastTimestamp == null || lastTimestamp.isBefore(timestamp)) {
+			if (!step())
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the timestamp of the last bars sent to the listeners
+	 */
+	public LocalDateTime getLastTimestamp() {
+		return lastTimestamp;
+	}
+
 	public boolean step() {
-		if (allFinishedParsing())
+		if (allFinishedParsing()) {
+			if (!resamplersFlushed) {
+				resamplersFlushed = true;
+				resamplers.values().forEach(Resampler::flush);
+			}
 			return false;
+		}
+		if (calendar != null || universe != null)
+			return stepSession();
 		List<String> tickers = new ArrayList<>(stockMap.keySet());
 		for (String ticker : tickers) {
 			tick(ticker);
@@ -142,8 +381,132 @@ public class StockExchange {
 		return true;
 	}
 
+	/**
+	 * Moves frequency sessions ahead and sends the bars of the last one. The
+	 * sessions are those of the calendar, or else every timestamp any started
+	 * ticker has a bar at
+	 */
+	private boolean stepSession() {
+		long time = Long.MIN_VALUE;
+		for (int i = 0; i < frequency; i++) {
+			long next = nextSession();
+			if (next == Long.MAX_VALUE)
+				break;
+			time = next;
+			startUniverse(time);
+			barMap.clear();
+			for (String ticker : new ArrayList<>(stockMap.keySet())) {
+				Bar bar = barAt(ticker, time);
+				if (bar != null) {
+					barMap.put(ticker, bar);
+					lastValid.put(ticker, bar);
+				}
+			}
+		}
+		if (time == Long.MIN_VALUE) {
+			// Past the last session, anything left is never reached
+			for (String ticker : new ArrayList<>(stockMap.keySet()))
+				handleParserEnd(ticker, stockMap.get(ticker));
+			if (universeSources != null)
+				nextStart = universeSources.size();
+			return step();
+		}
+		if (missingBars == TradingCalendar.MissingBars.FORWARD_FILL) {
+			LocalDateTime timestamp = LocalDateTime.ofEpochSecond(time, 0, ZoneOffset.UTC);
+			for (String ticker : stockMap.keySet()) {
+				Bar last = lastValid.get(ticker);
+				if (barMap.containsKey(ticker) || last == null)
+					continue;
+				int id = calendar == null ? -1 : calendar.getTickers().find(ticker);
+				if (id >= 0 && calendar.lastSession(id) < session - 1)
+					continue;
+				barMap.put(ticker, new Bar(timestamp, last.close(), last.close(), last.close(), last.close(), 0));
+			}
+		}
+		onBarClose();
+		return true;
+	}
+
+	/**
+	 * Time of the next session in epoch seconds, Long.MAX_VALUE if there are none
+	 */
+	private long nextSession() {
+		if (calendar != null)
+			return session < calendar.sessionCount() ? calendar.epochSecond(session++) : Long.MAX_VALUE;
+		long next = Long.MAX_VALUE;
+		if (universeSources != null && nextStart < universeSources.size())
+			next = BarSeries.toEpochSecond(universeSources.get(nextStart).entry().first());
+		for (String ticker : new ArrayList<>(stockMap.keySet()))
+			next = Math.min(next, peek(ticker));
+		if (next != Long.MAX_VALUE)
+			session++;
+		return next;
+	}
+
+	/**
+	 * Timestamp of the next bar of the ticker in epoch seconds, reading it ahead.
+	 * Long.MAX_VALUE if it has none
+	 */
+	private long peek(String ticker) {
+		Bar bar = pending.get(ticker);
+		if (bar == null) {
+			BarSource source = stockMap.get(ticker);
+			while (bar == null) {
+				if (!source.goToNext()) {
+					handleParserEnd(ticker, source);
+					return Long.MAX_VALUE;
+				}
+				bar = source.getBar();
+			}
+			pending.put(ticker, bar);
+		}
+		return BarSeries.toEpochSecond(bar.timestamp());
+	}
+
+	/**
+	 * Starts the tickers of the universe whose first row is at or before the time
+	 */
+	private void startUniverse(long time) {
+		if (universeSources == null)
+			return;
+		while (nextStart < universeSources.size()) {
+			LazyUniverse.Source source = universeSources.get(nextStart);
+			if (BarSeries.toEpochSecond(source.entry().first()) > time)
+				return;
+			stockMap.put(source.entry().ticker(), source);
+			isFinished.put(source.entry().ticker(), false);
+			universe.prefetchAfter(nextStart, universeSources);
+			nextStart++;
+		}
+	}
+
+	/**
+	 * Reads the source of the ticker up to the session, returns its valid bar at
+	 * that time or null
+	 */
+	private Bar barAt(String ticker, long time) {
+		BarSource source = stockMap.get(ticker);
+		if (source == null)
+			return null;
+		Bar bar = pending.get(ticker);
+		while (bar == null || BarSeries.toEpochSecond(bar.timestamp()) < time) {
+			if (!source.goToNext()) {
+				pending.remove(ticker);
+				handleParserEnd(ticker, source);
+				return null;
+			}
+			bar = source.getBar();
+		}
+		if (BarSeries.toEpochSecond(bar.timestamp()) > time) {
+			pending.put(ticker, bar);
+			return null;
+		}
+		pending.remove(ticker);
+		return bar.close() > 0.0 ? bar : null;
+	}
+
 	private void tick(String ticker) {
-		CSVparser parser = stockMap.get(ticker);
+		BarSource parser = stockMap.get(ticker);
 		if (parser == null)
 			return;
 
@@ -166,7 +529,7 @@ public class StockExchange {
 		}
 	}
 
-	private void handleParserEnd(String ticker, CSVparser parser) {
+	private void handleParserEnd(String ticker, BarSource parser) {
 		isFinished.put(ticker, true);
 		try {
 			parser.close();
@@ -194,7 +557,9 @@ public class StockExchange {
 		if (barMap.isEmpty()) {
 			return;
 		}
+                lastTimestamp = barMap.values().iterator().next().timestamp();
                 Map<String, Bar> outputMap = Collections.unmodifiableMap(barMap);
+                resamplers.values().forEach(r -> r.accept(outputMap));
                 listeners.forEach(l -> l.acceptBars(outputMap));
                 barMap.clear();
         }
@@ -204,6 +569,8 @@ public class StockExchange {
 	 * 
 	 */
 	private boolean allFinishedParsing() {
+		if (universeSources != null && nextStart < universeSources.size())
+			return false;
 		return isFinished.values().stream().allMatch(finished -> finished);
 	}
 }
@@ -0,0 +1,281 @@
+package engine;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import accounts.BarListener;
+import accounts.Portfolio;
+import io.Logger;
+import strategies.Strategy;
+
+/**
+ * Runs the same listeners as the StockExchange, but on bars that arrive over
+ * time, for example from a TCP socket or a named pipe, instead of from files.
+ * <p>
+ * Bars can arrive in any order. They are grouped by timestamp into snapshots,
+ * which are sent to the listeners in time order once they are complete: when
+ * every expected ticker has a bar, or when the watermark, the latest timestamp
+ * seen minus the lateness window, has passed them. Bars arriving for a
+ * snapshot that was already sent are dropped and counted as late.
+ * <p>
+ * Arriving bars wait in a bounded queue. When the listeners fall behind the
+ * queue fills up and publish() blocks, so a socket reader stops reading and
+ * the sender is slowed down. The time from the arrival of each bar until the
+ * listeners are done with its snapshot is recorded in a histogram.
+ */
+public class StreamingExchange {
+
+	private record Arrival(String ticker, Bar bar, long nanos) {
+	}
+
+	private static final Arrival END = new Arrival(null, null, 0);
+
+	/**
+	 * Bars received for one timestamp, with the arrival time of each
+	 */
+	private static final class Snapshot {
+		final Map<String, Bar> bars = new LinkedHashMap<>();
+		long[] arrivals = new long[4];
+		int size = 0;
+
+		void add(Arrival a) {
+			if (size == arrivals.length)
+				arrivals = Arrays.copyOf(arrivals, size * 2);
+			arrivals[size++] = a.nanos();
+			bars.put(a.ticker(), a.bar());
+		}
+	}
+
+	private final BlockingQueue<Arrival> queue;
+	private final Duration lateness;
+	private final Set<String> expected = new HashSet<>();
+	private final List<BarListener> listeners = new ArrayList<>();
+	private final TreeMap<LocalDateTime, Snapshot> pending = new TreeMap<>();
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private final Logger logger;
+
+	private LocalDateTime maxSeen = null;
+	private LocalDateTime lastTimestamp = null;
+	private long lateBars = 0;
+	private long snapshots = 0;
+
+	/**
+	 * @param lateness how long in bar time to wait for the rest of a snapshot
+	 *                 after a later bar has arrived
+	 * @param capacity number of bars that can wait before publish() blocks
+	 */
+	public StreamingExchange(Logger logger, Duration lateness, int capacity) {
+		this.logger = Objects.requireNonNull(logger);
+		if (lateness.isNegative())
+			throw new IllegalArgumentException("Lateness can't be negative");
+		this.lateness = lateness;
+		this.queue = new ArrayBlockingQueue<>(capacity);
+	}
+
+	/* =========================== Initializing phase ========================== */
+
+	/**
+	 * Sets the tickers a snapshot needs to be complete without waiting for the
+	 * watermark
+	 */
+	public void expectTickers(Collection<String> tickers) {
+		expected.addAll(tickers);
+	}
+
+	public void addPortfolio(Portfolio portfolio) {
+		addBarListener(portfolio);
+	}
+
+	public void addStrategy(Strategy strategy) {
+		addBarListener(strategy);
+	}
+
+	public void addBarListener(BarListener listener) {
+		if (!listeners.contains(listener))
+			listeners.add(listener);
+	}
+
+	/* ================================== Input ================================= */
+
+	/**
+	 * Hands a bar to the exchange. Blocks while the queue is full. Can be called
+	 * from any thread
+	 */
+	public void publish(String ticker, Bar bar) throws InterruptedException {
+		queue.put(new Arrival(Objects.requireNonNull(ticker), Objects.requireNonNull(bar), System.nanoTime()));
+	}
+
+	/**
+	 * Marks the end of the feed. The remaining snapshots are sent and run()
+	 * returns
+	 */
+	public void endOfStream() throws InterruptedException {
+		queue.put(END);
+	}
+
+	/**
+	 * Starts a thread that reads bars from the stream, one per line on the format
+	 * ticker,timestamp,open,high,low,close,volume with the timestamp as a date or
+	 * a date and time. Malformed lines are logged and skipped. The end of the
+	 * stream ends the feed
+	 */
+	public Thread readFrom(InputStream in) {
+		Thread reader = new Thread(() -> {
+			try (BufferedReader lines = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+				String line;
+				while ((line = lines.readLine()) != null) {
+					if (line.isBlank())
+						continue;
+					try {
+						String[] tokens = line.split(",");
+						publish(tokens[0].trim(), parseBar(tokens));
+					} catch (RuntimeException e) {
+						logger.error("Skipping malformed line: " + line);
+					}
+				}
+			} catch (IOException e) {
+				logger.error("Feed stopped", e);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			try {
+				endOfStream();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}, "bar-feed-reader");
+		reader.setDaemon(true);
+		reader.start();
+		return reader;
+	}
+
+	/**
+	 * Reads bars from a TCP socket until the other side closes it
+	 */
+	public Thread readFrom(Socket socket) throws IOException {
+		return readFrom(socket.getInputStream());
+	}
+
+	/**
+	 * Reads bars from a file or a named pipe until it ends
+	 */
+	public Thread readFrom(Path pipe) throws IOException {
+		return readFrom(Files.newInputStream(pipe));
+	}
+
+	private static Bar parseBar(String[] tokens) {
+		if (tokens.length < 7)
+			throw new IllegalArgumentException("Expected 7 columns");
+		String time = tokens[1].trim();
+		LocalDateTime timestamp = time.contains("T") ? LocalDateTime.parse(time)
+				: LocalDate.parse(time).atStartOfDay();
+		return new Bar(timestamp, Double.parseDouble(tokens[2]), Double.parseDouble(tokens[3]),
+				Double.parseDouble(tokens[4]), Double.parseDouble(tokens[5]), Double.parseDouble(tokens[6]));
+	}
+
+	/* =============================== Event Loop =============================== */
+
+	/**
+	 * Sends snapshots to the listeners as they complete, until endOfStream() is
+	 * called. Then sends what is left and logs the latency histogram
+	 */
+	public void run() throws InterruptedException {
+		while (true) {
+			Arrival a = queue.take();
+			if (a == END)
+				break;
+			accept(a);
+			sendCompleted(false);
+		}
+		sendCompleted(true);
+		logger.info("Feed ended after " + snapshots + " snapshots, " + lateBars + " late bars dropped");
+		logger.info("Decision latency: " + latency.summary());
+	}
+
+	private void accept(Arrival a) {
+		LocalDateTime ts = a.bar().timestamp();
+		if (lastTimestamp != null && !ts.isAfter(lastTimestamp)) {
+			lateBars++;
+			return;
+		}
+		pending.computeIfAbsent(ts, t -> new Snapshot()).add(a);
+		if (maxSeen == null || ts.isAfter(maxSeen))
+			maxSeen = ts;
+	}
+
+	private void sendCompleted(boolean all) {
+		LocalDateTime watermark = maxSeen == null ? null : maxSeen.minus(lateness);
+		while (!pending.isEmpty()) {
+			Map.Entry<LocalDateTime, Snapshot> first = pending.firstEntry();
+			boolean complete = all || !first.getKey().isAfter(watermark)
+					|| (!expected.isEmpty() && first.getValue().bars.keySet().containsAll(expected));
+			if (!complete)
+				return;
+			pending.pollFirstEntry();
+			send(first.getKey(), first.getValue());
+		}
+	}
+
+	private void send(LocalDateTime timestamp, Snapshot snapshot) {
+		lastTimestamp = timestamp;
+		// Same rule as the StockExchange
+		snapshot.bars.entrySet().removeIf(e -> e.getValue().close() <= 0.0);
+		if (snapshot.bars.isEmpty())
+			return;
+		Map<String, Bar> bars = Collections.unmodifiableMap(snapshot.bars);
+		for (BarListener l : listeners)
+			l.acceptBars(bars);
+		long done = System.nanoTime();
+		for (int i = 0; i < snapshot.size; i++)
+			latency.record(done - snapshot.arrivals[i]);
+		snapshots++;
+	}
+
+	/* ================================= Getters ================================ */
+
+	/**
+	 * Latency from the arrival of each bar until the listeners were done with it.
+	 * Only read it after run() has returned
+	 */
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	public long getLateBars() {
+		return lateBars;
+	}
+
+	public long getSnapshotCount() {
+		return snapshots;
+	}
+
+	/**
+	 * Returns the timestamp of the last snapshot sent to the listeners
+	 */
+	public LocalDateTime getLastTimestamp() {
+		return lastTimestamp;
+	}
+}
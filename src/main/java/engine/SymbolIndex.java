@@ -0,0 +1,58 @@
+package engine;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Gives every symbol of a universe a dense id, 0, 1, 2 ... in the order they
+ * are first seen, so per-symbol state can be kept in primitive arrays indexed
+ * by id instead of in maps.
+ */
+public class SymbolIndex implements Serializable {
+	private final Map<String, Integer> ids = new HashMap<>();
+	private final List<String> symbols = new ArrayList<>();
+
+	public SymbolIndex() {
+	}
+
+	public SymbolIndex(List<String> symbols) {
+		for (String s : symbols)
+			idOf(s);
+	}
+
+	/**
+	 * Returns the id of the symbol, giving it the next free id if it is new
+	 */
+	public int idOf(String symbol) {
+		Integer id = ids.get(symbol);
+		if (id != null)
+			return id;
+		int next = symbols.size();
+		ids.put(symbol, next);
+		symbols.add(symbol);
+		return next;
+	}
+
+	/**
+	 * Returns the id of the symbol, or -1 if it has none
+	 */
+	public int find(String symbol) {
+		return ids.getOrDefault(symbol, -1);
+	}
+
+	public String symbol(int id) {
+		return symbols.get(id);
+	}
+
+	public int size() {
+		return symbols.size();
+	}
+
+	public List<String> symbols() {
+		return Collections.unmodifiableList(symbols);
+	}
+}
@@ -0,0 +1,106 @@
+package engine;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import io.CSVparser;
+import io.TickReader;
+
+/**
+ * Feeds bars built from a tick file straight to the StockExchange, in one pass
+ * and without holding more than the bar being built:
+ *
+ * <pre>
+ * exchange.addSource("AAPL", new TickBarSource(TickReader.open(path), BarAggregator.time(Duration.ofMinutes(1))));
+ * </pre>
+ *
+ * The bars can also be written to a Date-OHLCV csv file as they are built, so
+ * later runs can read them with addStock() instead of aggregating again.
+ */
+public class TickBarSource implements BarSource {
+	private final TickReader reader;
+	private final BarAggregator aggregator;
+	private BufferedWriter writer;
+	private Bar current;
+	private boolean done = false;
+
+	public TickBarSource(TickReader reader, BarAggregator aggregator) {
+		this.reader = reader;
+		this.aggregator = aggregator;
+	}
+
+	/**
+	 * Writes every bar to a csv file as well. Timestamps are written in UTC with
+	 * whole seconds. The file is complete when the source is closed
+	 *
+	 * @return this source
+	 */
+	public TickBarSource persistTo(Path csv) throws IOException {
+		if (writer != null)
+			throw new IllegalStateException("Already persisting bars");
+		writer = Files.newBufferedWriter(csv);
+		writer.write("Date,Open,High,Low,Close,Volume\n");
+		return this;
+	}
+
+	@Override
+	public boolean goToNext() {
+		if (done)
+			return false;
+		try {
+			while (reader.next()) {
+				if (aggregator.add(reader.timestamp(), reader.price(), reader.size()))
+					return emit();
+			}
+			done = true;
+			if (aggregator.flush())
+				return emit();
+			current = null;
+			return false;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to read ticks", e);
+		}
+	}
+
+	private boolean emit() throws IOException {
+		current = aggregator.bar();
+		if (writer != null) {
+			writer.write(CSVparser.formatTimestamp(current.timestamp()));
+			writer.write("," + current.open() + "," + current.high() + "," + current.low() + "," + current.close()
+					+ "," + current.volume() + "\n");
+		}
+		return true;
+	}
+
+	@Override
+	public Bar getBar() {
+		return current;
+	}
+
+	/**
+	 * Number of malformed tick rows skipped so far
+	 */
+	public long getSkippedTicks() {
+		return reader.getSkipped();
+	}
+
+	@Override
+	public void close() {
+		BufferedWriter bars = writer;
+		writer = null;
+		try {
+			try {
+				reader.close();
+			} finally {
+				// Even if the reader failed, so the bar file isn't left open
+				if (bars != null)
+					bars.close();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package engine;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * A bar length to resample to. Minutes, hours and days are fixed intervals
+ * counted from the epoch, so 5 minute bars start at :00, :05 and so on and day
+ * bars at midnight. Weeks start on Monday and months on the first of the
+ * month, and n months are counted from January, so three months are calendar
+ * quarters.
+ *
+ * @param unit   MINUTES, HOURS, DAYS, WEEKS or MONTHS
+ * @param amount number of units in one bar
+ */
+public record Timeframe(ChronoUnit unit, int amount) {
+	public static final Timeframe DAILY = days(1);
+	public static final Timeframe WEEKLY = weeks(1);
+	public static final Timeframe MONTHLY = months(1);
+
+	// 1970-01-01 was a Thursday, so weeks counted from the epoch start 3 days late
+	private static final long MONDAY_OFFSET = 3;
+
+	public Timeframe {
+		if (amount < 1)
+			throw new IllegalArgumentException("Timeframe needs a positive amount, got " + amount);
+		switch (unit) {
+			case MINUTES, HOURS, DAYS, WEEKS, MONTHS -> {
+			}
+			default -> throw new IllegalArgumentException("Unsupported timeframe unit " + unit);
+		}
+	}
+
+	public static Timeframe minutes(int amount) {
+		return new Timeframe(ChronoUnit.MINUTES, amount);
+	}
+
+	public static Timeframe hours(int amount) {
+		return new Timeframe(ChronoUnit.HOURS, amount);
+	}
+
+	public static Timeframe days(int amount) {
+		return new Timeframe(ChronoUnit.DAYS, amount);
+	}
+
+	public static Timeframe weeks(int amount) {
+		return new Timeframe(ChronoUnit.WEEKS, amount);
+	}
+
+	public static Timeframe months(int amount) {
+		return new Timeframe(ChronoUnit.MONTHS, amount);
+	}
+
+	/**
+	 * Number of the bar the timestamp falls in. Bars are numbered in time order
+	 */
+	public long bucket(LocalDateTime timestamp) {
+		return switch (unit) {
+			case MONTHS -> Math.floorDiv(timestamp.getYear() * 12L + timestamp.getMonthValue() - 1, amount);
+			case WEEKS -> Math.floorDiv(timestamp.toLocalDate().toEpochDay() + MONDAY_OFFSET, 7L * amount);
+			default -> Math.floorDiv(BarSeries.toEpochSecond(timestamp), unit.getDuration().getSeconds() * amount);
+		};
+	}
+
+	/**
+	 * Start time of a bar numbered by bucket()
+	 */
+	public LocalDateTime start(long bucket) {
+		return switch (unit) {
+			case MONTHS -> {
+				long month = bucket * amount;
+				yield LocalDateTime.of((int) Math.floorDiv(month, 12), Math.floorMod(month, 12) + 1, 1, 0, 0);
+			}
+			case WEEKS -> LocalDateTime.of(1970, 1, 1, 0, 0).plusDays(bucket * 7 * amount - MONDAY_OFFSET);
+			default -> LocalDateTime.ofEpochSecond(bucket * unit.getDuration().getSeconds() * amount, 0,
+					ZoneOffset.UTC);
+		};
+	}
+
+	@Override
+	public String toString() {
+		return amount + " " + unit.toString().toLowerCase();
+	}
+}
@@ -0,0 +1,359 @@
+package engine;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import io.CSVparser;
+
+/**
+ * The sessions of a universe, every timestamp at which any ticker has a row,
+ * and for every ticker a bitset of the sessions where it has a valid bar. A
+ * bar is valid if it parses and has a close above zero, like the StockExchange
+ * requires. Whether a ticker traded in a session is one bit lookup, and an
+ * alignment report of the universe is computed once when the calendar is
+ * built.
+ * <p>
+ * Give it to StockExchange.setCalendar() to step through the sessions instead
+ * of row by row, so tickers with holidays or gaps stay aligned.
+ */
+public class TradingCalendar implements Serializable {
+
+	/**
+	 * What the StockExchange does with a ticker that has no valid bar in a
+	 * session
+	 */
+	public enum MissingBars {
+		/** Leave the ticker out of that session's bars */
+		EXCLUDE,
+		/**
+		 * Repeat the last close as a bar without volume, between the first and last
+		 * bar of the ticker
+		 */
+		FORWARD_FILL
+	}
+
+	/**
+	 * How one ticker covers the sessions.
+	 *
+	 * @param traded     sessions with a valid bar
+	 * @param missing    sessions between its first and last bar without one
+	 * @param invalid    rows that did not parse or had a close of zero or less
+	 * @param longestGap most sessions in a row missing between its first and last
+	 *                   bar
+	 */
+	public record Coverage(String ticker, LocalDateTime first, LocalDateTime last, int traded, int missing,
+			int invalid, int longestGap) {
+	}
+
+	/**
+	 * Alignment of the universe.
+	 *
+	 * @param sessions         number of sessions
+	 * @param completeSessions sessions where every ticker between its first and
+	 *                         last bar has a valid bar
+	 */
+	public record AlignmentReport(int sessions, int completeSessions, List<Coverage> tickers) {
+
+		public List<String> lines() {
+			List<String> lines = new ArrayList<>();
+			lines.add(String.format("%d sessions, %d complete (%.1f%%)", sessions, completeSessions,
+					sessions == 0 ? 100.0 : 100.0 * completeSessions / sessions));
+			for (Coverage c : tickers)
+				lines.add(String.format("%s: %d traded from %s to %s, %d missing (longest gap %d), %d invalid",
+						c.ticker(), c.traded(), c.first(), c.last(), c.missing(), c.longestGap(), c.invalid()));
+			return lines;
+		}
+	}
+
+	// Session timestamps as epoch seconds in UTC, ascending
+	private final long[] sessions;
+	private final SymbolIndex tickers;
+	// Per ticker id, one bit per session
+	private final long[][] traded;
+	private final int[] first;
+	private final int[] last;
+	private final AlignmentReport report;
+
+	/*
+	 * Index of the last session looked up. Lookups usually go forward one session
+	 * at a time, so checking here before searching makes them constant time. A
+	 * stale value from another thread only costs a search
+	 */
+	private transient int cursor = 0;
+
+	private TradingCalendar(List<String> names, List<long[]> timestamps, List<boolean[]> valid, int[] invalid) {
+		int total = 0;
+		for (long[] ts : timestamps)
+			total += ts.length;
+		long[] all = new long[total];
+		int n = 0;
+		for (long[] ts : timestamps) {
+			System.arraycopy(ts, 0, all, n, ts.length);
+			n += ts.length;
+		}
+		Arrays.sort(all);
+		int unique = 0;
+		for (int i = 0; i < all.length; i++)
+			if (unique == 0 || all[i] != all[unique - 1])
+				all[unique++] = all[i];
+		sessions = Arrays.copyOf(all, unique);
+
+		tickers = new SymbolIndex(names);
+		int words = (unique + 63) >>> 6;
+		traded = new long[names.size()][words];
+		first = new int[names.size()];
+		last = new int[names.size()];
+		Arrays.fill(first, -1);
+		Arrays.fill(last, -1);
+		for (int id = 0; id < names.size(); id++) {
+			long[] ts = timestamps.get(id);
+			boolean[] ok = valid.get(id);
+			for (int i = 0; i < ts.length; i++) {
+				if (!ok[i])
+					continue;
+				int s = Arrays.binarySearch(sessions, ts[i]);
+				traded[id][s >>> 6] |= 1L << s;
+				if (first[id] < 0 || s < first[id])
+					first[id] = s;
+				last[id] = Math.max(last[id], s);
+			}
+		}
+		report = buildReport(invalid);
+	}
+
+	/**
+	 * Builds the calendar from csv files on Date-OHLCV format, reading only the
+	 * timestamp and close of every row
+	 *
+	 * @param dataPaths file of each ticker
+	 */
+	public static TradingCalendar load(Map<String, String> dataPaths) throws IOException {
+		List<String> names = new ArrayList<>();
+		List<long[]> timestamps = new ArrayList<>();
+		List<boolean[]> valid = new ArrayList<>();
+		int[] invalid = new int[dataPaths.size()];
+		for (Map.Entry<String, String> e : dataPaths.entrySet()) {
+			int id = names.size();
+			names.add(e.getKey());
+			long[] ts = new long[1024];
+			boolean[] ok = new boolean[1024];
+			int rows = 0;
+			try (BufferedReader reader = Files.newBufferedReader(Path.of(e.getValue()))) {
+				String header = reader.readLine();
+				if (header == null)
+					throw new IOException("CSV file is empty, no header row: " + e.getValue());
+				int closeColumn = Arrays.asList(header.split(",")).stream().map(String::trim).toList()
+						.indexOf("Close");
+				if (closeColumn < 1)
+					throw new IOException("Expected a Close column in " + e.getValue());
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (line.isBlank())
+						continue;
+					String[] tokens = line.split(",");
+					long timestamp;
+					try {
+						timestamp = BarSeries.toEpochSecond(CSVparser.parseTimestamp(tokens[0].trim()));
+					} catch (RuntimeException malformed) {
+						invalid[id]++;
+						continue;
+					}
+					if (rows == ts.length) {
+						ts = Arrays.copyOf(ts, rows * 2);
+						ok = Arrays.copyOf(ok, rows * 2);
+					}
+					ts[rows] = timestamp;
+					ok[rows] = validClose(tokens, closeColumn);
+					if (!ok[rows])
+						invalid[id]++;
+					rows++;
+				}
+			}
+			timestamps.add(Arrays.copyOf(ts, rows));
+			valid.add(Arrays.copyOf(ok, rows));
+		}
+		return new TradingCalendar(names, timestamps, valid, invalid);
+	}
+
+	private static boolean validClose(String[] tokens, int closeColumn) {
+		if (closeColumn >= tokens.length)
+			return false;
+		try {
+			return Double.parseDouble(tokens[closeColumn].trim()) > 0.0;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Builds the calendar from series held in memory
+	 */
+	public static TradingCalendar of(Map<String, BarSeries> series) {
+		List<String> names = new ArrayList<>();
+		List<long[]> timestamps = new ArrayList<>();
+		List<boolean[]> valid = new ArrayList<>();
+		for (Map.Entry<String, BarSeries> e : series.entrySet()) {
+			names.add(e.getKey());
+			double[] close = e.getValue().close();
+			boolean[] ok = new boolean[close.length];
+			for (int i = 0; i < close.length; i++)
+				ok[i] = close[i] > 0.0;
+			timestamps.add(e.getValue().timestamps());
+			valid.add(ok);
+		}
+		int[] invalid = new int[names.size()];
+		for (int id = 0; id < names.size(); id++)
+			for (boolean ok : valid.get(id))
+				if (!ok)
+					invalid[id]++;
+		return new TradingCalendar(names, timestamps, valid, invalid);
+	}
+
+	/**
+	 * Goes through the bitsets once, a word of 64 sessions at a time
+	 */
+	private AlignmentReport buildReport(int[] invalid) {
+		int n = tickers.size();
+		int words = (sessions.length + 63) >>> 6;
+		int[] tradedCount = new int[n];
+		int[] longestGap = new int[n];
+		int[] currentGap = new int[n];
+		int complete = 0;
+		for (int w = 0; w < words; w++) {
+			long all = w == words - 1 && (sessions.length & 63) != 0 ? (1L << (sessions.length & 63)) - 1 : -1L;
+			for (int id = 0; id < n; id++) {
+				long bits = traded[id][w];
+				tradedCount[id] += Long.bitCount(bits);
+				long active = span(id, w);
+				// A session is complete if every ticker active in it traded
+				all &= bits | ~active;
+				long gaps = active & ~bits;
+				if (gaps == 0) {
+					if (active != 0)
+						currentGap[id] = 0;
+					continue;
+				}
+				for (int b = 0; b < 64; b++) {
+					if ((active & (1L << b)) == 0)
+						continue;
+					if ((gaps & (1L << b)) != 0)
+						longestGap[id] = Math.max(longestGap[id], ++currentGap[id]);
+					else
+						currentGap[id] = 0;
+				}
+			}
+			complete += Long.bitCount(all);
+		}
+		List<Coverage> coverage = new ArrayList<>();
+		for (int id = 0; id < n; id++) {
+			int span = first[id] < 0 ? 0 : last[id] - first[id] + 1;
+			coverage.add(new Coverage(tickers.symbol(id), first[id] < 0 ? null : session(first[id]),
+					last[id] < 0 ? null : session(last[id]), tradedCount[id], span - tradedCount[id], invalid[id],
+					longestGap[id]));
+		}
+		return new AlignmentReport(sessions.length, complete, List.copyOf(coverage));
+	}
+
+	/**
+	 * Bits of word w from the first to the last session of a ticker
+	 */
+	private long span(int id, int w) {
+		if (first[id] < 0)
+			return 0;
+		int lo = Math.max(first[id], w << 6);
+		int hi = Math.min(last[id], (w << 6) + 63);
+		if (lo > hi)
+			return 0;
+		long upTo = hi - (w << 6) == 63 ? -1L : (1L << (hi - (w << 6) + 1)) - 1;
+		return upTo & (-1L << (lo - (w << 6)));
+	}
+
+	/* ================================= Access ================================= */
+
+	public int sessionCount() {
+		return sessions.length;
+	}
+
+	public LocalDateTime session(int index) {
+		return LocalDateTime.ofEpochSecond(sessions[index], 0, ZoneOffset.UTC);
+	}
+
+	/**
+	 * Session timestamp as epoch seconds in UTC
+	 */
+	public long epochSecond(int index) {
+		return sessions[index];
+	}
+
+	/**
+	 * Index of the session at the timestamp, or -1 if it isn't one. Constant time
+	 * when sessions are looked up in order
+	 */
+	public int sessionIndex(LocalDateTime timestamp) {
+		long ts = BarSeries.toEpochSecond(timestamp);
+		int hint = cursor;
+		for (int s = hint; s < Math.min(hint + 2, sessions.length); s++) {
+			if (sessions[s] == ts) {
+				cursor = s;
+				return s;
+			}
+		}
+		int s = Arrays.binarySearch(sessions, ts);
+		if (s < 0)
+			return -1;
+		cursor = s;
+		return s;
+	}
+
+	public SymbolIndex getTickers() {
+		return tickers;
+	}
+
+	/**
+	 * Whether the ticker with the id has a valid bar in the session
+	 */
+	public boolean traded(int tickerId, int session) {
+		return (traded[tickerId][session >>> 6] & (1L << session)) != 0;
+	}
+
+	/**
+	 * Whether the ticker has a valid bar in the session, false for unknown
+	 * tickers
+	 */
+	public boolean traded(String ticker, int session) {
+		int id = tickers.find(ticker);
+		return id >= 0 && traded(id, session);
+	}
+
+	public boolean traded(String ticker, LocalDateTime timestamp) {
+		int session = sessionIndex(timestamp);
+		return session >= 0 && traded(ticker, session);
+	}
+
+	/**
+	 * Index of the first session with a valid bar of the ticker, -1 if it has none
+	 */
+	public int firstSession(int tickerId) {
+		return first[tickerId];
+	}
+
+	/**
+	 * Index of the last session with a valid bar of the ticker, -1 if it has none
+	 */
+	public int lastSession(int tickerId) {
+		return last[tickerId];
+	}
+
+	public AlignmentReport getReport() {
+		return report;
+	}
+}
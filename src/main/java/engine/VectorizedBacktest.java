@@ -0,0 +1,147 @@
+package engine;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import accounts.Fill;
+import resources.enums.OrderType;
+import strategies.VectorizedStrategy;
+
+/**
+ * Runs a VectorizedStrategy over a whole BarSeries at once, for fast first-pass
+ * screening of many tickers and parameters.
+ * The results are the same as running the strategy through the StockExchange
+ * and a Portfolio with only this ticker: an order is placed on the signal bar,
+ * filled at that bar's close when the next bar arrives, and the value recorded
+ * at each bar is the one before that bar's fills, at the previous close.
+ */
+public final class VectorizedBacktest {
+
+	/**
+	 * Outcome of a vectorized run.
+	 *
+	 * @param equity       portfolio value recorded at each bar
+	 * @param fillIndex    bar at which each trade was filled
+	 * @param fillQuantity signed quantity of each trade, negative for sells
+	 * @param fillPrice    price of each trade
+	 * @param cash         cash at the end of the run
+	 * @param position     shares held at the end of the run
+	 */
+	public record Result(String ticker, BarSeries series, double[] equity, int[] fillIndex, int[] fillQuantity,
+			double[] fillPrice, double cash, int position) {
+
+		public int tradeCount() {
+			return fillIndex.length;
+		}
+
+		/**
+		 * Value at the last close, like Portfolio.getTotalValue() after the run
+		 */
+		public double finalValue() {
+			int n = series.size();
+			return n == 0 ? cash : cash + position * series.close()[n - 1];
+		}
+
+		/**
+		 * The trades as Fill objects, comparable with Portfolio.getFills()
+		 */
+		public List<Fill> fills() {
+			List<Fill> fills = new ArrayList<>(fillIndex.length);
+			for (int i = 0; i < fillIndex.length; i++) {
+				LocalDateTime ts = series.timestamp(fillIndex[i]);
+				OrderType type = fillQuantity[i] > 0 ? OrderType.BUY : OrderType.SELL;
+				fills.add(new Fill(ts, ticker, type, Math.abs(fillQuantity[i]), fillPrice[i]));
+			}
+			return fills;
+		}
+	}
+
+	private VectorizedBacktest() {
+	}
+
+	/**
+	 * Runs the strategy on one series.
+	 *
+	 * @param ticker       ticker of the series, used in the fills
+	 * @param series       bars with close prices above zero
+	 * @param strategy     strategy to run
+	 * @param startingCash cash at the start
+	 */
+	public static Result run(String ticker, BarSeries series, VectorizedStrategy strategy, double startingCash) {
+		double[] close = series.close();
+		int n = close.length;
+		boolean[] entries = new boolean[n];
+		boolean[] exits = new boolean[n];
+		strategy.signals(close, entries, exits);
+		double stopFactor = 1.0 - strategy.stopLoss();
+		boolean hasStop = strategy.stopLoss() > 0.0;
+
+		// Position and cash after the fills of each bar
+		int[] positions = new int[n];
+		double[] cashAfter = new double[n];
+		int[] fillIndex = new int[16];
+		int[] fillQuantity = new int[16];
+		int fills = 0;
+
+		double cash = startingCash;
+		int position = 0;
+		int pending = 0;
+		double entryPrice = 0.0;
+		for (int i = 0; i < n; i++) {
+			if (pending != 0) {
+				// Filled at the close of the signal bar
+				if (pending > 0)
+					cash -= pending * close[i - 1];
+				else
+					cash += -pending * close[i - 1];
+				position += pending;
+				if (fills == fillIndex.length) {
+					fillIndex = Arrays.copyOf(fillIndex, fills * 2);
+					fillQuantity = Arrays.copyOf(fillQuantity, fills * 2);
+				}
+				fillIndex[fills] = i;
+				fillQuantity[fills] = pending;
+				fills++;
+				pending = 0;
+			}
+			positions[i] = position;
+			cashAfter[i] = cash;
+
+			if (position == 0) {
+				if (entries[i]) {
+					int quantity = (int) Math.floor(cash / close[i]);
+					if (quantity > 0) {
+						pending = quantity;
+						entryPrice = close[i];
+					}
+				}
+			} else if (exits[i] || (hasStop && close[i] <= entryPrice * stopFactor)) {
+				pending = -position;
+			}
+		}
+
+		double[] fillPrice = new double[fills];
+		for (int f = 0; f < fills; f++)
+			fillPrice[f] = close[fillIndex[f] - 1];
+		return new Result(ticker, series, equityCurve(close, positions, cashAfter, startingCash),
+				Arrays.copyOf(fillIndex, fills), Arrays.copyOf(fillQuantity, fills), fillPrice,
+				cash, position);
+	}
+
+	/**
+	 * Value recorded at each bar: the cash and position before that bar's fills,
+	 * valued at the previous close
+	 */
+	private static double[] equityCurve(double[] close, int[] positions, double[] cashAfter, double startingCash) {
+		int n = close.length;
+		double[] equity = new double[n];
+		if (n == 0)
+			return equity;
+		equity[0] = startingCash;
+		for (int i = 1; i < n; i++)
+			equity[i] = cashAfter[i - 1] + positions[i - 1] * close[i - 1];
+		return equity;
+	}
+}
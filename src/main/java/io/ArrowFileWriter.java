@@ -0,0 +1,356 @@
+package io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes a table to an Apache Arrow IPC file (also known as Feather v2), which
+ * pandas and pyarrow can load without parsing, memory-mapped if wanted:
+ * {@code pyarrow.ipc.open_file(pyarrow.memory_map(path)).read_pandas()}.
+ * Rows are buffered in primitive columns and written as a record batch each
+ * time batchRows rows are collected, so memory use doesn't grow with the file.
+ * Columns have no nulls. The format is written by hand, so no Arrow
+ * libraries are needed.
+ */
+public class ArrowFileWriter implements Closeable {
+
+	/**
+	 * Column types. TIMESTAMP is a LocalDateTime stored as microseconds without a
+	 * time zone
+	 */
+	public enum Type {
+		TIMESTAMP, INT32, FLOAT64, UTF8
+	}
+
+	public record Column(String name, Type type) {
+	}
+
+	private static final byte[] MAGIC = "ARROW1".getBytes(StandardCharsets.US_ASCII);
+	private static final short METADATA_V5 = 4;
+	private static final byte HEADER_SCHEMA = 1;
+	private static final byte HEADER_RECORD_BATCH = 3;
+
+	private final List<Column> columns;
+	private final int batchRows;
+	private final FileChannel channel;
+
+	private final long[][] longs;
+	private final int[][] ints;
+	private final double[][] doubles;
+	private final int[][] offsets;
+	private final byte[][] strings;
+	private int rows = 0;
+
+	// Position, metadata length and body length of each record batch, for the footer
+	private final List<long[]> blocks = new ArrayList<>();
+	private boolean closed = false;
+
+	public ArrowFileWriter(Path path, List<Column> columns) throws IOException {
+		this(path, columns, 64 * 1024);
+	}
+
+	/**
+	 * @param path      file to write, replaced if it exists
+	 * @param columns   columns of the table
+	 * @param batchRows number of rows in each record batch
+	 */
+	public ArrowFileWriter(Path path, List<Column> columns, int batchRows) throws IOException {
+		if (columns.isEmpty())
+			throw new IllegalArgumentException("Need at least one column");
+		if (batchRows < 1)
+			throw new IllegalArgumentException("Batches need at least one row");
+		this.columns = List.copyOf(columns);
+		this.batchRows = batchRows;
+		int n = columns.size();
+		longs = new long[n][];
+		ints = new int[n][];
+		doubles = new double[n][];
+		offsets = new int[n][];
+		strings = new byte[n][];
+		for (int c = 0; c < n; c++) {
+			switch (columns.get(c).type()) {
+				case TIMESTAMP -> longs[c] = new long[batchRows];
+				case INT32 -> ints[c] = new int[batchRows];
+				case FLOAT64 -> doubles[c] = new double[batchRows];
+				case UTF8 -> {
+					offsets[c] = new int[batchRows + 1];
+					strings[c] = new byte[1024];
+				}
+			}
+		}
+		if (path.getParent() != null)
+			Files.createDirectories(path.getParent());
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		ByteBuffer header = ByteBuffer.allocate(8);
+		header.put(MAGIC).put((byte) 0).put((byte) 0).flip();
+		writeFully(header);
+		writeMessage(schemaMessage(), null);
+	}
+
+	/* ================================== Rows ================================== */
+
+	public void setTimestamp(int column, LocalDateTime value) {
+		longs[column][rows] = value.toEpochSecond(ZoneOffset.UTC) * 1_000_000L + value.getNano() / 1000;
+	}
+
+	public void setInt(int column, int value) {
+		ints[column][rows] = value;
+	}
+
+	public void setDouble(int column, double value) {
+		doubles[column][rows] = value;
+	}
+
+	/**
+	 * Sets a string value. Strings not set in a row are empty, and setting one
+	 * twice keeps the last value
+	 */
+	public void setString(int column, String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		int end = offsets[column][rows] + bytes.length;
+		if (end > strings[column].length)
+			strings[column] = Arrays.copyOf(strings[column], Math.max(end, strings[column].length * 2));
+		System.arraycopy(bytes, 0, strings[column], offsets[column][rows], bytes.length);
+		offsets[column][rows + 1] = end;
+	}
+
+	/**
+	 * Finishes the current row, writing a record batch when the batch is full
+	 */
+	public void endRow() throws IOException {
+		rows++;
+		if (rows == batchRows)
+			flush();
+		// The next row starts with an empty string in each string column
+		for (int[] o : offsets) {
+			if (o != null)
+				o[rows + 1] = o[rows];
+		}
+	}
+
+	/**
+	 * Writes the buffered rows as a record batch
+	 */
+	private void flush() throws IOException {
+		if (rows == 0)
+			return;
+		// Layout of the body: a validity buffer (empty, as there are no nulls) and
+		// the value buffers of each column, each starting at a multiple of 8
+		List<long[]> buffers = new ArrayList<>();
+		long bodyLength = 0;
+		for (int c = 0; c < columns.size(); c++) {
+			buffers.add(new long[] { bodyLength, 0 });
+			for (int length : bufferLengths(c)) {
+				buffers.add(new long[] { bodyLength, length });
+				bodyLength += align8(length);
+			}
+		}
+		ByteBuffer body = ByteBuffer.allocate((int) bodyLength).order(ByteOrder.LITTLE_ENDIAN);
+		for (int c = 0; c < columns.size(); c++) {
+			int start = body.position();
+			switch (columns.get(c).type()) {
+				case TIMESTAMP -> body.asLongBuffer().put(longs[c], 0, rows);
+				case INT32 -> body.asIntBuffer().put(ints[c], 0, rows);
+				case FLOAT64 -> body.asDoubleBuffer().put(doubles[c], 0, rows);
+				case UTF8 -> {
+					body.asIntBuffer().put(offsets[c], 0, rows + 1);
+					start += align8(4 * (rows + 1));
+					body.position(start);
+					body.put(strings[c], 0, offsets[c][rows]);
+				}
+			}
+			int[] lengths = bufferLengths(c);
+			body.position(start + align8(lengths[lengths.length - 1]));
+		}
+		body.clear();
+		writeMessage(recordBatchMessage(buffers, bodyLength), body);
+		rows = 0;
+		for (int[] o : offsets) {
+			if (o != null)
+				o[0] = 0;
+		}
+	}
+
+	private int[] bufferLengths(int column) {
+		return switch (columns.get(column).type()) {
+			case TIMESTAMP, FLOAT64 -> new int[] { 8 * rows };
+			case INT32 -> new int[] { 4 * rows };
+			case UTF8 -> new int[] { 4 * (rows + 1), offsets[column][rows] };
+		};
+	}
+
+	/**
+	 * Writes the last batch and the footer, which is needed to read the file
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		try {
+			flush();
+			// End of stream marker, then the footer and its length
+			ByteBuffer eos = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+			eos.putInt(-1).putInt(0).flip();
+			writeFully(eos);
+			byte[] footer = footer();
+			ByteBuffer tail = ByteBuffer.allocate(footer.length + 4 + MAGIC.length).order(ByteOrder.LITTLE_ENDIAN);
+			tail.put(footer).putInt(footer.length).put(MAGIC).flip();
+			writeFully(tail);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/* ================================ Messages ================================ */
+
+	/**
+	 * Writes an encapsulated message: continuation marker, metadata length,
+	 * metadata padded to 8 bytes, then the body
+	 */
+	private void writeMessage(byte[] metadata, ByteBuffer body) throws IOException {
+		long position = channel.position();
+		int padded = align8(8 + metadata.length) - 8;
+		ByteBuffer prefix = ByteBuffer.allocate(8 + padded).order(ByteOrder.LITTLE_ENDIAN);
+		prefix.putInt(-1).putInt(padded).put(metadata).clear();
+		writeFully(prefix);
+		if (body != null) {
+			writeFully(body);
+			blocks.add(new long[] { position, 8 + padded, body.capacity() });
+		}
+	}
+
+	private void writeFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+	private byte[] schemaMessage() {
+		FlatBufferBuilder b = new FlatBufferBuilder(1024);
+		int schema = schema(b);
+		return message(b, HEADER_SCHEMA, schema, 0);
+	}
+
+	private byte[] recordBatchMessage(List<long[]> buffers, long bodyLength) {
+		FlatBufferBuilder b = new FlatBufferBuilder(1024);
+		// Struct vectors are written back to front
+		b.startVector(16, columns.size(), 8);
+		for (int c = columns.size() - 1; c >= 0; c--) {
+			b.prep(8, 16);
+			b.putLong(0); // null count
+			b.putLong(rows);
+		}
+		int nodes = b.endVector(columns.size());
+		b.startVector(16, buffers.size(), 8);
+		for (int i = buffers.size() - 1; i >= 0; i--) {
+			b.prep(8, 16);
+			b.putLong(buffers.get(i)[1]);
+			b.putLong(buffers.get(i)[0]);
+		}
+		int bufferVector = b.endVector(buffers.size());
+		b.startTable(5);
+		b.addLong(0, rows);
+		b.addOffset(1, nodes);
+		b.addOffset(2, bufferVector);
+		int batch = b.endTable();
+		return message(b, HEADER_RECORD_BATCH, batch, bodyLength);
+	}
+
+	private static byte[] message(FlatBufferBuilder b, byte headerType, int header, long bodyLength) {
+		b.startTable(5);
+		b.addLong(3, bodyLength);
+		b.addOffset(2, header);
+		b.addShort(0, METADATA_V5);
+		b.addByte(1, headerType);
+		return b.finish(b.endTable());
+	}
+
+	private int schema(FlatBufferBuilder b) {
+		int[] fields = new int[columns.size()];
+		for (int c = 0; c < fields.length; c++) {
+			Column column = columns.get(c);
+			int name = b.createString(column.name());
+			byte typeType;
+			int type;
+			switch (column.type()) {
+				case TIMESTAMP -> {
+					typeType = 10;
+					b.startTable(2);
+					b.addShort(0, (short) 2); // microseconds
+					type = b.endTable();
+				}
+				case INT32 -> {
+					typeType = 2;
+					b.startTable(2);
+					b.addInt(0, 32);
+					b.addBoolean(1, true);
+					type = b.endTable();
+				}
+				case FLOAT64 -> {
+					typeType = 3;
+					b.startTable(1);
+					b.addShort(0, (short) 2); // double precision
+					type = b.endTable();
+				}
+				default -> {
+					typeType = 5;
+					b.startTable(0);
+					type = b.endTable();
+				}
+			}
+			int children = b.createOffsetVector(new int[0]);
+			b.startTable(7);
+			b.addOffset(0, name);
+			b.addOffset(3, type);
+			b.addOffset(5, children);
+			b.addBoolean(1, false);
+			b.addByte(2, typeType);
+			fields[c] = b.endTable();
+		}
+		int fieldVector = b.createOffsetVector(fields);
+		b.startTable(4);
+		b.addOffset(1, fieldVector);
+		b.addShort(0, (short) 0); // little endian
+		return b.endTable();
+	}
+
+	private byte[] footer() {
+		FlatBufferBuilder b = new FlatBufferBuilder(1024);
+		int schema = schema(b);
+		b.startVector(24, 0, 8);
+		int dictionaries = b.endVector(0);
+		b.startVector(24, blocks.size(), 8);
+		for (int i = blocks.size() - 1; i >= 0; i--) {
+			long[] block = blocks.get(i);
+			b.prep(8, 24);
+			b.putLong(block[2]);
+			b.pad(4);
+			b.putInt((int) block[1]);
+			b.putLong(block[0]);
+		}
+		int batches = b.endVector(blocks.size());
+		b.startTable(5);
+		b.addOffset(1, schema);
+		b.addOffset(2, dictionaries);
+		b.addOffset(3, batches);
+		b.addShort(0, METADATA_V5);
+		return b.finish(b.endTable());
+	}
+
+	private static int align8(int length) {
+		return (length + 7) & ~7;
+	}
+}
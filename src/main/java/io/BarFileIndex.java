@@ -0,0 +1,244 @@
+package io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+
+/**
+ * Sparse index from timestamps to byte offsets in a Date-OHLCV csv file, so a
+ * date range can be read without parsing the rows before it.
+ * Every stride-th row is indexed. The index is built on the first read and
+ * stored next to the data file as a .idx file, which is rebuilt when the data
+ * file changes size or modification time. If the index can't be written, it
+ * is only kept in memory.
+ */
+public final class BarFileIndex {
+	public static final int DEFAULT_STRIDE = 256;
+	public static final String SUFFIX = ".idx";
+
+	private static final int MAGIC = 0x42494458; // "BIDX"
+	private static final int VERSION = 1;
+
+	private final long fileSize;
+	private final long lastModified;
+	private final int stride;
+	// False if the rows are not in time order
+	private final boolean sorted;
+	private final long[] timestamps;
+	private final long[] offsets;
+
+	private BarFileIndex(long fileSize, long lastModified, int stride, boolean sorted, long[] timestamps,
+			long[] offsets) {
+		this.fileSize = fileSize;
+		this.lastModified = lastModified;
+		this.stride = stride;
+		this.sorted = sorted;
+		this.timestamps = timestamps;
+		this.offsets = offsets;
+	}
+
+	public static BarFileIndex of(Path dataPath) throws IOException {
+		return of(dataPath, DEFAULT_STRIDE);
+	}
+
+	/**
+	 * Reads the index of a data file, building and storing it first if it is
+	 * missing, stale or made with another stride
+	 */
+	public static BarFileIndex of(Path dataPath, int stride) throws IOException {
+		if (stride < 1)
+			throw new IllegalArgumentException("Stride must be positive");
+		long size = Files.size(dataPath);
+		long modified = Files.getLastModifiedTime(dataPath).toMillis();
+		Path indexPath = indexPath(dataPath);
+		BarFileIndex index = read(indexPath);
+		if (index != null && index.fileSize == size && index.lastModified == modified && index.stride == stride)
+			return index;
+
+		index = build(dataPath, stride, size, modified);
+		try {
+			index.write(indexPath);
+		} catch (IOException e) {
+			// Read-only data directories just don't get an index file
+		}
+		return index;
+	}
+
+	public static Path indexPath(Path dataPath) {
+		return dataPath.resolveSibling(dataPath.getFileName() + SUFFIX);
+	}
+
+	/**
+	 * Byte offset of a row at or before the first row with a timestamp at or after
+	 * from. Reading from there and skipping earlier rows gives the range in at
+	 * most stride extra rows. A null from gives the first row
+	 */
+	public long offsetFor(LocalDateTime from) {
+		if (from == null || !sorted || timestamps.length == 0)
+			return offsets.length == 0 ? fileSize : offsets[0];
+		long key = from.toEpochSecond(ZoneOffset.UTC);
+		// Last indexed row strictly before from, since rows before the next indexed
+		// one may have the same timestamp
+		int i = Arrays.binarySearch(timestamps, key);
+		if (i < 0)
+			i = -i - 1;
+		while (i > 0 && timestamps[i - 1] >= key)
+			i--;
+		return offsets[Math.max(0, i - 1)];
+	}
+
+	/**
+	 * True if the rows are in time order, so reading can stop at the end of a
+	 * range
+	 */
+	public boolean isSorted() {
+		return sorted;
+	}
+
+	public int size() {
+		return offsets.length;
+	}
+
+	/* ================================ Building ================================ */
+
+	private static BarFileIndex build(Path dataPath, int stride, long size, long modified) throws IOException {
+		long[] ts = new long[16];
+		long[] off = new long[16];
+		int count = 0;
+		boolean sorted = true;
+		try (InputStream in = new BufferedInputStream(Files.newInputStream(dataPath), 1 << 16)) {
+			long offset = 0;
+			// Skip the header row
+			int b;
+			while ((b = in.read()) >= 0) {
+				offset++;
+				if (b == '\n')
+					break;
+			}
+			byte[] date = new byte[64];
+			byte[] previous = new byte[64];
+			int previousLength = 0;
+			int rowsSinceIndexed = stride;
+			while (true) {
+				long rowStart = offset;
+				int length = 0;
+				boolean inDate = true;
+				while ((b = in.read()) >= 0) {
+					offset++;
+					if (b == '\n')
+						break;
+					if (b == ',')
+						inDate = false;
+					else if (inDate && length < date.length)
+						date[length++] = (byte) b;
+				}
+				if (offset == rowStart)
+					break;
+				if (length == 0)
+					continue;
+				if (sorted && previousLength > 0 && before(date, length, previous, previousLength))
+					sorted = false;
+				System.arraycopy(date, 0, previous, 0, length);
+				previousLength = length;
+				rowsSinceIndexed++;
+				if (rowsSinceIndexed >= stride) {
+					long t = parseEpochSecond(date, length);
+					if (t != Long.MIN_VALUE) {
+						if (count == ts.length) {
+							ts = Arrays.copyOf(ts, count * 2);
+							off = Arrays.copyOf(off, count * 2);
+						}
+						ts[count] = t;
+						off[count] = rowStart;
+						count++;
+						rowsSinceIndexed = 0;
+					}
+				}
+				if (b < 0)
+					break;
+			}
+		}
+		return new BarFileIndex(size, modified, stride, sorted, Arrays.copyOf(ts, count), Arrays.copyOf(off, count));
+	}
+
+	/**
+	 * True if the first timestamp is earlier than the second. Timestamps on the
+	 * same format compare like their text, so they are only parsed if the text
+	 * is smaller
+	 */
+	private static boolean before(byte[] a, int aLength, byte[] b, int bLength) {
+		if (aLength == bLength && Arrays.compare(a, 0, aLength, b, 0, bLength) >= 0)
+			return false;
+		long ta = parseEpochSecond(a, aLength);
+		long tb = parseEpochSecond(b, bLength);
+		return ta != Long.MIN_VALUE && tb != Long.MIN_VALUE && ta < tb;
+	}
+
+	private static long parseEpochSecond(byte[] date, int length) {
+		try {
+			return CSVparser.parseTimestamp(new String(date, 0, length, StandardCharsets.UTF_8))
+					.toEpochSecond(ZoneOffset.UTC);
+		} catch (DateTimeParseException e) {
+			return Long.MIN_VALUE;
+		}
+	}
+
+	/* ================================== Files ================================= */
+
+	private void write(Path indexPath) throws IOException {
+		Path tmp = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(fileSize);
+			out.writeLong(lastModified);
+			out.writeInt(stride);
+			out.writeBoolean(sorted);
+			out.writeInt(offsets.length);
+			for (int i = 0; i < offsets.length; i++) {
+				out.writeLong(timestamps[i]);
+				out.writeLong(offsets[i]);
+			}
+		}
+		Files.move(tmp, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Reads an index file, null if it is missing or unreadable
+	 */
+	private static BarFileIndex read(Path indexPath) {
+		if (!Files.isRegularFile(indexPath))
+			return null;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexPath)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				return null;
+			long size = in.readLong();
+			long modified = in.readLong();
+			int stride = in.readInt();
+			boolean sorted = in.readBoolean();
+			int count = in.readInt();
+			if (count < 0 || count > size)
+				return null;
+			long[] ts = new long[count];
+			long[] off = new long[count];
+			for (int i = 0; i < count; i++) {
+				ts[i] = in.readLong();
+				off[i] = in.readLong();
+			}
+			return new BarFileIndex(size, modified, stride, sorted, ts, off);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+}
@@ -1,10 +1,14 @@
 package io;
 
-import java.io.Closeable;
 import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -14,12 +18,13 @@ import java.util.Scanner;
 import java.util.stream.Collectors;
 
 import engine.Bar;
+import engine.BarSource;
 
 /**
  * Robust CSV parser for OHLCV data files.
  * Handles malformed lines, missing data, and ensures resources are managed.
  */
-public class CSVparser implements Closeable {
+public class CSVparser implements BarSource {
 	/**
 	 * This formatter can be changed in order to accomodate different csv styles. If
 	 * using simple localdateFormatter one has to apply .atStartOfDay() to get
@@ -37,6 +42,16 @@ public class CSVparser implements Closeable {
 	private Map<String, Double> thisLine = new HashMap<>();
 	private boolean headersPopulated = false;
 
+	/*
+	 * Date range of a parser made with range(). Rows before from are skipped, and
+	 * reading stops at the first row at or after to if the file is in time order
+	 */
+	private LocalDateTime from = null;
+	private LocalDateTime to = null;
+	private boolean stopAtTo = false;
+	private long rangeOffset = -1;
+	private boolean pastEnd = false;
+
 	public CSVparser(String dataPath) throws IOException {
 		this.dataPath = dataPath;
 		try {
@@ -50,6 +65,57 @@ public class CSVparser implements Closeable {
 		}
 	}
 
+	/**
+	 * Creates a parser that reads the header row and then continues from the given
+	 * byte offset in the file. The offset has to be at the start of a line.
+	 * Unlike the normal constructor no line is loaded, so the first call to
+	 * goToNext() returns the first line at or after the offset.
+	 *
+	 * @param dataPath path to the csv file
+	 * @param offset   byte offset to continue reading from
+	 */
+	public static CSVparser resumeAt(String dataPath, long offset) throws IOException {
+		CSVparser parser = new CSVparser(dataPath);
+		try {
+			parser.seek(offset);
+		} catch (IOException e) {
+			parser.close();
+			throw e;
+		}
+		return parser;
+	}
+
+	/**
+	 * Creates a parser for the rows from from, inclusive, to to, exclusive. Either
+	 * may be null for no limit. It seeks to the first row of the range with a
+	 * BarFileIndex, built and stored next to the file on first use, so the time
+	 * taken depends on the size of the range rather than the file.
+	 * Like resumeAt() no line is loaded, so the first call to goToNext() returns
+	 * the first row of the range.
+	 *
+	 * @param dataPath path to the csv file
+	 */
+	public static CSVparser range(String dataPath, LocalDateTime from, LocalDateTime to) throws IOException {
+		BarFileIndex index = BarFileIndex.of(Path.of(dataPath));
+		long offset = index.offsetFor(from);
+		CSVparser parser = resumeAt(dataPath, offset);
+		parser.from = from;
+		parser.to = to;
+		parser.stopAtTo = index.isSorted();
+		parser.rangeOffset = offset;
+		return parser;
+	}
+
+	private void seek(long offset) throws IOException {
+		close();
+		SeekableByteChannel channel = Files.newByteChannel(Path.of(dataPath));
+		channel.position(offset);
+		this.scanner = new Scanner(channel, StandardCharsets.UTF_8);
+		this.scanner.useDelimiter("\n");
+		thisLine.clear();
+		thisTimestamp = null;
+	}
+
 	/**
 	 * Reads and stores the CSV header row.
 	 * Throws if headers already populated or header row is malformed.
@@ -74,8 +140,11 @@ public class CSVparser implements Closeable {
 	 * 
 	 * @return true if a new line was read, false if EOF
 	 */
+	@Override
 	public boolean goToNext() {
 		thisLine.clear();
+		if (pastEnd)
+			return false;
 		while (scanner.hasNext()) {
 			String line = scanner.next();
 			// Skipping blank lines
@@ -83,7 +152,15 @@ public class CSVparser implements Closeable {
 				continue;
 
 			String[] tokens = line.split(",");
-			thisTimestamp = LocalDate.parse(tokens[0], localDateFormatter).atStartOfDay();
+			thisTimestamp = parseTimestamp(tokens[0]);
+			if (from != null && thisTimestamp.isBefore(from))
+				continue;
+			if (to != null && !thisTimestamp.isBefore(to)) {
+				if (!stopAtTo)
+					continue;
+				pastEnd = true;
+				return false;
+			}
 			for (int i = 1; i < headers.size(); i++) {
 				if (i < tokens.length) {
 					try {
@@ -101,11 +178,37 @@ public class CSVparser implements Closeable {
 	}
 
 	/**
-	 * Restart the CSV parser from the beginning (after headers)
+	 * Parses the Date column. Dates are taken as the start of the day, and
+	 * timestamps with an offset, like the bars written by the TickBarSource, are
+	 * converted to UTC
+	 */
+	public static LocalDateTime parseTimestamp(String token) {
+		String trimmed = token.trim();
+		if (trimmed.length() == 10)
+			return LocalDate.parse(trimmed, localDateFormatter).atStartOfDay();
+		return OffsetDateTime.parse(trimmed, localDateTimeFormatter).withOffsetSameInstant(ZoneOffset.UTC)
+				.toLocalDateTime();
+	}
+
+	/**
+	 * Formats a timestamp in UTC so parseTimestamp() reads it back
+	 */
+	public static String formatTimestamp(LocalDateTime timestamp) {
+		return timestamp.atOffset(ZoneOffset.UTC).format(localDateTimeFormatter);
+	}
+
+	/**
+	 * Restart the CSV parser from the beginning (after headers), or from the start
+	 * of the range for a parser made with range()
 	 * 
 	 * @throws IOException if the file cannot be reopened
 	 */
 	public void restart() throws IOException {
+		if (rangeOffset >= 0) {
+			seek(rangeOffset);
+			pastEnd = false;
+			return;
+		}
 		close();
 		this.scanner = new Scanner(Path.of(dataPath));
 		this.scanner.useDelimiter("\n");
@@ -129,6 +232,7 @@ public class CSVparser implements Closeable {
 	 * missing/malformed.
 	 * Assumes CSV data is in "Date,O,H,L,C,V\n" format.
 	 */
+	@Override
 	public Bar getBar() {
 		try {
 			if (thisLine.isEmpty() || !thisLine.containsKey("Open"))
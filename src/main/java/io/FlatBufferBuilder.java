@@ -0,0 +1,177 @@
+package io;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Minimal FlatBuffers builder, enough to write the Arrow IPC metadata without
+ * depending on the flatbuffers library. Works like the official builder: the
+ * buffer is filled from the back, and objects are referred to by their offset
+ * from the end of the buffer. Children have to be created before the tables
+ * that refer to them.
+ */
+final class FlatBufferBuilder {
+	private ByteBuffer bb;
+	private int space;
+	private int minAlign = 1;
+	private int[] vtable;
+	private int objectStart;
+
+	FlatBufferBuilder(int capacity) {
+		bb = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+		space = capacity;
+	}
+
+	int offset() {
+		return bb.capacity() - space;
+	}
+
+	/**
+	 * Pads so that an object of the given size, written after additionalBytes,
+	 * is aligned
+	 */
+	void prep(int size, int additionalBytes) {
+		minAlign = Math.max(minAlign, size);
+		int pad = (~(bb.capacity() - space + additionalBytes) + 1) & (size - 1);
+		while (space < pad + size + additionalBytes) {
+			int old = bb.capacity();
+			ByteBuffer grown = ByteBuffer.allocate(old * 2).order(ByteOrder.LITTLE_ENDIAN);
+			grown.position(old);
+			grown.put(bb.array(), 0, old);
+			bb = grown;
+			space += old;
+		}
+		for (int i = 0; i < pad; i++)
+			bb.put(--space, (byte) 0);
+	}
+
+	void putByte(byte x) {
+		bb.put(space -= 1, x);
+	}
+
+	void putShort(short x) {
+		bb.putShort(space -= 2, x);
+	}
+
+	void putInt(int x) {
+		bb.putInt(space -= 4, x);
+	}
+
+	void putLong(long x) {
+		bb.putLong(space -= 8, x);
+	}
+
+	void pad(int bytes) {
+		for (int i = 0; i < bytes; i++)
+			bb.put(--space, (byte) 0);
+	}
+
+	/* ================================= Tables ================================= */
+
+	void startTable(int fields) {
+		vtable = new int[fields];
+		objectStart = offset();
+	}
+
+	void addByte(int slot, byte x) {
+		prep(1, 0);
+		putByte(x);
+		vtable[slot] = offset();
+	}
+
+	void addBoolean(int slot, boolean x) {
+		addByte(slot, (byte) (x ? 1 : 0));
+	}
+
+	void addShort(int slot, short x) {
+		prep(2, 0);
+		putShort(x);
+		vtable[slot] = offset();
+	}
+
+	void addInt(int slot, int x) {
+		prep(4, 0);
+		putInt(x);
+		vtable[slot] = offset();
+	}
+
+	void addLong(int slot, long x) {
+		prep(8, 0);
+		putLong(x);
+		vtable[slot] = offset();
+	}
+
+	void addOffset(int slot, int off) {
+		addOffset(off);
+		vtable[slot] = offset();
+	}
+
+	/**
+	 * Writes a reference to an object created earlier, relative to where it is
+	 * written
+	 */
+	void addOffset(int off) {
+		prep(4, 0);
+		putInt(offset() - off + 4);
+	}
+
+	int endTable() {
+		prep(4, 0);
+		putInt(0);
+		int tableOffset = offset();
+		int fields = vtable.length;
+		while (fields > 0 && vtable[fields - 1] == 0)
+			fields--;
+		for (int i = fields - 1; i >= 0; i--)
+			putShort((short) (vtable[i] != 0 ? tableOffset - vtable[i] : 0));
+		putShort((short) (tableOffset - objectStart));
+		putShort((short) ((fields + 2) * 2));
+		// The table starts with the signed distance back to its vtable
+		bb.putInt(bb.capacity() - tableOffset, offset() - tableOffset);
+		vtable = null;
+		return tableOffset;
+	}
+
+	/* ========================= Vectors and strings ========================== */
+
+	void startVector(int elementSize, int count, int alignment) {
+		prep(4, elementSize * count);
+		prep(alignment, elementSize * count);
+	}
+
+	int endVector(int count) {
+		putInt(count);
+		return offset();
+	}
+
+	/**
+	 * Creates a vector of references to objects created earlier
+	 */
+	int createOffsetVector(int[] offsets) {
+		startVector(4, offsets.length, 4);
+		for (int i = offsets.length - 1; i >= 0; i--)
+			addOffset(offsets[i]);
+		return endVector(offsets.length);
+	}
+
+	int createString(String s) {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		prep(4, bytes.length + 1);
+		putByte((byte) 0);
+		space -= bytes.length;
+		bb.position(space);
+		bb.put(bytes);
+		return endVector(bytes.length);
+	}
+
+	/**
+	 * Finishes the buffer with root as its root table and returns its bytes
+	 */
+	byte[] finish(int root) {
+		prep(minAlign, 4);
+		addOffset(root);
+		return Arrays.copyOfRange(bb.array(), space, bb.capacity());
+	}
+}
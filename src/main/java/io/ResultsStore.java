@@ -0,0 +1,287 @@
+package io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Append-only store for the results of many runs, kept in one directory.
+ * The equity curves go compressed into a segment file, and everything else
+ * about a run (strategy, parameters, data hash and summary metrics) goes into
+ * a small index file that is kept in memory, so queries never read the curves.
+ * Runs are only ever appended. Every index record has a checksum, so a record
+ * cut short by a crash is ignored and overwritten by the next append.
+ * Appends are safe from several threads, and from several processes, which
+ * take turns through a lock on the index file. Use one store per directory in
+ * each process.
+ */
+public class ResultsStore implements Closeable {
+	static final String SEGMENT_FILE = "runs.seg";
+	static final String INDEX_FILE = "runs.idx";
+
+	/**
+	 * Index entry of a run.
+	 *
+	 * @param offset position of the compressed curve in the segment file
+	 * @param length length of the compressed curve
+	 * @param points number of values in the curve
+	 */
+	public record Run(long id, String strategy, Map<String, Double> params, String dataHash,
+			Map<String, Double> metrics, long offset, int length, int points) {
+
+		/**
+		 * Value of a parameter, NaN if the run doesn't have it
+		 */
+		public double param(String name) {
+			return params.getOrDefault(name, Double.NaN);
+		}
+
+		/**
+		 * Value of a metric, NaN if the run doesn't have it
+		 */
+		public double metric(String name) {
+			return metrics.getOrDefault(name, Double.NaN);
+		}
+	}
+
+	private final FileChannel segment;
+	private final FileChannel index;
+	private final List<Run> runs = new ArrayList<>();
+	// End of the last complete record in the index file
+	private long indexEnd = 0;
+
+	private ResultsStore(FileChannel segment, FileChannel index) {
+		this.segment = segment;
+		this.index = index;
+	}
+
+	/**
+	 * Opens the store in the directory, creating it if needed
+	 */
+	public static ResultsStore open(Path dir) throws IOException {
+		Files.createDirectories(dir);
+		FileChannel segment = FileChannel.open(dir.resolve(SEGMENT_FILE), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		FileChannel index = FileChannel.open(dir.resolve(INDEX_FILE), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		ResultsStore store = new ResultsStore(segment, index);
+		store.refresh();
+		return store;
+	}
+
+	/**
+	 * Appends a run. The curve is compressed before the store is locked, so
+	 * workers only wait for each other while writing.
+	 *
+	 * @param strategy name of the strategy
+	 * @param params   parameters of the run, like "ema_period"
+	 * @param dataHash hash of the data the run used, "" if unknown
+	 * @param metrics  summary metrics, like "sharpe"
+	 * @param equity   equity curve
+	 * @return the index entry of the run
+	 */
+	public Run append(String strategy, Map<String, Double> params, String dataHash, Map<String, Double> metrics,
+			double[] equity) throws IOException {
+		if (strategy == null || dataHash == null)
+			throw new IllegalArgumentException(
+					"A run needs a strategy and a data hash, use \"\" if the data is unknown");
+		byte[] curve = compress(equity);
+		synchronized (this) {
+			try (FileLock lock = index.lock()) {
+				// Pick up runs appended by other processes, and drop a torn record
+				refresh();
+				if (index.size() > indexEnd)
+					index.truncate(indexEnd);
+
+				long offset = segment.size();
+				writeFully(segment, ByteBuffer.wrap(curve), offset);
+				segment.force(false);
+
+				Run run = new Run(runs.size(), strategy, copy(params), dataHash, copy(metrics), offset,
+						curve.length, equity.length);
+				byte[] record = encode(run);
+				CRC32 crc = new CRC32();
+				crc.update(record);
+				ByteBuffer framed = ByteBuffer.allocate(12 + record.length);
+				framed.putInt(record.length).putLong(crc.getValue()).put(record).flip();
+				writeFully(index, framed, indexEnd);
+				index.force(false);
+				indexEnd += framed.capacity();
+				runs.add(run);
+				return run;
+			}
+		}
+	}
+
+	/**
+	 * Reads the records appended since the last read, also by other processes
+	 */
+	public synchronized void refresh() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(12);
+		while (true) {
+			header.clear();
+			if (index.read(header, indexEnd) < 12)
+				return;
+			header.flip();
+			int length = header.getInt();
+			long checksum = header.getLong();
+			if (length < 0 || indexEnd + 12 + length > index.size())
+				return;
+			ByteBuffer record = ByteBuffer.allocate(length);
+			while (record.hasRemaining() && index.read(record, indexEnd + 12 + record.position()) > 0)
+				;
+			CRC32 crc = new CRC32();
+			crc.update(record.array());
+			if (record.hasRemaining() || crc.getValue() != checksum)
+				return;
+			runs.add(decode(record.array()));
+			indexEnd += 12 + length;
+		}
+	}
+
+	/* ================================= Queries ================================= */
+
+	/**
+	 * All runs in the order they were appended
+	 */
+	public synchronized List<Run> runs() {
+		return Collections.unmodifiableList(new ArrayList<>(runs));
+	}
+
+	/**
+	 * The n runs with the highest value of a metric among the runs matching the
+	 * filter, for example
+	 * {@code top(20, "sharpe", r -> r.param("ema_period") < 50)}. Runs without
+	 * the metric are left out.
+	 */
+	public synchronized List<Run> top(int n, String metric, Predicate<Run> filter) {
+		return runs.stream()
+				.filter(r -> !Double.isNaN(r.metric(metric)))
+				.filter(filter)
+				.sorted(Comparator.comparingDouble((Run r) -> r.metric(metric)).reversed())
+				.limit(n)
+				.toList();
+	}
+
+	/**
+	 * Reads and decompresses the equity curve of a run
+	 */
+	public double[] equity(Run run) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(run.length());
+		while (buf.hasRemaining()) {
+			if (segment.read(buf, run.offset() + buf.position()) < 0)
+				throw new IOException("Segment file is shorter than the index says");
+		}
+		return decompress(buf.array(), run.points());
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		try {
+			segment.close();
+		} finally {
+			index.close();
+		}
+	}
+
+	/* ================================ Encoding ================================ */
+
+	private static void writeFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+		while (buf.hasRemaining())
+			channel.write(buf, position + buf.position());
+	}
+
+	private static Map<String, Double> copy(Map<String, Double> map) {
+		return Collections.unmodifiableMap(new LinkedHashMap<>(map));
+	}
+
+	private static byte[] encode(Run run) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeLong(run.id());
+		out.writeUTF(run.strategy());
+		out.writeUTF(run.dataHash());
+		writeMap(out, run.params());
+		writeMap(out, run.metrics());
+		out.writeLong(run.offset());
+		out.writeInt(run.length());
+		out.writeInt(run.points());
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private static Run decode(byte[] record) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+		long id = in.readLong();
+		String strategy = in.readUTF();
+		String dataHash = in.readUTF();
+		Map<String, Double> params = readMap(in);
+		Map<String, Double> metrics = readMap(in);
+		return new Run(id, strategy, params, dataHash, metrics, in.readLong(), in.readInt(), in.readInt());
+	}
+
+	private static void writeMap(DataOutputStream out, Map<String, Double> map) throws IOException {
+		out.writeInt(map.size());
+		for (Map.Entry<String, Double> e : map.entrySet()) {
+			out.writeUTF(e.getKey());
+			out.writeDouble(e.getValue());
+		}
+	}
+
+	private static Map<String, Double> readMap(DataInputStream in) throws IOException {
+		int size = in.readInt();
+		Map<String, Double> map = new LinkedHashMap<>();
+		for (int i = 0; i < size; i++)
+			map.put(in.readUTF(), in.readDouble());
+		return Collections.unmodifiableMap(map);
+	}
+
+	/**
+	 * Each value is stored XORed with the previous one. Neighbouring values of an
+	 * equity curve share their sign, exponent and leading mantissa bits, so this
+	 * gives long runs of zero bytes that deflate well
+	 */
+	static byte[] compress(double[] values) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+			long previous = 0;
+			for (double v : values) {
+				long bits = Double.doubleToRawLongBits(v);
+				out.writeLong(bits ^ previous);
+				previous = bits;
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+	static double[] decompress(byte[] data, int points) throws IOException {
+		double[] values = new double[points];
+		try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(data)))) {
+			long previous = 0;
+			for (int i = 0; i < points; i++) {
+				previous ^= in.readLong();
+				values[i] = Double.longBitsToDouble(previous);
+			}
+		}
+		return values;
+	}
+}
@@ -0,0 +1,93 @@
+package io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes and reads object graphs of simulation state (portfolios, strategies,
+ * signals) with java serialization.
+ * Objects that cannot or should not be serialized, like the Logger, are passed
+ * as "externals". They are written as a reference to their index in the list
+ * and swapped for the object at the same index when reading back.
+ */
+public final class StateSerializer {
+
+	private StateSerializer() {
+	}
+
+	/**
+	 * Writes the object graph of root to out.
+	 *
+	 * @param root      object to write
+	 * @param out       stream to write to, not closed
+	 * @param externals objects that are written by reference only
+	 */
+	public static void write(Object root, OutputStream out, List<?> externals) throws IOException {
+		ExternalOutputStream oos = new ExternalOutputStream(out, externals);
+		oos.writeObject(root);
+		oos.flush();
+	}
+
+	/**
+	 * Reads an object graph written by {@link #write}.
+	 *
+	 * @param in        stream to read from, not closed
+	 * @param externals objects to put in place of the externals used when writing
+	 */
+	public static Object read(InputStream in, List<?> externals) throws IOException {
+		try {
+			return new ExternalInputStream(in, externals).readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Unknown class in state: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Reference to the external object at the given index
+	 */
+	private record ExternalRef(int index) implements Serializable {
+	}
+
+	private static class ExternalOutputStream extends ObjectOutputStream {
+		private final Map<Object, Integer> indices = new IdentityHashMap<>();
+
+		ExternalOutputStream(OutputStream out, List<?> externals) throws IOException {
+			super(out);
+			for (int i = 0; i < externals.size(); i++)
+				indices.putIfAbsent(externals.get(i), i);
+			enableReplaceObject(true);
+		}
+
+		@Override
+		protected Object replaceObject(Object obj) {
+			Integer index = indices.get(obj);
+			return index == null ? obj : new ExternalRef(index);
+		}
+	}
+
+	private static class ExternalInputStream extends ObjectInputStream {
+		private final List<?> externals;
+
+		ExternalInputStream(InputStream in, List<?> externals) throws IOException {
+			super(in);
+			this.externals = externals;
+			enableResolveObject(true);
+		}
+
+		@Override
+		protected Object resolveObject(Object obj) throws IOException {
+			if (!(obj instanceof ExternalRef ref))
+				return obj;
+			if (ref.index() >= externals.size())
+				throw new IOException("Missing external object for index " + ref.index());
+			return externals.get(ref.index());
+		}
+	}
+}
@@ -0,0 +1,382 @@
+package io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streams trades from a csv file with a header row and at least a timestamp,
+ * a price and a size column, named Timestamp or Time, Price, and Size, Volume
+ * or Quantity. Other columns are ignored.
+ * <p>
+ * Built for files with hundreds of millions of rows: the bytes are parsed in
+ * place in a fixed buffer, without creating strings or objects per row, so
+ * memory use is constant. Timestamps are either epoch numbers, whose unit is
+ * taken from the number of digits (seconds, milliseconds, microseconds or
+ * nanoseconds), or text like 2020-01-02 09:30:00.123+01:00, with an optional
+ * fraction and offset. Text without an offset is taken as UTC. Malformed rows
+ * are skipped and counted.
+ */
+public class TickReader implements Closeable {
+	private static final int BUFFER_SIZE = 1 << 20;
+	private static final int ALL_FIELDS = 7;
+	private static final double[] POW10 = new double[23];
+	static {
+		POW10[0] = 1.0;
+		for (int i = 1; i < POW10.length; i++)
+			POW10[i] = POW10[i - 1] * 10.0;
+	}
+
+	private final ReadableByteChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+	private final byte[] bytes = buffer.array();
+	private int pos = 0;
+	private int limit = 0;
+	private boolean eof = false;
+
+	private int timestampColumn = -1;
+	private int priceColumn = -1;
+	private int sizeColumn = -1;
+	private int lastColumn;
+
+	private long timestamp;
+	private double price;
+	private double size;
+	private long skipped = 0;
+
+	// Bit per field of the current row that parsed: timestamp, price, size
+	private int parsed;
+
+	public TickReader(ReadableByteChannel channel) throws IOException {
+		this.channel = channel;
+		readHeader();
+	}
+
+	public static TickReader open(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			return new TickReader(channel);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private void readHeader() throws IOException {
+		int end = lineEnd();
+		if (end < 0)
+			throw new IOException("Tick file is empty, no header row");
+		String header = new String(bytes, pos, end - pos, StandardCharsets.UTF_8).trim();
+		pos = end + 1;
+		List<String> columns = Arrays.stream(header.split(",")).map(String::trim).toList();
+		for (int i = 0; i < columns.size(); i++) {
+			switch (columns.get(i)) {
+				case "Timestamp", "Time" -> timestampColumn = i;
+				case "Price" -> priceColumn = i;
+				case "Size", "Volume", "Quantity" -> sizeColumn = i;
+				default -> {
+				}
+			}
+		}
+		if (timestampColumn < 0 || priceColumn < 0 || sizeColumn < 0)
+			throw new IOException("Expected Timestamp, Price and Size columns, got " + header);
+		lastColumn = Math.max(timestampColumn, Math.max(priceColumn, sizeColumn));
+	}
+
+	/**
+	 * Returns the position of the end of the current line, reading more of the
+	 * file if needed. The last line may lack a newline. -1 at the end of the file
+	 */
+	private int lineEnd() throws IOException {
+		int scanFrom = pos;
+		while (true) {
+			for (int i = scanFrom; i < limit; i++) {
+				if (bytes[i] == '\n')
+					return i;
+			}
+			if (eof)
+				return pos < limit ? limit : -1;
+			scanFrom = limit - pos;
+			refill();
+		}
+	}
+
+	/**
+	 * Moves the partial line at the end of the buffer to the front and fills the
+	 * rest from the file
+	 */
+	private void refill() throws IOException {
+		int partial = limit - pos;
+		if (partial == bytes.length)
+			throw new IOException("Line longer than " + bytes.length + " bytes");
+		System.arraycopy(bytes, pos, bytes, 0, partial);
+		pos = 0;
+		limit = partial;
+		buffer.clear().position(limit);
+		int n = channel.read(buffer);
+		if (n < 0)
+			eof = true;
+		else
+			limit += n;
+	}
+
+	/**
+	 * Moves to the next trade
+	 *
+	 * @return false at the end of the file
+	 */
+	public boolean next() throws IOException {
+		while (true) {
+			if (pos >= limit) {
+				if (eof)
+					return false;
+				refill();
+				continue;
+			}
+			int end = parseLine(pos);
+			if (end < 0) {
+				// The line continues past the buffer
+				refill();
+				continue;
+			}
+			boolean blank = end == pos || end == pos + 1 && bytes[pos] == '\r';
+			boolean valid = parsed == ALL_FIELDS;
+			pos = end + 1;
+			if (valid)
+				return true;
+			if (!blank)
+				skipped++;
+		}
+	}
+
+	/**
+	 * Parses the fields of the line starting at start in a single pass. Returns
+	 * the position of the end of the line, or -1 if the buffer ends first
+	 */
+	private int parseLine(int start) {
+		int column = 0;
+		int fieldStart = start;
+		parsed = 0;
+		int i = start;
+		while (true) {
+			if (i == limit) {
+				if (!eof)
+					return -1;
+				break;
+			}
+			byte c = bytes[i];
+			if (c == '\n')
+				break;
+			if (c == ',') {
+				parseField(column++, fieldStart, i);
+				fieldStart = i + 1;
+			}
+			i++;
+		}
+		parseField(column, fieldStart, i > fieldStart && bytes[i - 1] == '\r' ? i - 1 : i);
+		return i;
+	}
+
+	private void parseField(int column, int start, int end) {
+		if (column > lastColumn)
+			return;
+		if (column == timestampColumn) {
+			timestamp = parseTimestamp(bytes, start, end);
+			if (timestamp != Long.MIN_VALUE)
+				parsed |= 1;
+		} else if (column == priceColumn) {
+			price = parseDouble(bytes, start, end);
+			if (!Double.isNaN(price))
+				parsed |= 2;
+		} else if (column == sizeColumn) {
+			size = parseDouble(bytes, start, end);
+			if (!Double.isNaN(size))
+				parsed |= 4;
+		}
+	}
+
+	/* ================================= Parsing ================================ */
+
+	/**
+	 * Parses a decimal number. Numbers with up to 15 significant digits and no
+	 * exponent take the fast path, which gives the same result as
+	 * Double.parseDouble. NaN if malformed
+	 */
+	static double parseDouble(byte[] b, int start, int end) {
+		while (start < end && b[start] == ' ')
+			start++;
+		while (end > start && b[end - 1] == ' ')
+			end--;
+		if (start == end)
+			return Double.NaN;
+		int i = start;
+		boolean negative = b[i] == '-';
+		if (negative || b[i] == '+')
+			i++;
+		long mantissa = 0;
+		// Significant digits, and all digits, of which "", "." and "-" have none
+		int digits = 0;
+		int read = 0;
+		int fraction = -1;
+		for (; i < end; i++) {
+			byte c = b[i];
+			if (c >= '0' && c <= '9') {
+				read++;
+				mantissa = mantissa * 10 + (c - '0');
+				if (mantissa != 0)
+					digits++;
+				if (fraction >= 0)
+					fraction++;
+			} else if (c == '.' && fraction < 0) {
+				fraction = 0;
+			} else {
+				break;
+			}
+		}
+		if (i == end && read == 0)
+			return Double.NaN;
+		if (i == end && digits <= 15 && fraction < POW10.length) {
+			double value = fraction > 0 ? mantissa / POW10[fraction] : mantissa;
+			return negative ? -value : value;
+		}
+		try {
+			return Double.parseDouble(new String(b, start, end - start, StandardCharsets.US_ASCII));
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	/**
+	 * Parses a timestamp to epoch nanoseconds, Long.MIN_VALUE if malformed
+	 */
+	static long parseTimestamp(byte[] b, int start, int end) {
+		while (start < end && b[start] == ' ')
+			start++;
+		while (end > start && b[end - 1] == ' ')
+			end--;
+		int length = end - start;
+		if (length == 0)
+			return Long.MIN_VALUE;
+		if (length < 10 || b[start + 4] != '-')
+			return parseEpoch(b, start, end);
+
+		// yyyy-MM-dd[( |T)HH:mm:ss[.fffffffff]][Z|+HH:mm|+HHmm]
+		int year = digits(b, start, 4), month = digits(b, start + 5, 2), day = digits(b, start + 8, 2);
+		if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || b[start + 7] != '-')
+			return Long.MIN_VALUE;
+		long seconds = daysFromCivil(year, month, day) * 86400L;
+		long nanos = 0;
+		int i = start + 10;
+		if (i < end && (b[i] == ' ' || b[i] == 'T')) {
+			if (end - i < 9 || b[i + 3] != ':' || b[i + 6] != ':')
+				return Long.MIN_VALUE;
+			int h = digits(b, i + 1, 2), m = digits(b, i + 4, 2), s = digits(b, i + 7, 2);
+			if (h < 0 || m < 0 || s < 0)
+				return Long.MIN_VALUE;
+			seconds += h * 3600L + m * 60L + s;
+			i += 9;
+			if (i < end && b[i] == '.') {
+				i++;
+				int scale = 100_000_000;
+				for (; i < end && b[i] >= '0' && b[i] <= '9'; i++) {
+					nanos += (b[i] - '0') * (long) scale;
+					scale /= 10;
+				}
+			}
+		}
+		if (i < end) {
+			if (b[i] == 'Z') {
+				i++;
+			} else if (b[i] == '+' || b[i] == '-') {
+				int sign = b[i] == '-' ? -1 : 1;
+				int oh = digits(b, i + 1, 2);
+				int om = end - i == 6 && b[i + 3] == ':' ? digits(b, i + 4, 2)
+						: end - i == 5 ? digits(b, i + 3, 2) : end - i == 3 ? 0 : -1;
+				if (oh < 0 || om < 0)
+					return Long.MIN_VALUE;
+				seconds -= sign * (oh * 3600L + om * 60L);
+				i = end;
+			}
+		}
+		if (i != end)
+			return Long.MIN_VALUE;
+		return seconds * 1_000_000_000L + nanos;
+	}
+
+	private static long parseEpoch(byte[] b, int start, int end) {
+		long value = 0;
+		int length = end - start;
+		if (length > 19)
+			return Long.MIN_VALUE;
+		for (int i = start; i < end; i++) {
+			if (b[i] < '0' || b[i] > '9')
+				return Long.MIN_VALUE;
+			value = value * 10 + (b[i] - '0');
+		}
+		if (length >= 18)
+			return value;
+		if (length >= 15)
+			return value * 1_000L;
+		if (length >= 12)
+			return value * 1_000_000L;
+		return value * 1_000_000_000L;
+	}
+
+	private static int digits(byte[] b, int start, int count) {
+		int value = 0;
+		for (int i = start; i < start + count; i++) {
+			if (b[i] < '0' || b[i] > '9')
+				return -1;
+			value = value * 10 + (b[i] - '0');
+		}
+		return value;
+	}
+
+	/**
+	 * Days since 1970-01-01 of a date in the proleptic Gregorian calendar
+	 */
+	private static long daysFromCivil(int year, int month, int day) {
+		int y = month <= 2 ? year - 1 : year;
+		int era = Math.floorDiv(y, 400);
+		int yoe = y - era * 400;
+		int doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+		int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+		return era * 146097L + doe - 719468;
+	}
+
+	/* ================================= Access ================================= */
+
+	/**
+	 * Time of the current trade in nanoseconds since the epoch, UTC
+	 */
+	public long timestamp() {
+		return timestamp;
+	}
+
+	public double price() {
+		return price;
+	}
+
+	public double size() {
+		return size;
+	}
+
+	/**
+	 * Number of malformed rows skipped so far
+	 */
+	public long getSkipped() {
+		return skipped;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,221 @@
+package strategies;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Covariance matrix of the returns of a universe, updated with one row of
+ * returns per bar in O(n²) instead of recomputed from a window. Either
+ * exponentially weighted or over a rolling window.
+ * <p>
+ * Only the lower triangle is stored, packed row by row in one double[], so
+ * entry (i, j) with j <= i is at i * (i + 1) / 2 + j. Rows for new symbols are
+ * appended at the end, so the universe can grow without moving anything. For
+ * large universes the rows are updated in parallel, every entry is computed
+ * the same way either way.
+ */
+public class CovarianceMatrix implements Serializable {
+	// Universes at least this large are updated in parallel
+	static final int PARALLEL_ROWS = 128;
+
+	// 0 for a rolling window
+	private final double alpha;
+	private final int window;
+
+	private int capacity = 0;
+	private long steps = 0;
+
+	// Exponentially weighted means, or sums over the window
+	private double[] mean = new double[0];
+	// Exponentially weighted covariances, or sums of products over the window
+	private double[] packed = new double[0];
+	// Rolling window of returns, window rows of capacity entries
+	private double[] ring = new double[0];
+
+	// The returns of the current bar and, for a window, those leaving it
+	private transient double[] in;
+	private transient double[] out;
+
+	private CovarianceMatrix(double alpha, int window) {
+		this.alpha = alpha;
+		this.window = window;
+	}
+
+	/**
+	 * Exponentially weighted covariance, where the weight of a return halves
+	 * every halfLife bars
+	 */
+	public static CovarianceMatrix exponential(double halfLife) {
+		if (!(halfLife > 0))
+			throw new IllegalArgumentException("Half-life must be above zero");
+		return new CovarianceMatrix(1.0 - Math.pow(0.5, 1.0 / halfLife), 0);
+	}
+
+	/**
+	 * Sample covariance over the returns of the last window bars
+	 */
+	public static CovarianceMatrix rolling(int window) {
+		if (window < 2)
+			throw new IllegalArgumentException("Window must be at least 2");
+		return new CovarianceMatrix(0.0, window);
+	}
+
+	private static int offset(int row) {
+		return row * (row + 1) / 2;
+	}
+
+	/**
+	 * Updates the matrix with the returns of one bar.
+	 *
+	 * @param returns return per symbol id. NaN is taken as a return of zero, so a
+	 *                symbol without a bar counts as unchanged
+	 * @param n       number of symbols in the universe
+	 */
+	public void update(double[] returns, int n) {
+		ensureCapacity(n);
+		if (in == null || in.length < capacity) {
+			in = new double[capacity];
+			out = new double[capacity];
+		}
+		for (int i = 0; i < n; i++)
+			in[i] = Double.isNaN(returns[i]) ? 0.0 : returns[i];
+
+		if (window == 0) {
+			// d is the deviation from the mean before the update
+			for (int i = 0; i < n; i++) {
+				double d = in[i] - mean[i];
+				if (steps > 0)
+					mean[i] += alpha * d;
+				else
+					mean[i] = in[i];
+				out[i] = steps > 0 ? d : 0.0;
+			}
+			rows(n, this::updateExponential);
+		} else {
+			int slot = (int) (steps % window) * capacity;
+			for (int i = 0; i < n; i++) {
+				out[i] = steps >= window ? ring[slot + i] : 0.0;
+				ring[slot + i] = in[i];
+				mean[i] += in[i] - out[i];
+			}
+			rows(n, this::updateRolling);
+		}
+		steps++;
+		if (window > 0 && steps % window == 0)
+			recomputeSums();
+	}
+
+	private void rows(int n, IntConsumer row) {
+		if (n >= PARALLEL_ROWS)
+			IntStream.range(0, n).parallel().forEach(row);
+		else
+			for (int i = 0; i < n; i++)
+				row.accept(i);
+	}
+
+	private void updateExponential(int i) {
+		double keep = 1.0 - alpha;
+		double di = alpha * out[i];
+		int base = offset(i);
+		for (int j = 0; j <= i; j++)
+			packed[base + j] = keep * (packed[base + j] + di * out[j]);
+	}
+
+	private void updateRolling(int i) {
+		double xi = in[i];
+		double yi = out[i];
+		int base = offset(i);
+		for (int j = 0; j <= i; j++)
+			packed[base + j] += xi * in[j] - yi * out[j];
+	}
+
+	/**
+	 * Sums the ring again. Adding the new row's products to the packed cross
+	 * products and taking the old row's out leaves rounding that never cancels,
+	 * and it can swamp the covariance of two nearly unrelated symbols. Called each
+	 * time the ring has turned over, it costs as much as the window of updates
+	 * before it
+	 */
+	private void recomputeSums() {
+		Arrays.fill(mean, 0.0);
+		Arrays.fill(packed, 0.0);
+		for (int row = 0; row < window; row++) {
+			int slot = row * capacity;
+			for (int i = 0; i < capacity; i++) {
+				double xi = ring[slot + i];
+				mean[i] += xi;
+				int base = offset(i);
+				for (int j = 0; j <= i; j++)
+					packed[base + j] += xi * ring[slot + j];
+			}
+		}
+	}
+
+	/**
+	 * Grows the arrays to hold at least n symbols
+	 */
+	private void ensureCapacity(int n) {
+		if (n <= capacity)
+			return;
+		int newCapacity = Math.max(n, capacity * 2);
+		mean = Arrays.copyOf(mean, newCapacity);
+		packed = Arrays.copyOf(packed, offset(newCapacity));
+		if (window > 0) {
+			double[] grown = new double[window * newCapacity];
+			for (int row = 0; row < window; row++)
+				System.arraycopy(ring, row * capacity, grown, row * newCapacity, capacity);
+			ring = grown;
+		}
+		capacity = newCapacity;
+	}
+
+	/* ================================ Getters ================================= */
+
+	/**
+	 * Number of bars of returns the matrix is estimated from, at most the window
+	 */
+	public long getCount() {
+		return window > 0 ? Math.min(steps, window) : steps;
+	}
+
+	public double covariance(int i, int j) {
+		if (i < j)
+			return covariance(j, i);
+		if (i >= capacity || getCount() < 2)
+			return Double.NaN;
+		double c = packed[offset(i) + j];
+		if (window == 0)
+			return c;
+		double count = getCount();
+		return (c - mean[i] * mean[j] / count) / (count - 1);
+	}
+
+	public double variance(int i) {
+		return covariance(i, i);
+	}
+
+	public double correlation(int i, int j) {
+		double denominator = Math.sqrt(variance(i) * variance(j));
+		return denominator > 0 ? covariance(i, j) / denominator : Double.NaN;
+	}
+
+	/**
+	 * Copies the covariances of some symbols into a full matrix.
+	 *
+	 * @param ids ids of the symbols, in the order of the rows
+	 * @param m   number of ids to use
+	 * @return m * m matrix, row by row
+	 */
+	public double[] extract(int[] ids, int m) {
+		double[] matrix = new double[m * m];
+		for (int a = 0; a < m; a++)
+			for (int b = 0; b <= a; b++) {
+				double c = covariance(ids[a], ids[b]);
+				matrix[a * m + b] = c;
+				matrix[b * m + a] = c;
+			}
+		return matrix;
+	}
+}
@@ -0,0 +1,85 @@
+package strategies;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import engine.Bar;
+import engine.SymbolIndex;
+
+/**
+ * Signal keeping a CovarianceMatrix of the one-bar returns of every symbol the
+ * strategy sees, for strategies sizing positions by risk. A symbol without a
+ * bar counts as unchanged for that bar.
+ */
+public class CovarianceSignal extends Signal {
+	private final SymbolIndex symbols;
+	private final CovarianceMatrix matrix;
+	private double[] prevClose = new double[0];
+	private double[] returns = new double[0];
+	// Number of returns seen per symbol
+	private int[] observations = new int[0];
+
+	public CovarianceSignal(Strategy strategy, CovarianceMatrix matrix) {
+		this(strategy, new SymbolIndex(), matrix);
+	}
+
+	/**
+	 * @param symbols index giving the ids, may already hold the universe
+	 */
+	public CovarianceSignal(Strategy strategy, SymbolIndex symbols, CovarianceMatrix matrix) {
+		super(strategy);
+		this.symbols = symbols;
+		this.matrix = matrix;
+	}
+
+	@Override
+	public void update(Map<String, Bar> bars) {
+		for (String symbol : bars.keySet())
+			symbols.idOf(symbol);
+		int n = symbols.size();
+		if (returns.length < n) {
+			int capacity = Math.max(n, returns.length * 2);
+			int oldLength = prevClose.length;
+			prevClose = Arrays.copyOf(prevClose, capacity);
+			Arrays.fill(prevClose, oldLength, capacity, Double.NaN);
+			returns = new double[capacity];
+			observations = Arrays.copyOf(observations, capacity);
+		}
+		Arrays.fill(returns, 0, n, Double.NaN);
+		for (Map.Entry<String, Bar> e : bars.entrySet()) {
+			int id = symbols.find(e.getKey());
+			double close = e.getValue().close();
+			if (!Double.isNaN(prevClose[id])) {
+				returns[id] = close / prevClose[id] - 1.0;
+				observations[id]++;
+			}
+			prevClose[id] = close;
+		}
+		matrix.update(returns, n);
+	}
+
+	/**
+	 * Finds the symbols with a bar this step and at least minReturns returns seen,
+	 * so their covariances are meaningful.
+	 *
+	 * @param ids array of at least getSymbols().size() entries, gets the ids
+	 * @return number of ids found
+	 */
+	public int ready(int minReturns, int[] ids) {
+		int count = 0;
+		for (int id = 0; id < symbols.size(); id++)
+			if (!Double.isNaN(returns[id]) && observations[id] >= minReturns)
+				ids[count++] = id;
+		return count;
+	}
+
+	/* ================================ Getters ================================= */
+
+	public SymbolIndex getSymbols() {
+		return symbols;
+	}
+
+	public CovarianceMatrix getMatrix() {
+		return matrix;
+	}
+}
@@ -1,19 +1,30 @@
 package strategies;
 
+import java.io.IOException;
+import java.nio.DoubleBuffer;
 import java.util.HashMap;
 import java.util.Map;
 
 import engine.Bar;
+import engine.BarSeries;
 
 /**
  * Signal that calculates the Exponential Moving Average (EMA) for each symbol.
+ * With an IndicatorCache the values of a symbol are read from the cache as
+ * long as its bars match the series they were computed from, also after the
+ * signal is restored from a checkpoint.
  */
-public class EMASignal extends Signal {
+public class EMASignal extends Signal implements IndicatorCache.Indicator {
     private final Map<String, Double> emaMap = new HashMap<>();
     private final Map<String, Boolean> initialized = new HashMap<>();
     private final double alpha;
     private final int period;
 
+    private transient IndicatorCache cache;
+    private transient Map<String, BarSeries> data;
+    // Values read from the cache per symbol, null once a symbol computes its own
+    private transient Map<String, Stored> stored;
+
     public EMASignal(Strategy strategy, int period) {
         super(strategy);
         this.period = period;
@@ -23,7 +34,10 @@ public class EMASignal extends Signal {
     @Override
     public void update(Map<String, Bar> bars) {
         for (String symbol : bars.keySet()) {
-            double close = bars.get(symbol).close();
+            Bar bar = bars.get(symbol);
+            if (cache != null && readStored(symbol, bar))
+                continue;
+            double close = bar.close();
             if (!initialized.getOrDefault(symbol, false)) {
                 emaMap.put(symbol, close);
                 initialized.put(symbol, true);
@@ -41,4 +55,103 @@ public class EMASignal extends Signal {
     public Double getEma(String symbol) {
         return emaMap.getOrDefault(symbol, Double.NaN);
     }
+
+    /* ============================== Indicator cache ============================= */
+
+    /**
+     * Values of a symbol from the cache, at the bars of series from from on
+     */
+    private static final class Stored {
+        final BarSeries series;
+        final int from;
+        final DoubleBuffer values;
+        int next = 0;
+
+        Stored(BarSeries series, int from, DoubleBuffer values) {
+            this.series = series;
+            this.from = from;
+            this.values = values;
+        }
+    }
+
+    @Override
+    public void useIndicatorCache(IndicatorCache cache, Map<String, BarSeries> data) {
+        this.cache = cache;
+        this.data = data;
+        this.stored = new HashMap<>();
+    }
+
+    /**
+     * Sets the EMA of the symbol from the cache, returns false if it has to be
+     * computed. A symbol uses the cache from its first bar until a bar differs
+     * from the series, and then goes on computing from the last stored value
+     */
+    private boolean readStored(String symbol, Bar bar) {
+        Stored s = stored.get(symbol);
+        if (s == null) {
+            if (stored.containsKey(symbol))
+                return false;
+            s = load(symbol, bar);
+            stored.put(symbol, s);
+            if (s == null)
+                return false;
+        }
+        int index = s.from + s.next;
+        if (s.next >= s.values.limit() || s.series.timestamps()[index] != BarSeries.toEpochSecond(bar.timestamp())
+                || s.series.close()[index] != bar.close()) {
+            stored.put(symbol, null);
+            return false;
+        }
+        emaMap.put(symbol, s.values.get(s.next++));
+        initialized.put(symbol, true);
+        return true;
+    }
+
+    private Stored load(String symbol, Bar bar) {
+        BarSeries series = data.get(symbol);
+        if (series == null)
+            return null;
+        int at = series.indexOf(bar.timestamp());
+        if (at == series.size() || series.timestamps()[at] != BarSeries.toEpochSecond(bar.timestamp()))
+            return null;
+        // Restored from a checkpoint, the EMA goes on with the values from the
+        // first bar of the series if it was computed from there too
+        boolean restored = initialized.getOrDefault(symbol, false);
+        if (restored && at == 0)
+            return null;
+        int from = restored ? 0 : at;
+        try {
+            DoubleBuffer values = cache.get(this, symbol, series, from);
+            if (restored && values.get(at - 1) != emaMap.get(symbol))
+                return null;
+            Stored s = new Stored(series, from, values);
+            s.next = at - from;
+            return s;
+        } catch (IOException e) {
+            strategy.logger.error("Failed to read the cached EMA of " + symbol, e);
+            return null;
+        }
+    }
+
+    @Override
+    public String name() {
+        return "ema";
+    }
+
+    @Override
+    public String parameters() {
+        return "period=" + period;
+    }
+
+    /**
+     * The same update as update(), so stored values are identical to computed ones
+     */
+    @Override
+    public double[] compute(BarSeries series, int from) {
+        double[] close = series.close();
+        double[] ema = new double[series.size() - from];
+        for (int i = 0; i < ema.length; i++)
+            ema[i] = i == 0 ? close[from] : alpha * close[from + i] + (1 - alpha) * ema[i - 1];
+        return ema;
+    }
 }
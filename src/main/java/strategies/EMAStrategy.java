@@ -24,6 +24,27 @@ public class EMAStrategy extends Strategy {
                 addSignal(signal);
         }
 
+	/**
+	 * The same strategy for the whole close series at once, see VectorizedStrategy
+	 */
+	public static VectorizedStrategy vectorized() {
+		return (close, entries, exits) -> {
+			int n = close.length;
+			if (n == 0)
+				return;
+			// Same update as EMASignal, so the values are identical
+			double alpha = 2.0 / (EMA_PERIOD + 1);
+			double[] ema = new double[n];
+			ema[0] = close[0];
+			for (int i = 1; i < n; i++)
+				ema[i] = alpha * close[i] + (1 - alpha) * ema[i - 1];
+			for (int i = 1; i < n; i++) {
+				entries[i] = close[i - 1] < ema[i - 1] & close[i] > ema[i];
+				exits[i] = close[i - 1] > ema[i - 1] & close[i] < ema[i];
+			}
+		};
+	}
+
 	@Override
 	protected void onBars(Map<String, Bar> bars) {
                 Bar aaplBar = bars.get("AAPL");
@@ -0,0 +1,277 @@
+package strategies;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import engine.BarSeries;
+
+/**
+ * Directory of indicator series computed once and memory-mapped by later runs.
+ * A series is stored under the indicator's name and parameters, the ticker, a
+ * hash of the bars it was computed from, and a hash of the indicator's
+ * bytecode plus its version. Changed data or a changed indicator gives a
+ * different key, so the old file is never read again and is deleted when the
+ * new one is written.
+ * <p>
+ * A file is a header of a magic number, the 32 byte key hash and the number of
+ * values, followed by the values as doubles. Files are written to a temporary
+ * name and moved into place, so processes sharing the directory never read half
+ * a file.
+ */
+public final class IndicatorCache {
+	private static final long MAGIC = 0x494E44434143484EL;
+	private static final int HEADER = Long.BYTES + 32 + Integer.BYTES;
+
+	/**
+	 * An indicator that can be computed over a whole series at once
+	 */
+	public interface Indicator {
+
+		/**
+		 * Short name used for the directory, for example "ema"
+		 */
+		String name();
+
+		/**
+		 * The parameters that change the values, for example "period=200"
+		 */
+		String parameters();
+
+		/**
+		 * Raise when the values change without the indicator's own class changing,
+		 * for example through code it calls
+		 */
+		default int version() {
+			return 1;
+		}
+
+		/**
+		 * Values at the bars from from to the end of the series, with the indicator
+		 * starting at from as if the earlier bars didn't exist
+		 */
+		double[] compute(BarSeries series, int from);
+	}
+
+	/**
+	 * Counts since the cache was made.
+	 *
+	 * @param hits        series mapped from an existing file
+	 * @param misses      series computed and written
+	 * @param invalidated older files deleted because data or code changed, or
+	 *                    files that couldn't be read
+	 */
+	public record Stats(long hits, long misses, long invalidated) {
+	}
+
+	private final Path dir;
+	private final Map<Class<?>, byte[]> codeHashes = new ConcurrentHashMap<>();
+	// Fingerprints by series and start. A BarSeries never changes after loading,
+	// so its hash is kept until the series itself is dropped
+	private final Map<BarSeries, Map<Integer, byte[]>> fingerprints = new WeakHashMap<>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong invalidated = new AtomicLong();
+
+	public IndicatorCache(Path dir) throws IOException {
+		this.dir = Files.createDirectories(dir);
+	}
+
+	/**
+	 * Returns the values of the indicator at the bars of the series from from on,
+	 * mapped from the cache or computed and stored
+	 *
+	 * @return read-only buffer of size() - from values
+	 */
+	public DoubleBuffer get(Indicator indicator, String ticker, BarSeries series, int from) throws IOException {
+		if (from < 0 || from > series.size())
+			throw new IndexOutOfBoundsException("Start " + from + " of " + series.size() + " bars");
+		String prefix = safe(ticker) + "-" + HexFormat.of().formatHex(sha256(indicator.parameters()), 0, 6) + "-";
+		byte[] key = key(indicator, ticker, series, from);
+		Path folder = dir.resolve(safe(indicator.name()));
+		Path file = folder.resolve(prefix + HexFormat.of().formatHex(key, 0, 8) + ".bin");
+		int count = series.size() - from;
+
+		if (Files.exists(file)) {
+			DoubleBuffer values = map(file, key, count);
+			if (values != null) {
+				hits.incrementAndGet();
+				return values;
+			}
+			invalidated.incrementAndGet();
+		}
+		misses.incrementAndGet();
+		double[] computed = indicator.compute(series, from);
+		if (computed.length != count)
+			throw new IllegalStateException(indicator.name() + " gave " + computed.length + " values for " + count
+					+ " bars");
+		Files.createDirectories(folder);
+		write(folder, file, key, computed);
+		deleteOtherVersions(folder, prefix, file);
+		DoubleBuffer values = map(file, key, count);
+		if (values == null)
+			throw new IOException("Failed to read back " + file);
+		return values;
+	}
+
+	/**
+	 * Maps the values of a file, or returns null if it isn't a complete file of
+	 * the key
+	 */
+	private static DoubleBuffer map(Path file, byte[] key, int count) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() != HEADER + (long) count * Double.BYTES)
+				return null;
+			ByteBuffer header = ByteBuffer.allocate(HEADER);
+			while (header.hasRemaining())
+				if (channel.read(header) < 0)
+					return null;
+			header.flip();
+			byte[] stored = new byte[32];
+			if (header.getLong() != MAGIC)
+				return null;
+			header.get(stored);
+			if (!Arrays.equals(stored, key) || header.getInt() != count)
+				return null;
+			return channel.map(FileChannel.MapMode.READ_ONLY, HEADER, (long) count * Double.BYTES).asDoubleBuffer();
+		}
+	}
+
+	private static void write(Path folder, Path file, byte[] key, double[] values) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(HEADER + values.length * Double.BYTES);
+		buf.putLong(MAGIC).put(key).putInt(values.length);
+		buf.asDoubleBuffer().put(values);
+		buf.rewind();
+		Path tmp = Files.createTempFile(folder, file.getFileName().toString(), ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+				while (buf.hasRemaining())
+					channel.write(buf);
+			}
+			try {
+				Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/**
+	 * Deletes the files of the same indicator, parameters and ticker made from
+	 * other data or code
+	 */
+	private void deleteOtherVersions(Path folder, String prefix, Path keep) throws IOException {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(folder, prefix + "*.bin")) {
+			for (Path f : files) {
+				if (!f.equals(keep) && Files.deleteIfExists(f))
+					invalidated.incrementAndGet();
+			}
+		}
+	}
+
+	/* =================================== Keys =================================== */
+
+	private byte[] key(Indicator indicator, String ticker, BarSeries series, int from) throws IOException {
+		MessageDigest digest = newDigest();
+		digest.update((indicator.name() + '\n' + indicator.parameters() + '\n' + indicator.version() + '\n' + ticker
+				+ '\n').getBytes(StandardCharsets.UTF_8));
+		digest.update(codeHash(indicator.getClass()));
+		digest.update(fingerprintOf(series, from));
+		return digest.digest();
+	}
+
+	/**
+	 * fingerprint() of a series, hashed once however many indicators read it
+	 */
+	private byte[] fingerprintOf(BarSeries series, int from) {
+		Map<Integer, byte[]> byStart;
+		synchronized (fingerprints) {
+			byStart = fingerprints.computeIfAbsent(series, s -> new ConcurrentHashMap<>());
+		}
+		return byStart.computeIfAbsent(from, f -> fingerprint(series, f));
+	}
+
+	/**
+	 * Hash of the bars of a series from from on, every column
+	 */
+	static byte[] fingerprint(BarSeries series, int from) {
+		MessageDigest digest = newDigest();
+		int n = series.size() - from;
+		ByteBuffer buf = ByteBuffer.allocate(Math.max(1, n) * 6 * Double.BYTES);
+		buf.asLongBuffer().put(series.timestamps(), from, n);
+		buf.position(n * Long.BYTES);
+		for (double[] column : new double[][] { series.open(), series.high(), series.low(), series.close(),
+				series.volume() }) {
+			buf.asDoubleBuffer().put(column, from, n);
+			buf.position(buf.position() + n * Double.BYTES);
+		}
+		buf.flip();
+		digest.update(buf);
+		return digest.digest();
+	}
+
+	/**
+	 * Hash of the bytecode of a class and its superclasses
+	 */
+	private byte[] codeHash(Class<?> cls) throws IOException {
+		byte[] hash = codeHashes.get(cls);
+		if (hash != null)
+			return hash;
+		MessageDigest digest = newDigest();
+		for (Class<?> c = cls; c != null && c != Object.class; c = c.getSuperclass()) {
+			String resource = "/" + c.getName().replace('.', '/') + ".class";
+			try (InputStream in = c.getResourceAsStream(resource)) {
+				if (in == null)
+					throw new IOException("Can't find bytecode of " + c.getName());
+				digest.update(c.getName().getBytes(StandardCharsets.UTF_8));
+				digest.update(in.readAllBytes());
+			}
+		}
+		hash = digest.digest();
+		codeHashes.put(cls, hash);
+		return hash;
+	}
+
+	private static byte[] sha256(String text) {
+		return newDigest().digest(text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String safe(String name) {
+		return name.replaceAll("[^A-Za-z0-9._]", "_");
+	}
+
+	public Stats getStats() {
+		return new Stats(hits.get(), misses.get(), invalidated.get());
+	}
+
+	public Path getDirectory() {
+		return dir;
+	}
+}
@@ -0,0 +1,58 @@
+package strategies;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import engine.Bar;
+import engine.SymbolIndex;
+
+/**
+ * Ranks symbols by their return over the last lookback bars, like
+ * MomentumStrategy does for two tickers. The closes of the last lookback bars
+ * are kept in a ring buffer with one row of symbol ids per bar.
+ */
+public class MomentumRankingSignal extends RankingSignal {
+	private final int lookback;
+	private double[] ring = new double[0];
+	private int capacity = 0;
+	private int steps = 0;
+
+	public MomentumRankingSignal(Strategy strategy, int lookback, int k) {
+		this(strategy, new SymbolIndex(), lookback, k);
+	}
+
+	public MomentumRankingSignal(Strategy strategy, SymbolIndex symbols, int lookback, int k) {
+		super(strategy, symbols, k);
+		if (lookback < 1)
+			throw new IllegalArgumentException("Lookback must be at least 1");
+		this.lookback = lookback;
+	}
+
+	@Override
+	protected void onCapacity(int newCapacity) {
+		double[] grown = new double[lookback * newCapacity];
+		Arrays.fill(grown, Double.NaN);
+		for (int row = 0; row < lookback; row++)
+			System.arraycopy(ring, row * capacity, grown, row * newCapacity, capacity);
+		ring = grown;
+		capacity = newCapacity;
+	}
+
+	@Override
+	protected void score(Map<String, Bar> bars, double[] scores) {
+		SymbolIndex symbols = getSymbols();
+		// The oldest row holds the closes from lookback bars ago, and is overwritten
+		int offset = (steps % lookback) * capacity;
+		for (Map.Entry<String, Bar> e : bars.entrySet()) {
+			int id = symbols.find(e.getKey());
+			double close = e.getValue().close();
+			double past = ring[offset + id];
+			if (!Double.isNaN(past))
+				scores[id] = close / past - 1.0;
+		}
+		Arrays.fill(ring, offset, offset + capacity, Double.NaN);
+		for (Map.Entry<String, Bar> e : bars.entrySet())
+			ring[offset + symbols.find(e.getKey())] = e.getValue().close();
+		steps++;
+	}
+}
@@ -0,0 +1,161 @@
+package strategies;
+
+import java.util.Arrays;
+
+/**
+ * Long-only target weights from a covariance matrix, summing to one, for
+ * strategies to pass to Portfolio.rebalance(). Matrices are full m * m arrays,
+ * row by row, as returned by CovarianceMatrix.extract().
+ */
+public final class PortfolioWeights {
+	private static final int MAX_ITERATIONS = 1000;
+	private static final double TOLERANCE = 1e-10;
+
+	private PortfolioWeights() {
+	}
+
+	/**
+	 * Weights with the lowest variance
+	 */
+	public static double[] minimumVariance(double[] covariance, int m) {
+		return meanVariance(new double[m], covariance, m, 1.0);
+	}
+
+	/**
+	 * Weights maximizing expected return minus riskAversion / 2 times the variance,
+	 * found by projected gradient descent onto the long-only weights.
+	 *
+	 * @param expected     expected return of each asset
+	 * @param riskAversion weight of the variance, above zero
+	 */
+	public static double[] meanVariance(double[] expected, double[] covariance, int m, double riskAversion) {
+		check(covariance, m);
+		if (!(riskAversion > 0))
+			throw new IllegalArgumentException("Risk aversion must be above zero");
+		double[] w = new double[m];
+		if (m == 0)
+			return w;
+		Arrays.fill(w, 1.0 / m);
+		// A step of one over the largest eigenvalue, bounded by the largest row sum
+		double lipschitz = 0;
+		for (int a = 0; a < m; a++) {
+			double row = 0;
+			for (int b = 0; b < m; b++)
+				row += Math.abs(covariance[a * m + b]);
+			lipschitz = Math.max(lipschitz, row);
+		}
+		if (lipschitz == 0)
+			return w;
+		double step = 1.0 / (riskAversion * lipschitz);
+		double[] next = new double[m];
+		double[] sorted = new double[m];
+		for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+			for (int a = 0; a < m; a++) {
+				double gradient = -expected[a];
+				for (int b = 0; b < m; b++)
+					gradient += riskAversion * covariance[a * m + b] * w[b];
+				next[a] = w[a] - step * gradient;
+			}
+			projectOnSimplex(next, sorted, m);
+			double change = 0;
+			for (int a = 0; a < m; a++) {
+				change = Math.max(change, Math.abs(next[a] - w[a]));
+				w[a] = next[a];
+			}
+			if (change < TOLERANCE)
+				break;
+		}
+		return w;
+	}
+
+	/**
+	 * Weights where every asset contributes the same amount of risk, found by
+	 * cyclical coordinate descent. Assets with zero variance get no weight.
+	 */
+	public static double[] riskParity(double[] covariance, int m) {
+		check(covariance, m);
+		double[] w = new double[m];
+		int risky = 0;
+		for (int a = 0; a < m; a++)
+			if (covariance[a * m + a] > 0)
+				risky++;
+		if (risky == 0)
+			return w;
+		double budget = 1.0 / risky;
+		// Start from inverse volatility weights
+		for (int a = 0; a < m; a++) {
+			double variance = covariance[a * m + a];
+			w[a] = variance > 0 ? 1.0 / Math.sqrt(variance) : 0.0;
+		}
+		for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+			double change = 0;
+			for (int a = 0; a < m; a++) {
+				double variance = covariance[a * m + a];
+				if (!(variance > 0))
+					continue;
+				// Solves variance * x² + others * x - budget = 0 for the weight of a
+				double others = 0;
+				for (int b = 0; b < m; b++)
+					if (b != a)
+						others += covariance[a * m + b] * w[b];
+				double x = (-others + Math.sqrt(others * others + 4 * variance * budget)) / (2 * variance);
+				change = Math.max(change, Math.abs(x - w[a]) / x);
+				w[a] = x;
+			}
+			if (change < TOLERANCE)
+				break;
+		}
+		double total = 0;
+		for (double x : w)
+			total += x;
+		for (int a = 0; a < m; a++)
+			w[a] /= total;
+		return w;
+	}
+
+	/**
+	 * Share of the variance each asset contributes, w_a * (Cw)_a / w'Cw
+	 */
+	public static double[] riskContributions(double[] weights, double[] covariance, int m) {
+		double[] contributions = new double[m];
+		double total = 0;
+		for (int a = 0; a < m; a++) {
+			double marginal = 0;
+			for (int b = 0; b < m; b++)
+				marginal += covariance[a * m + b] * weights[b];
+			contributions[a] = weights[a] * marginal;
+			total += contributions[a];
+		}
+		for (int a = 0; a < m; a++)
+			contributions[a] /= total;
+		return contributions;
+	}
+
+	/**
+	 * Euclidean projection onto the weights that are zero or more and sum to one
+	 */
+	static void projectOnSimplex(double[] v, double[] sorted, int m) {
+		System.arraycopy(v, 0, sorted, 0, m);
+		Arrays.sort(sorted, 0, m);
+		double sum = 0;
+		double theta = 0;
+		for (int i = m - 1; i >= 0; i--) {
+			sum += sorted[i];
+			double t = (sum - 1.0) / (m - i);
+			if (i == 0 || sorted[i - 1] <= t) {
+				theta = t;
+				break;
+			}
+		}
+		for (int i = 0; i < m; i++)
+			v[i] = Math.max(v[i] - theta, 0.0);
+	}
+
+	private static void check(double[] covariance, int m) {
+		if (covariance.length < m * m)
+			throw new IllegalArgumentException("Covariance matrix must have " + m * m + " entries");
+		for (int i = 0; i < m * m; i++)
+			if (Double.isNaN(covariance[i]))
+				throw new IllegalArgumentException("Covariance matrix has NaN entries");
+	}
+}
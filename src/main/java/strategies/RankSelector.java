@@ -0,0 +1,163 @@
+package strategies;
+
+import java.io.Serializable;
+
+/**
+ * Picks the highest or lowest scores of a universe, or splits it into buckets
+ * like deciles, without sorting all of it. Top-k and bottom-k use a bounded
+ * heap of ids, O(n log k). Buckets use quickselect around each cut point.
+ * Scores are indexed by symbol id and NaN scores are left out. Equal scores are
+ * ordered by id, so results are deterministic. No allocation happens once the
+ * scratch buffer has grown to the size of the universe.
+ */
+public class RankSelector implements Serializable {
+	private int[] ids = new int[0];
+
+	/**
+	 * Writes the ids of the k highest scores to out, highest first.
+	 *
+	 * @return number of ids written, less than k if fewer scores are not NaN
+	 */
+	public int top(double[] scores, int n, int k, int[] out) {
+		return select(scores, n, k, out, true);
+	}
+
+	/**
+	 * Writes the ids of the k lowest scores to out, lowest first.
+	 *
+	 * @return number of ids written, less than k if fewer scores are not NaN
+	 */
+	public int bottom(double[] scores, int n, int k, int[] out) {
+		return select(scores, n, k, out, false);
+	}
+
+	private int select(double[] scores, int n, int k, int[] out, boolean highest) {
+		if (k > out.length)
+			throw new IllegalArgumentException("Output array holds fewer than " + k + " ids");
+		// out[0 .. size) is a heap with the worst of the selected ids at the root
+		int size = 0;
+		for (int id = 0; id < n; id++) {
+			if (Double.isNaN(scores[id]))
+				continue;
+			if (size < k) {
+				out[size] = id;
+				siftUp(scores, out, size, highest);
+				size++;
+			} else if (k > 0 && before(scores, id, out[0], highest)) {
+				out[0] = id;
+				siftDown(scores, out, 0, size, highest);
+			}
+		}
+		// Heap sort, moving the worst id to the back each time
+		for (int end = size - 1; end > 0; end--) {
+			swap(out, 0, end);
+			siftDown(scores, out, 0, end, highest);
+		}
+		return size;
+	}
+
+	/**
+	 * Splits the symbols with a score into equally large buckets by score.
+	 *
+	 * @param buckets  number of buckets, 10 for deciles
+	 * @param bucketOf gets the bucket of each symbol id, 0 for the lowest scores and
+	 *                 buckets - 1 for the highest, -1 for NaN scores
+	 * @return number of symbols that got a bucket
+	 */
+	public int buckets(double[] scores, int n, int buckets, int[] bucketOf) {
+		if (buckets < 1)
+			throw new IllegalArgumentException("Need at least one bucket");
+		if (ids.length < n)
+			ids = new int[Math.max(n, ids.length * 2)];
+		int m = 0;
+		for (int id = 0; id < n; id++) {
+			if (Double.isNaN(scores[id])) {
+				bucketOf[id] = -1;
+			} else {
+				ids[m++] = id;
+			}
+		}
+		int from = 0;
+		for (int b = 0; b < buckets; b++) {
+			int to = (int) ((long) (b + 1) * m / buckets);
+			if (to > from && to < m)
+				quickselect(scores, ids, from, m, to);
+			for (int i = from; i < to; i++)
+				bucketOf[ids[i]] = b;
+			from = to;
+		}
+		return m;
+	}
+
+	/**
+	 * Rearranges ids[lo .. hi) so the id at position kth is where it would be if
+	 * sorted from lowest to highest score, with lower ones before it and higher
+	 * ones after
+	 */
+	private static void quickselect(double[] scores, int[] ids, int lo, int hi, int kth) {
+		hi--;
+		while (hi > lo) {
+			int mid = (lo + hi) >>> 1;
+			// Median of three as pivot, moved to hi
+			if (before(scores, ids[mid], ids[lo], false))
+				swap(ids, mid, lo);
+			if (before(scores, ids[hi], ids[lo], false))
+				swap(ids, hi, lo);
+			if (before(scores, ids[mid], ids[hi], false))
+				swap(ids, mid, hi);
+			int pivot = ids[hi];
+			int store = lo;
+			for (int i = lo; i < hi; i++) {
+				if (before(scores, ids[i], pivot, false))
+					swap(ids, i, store++);
+			}
+			swap(ids, store, hi);
+			if (store == kth)
+				return;
+			if (kth < store)
+				hi = store - 1;
+			else
+				lo = store + 1;
+		}
+	}
+
+	/**
+	 * Whether id a ranks before id b, by score and then by id
+	 */
+	private static boolean before(double[] scores, int a, int b, boolean highest) {
+		double sa = scores[a], sb = scores[b];
+		if (sa != sb)
+			return highest ? sa > sb : sa < sb;
+		return a < b;
+	}
+
+	private static void siftUp(double[] scores, int[] heap, int i, boolean highest) {
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (!before(scores, heap[parent], heap[i], highest))
+				return;
+			swap(heap, parent, i);
+			i = parent;
+		}
+	}
+
+	private static void siftDown(double[] scores, int[] heap, int i, int size, boolean highest) {
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= size)
+				return;
+			if (child + 1 < size && before(scores, heap[child], heap[child + 1], highest))
+				child++;
+			if (!before(scores, heap[i], heap[child], highest))
+				return;
+			swap(heap, i, child);
+			i = child;
+		}
+	}
+
+	private static void swap(int[] a, int i, int j) {
+		int t = a[i];
+		a[i] = a[j];
+		a[j] = t;
+	}
+}
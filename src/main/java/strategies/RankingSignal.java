@@ -0,0 +1,118 @@
+package strategies;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import engine.Bar;
+import engine.SymbolIndex;
+
+/**
+ * Cross-sectional signal that scores every symbol each bar and keeps the k
+ * highest and k lowest scoring symbols. Subclasses decide the score, for
+ * example momentum or value. Symbols without a bar this step get no score.
+ * Scores are kept in a double[] indexed by symbol id and the selection is done
+ * with a RankSelector, so nothing is allocated per bar once the universe is
+ * known.
+ */
+public abstract class RankingSignal extends Signal {
+	private final SymbolIndex symbols;
+	private final RankSelector selector = new RankSelector();
+	private final int k;
+	private double[] scores = new double[0];
+	private final int[] top;
+	private final int[] bottom;
+	private int topCount = 0;
+	private int bottomCount = 0;
+
+	protected RankingSignal(Strategy strategy, SymbolIndex symbols, int k) {
+		super(strategy);
+		if (k < 1)
+			throw new IllegalArgumentException("k must be at least 1");
+		this.symbols = symbols;
+		this.k = k;
+		this.top = new int[k];
+		this.bottom = new int[k];
+	}
+
+	@Override
+	public final void update(Map<String, Bar> bars) {
+		for (String symbol : bars.keySet())
+			symbols.idOf(symbol);
+		int n = symbols.size();
+		if (scores.length < n) {
+			int capacity = Math.max(n, scores.length * 2);
+			scores = new double[capacity];
+			onCapacity(capacity);
+		}
+		Arrays.fill(scores, 0, n, Double.NaN);
+		score(bars, scores);
+		topCount = selector.top(scores, n, k, top);
+		bottomCount = selector.bottom(scores, n, k, bottom);
+	}
+
+	/**
+	 * Sets scores[id] for the symbols in bars. Entries left alone stay NaN and are
+	 * not ranked.
+	 */
+	protected abstract void score(Map<String, Bar> bars, double[] scores);
+
+	/**
+	 * Called when the universe outgrows the arrays, before score(). Subclasses
+	 * keeping their own per-id arrays grow them here.
+	 */
+	protected void onCapacity(int capacity) {
+	}
+
+	/**
+	 * Splits the scored symbols into buckets, see RankSelector.buckets()
+	 *
+	 * @param bucketOf array of at least getSymbols().size() entries
+	 */
+	public int buckets(int buckets, int[] bucketOf) {
+		return selector.buckets(scores, symbols.size(), buckets, bucketOf);
+	}
+
+	/* ================================ Getters ================================= */
+
+	public SymbolIndex getSymbols() {
+		return symbols;
+	}
+
+	public int getK() {
+		return k;
+	}
+
+	/**
+	 * Number of symbols in the top, less than k if fewer symbols have a score
+	 */
+	public int getTopCount() {
+		return topCount;
+	}
+
+	/**
+	 * Id of the i-th highest scoring symbol, 0 being the highest
+	 */
+	public int getTopId(int i) {
+		if (i >= topCount)
+			throw new IndexOutOfBoundsException(i);
+		return top[i];
+	}
+
+	public int getBottomCount() {
+		return bottomCount;
+	}
+
+	/**
+	 * Id of the i-th lowest scoring symbol, 0 being the lowest
+	 */
+	public int getBottomId(int i) {
+		if (i >= bottomCount)
+			throw new IndexOutOfBoundsException(i);
+		return bottom[i];
+	}
+
+	public double getScore(String symbol) {
+		int id = symbols.find(symbol);
+		return id < 0 || id >= scores.length ? Double.NaN : scores[id];
+	}
+}
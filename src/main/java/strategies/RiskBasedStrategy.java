@@ -0,0 +1,82 @@
+package strategies;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import accounts.Portfolio;
+import accounts.Rebalancer;
+import engine.Bar;
+import io.Logger;
+
+/**
+ * Long-only strategy over any number of tickers that weights them by risk
+ * alone, from an exponentially weighted covariance of their returns: either
+ * the minimum variance portfolio, or risk parity where every ticker adds the
+ * same amount of risk.
+ */
+public class RiskBasedStrategy extends Strategy {
+
+	public enum Method {
+		MINIMUM_VARIANCE, RISK_PARITY
+	}
+
+	private final CovarianceSignal signal;
+	private final Method method;
+	private final int minReturns;
+	private final int rebalanceEvery;
+	private int barCount = 0;
+	// Largest drift left alone, as a part of the total value and of an equal weight
+	private static final double MAX_DRIFT = 0.02;
+	private static final double RELATIVE_DRIFT = 0.2;
+	private Rebalancer rebalancer = null;
+	private int rebalancerSize = 0;
+	private int[] ids = new int[0];
+	private double[] weights = new double[0];
+
+	/**
+	 * @param method         how the weights are found
+	 * @param halfLife       half-life in bars of the covariance weighting, also
+	 *                       the number of returns a ticker needs before it is held
+	 * @param rebalanceEvery number of bars between rebalances
+	 */
+	public RiskBasedStrategy(Portfolio portfolio, Logger logger, Method method, int halfLife, int rebalanceEvery) {
+		super(portfolio, logger);
+		if (rebalanceEvery < 1)
+			throw new IllegalArgumentException("Must rebalance at least every bar");
+		this.signal = new CovarianceSignal(this, CovarianceMatrix.exponential(halfLife));
+		this.method = method;
+		this.minReturns = Math.max(2, halfLife);
+		this.rebalanceEvery = rebalanceEvery;
+		addSignal(signal);
+	}
+
+	@Override
+	protected void onBars(Map<String, Bar> bars) {
+		if (barCount++ % rebalanceEvery != 0)
+			return;
+
+		int n = signal.getSymbols().size();
+		if (ids.length < n) {
+			ids = new int[Math.max(n, ids.length * 2)];
+			weights = new double[ids.length];
+		}
+		int m = signal.ready(minReturns, ids);
+		if (m == 0)
+			return;
+		double[] covariance = signal.getMatrix().extract(ids, m);
+		double[] solved = method == Method.RISK_PARITY ? PortfolioWeights.riskParity(covariance, m)
+				: PortfolioWeights.minimumVariance(covariance, m);
+		Arrays.fill(weights, 0, n, 0.0);
+		for (int a = 0; a < m; a++)
+			weights[ids[a]] = solved[a];
+		// With many tickers the weights are small, so the drift threshold shrinks
+		// with them or the positions would never be adjusted
+		if (rebalancer == null || rebalancerSize != m) {
+			rebalancer = new Rebalancer(1, Math.min(MAX_DRIFT, RELATIVE_DRIFT / m), 0.0);
+			rebalancerSize = m;
+		}
+		int orders = portfolio.rebalance(signal.getSymbols(), weights, rebalancer);
+		if (orders > 0)
+			logger.info("RiskBased: Rebalanced with " + orders + " orders");
+	}
+}
@@ -0,0 +1,81 @@
+package strategies;
+
+/**
+ * Plain loop implementation of the UniverseKernels. The static range methods
+ * are also used by VectorKernels for the entries that don't fill a vector.
+ */
+final class ScalarKernels implements UniverseKernels {
+	static final ScalarKernels INSTANCE = new ScalarKernels();
+
+	private ScalarKernels() {
+	}
+
+	@Override
+	public void ema(double[] ema, double[] x, double alpha, int n) {
+		ema(ema, x, alpha, 0, n);
+	}
+
+	@Override
+	public void returns(double[] ret, double[] prev, double[] x, int n) {
+		returns(ret, prev, x, 0, n);
+	}
+
+	@Override
+	public void roll(double[] ring, int offset, double[] x, double[] sum, double[] sumSq, double[] count, int n) {
+		roll(ring, offset, x, sum, sumSq, count, 0, n);
+	}
+
+	@Override
+	public void stats(double[] x, double[] sum, double[] sumSq, double[] count, double[] mean, double[] variance,
+			double[] zscore, int n) {
+		stats(x, sum, sumSq, count, mean, variance, zscore, 0, n);
+	}
+
+	/* ============================ Range versions ============================= */
+
+	static void ema(double[] ema, double[] x, double alpha, int from, int to) {
+		for (int i = from; i < to; i++) {
+			double v = x[i];
+			if (Double.isNaN(v))
+				continue;
+			ema[i] = Double.isNaN(ema[i]) ? v : v * alpha + ema[i] * (1 - alpha);
+		}
+	}
+
+	static void returns(double[] ret, double[] prev, double[] x, int from, int to) {
+		for (int i = from; i < to; i++) {
+			double v = x[i];
+			ret[i] = v / prev[i] - 1.0;
+			if (!Double.isNaN(v))
+				prev[i] = v;
+		}
+	}
+
+	static void roll(double[] ring, int offset, double[] x, double[] sum, double[] sumSq, double[] count, int from,
+			int to) {
+		for (int i = from; i < to; i++) {
+			double old = ring[offset + i];
+			double v = x[i];
+			boolean oldValid = !Double.isNaN(old);
+			boolean newValid = !Double.isNaN(v);
+			double o = oldValid ? old : 0.0;
+			double nv = newValid ? v : 0.0;
+			sum[i] += nv - o;
+			sumSq[i] += nv * nv - o * o;
+			count[i] += (newValid ? 1.0 : 0.0) - (oldValid ? 1.0 : 0.0);
+			ring[offset + i] = v;
+		}
+	}
+
+	static void stats(double[] x, double[] sum, double[] sumSq, double[] count, double[] mean, double[] variance,
+			double[] zscore, int from, int to) {
+		for (int i = from; i < to; i++) {
+			double c = count[i];
+			double m = c < 1.0 ? Double.NaN : sum[i] / c;
+			double var = c < 2.0 ? Double.NaN : Math.max((sumSq[i] - sum[i] * m) / (c - 1.0), 0.0);
+			mean[i] = m;
+			variance[i] = var;
+			zscore[i] = var > 0.0 ? (x[i] - m) / Math.sqrt(var) : Double.NaN;
+		}
+	}
+}
@@ -1,15 +1,17 @@
 package strategies;
 
+import java.io.Serializable;
 import java.util.Map;
 
 import engine.Bar;
+import engine.BarSeries;
 
 /**
  * Abstract base class for trading signals.
  * Signals are updated with new market data (bars) and can interact with a
  * BaseStrategy.
  */
-public abstract class Signal {
+public abstract class Signal implements Serializable {
     protected final Strategy strategy;
 
     public Signal(Strategy strategy) {
@@ -22,4 +24,14 @@ public abstract class Signal {
      * @param bars Map of symbol to Bar
      */
     public abstract void update(Map<String, Bar> bars);
+
+    /**
+     * Lets the signal read its values from an IndicatorCache instead of computing
+     * them, for the symbols whose bars are in data. Signals that can't be stored
+     * ignore it.
+     *
+     * @param data full series of each symbol the run goes through
+     */
+    public void useIndicatorCache(IndicatorCache cache, Map<String, BarSeries> data) {
+    }
 }
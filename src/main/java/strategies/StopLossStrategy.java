@@ -1,5 +1,6 @@
 package strategies;
 
+import java.util.Arrays;
 import java.util.Map;
 
 import accounts.Order;
@@ -22,6 +23,24 @@ public class StopLossStrategy extends Strategy {
 		super(portfolio, logger);
 	}
 
+	/**
+	 * The same strategy for the whole close series at once, see VectorizedStrategy
+	 */
+	public static VectorizedStrategy vectorized() {
+		return new VectorizedStrategy() {
+			@Override
+			public void signals(double[] close, boolean[] entries, boolean[] exits) {
+				// Always buys when not invested, only the stop loss sells
+				Arrays.fill(entries, true);
+			}
+
+			@Override
+			public double stopLoss() {
+				return STOP_LOSS_PCT;
+			}
+		};
+	}
+
 	@Override
 	protected void onBars(Map<String, Bar> bars) {
 		Bar bar = bars.get(SYMBOL);
@@ -1,6 +1,8 @@
 package strategies;
 
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -8,6 +10,7 @@ import java.util.Objects;
 import accounts.BarListener;
 import accounts.Portfolio;
 import engine.Bar;
+import engine.BarSeries;
 import io.Logger;
 import strategies.Signal;
 
@@ -15,7 +18,7 @@ import strategies.Signal;
  * Abstract base class for trading strategies. Handles bar validation and error
  * catching.
  */
-public abstract class Strategy implements BarListener {
+public abstract class Strategy implements BarListener, Serializable {
     protected final Portfolio portfolio;
     protected final Logger logger;
     private final List<Signal> signals = new ArrayList<>();
@@ -54,4 +57,16 @@ public abstract class Strategy implements BarListener {
     protected void addSignal(Signal signal) {
         signals.add(signal);
     }
+
+    /**
+     * Gives the cache to every signal, see Signal.useIndicatorCache()
+     */
+    public void useIndicatorCache(IndicatorCache cache, Map<String, BarSeries> data) {
+        for (Signal s : signals)
+            s.useIndicatorCache(cache, data);
+    }
+
+    public List<Signal> getSignals() {
+        return Collections.unmodifiableList(signals);
+    }
 }
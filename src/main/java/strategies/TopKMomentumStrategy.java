@@ -0,0 +1,54 @@
+package strategies;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import accounts.Portfolio;
+import accounts.Rebalancer;
+import engine.Bar;
+import io.Logger;
+
+/**
+ * Long-only momentum strategy over any number of tickers: holds the k tickers
+ * with the highest return over the lookback, in equal weights. Every
+ * rebalance moves the portfolio to the new top k, leaving holdings that only
+ * drifted a little from their weight alone.
+ */
+public class TopKMomentumStrategy extends Strategy {
+	private final MomentumRankingSignal signal;
+	private final int rebalanceEvery;
+	private int barCount = 0;
+	private final Rebalancer rebalancer;
+	private double[] weights = new double[0];
+
+	/**
+	 * @param lookback       bars over which the return is measured
+	 * @param k              number of tickers to hold
+	 * @param rebalanceEvery number of bars between rebalances
+	 */
+	public TopKMomentumStrategy(Portfolio portfolio, Logger logger, int lookback, int k, int rebalanceEvery) {
+		super(portfolio, logger);
+		if (rebalanceEvery < 1)
+			throw new IllegalArgumentException("Must rebalance at least every bar");
+		this.signal = new MomentumRankingSignal(this, lookback, k);
+		this.rebalanceEvery = rebalanceEvery;
+		this.rebalancer = new Rebalancer(1, 0.25 / k, 0.0);
+		addSignal(signal);
+	}
+
+	@Override
+	protected void onBars(Map<String, Bar> bars) {
+		if (barCount++ % rebalanceEvery != 0 || signal.getTopCount() == 0)
+			return;
+
+		int n = signal.getSymbols().size();
+		if (weights.length < n)
+			weights = new double[Math.max(n, weights.length * 2)];
+		Arrays.fill(weights, 0, n, 0.0);
+		for (int i = 0; i < signal.getTopCount(); i++)
+			weights[signal.getTopId(i)] = 1.0 / signal.getTopCount();
+		int orders = portfolio.rebalance(signal.getSymbols(), weights, rebalancer);
+		if (orders > 0)
+			logger.info("TopKMomentum: Rebalanced with " + orders + " orders");
+	}
+}
@@ -0,0 +1,195 @@
+package strategies;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * EMA, one-bar return, rolling variance of the returns and rolling z-score of
+ * the close for every symbol of a universe. Each indicator is one double[]
+ * indexed by symbol id, and all symbols are updated at once by the
+ * UniverseKernels, using vector lanes when available.
+ */
+public class UniverseIndicators implements Serializable {
+	private final double alpha;
+	private final int window;
+
+	/*
+	 * Kernels are picked again after deserialization. The implementations give the
+	 * same results, so this doesn't change anything
+	 */
+	private transient UniverseKernels kernels;
+
+	private int capacity = 0;
+	private int steps = 0;
+
+	private double[] ema = new double[0];
+	private double[] prevClose = new double[0];
+	private double[] returns = new double[0];
+
+	// Rolling window of returns, window rows of capacity entries
+	private double[] returnRing = new double[0];
+	private double[] returnSum = new double[0];
+	private double[] returnSumSq = new double[0];
+	private double[] returnCount = new double[0];
+	private double[] returnMean = new double[0];
+	private double[] returnVariance = new double[0];
+	private double[] returnZScore = new double[0];
+
+	// Rolling window of close prices
+	private double[] closeRing = new double[0];
+	private double[] closeSum = new double[0];
+	private double[] closeSumSq = new double[0];
+	private double[] closeCount = new double[0];
+	private double[] closeMean = new double[0];
+	private double[] closeVariance = new double[0];
+	private double[] closeZScore = new double[0];
+
+	/**
+	 * @param emaPeriod period of the EMA
+	 * @param window    number of bars in the rolling variance and z-score windows
+	 * @param kernels   implementation to update with, see UniverseKernels.best()
+	 */
+	public UniverseIndicators(int emaPeriod, int window, UniverseKernels kernels) {
+		if (emaPeriod < 1 || window < 2)
+			throw new IllegalArgumentException("Need an EMA period of at least 1 and a window of at least 2");
+		this.alpha = 2.0 / (emaPeriod + 1);
+		this.window = window;
+		this.kernels = kernels;
+	}
+
+	public UniverseIndicators(int emaPeriod, int window) {
+		this(emaPeriod, window, UniverseKernels.best());
+	}
+
+	/**
+	 * Updates all indicators with the close prices of one bar.
+	 *
+	 * @param close close price per symbol id, NaN for symbols without a bar
+	 * @param n     number of symbols in the universe
+	 */
+	public void update(double[] close, int n) {
+		ensureCapacity(n);
+		if (kernels == null)
+			kernels = UniverseKernels.best();
+		int slot = (steps % window) * capacity;
+
+		kernels.ema(ema, close, alpha, n);
+		kernels.returns(returns, prevClose, close, n);
+		kernels.roll(returnRing, slot, returns, returnSum, returnSumSq, returnCount, n);
+		kernels.roll(closeRing, slot, close, closeSum, closeSumSq, closeCount, n);
+		steps++;
+		// The running sums drift a little with every update, start them afresh once
+		// per window
+		if (steps % window == 0) {
+			recomputeSums(returnRing, returnSum, returnSumSq, returnCount);
+			recomputeSums(closeRing, closeSum, closeSumSq, closeCount);
+		}
+		kernels.stats(returns, returnSum, returnSumSq, returnCount, returnMean, returnVariance, returnZScore, n);
+		kernels.stats(close, closeSum, closeSumSq, closeCount, closeMean, closeVariance, closeZScore, n);
+	}
+
+	private void recomputeSums(double[] ring, double[] sum, double[] sumSq, double[] count) {
+		Arrays.fill(sum, 0.0);
+		Arrays.fill(sumSq, 0.0);
+		Arrays.fill(count, 0.0);
+		for (int row = 0; row < window; row++) {
+			int offset = row * capacity;
+			for (int i = 0; i < capacity; i++) {
+				double v = ring[offset + i];
+				if (Double.isNaN(v))
+					continue;
+				sum[i] += v;
+				sumSq[i] += v * v;
+				count[i] += 1.0;
+			}
+		}
+	}
+
+	/**
+	 * Grows the arrays to hold at least n symbols
+	 */
+	private void ensureCapacity(int n) {
+		if (n <= capacity)
+			return;
+		int newCapacity = Math.max(n, capacity * 2);
+		ema = grow(ema, newCapacity, Double.NaN);
+		prevClose = grow(prevClose, newCapacity, Double.NaN);
+		returns = grow(returns, newCapacity, Double.NaN);
+		returnRing = growRing(returnRing, newCapacity);
+		returnSum = grow(returnSum, newCapacity, 0.0);
+		returnSumSq = grow(returnSumSq, newCapacity, 0.0);
+		returnCount = grow(returnCount, newCapacity, 0.0);
+		returnMean = grow(returnMean, newCapacity, Double.NaN);
+		returnVariance = grow(returnVariance, newCapacity, Double.NaN);
+		returnZScore = grow(returnZScore, newCapacity, Double.NaN);
+		closeRing = growRing(closeRing, newCapacity);
+		closeSum = grow(closeSum, newCapacity, 0.0);
+		closeSumSq = grow(closeSumSq, newCapacity, 0.0);
+		closeCount = grow(closeCount, newCapacity, 0.0);
+		closeMean = grow(closeMean, newCapacity, Double.NaN);
+		closeVariance = grow(closeVariance, newCapacity, Double.NaN);
+		closeZScore = grow(closeZScore, newCapacity, Double.NaN);
+		capacity = newCapacity;
+	}
+
+	private static double[] grow(double[] array, int newCapacity, double fill) {
+		double[] grown = Arrays.copyOf(array, newCapacity);
+		Arrays.fill(grown, array.length, newCapacity, fill);
+		return grown;
+	}
+
+	private double[] growRing(double[] ring, int newCapacity) {
+		double[] grown = new double[window * newCapacity];
+		Arrays.fill(grown, Double.NaN);
+		for (int row = 0; row < window; row++)
+			System.arraycopy(ring, row * capacity, grown, row * newCapacity, capacity);
+		return grown;
+	}
+
+	/* ================================ Getters ================================= */
+
+	public double getEma(int id) {
+		return id < capacity ? ema[id] : Double.NaN;
+	}
+
+	public double getReturn(int id) {
+		return id < capacity ? returns[id] : Double.NaN;
+	}
+
+	/**
+	 * Sample variance of the one-bar returns over the window
+	 */
+	public double getReturnVariance(int id) {
+		return id < capacity ? returnVariance[id] : Double.NaN;
+	}
+
+	/**
+	 * Z-score of the last close against the mean and standard deviation of the
+	 * closes over the window
+	 */
+	public double getZScore(int id) {
+		return id < capacity ? closeZScore[id] : Double.NaN;
+	}
+
+	/*
+	 * The arrays below are the internal ones, for cross-sectional code that reads
+	 * all symbols at once. They may be longer than the universe and are replaced
+	 * when it grows
+	 */
+
+	public double[] emaArray() {
+		return ema;
+	}
+
+	public double[] returnArray() {
+		return returns;
+	}
+
+	public double[] returnVarianceArray() {
+		return returnVariance;
+	}
+
+	public double[] zScoreArray() {
+		return closeZScore;
+	}
+}
@@ -0,0 +1,56 @@
+package strategies;
+
+/**
+ * Bulk indicator updates over a whole universe of symbols. Every array is
+ * indexed by symbol id and only the first n entries are used. A NaN input means
+ * that the symbol has no bar this step.
+ * There is a scalar implementation and one using jdk.incubator.vector. Both
+ * give bitwise identical results.
+ */
+public interface UniverseKernels {
+
+	/**
+	 * ema[i] = alpha * x[i] + (1 - alpha) * ema[i], starting at x[i] where ema[i]
+	 * is NaN. Left as is where x[i] is NaN.
+	 */
+	void ema(double[] ema, double[] x, double alpha, int n);
+
+	/**
+	 * ret[i] = x[i] / prev[i] - 1, NaN if either is missing. Then prev[i] = x[i]
+	 * where x[i] is not NaN.
+	 */
+	void returns(double[] ret, double[] prev, double[] x, int n);
+
+	/**
+	 * Puts x in the ring buffer slot ring[offset .. offset + n), in place of the
+	 * oldest values of the window, and updates the running sum, sum of squares and
+	 * count of non-NaN values accordingly.
+	 */
+	void roll(double[] ring, int offset, double[] x, double[] sum, double[] sumSq, double[] count, int n);
+
+	/**
+	 * Mean and sample variance of the window from the running sums, and the
+	 * z-score of x against them. NaN where there are too few values.
+	 */
+	void stats(double[] x, double[] sum, double[] sumSq, double[] count, double[] mean, double[] variance,
+			double[] zscore, int n);
+
+	/**
+	 * Returns the vector implementation if the jdk.incubator.vector module is
+	 * available (run with --add-modules jdk.incubator.vector), else the scalar one
+	 */
+	static UniverseKernels best() {
+		if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty())
+			return ScalarKernels.INSTANCE;
+		try {
+			return (UniverseKernels) Class.forName("strategies.VectorKernels").getDeclaredConstructor()
+					.newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return ScalarKernels.INSTANCE;
+		}
+	}
+
+	static UniverseKernels scalar() {
+		return ScalarKernels.INSTANCE;
+	}
+}
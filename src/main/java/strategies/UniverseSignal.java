@@ -0,0 +1,74 @@
+package strategies;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import engine.Bar;
+import engine.SymbolIndex;
+
+/**
+ * Signal keeping UniverseIndicators for every symbol the strategy sees. Meant
+ * for cross-sectional strategies over large universes, where updating a map
+ * per symbol like EMASignal does becomes the bottleneck.
+ */
+public class UniverseSignal extends Signal {
+	private final SymbolIndex symbols;
+	private final UniverseIndicators indicators;
+	private double[] close = new double[0];
+
+	public UniverseSignal(Strategy strategy, int emaPeriod, int window) {
+		this(strategy, new SymbolIndex(), new UniverseIndicators(emaPeriod, window));
+	}
+
+	/**
+	 * @param symbols index giving the ids, may already hold the universe
+	 */
+	public UniverseSignal(Strategy strategy, SymbolIndex symbols, UniverseIndicators indicators) {
+		super(strategy);
+		this.symbols = symbols;
+		this.indicators = indicators;
+	}
+
+	@Override
+	public void update(Map<String, Bar> bars) {
+		Arrays.fill(close, Double.NaN);
+		for (Map.Entry<String, Bar> e : bars.entrySet()) {
+			int id = symbols.idOf(e.getKey());
+			if (id >= close.length) {
+				int oldLength = close.length;
+				close = Arrays.copyOf(close, Math.max(id + 1, oldLength * 2));
+				Arrays.fill(close, oldLength, close.length, Double.NaN);
+			}
+			close[id] = e.getValue().close();
+		}
+		indicators.update(close, symbols.size());
+	}
+
+	public SymbolIndex getSymbols() {
+		return symbols;
+	}
+
+	public UniverseIndicators getIndicators() {
+		return indicators;
+	}
+
+	public double getEma(String symbol) {
+		int id = symbols.find(symbol);
+		return id < 0 ? Double.NaN : indicators.getEma(id);
+	}
+
+	public double getReturn(String symbol) {
+		int id = symbols.find(symbol);
+		return id < 0 ? Double.NaN : indicators.getReturn(id);
+	}
+
+	public double getReturnVariance(String symbol) {
+		int id = symbols.find(symbol);
+		return id < 0 ? Double.NaN : indicators.getReturnVariance(id);
+	}
+
+	public double getZScore(String symbol) {
+		int id = symbols.find(symbol);
+		return id < 0 ? Double.NaN : indicators.getZScore(id);
+	}
+}
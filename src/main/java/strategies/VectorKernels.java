@@ -0,0 +1,82 @@
+package strategies;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * UniverseKernels using the lanes of jdk.incubator.vector. Only loaded through
+ * UniverseKernels.best() when the module is available. Every lane does the
+ * same operations in the same order as ScalarKernels.
+ */
+final class VectorKernels implements UniverseKernels {
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	@Override
+	public void ema(double[] ema, double[] x, double alpha, int n) {
+		int bound = SPECIES.loopBound(n);
+		for (int i = 0; i < bound; i += SPECIES.length()) {
+			DoubleVector v = DoubleVector.fromArray(SPECIES, x, i);
+			DoubleVector e = DoubleVector.fromArray(SPECIES, ema, i);
+			VectorMask<Double> hasBar = v.test(VectorOperators.IS_NAN).not();
+			VectorMask<Double> first = e.test(VectorOperators.IS_NAN);
+			DoubleVector updated = v.mul(alpha).add(e.mul(1 - alpha)).blend(v, first);
+			e.blend(updated, hasBar).intoArray(ema, i);
+		}
+		ScalarKernels.ema(ema, x, alpha, bound, n);
+	}
+
+	@Override
+	public void returns(double[] ret, double[] prev, double[] x, int n) {
+		int bound = SPECIES.loopBound(n);
+		for (int i = 0; i < bound; i += SPECIES.length()) {
+			DoubleVector v = DoubleVector.fromArray(SPECIES, x, i);
+			DoubleVector p = DoubleVector.fromArray(SPECIES, prev, i);
+			v.div(p).sub(1.0).intoArray(ret, i);
+			p.blend(v, v.test(VectorOperators.IS_NAN).not()).intoArray(prev, i);
+		}
+		ScalarKernels.returns(ret, prev, x, bound, n);
+	}
+
+	@Override
+	public void roll(double[] ring, int offset, double[] x, double[] sum, double[] sumSq, double[] count, int n) {
+		int bound = SPECIES.loopBound(n);
+		DoubleVector zero = DoubleVector.zero(SPECIES);
+		DoubleVector one = DoubleVector.broadcast(SPECIES, 1.0);
+		for (int i = 0; i < bound; i += SPECIES.length()) {
+			DoubleVector old = DoubleVector.fromArray(SPECIES, ring, offset + i);
+			DoubleVector v = DoubleVector.fromArray(SPECIES, x, i);
+			VectorMask<Double> oldValid = old.test(VectorOperators.IS_NAN).not();
+			VectorMask<Double> newValid = v.test(VectorOperators.IS_NAN).not();
+			DoubleVector o = zero.blend(old, oldValid);
+			DoubleVector nv = zero.blend(v, newValid);
+			DoubleVector.fromArray(SPECIES, sum, i).add(nv.sub(o)).intoArray(sum, i);
+			DoubleVector.fromArray(SPECIES, sumSq, i).add(nv.mul(nv).sub(o.mul(o))).intoArray(sumSq, i);
+			DoubleVector change = zero.blend(one, newValid).sub(zero.blend(one, oldValid));
+			DoubleVector.fromArray(SPECIES, count, i).add(change).intoArray(count, i);
+			v.intoArray(ring, offset + i);
+		}
+		ScalarKernels.roll(ring, offset, x, sum, sumSq, count, bound, n);
+	}
+
+	@Override
+	public void stats(double[] x, double[] sum, double[] sumSq, double[] count, double[] mean, double[] variance,
+			double[] zscore, int n) {
+		int bound = SPECIES.loopBound(n);
+		DoubleVector nan = DoubleVector.broadcast(SPECIES, Double.NaN);
+		for (int i = 0; i < bound; i += SPECIES.length()) {
+			DoubleVector c = DoubleVector.fromArray(SPECIES, count, i);
+			DoubleVector s = DoubleVector.fromArray(SPECIES, sum, i);
+			DoubleVector m = s.div(c).blend(nan, c.compare(VectorOperators.LT, 1.0));
+			DoubleVector var = DoubleVector.fromArray(SPECIES, sumSq, i).sub(s.mul(m)).div(c.sub(1.0)).max(0.0)
+					.blend(nan, c.compare(VectorOperators.LT, 2.0));
+			DoubleVector z = DoubleVector.fromArray(SPECIES, x, i).sub(m).div(var.sqrt())
+					.blend(nan, var.compare(VectorOperators.GT, 0.0).not());
+			m.intoArray(mean, i);
+			var.intoArray(variance, i);
+			z.intoArray(zscore, i);
+		}
+		ScalarKernels.stats(x, sum, sumSq, count, mean, variance, zscore, bound, n);
+	}
+}
@@ -0,0 +1,28 @@
+package strategies;
+
+/**
+ * A long-only, all-in/all-out strategy whose signals are a function of the
+ * close series alone, so they can be computed for the whole series at once.
+ * Run with engine.VectorizedBacktest, which trades exactly like the event
+ * driven engine would: orders are placed on the signal bar and filled at its
+ * close when the next bar arrives.
+ */
+public interface VectorizedStrategy {
+
+	/**
+	 * Computes the signals for every bar of the series.
+	 *
+	 * @param close   close prices, all above zero
+	 * @param entries set to true where the strategy buys if it has no position
+	 * @param exits   set to true where the strategy sells if it has a position
+	 */
+	void signals(double[] close, boolean[] entries, boolean[] exits);
+
+	/**
+	 * Fraction below the entry price at which the position is sold, or 0 for no
+	 * stop loss
+	 */
+	default double stopLoss() {
+		return 0.0;
+	}
+}
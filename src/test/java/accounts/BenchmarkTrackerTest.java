@@ -0,0 +1,121 @@
+package accounts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import engine.Bar;
+import engine.ListBarSource;
+import engine.StockExchange;
+import io.Logger;
+import resources.enums.OrderType;
+
+public class BenchmarkTrackerTest {
+
+    /**
+     * Figures computed directly from the returns of bars from, inclusive, to to,
+     * exclusive
+     */
+    private static double[] direct(List<Double> own, List<Double> benchmark, int from, int to) {
+        int n = to - from;
+        double mp = 0, mb = 0;
+        for (int t = from; t < to; t++) {
+            mp += own.get(t) / n;
+            mb += benchmark.get(t) / n;
+        }
+        double vp = 0, vb = 0, cov = 0, va = 0;
+        for (int t = from; t < to; t++) {
+            double dp = own.get(t) - mp, db = benchmark.get(t) - mb;
+            vp += dp * dp / (n - 1);
+            vb += db * db / (n - 1);
+            cov += dp * db / (n - 1);
+            va += (dp - db) * (dp - db) / (n - 1);
+        }
+        double beta = cov / vb;
+        return new double[] { beta, (mp - beta * mb) * 252, cov / Math.sqrt(vp * vb), Math.sqrt(va * 252),
+                (mp - mb) / Math.sqrt(va) * Math.sqrt(252) };
+    }
+
+    private static void assertFigures(double[] expected, BenchmarkTracker.Relative actual) {
+        assertEquals(expected[0], actual.beta(), 1e-9);
+        assertEquals(expected[1], actual.alpha(), 1e-9);
+        assertEquals(expected[2], actual.correlation(), 1e-9);
+        assertEquals(expected[3], actual.trackingError(), 1e-9);
+        assertEquals(expected[4], actual.informationRatio(), 1e-9);
+    }
+
+    @Test
+    public void testFiguresMatchDirectComputation() {
+        Logger logger = new Logger(new ByteArrayOutputStream());
+        Random random = new Random(6);
+        List<Bar> spy = new ArrayList<>();
+        List<Bar> stock = new ArrayList<>();
+        LocalDateTime start = LocalDateTime.of(2020, 1, 1, 0, 0);
+        double index = 100, price = 50;
+        for (int i = 0; i < 700; i++) {
+            double market = random.nextGaussian() * 0.01;
+            index *= 1 + market;
+            price *= 1 + 1.5 * market + random.nextGaussian() * 0.005 + 0.0002;
+            spy.add(new Bar(start.plusDays(i), index, index, index, index, 1));
+            stock.add(new Bar(start.plusDays(i), price, price, price, price, 1));
+        }
+        StockExchange exchange = new StockExchange(logger);
+        exchange.addSource("SPY", new ListBarSource(spy));
+        exchange.addSource("AAA", new ListBarSource(stock));
+        Portfolio invested = new Portfolio(100_000.0, logger);
+        Portfolio half = new Portfolio(100_000.0, logger);
+        Portfolio cash = new Portfolio(100_000.0, logger);
+        exchange.addPortfolio(invested);
+        exchange.addPortfolio(half);
+        exchange.addPortfolio(cash);
+        BenchmarkTracker tracker = new BenchmarkTracker(List.of(invested, half, cash), 100);
+        tracker.setBenchmark(0, "SPY");
+        tracker.setBenchmark(1, 0);
+        exchange.addBarListener(tracker);
+
+        List<Double> own = new ArrayList<>();
+        List<Double> benchmark = new ArrayList<>();
+        List<Double> halfOwn = new ArrayList<>();
+        double[] last = { Double.NaN, Double.NaN, Double.NaN };
+        exchange.addBarListener(bars -> {
+            double v = invested.getTotalValue(), h = half.getTotalValue(), s = bars.get("SPY").close();
+            if (!Double.isNaN(last[0])) {
+                own.add(v / last[0] - 1);
+                halfOwn.add(h / last[1] - 1);
+                benchmark.add(s / last[2] - 1);
+            }
+            last[0] = v;
+            last[1] = h;
+            last[2] = s;
+            if (invested.getFills().isEmpty() && invested.getPendingOrders().isEmpty()) {
+                invested.placeOrder(new Order("AAA", OrderType.BUY, 1900));
+                half.placeOrder(new Order("AAA", OrderType.BUY, 1000));
+            }
+        });
+        exchange.run();
+
+        int n = own.size();
+        assertEquals(699, n);
+        assertFigures(direct(own, benchmark, 0, n), tracker.getCumulative(0));
+        assertFigures(direct(own, benchmark, n - 100, n), tracker.getRolling(0));
+        assertFigures(direct(halfOwn, own, 0, n), tracker.getCumulative(1));
+        assertTrue(tracker.getCumulative(0).beta() > 1.2);
+        assertTrue(tracker.getCumulative(0).correlation() > 0.9);
+        assertNull(tracker.getCumulative(2));
+
+        double[][] history = tracker.getRollingHistory(0);
+        assertEquals(700, history[0].length);
+        assertEquals(700, tracker.getTimestamps().length);
+        assertEquals(tracker.getRolling(0).beta(), history[0][699], 0.0);
+        assertFigures(direct(own, benchmark, 400, 500), new BenchmarkTracker.Relative(history[0][500],
+                history[1][500], history[2][500], history[3][500], history[4][500]));
+    }
+}
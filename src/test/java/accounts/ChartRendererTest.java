@@ -0,0 +1,88 @@
+package accounts;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChartRendererTest {
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("charts");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private static PortfolioHistory history(int n, double drift) {
+        PortfolioHistory history = new PortfolioHistory();
+        LocalDateTime start = LocalDateTime.of(2000, 1, 1, 0, 0);
+        for (int i = 0; i < n; i++)
+            history.record(start.plusDays(i), Collections.emptyMap(), 1000 + drift * i + 50 * Math.sin(i / 20.0));
+        return history;
+    }
+
+    @Test
+    public void testLttbKeepsEndsAndSpikes() {
+        int n = 10000;
+        double[] x = new double[n], y = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = i;
+            y[i] = Math.sin(i / 500.0);
+        }
+        y[4321] = 50.0;
+        double[] outX = new double[100], outY = new double[100];
+        assertEquals(100, ChartRenderer.lttb(x, y, n, 100, outX, outY));
+        assertEquals(0.0, outX[0], 0.0);
+        assertEquals(n - 1, outX[99], 0.0);
+        assertTrue(Arrays.stream(outY).anyMatch(v -> v == 50.0));
+        for (int i = 1; i < 100; i++)
+            assertTrue(outX[i] > outX[i - 1]);
+
+        // Short series are kept as they are
+        double[] smallX = new double[5], smallY = new double[5];
+        assertEquals(3, ChartRenderer.lttb(x, y, 3, 5, smallX, smallY));
+        assertArrayEquals(Arrays.copyOf(y, 3), Arrays.copyOf(smallY, 3), 0.0);
+    }
+
+    @Test
+    public void testRendersPngAndSvgHeadless() throws IOException {
+        List<PortfolioHistory> histories = new ArrayList<>();
+        List<String> labels = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            histories.add(history(50000, i));
+            labels.add("Strategy " + i);
+        }
+        List<Path> files = new ChartRenderer(500, ChartRenderer.Format.PNG, 400, 300).renderEach(histories, labels,
+                dir, 4);
+        assertEquals(4, files.size());
+        for (Path file : files) {
+            byte[] header = Arrays.copyOf(Files.readAllBytes(file), 4);
+            assertArrayEquals(new byte[] { (byte) 0x89, 'P', 'N', 'G' }, header);
+        }
+
+        Path svg = dir.resolve("all.svg");
+        new ChartRenderer(500, ChartRenderer.Format.SVG, 400, 300).renderCombined(histories, labels, "All", svg);
+        assertTrue(Files.readString(svg).contains("<svg"));
+    }
+}
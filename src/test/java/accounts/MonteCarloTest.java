@@ -0,0 +1,90 @@
+package accounts;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import engine.Bar;
+import io.Logger;
+import resources.enums.OrderType;
+
+public class MonteCarloTest {
+
+    private static double[] returns(int n, long seed) {
+        Random random = new Random(seed);
+        double[] r = new double[n];
+        for (int i = 0; i < n; i++)
+            r[i] = 0.0004 + random.nextGaussian() * 0.01;
+        return r;
+    }
+
+    @Test
+    public void testReproducibleAcrossThreadCounts() {
+        double[] r = returns(1000, 1);
+        MonteCarlo.Result one = new MonteCarlo(7, 1).blockBootstrap(r, 10, 1000.0, 5000);
+        MonteCarlo.Result four = new MonteCarlo(7, 4).blockBootstrap(r, 10, 1000.0, 5000);
+        assertArrayEquals(one.finalValue().sorted(), four.finalValue().sorted(), 0.0);
+        assertArrayEquals(one.maxDrawdown().sorted(), four.maxDrawdown().sorted(), 0.0);
+        assertArrayEquals(one.sharpe().sorted(), four.sharpe().sorted(), 0.0);
+        MonteCarlo.Result other = new MonteCarlo(8, 4).blockBootstrap(r, 10, 1000.0, 5000);
+        assertTrue(other.finalValue().percentile(0.5) != one.finalValue().percentile(0.5));
+    }
+
+    @Test
+    public void testBootstrapCentersOnOriginal() {
+        double[] r = returns(2000, 2);
+        double value = 1000.0;
+        for (double x : r)
+            value *= 1 + x;
+        MonteCarlo.Result result = new MonteCarlo(3, 2).blockBootstrap(r, 20, 1000.0, 20000);
+        assertEquals(20000, result.finalValue().sorted().length);
+        assertTrue(result.finalValue().percentile(0.05) < value);
+        assertTrue(result.finalValue().percentile(0.95) > value);
+        assertTrue(result.maxDrawdown().percentile(0.5) > 0);
+        assertTrue(result.sharpe().percentile(0.05) < result.sharpe().percentile(0.95));
+        assertEquals(0.5, result.finalValue().fractionBelow(result.finalValue().percentile(0.5)), 0.001);
+    }
+
+    @Test
+    public void testTradeShuffleKeepsFinalValue() {
+        double[] trades = { 0.05, -0.02, 0.03, -0.04, 0.01, 0.02, -0.01 };
+        MonteCarlo.Result shuffled = new MonteCarlo(5, 2).resampleTrades(trades, false, 7, 100.0, 3000);
+        double expected = 100.0;
+        for (double t : trades)
+            expected *= 1 + t;
+        assertEquals(expected, shuffled.finalValue().percentile(0.0), 1e-9);
+        assertEquals(expected, shuffled.finalValue().percentile(1.0), 1e-9);
+        assertTrue(shuffled.maxDrawdown().percentile(0.0) < shuffled.maxDrawdown().percentile(1.0));
+
+        MonteCarlo.Result drawn = new MonteCarlo(5, 2).resampleTrades(trades, true, 7, 100.0, 3000);
+        assertTrue(drawn.finalValue().percentile(0.0) < drawn.finalValue().percentile(1.0));
+    }
+
+    @Test
+    public void testTradeReturnsFromFills() {
+        Logger logger = new Logger(new ByteArrayOutputStream());
+        Portfolio portfolio = new Portfolio(1000.0, logger);
+        LocalDateTime t = LocalDateTime.of(2020, 1, 1, 0, 0);
+        double[] closes = { 10, 10, 12, 12, 9, 9 };
+        for (int i = 0; i < closes.length; i++) {
+            portfolio.acceptBars(Map.of("AAPL", new Bar(t.plusDays(i), closes[i], closes[i], closes[i], closes[i], 1)));
+            if (i == 0 || i == 3)
+                portfolio.placeOrder(new Order("AAPL", OrderType.BUY, 50));
+            if (i == 2)
+                portfolio.placeOrder(new Order("AAPL", OrderType.SELL, 50));
+            if (i == 4)
+                portfolio.placeOrder(new Order("AAPL", OrderType.SELL, 50));
+        }
+        double[] trades = MonteCarlo.tradeReturns(portfolio);
+        // Bought at 10 with 1000 and sold at 12, then bought at 12 with 1100 and sold at 9
+        assertArrayEquals(new double[] { 100.0 / 1000.0, -150.0 / 1100.0 }, trades, 1e-12);
+        assertEquals(portfolio.getTotalValue(), 1000.0 * (1 + trades[0]) * (1 + trades[1]), 1e-9);
+    }
+}
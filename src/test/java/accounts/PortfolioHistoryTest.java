@@ -39,4 +39,25 @@ public class PortfolioHistoryTest {
         assertTrue(lines.get(1).contains("2023-01-01"));
         assertTrue(lines.get(2).contains("110.0"));
     }
+
+    @Test
+    public void testAppendToCsv() throws IOException {
+        history.saveToCsv(tempFile);
+        history.record(LocalDateTime.of(2023,1,3,0,0), Collections.emptyMap(), 120.0);
+        history.appendToCsv(tempFile, 2);
+        java.util.List<String> lines = Files.readAllLines(tempFile);
+        assertEquals(4, lines.size());
+        assertTrue(lines.get(3).contains("120.0"));
+    }
+
+    @Test
+    public void testMetrics() {
+        history.record(LocalDateTime.of(2023,1,3,0,0), Collections.emptyMap(), 88.0);
+        java.util.Map<String, Double> metrics = history.metrics();
+        assertEquals(-0.12, metrics.get("total_return"), 1e-12);
+        assertEquals(0.2, metrics.get("max_drawdown"), 1e-12);
+        // Returns of +10% and -20%
+        double std = Math.sqrt(((0.1 + 0.05) * (0.1 + 0.05) + (-0.2 + 0.05) * (-0.2 + 0.05)) / 1);
+        assertEquals(-0.05 / std * Math.sqrt(252), metrics.get("sharpe"), 1e-9);
+    }
 }
@@ -53,4 +53,25 @@ public class PortfolioTest {
         assertEquals(1, portfolio.getPendingOrders().size());
     }
 
+    @Test
+    public void testForkIsIndependent() {
+        java.util.Map<String, engine.Bar> bars = new java.util.HashMap<>();
+        bars.put("AAPL", new engine.Bar(java.time.LocalDateTime.now(), 10, 10, 10, 10, 1));
+        portfolio.acceptBars(bars);
+        portfolio.placeOrder(new Order("AAPL", resources.enums.OrderType.BUY, 5));
+
+        Portfolio fork = portfolio.fork(logger);
+        fork.acceptBars(bars);
+        assertEquals(5, fork.getQuantity("AAPL"));
+        assertEquals(0, portfolio.getQuantity("AAPL"));
+        assertEquals(1, portfolio.getPendingOrders().size());
+        assertEquals(2, fork.getHistory().size());
+        assertEquals(1, portfolio.getHistory().size());
+
+        portfolio.acceptBars(bars);
+        assertEquals(5, portfolio.getQuantity("AAPL"));
+        assertEquals(5, fork.getQuantity("AAPL"));
+        assertEquals(2, portfolio.getHistoryTracker().getSnapshots().size());
+    }
+
 }
@@ -0,0 +1,88 @@
+package accounts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class QuantileSketchTest {
+
+    private static double exactQuantile(double[] sorted, double q) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.floor(q * sorted.length))];
+    }
+
+    private static double exactTailMean(double[] sorted, double q) {
+        int n = (int) Math.round(q * sorted.length);
+        double sum = 0;
+        for (int i = 0; i < n; i++)
+            sum += sorted[i];
+        return sum / n;
+    }
+
+    /**
+     * Fraction of the values below x
+     */
+    private static double rank(double[] sorted, double x) {
+        int i = Arrays.binarySearch(sorted, x);
+        return (i < 0 ? -i - 1 : i) / (double) sorted.length;
+    }
+
+    @Test
+    public void testQuantilesAndTailMeansAreClose() {
+        Random random = new Random(1);
+        int n = 200_000;
+        double[] values = new double[n];
+        QuantileSketch sketch = new QuantileSketch();
+        for (int i = 0; i < n; i++) {
+            values[i] = random.nextGaussian() * 0.01 + (random.nextDouble() < 0.02 ? -0.05 : 0.0);
+            sketch.update(values[i]);
+        }
+        Arrays.sort(values);
+        assertEquals(n, sketch.getCount());
+        assertTrue(sketch.getRetained() < 1000);
+        for (double q : new double[] { 0.01, 0.05, 0.25, 0.5, 0.9, 0.99 })
+            assertEquals("rank at " + q, q, rank(values, sketch.quantile(q)), 0.01);
+        // The tail mean inherits the rank error at the edge of the tail
+        assertEquals(exactTailMean(values, 0.05), sketch.tailMean(0.05), 0.005);
+    }
+
+    @Test
+    public void testMergeMatchesOneSketch() {
+        Random random = new Random(2);
+        QuantileSketch all = new QuantileSketch();
+        QuantileSketch[] parts = new QuantileSketch[4];
+        double[] values = new double[100_000];
+        for (int p = 0; p < parts.length; p++)
+            parts[p] = new QuantileSketch();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextDouble();
+            all.update(values[i]);
+            parts[i % 4].update(values[i]);
+        }
+        QuantileSketch merged = parts[0].copy();
+        for (int p = 1; p < parts.length; p++)
+            merged.merge(parts[p]);
+        Arrays.sort(values);
+        assertEquals(values.length, merged.getCount());
+        assertEquals(values.length, merged.view().totalWeight(), 0.0);
+        for (double q : new double[] { 0.05, 0.5, 0.95 }) {
+            assertEquals(q, rank(values, merged.quantile(q)), 0.01);
+            assertEquals(exactQuantile(values, q), all.quantile(q), 0.01);
+        }
+        // Merging doesn't change the parts
+        assertEquals(25_000, parts[1].getCount());
+    }
+
+    @Test
+    public void testSmallSketchIsExact() {
+        QuantileSketch sketch = new QuantileSketch();
+        for (int i = 1; i <= 100; i++)
+            sketch.update(i);
+        assertEquals(5.0, sketch.quantile(0.05), 0.0);
+        assertEquals(3.0, sketch.tailMean(0.05), 1e-12);
+        assertTrue(Double.isNaN(new QuantileSketch().quantile(0.5)));
+    }
+}
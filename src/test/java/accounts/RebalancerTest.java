@@ -0,0 +1,122 @@
+package accounts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import engine.Bar;
+import engine.SymbolIndex;
+import io.Logger;
+import resources.enums.OrderType;
+
+public class RebalancerTest {
+    private Portfolio portfolio;
+    private SymbolIndex symbols;
+    private LocalDateTime time;
+
+    @Before
+    public void setUp() {
+        portfolio = new Portfolio(10000.0, new Logger(new ByteArrayOutputStream()));
+        symbols = new SymbolIndex(List.of("A", "B", "C"));
+        time = LocalDateTime.of(2021, 1, 1, 0, 0);
+    }
+
+    private void step(double a, double b, double c) {
+        Map<String, Bar> bars = new HashMap<>();
+        bars.put("A", new Bar(time, a, a, a, a, 1));
+        bars.put("B", new Bar(time, b, b, b, b, 1));
+        bars.put("C", new Bar(time, c, c, c, c, 1));
+        time = time.plusDays(1);
+        portfolio.acceptBars(bars);
+    }
+
+    @Test
+    public void testReachesTargetWeights() {
+        step(10, 20, 50);
+        assertEquals(3, portfolio.rebalance(symbols, new double[] { 0.5, 0.3, 0.2 }, new Rebalancer()));
+        step(10, 20, 50);
+        assertEquals(500, portfolio.getQuantity("A"));
+        assertEquals(150, portfolio.getQuantity("B"));
+        assertEquals(40, portfolio.getQuantity("C"));
+        assertEquals(0.0, portfolio.getCashReserve(), 1e-9);
+    }
+
+    @Test
+    public void testSellsBeforeBuysWithLots() {
+        step(10, 20, 50);
+        portfolio.rebalance(symbols, new double[] { 1.0, 0.0, 0.0 }, new Rebalancer());
+        step(10, 20, 50);
+        assertEquals(1000, portfolio.getQuantity("A"));
+
+        // Moving everything from A to B needs the cash of the sell
+        Rebalancer lots = new Rebalancer(100, 0.0, 0.0);
+        assertEquals(2, portfolio.rebalance(symbols, new double[] { 0.0, 1.0, 0.0 }, lots));
+        List<Order> pending = portfolio.getPendingOrders();
+        assertEquals(OrderType.SELL, pending.get(0).getOrderType());
+        assertEquals(OrderType.BUY, pending.get(1).getOrderType());
+        step(10, 20, 50);
+        assertEquals(0, portfolio.getQuantity("A"));
+        assertEquals(500, portfolio.getQuantity("B"));
+        assertTrue(portfolio.getPendingOrders().isEmpty());
+    }
+
+    @Test
+    public void testDriftThresholdAndCashLimit() {
+        step(10, 20, 50);
+        portfolio.rebalance(symbols, new double[] { 0.4, 0.4, 0.0 }, new Rebalancer());
+        step(10, 20, 50);
+
+        // A small move stays inside the threshold, nothing is traded
+        step(10.5, 19.5, 50);
+        Rebalancer rebalancer = new Rebalancer(1, 0.05, 0.1);
+        assertEquals(0, portfolio.rebalance(symbols, new double[] { 0.4, 0.4, 0.0 }, rebalancer));
+
+        // Buying C in full would need more than the cash left after the buffer
+        int orders = portfolio.rebalance(symbols, new double[] { 0.4, 0.4, 0.5 }, rebalancer);
+        assertEquals(1, orders);
+        Order buy = portfolio.getPendingOrders().get(0);
+        assertEquals("C", buy.getTicker());
+        step(10.5, 19.5, 50);
+        assertEquals(19, portfolio.getQuantity("C"));
+        assertTrue(portfolio.getCashReserve() >= 0.1 * portfolio.getTotalValue());
+        assertEquals(1, portfolio.getFills().stream().filter(f -> f.ticker().equals("C")).count());
+    }
+
+    @Test
+    public void testEntryBelowThresholdIsBought() {
+        step(10, 20, 50);
+        // Every weight is inside the threshold, but nothing is held yet
+        Rebalancer rebalancer = new Rebalancer(1, 0.05, 0.0);
+        assertEquals(3, portfolio.rebalance(symbols, new double[] { 0.04, 0.04, 0.04 }, rebalancer));
+        step(10, 20, 50);
+        assertEquals(40, portfolio.getQuantity("A"));
+        assertEquals(20, portfolio.getQuantity("B"));
+        assertEquals(8, portfolio.getQuantity("C"));
+    }
+
+    @Test
+    public void testKeepsPendingOrdersOutsideTheIndex() {
+        step(10, 20, 50);
+        portfolio.placeOrder(new Order("D", OrderType.BUY, 1));
+        portfolio.placeOrder(new Order("A", OrderType.BUY, 1));
+        portfolio.rebalance(symbols, new double[] { 0.0, 0.5, 0.0 }, new Rebalancer());
+        List<Order> pending = portfolio.getPendingOrders();
+        assertEquals(2, pending.size());
+        assertEquals("D", pending.get(0).getTicker());
+        assertEquals("B", pending.get(1).getTicker());
+    }
+
+    @Test
+    public void testNothingToSpread() {
+        Portfolio empty = new Portfolio(0.0, new Logger(new ByteArrayOutputStream()));
+        assertEquals(0, empty.rebalance(symbols, new double[] { 0.5, 0.5, 0.0 }, new Rebalancer()));
+    }
+}
@@ -0,0 +1,93 @@
+package accounts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import engine.Bar;
+import engine.ListBarSource;
+import engine.StockExchange;
+import io.Logger;
+import resources.enums.OrderType;
+
+public class RiskMonitorTest {
+
+    @Test
+    public void testRollingRiskFollowsTheReturns() {
+        Logger logger = new Logger(new ByteArrayOutputStream());
+        Random random = new Random(4);
+        List<Bar> bars = new ArrayList<>();
+        LocalDateTime start = LocalDateTime.of(2020, 1, 1, 0, 0);
+        double close = 100;
+        // Calm first half, volatile second half
+        for (int i = 0; i < 2000; i++) {
+            close *= 1 + random.nextGaussian() * (i < 1000 ? 0.005 : 0.03);
+            bars.add(new Bar(start.plusDays(i), close, close, close, close, 1));
+        }
+        StockExchange exchange = new StockExchange(logger);
+        exchange.addSource("AAPL", new ListBarSource(bars));
+        Portfolio invested = new Portfolio(1_000_000.0, logger);
+        Portfolio cash = new Portfolio(1_000_000.0, logger);
+        exchange.addPortfolio(invested);
+        exchange.addPortfolio(cash);
+        RiskMonitor monitor = new RiskMonitor(List.of(invested, cash), 400, 0.95).keepHistory();
+        exchange.addBarListener(monitor);
+        exchange.addBarListener(b -> {
+            if (invested.getFills().isEmpty() && invested.getPendingOrders().isEmpty())
+                invested.placeOrder(new Order("AAPL", OrderType.BUY, 5000));
+        });
+        exchange.run();
+
+        double[] var = monitor.getVaRHistory(0);
+        assertEquals(2000, var.length);
+        // About 1.645 standard deviations of half the value in the stock
+        assertEquals(1.645 * 0.0025, var[999], 0.002);
+        assertEquals(1.645 * 0.015 * invested.getQuantity("AAPL") * close / invested.getTotalValue(),
+                monitor.getVaR(0), 0.01);
+        assertTrue(monitor.getExpectedShortfall(0) > monitor.getVaR(0));
+        assertEquals(0.0, monitor.getVaR(1), 0.0);
+
+        // The book holds both, so its risk is about half
+        assertEquals(monitor.getVaR(0) / 2, monitor.getBookVaR(), monitor.getVaR(0) * 0.15);
+
+        // The window keeps between 400 and 450 returns
+        long count = monitor.sketch(0).getCount();
+        assertTrue(count >= 400 && count <= 450);
+        QuantileSketch pooled = monitor.sketch(0);
+        pooled.merge(monitor.sketch(1));
+        assertEquals(2 * count, pooled.getCount());
+        assertTrue(Arrays.stream(var).skip(1).noneMatch(Double::isNaN));
+    }
+
+    @Test
+    public void testHistoryIsOptIn() {
+        Logger logger = new Logger(new ByteArrayOutputStream());
+        List<Bar> bars = new ArrayList<>();
+        LocalDateTime start = LocalDateTime.of(2020, 1, 1, 0, 0);
+        for (int i = 0; i < 100; i++)
+            bars.add(new Bar(start.plusDays(i), 100 + i % 3, 100 + i % 3, 100 + i % 3, 100 + i % 3, 1));
+        StockExchange exchange = new StockExchange(logger);
+        exchange.addSource("AAPL", new ListBarSource(bars));
+        Portfolio portfolio = new Portfolio(1_000_000.0, logger);
+        exchange.addPortfolio(portfolio);
+        RiskMonitor monitor = new RiskMonitor(List.of(portfolio), 50, 0.95);
+        exchange.addBarListener(monitor);
+        exchange.run();
+
+        assertEquals(0.0, monitor.getVaR(0), 0.0);
+        try {
+            monitor.getVaRHistory(0);
+            fail("History wasn't asked for");
+        } catch (IllegalStateException e) {
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import accounts.Order;
+import accounts.Portfolio;
+import engine.Bar;
+import io.Logger;
+import strategies.Strategy;
+
+public class BacktestServerTest {
+    private Path csvFile;
+    private BacktestServer server;
+    private HttpClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        csvFile = Files.createTempFile("server", ".csv");
+        StringBuilder sb = new StringBuilder("Date,Open,High,Low,Close,Volume\n");
+        LocalDate day = LocalDate.of(2020, 1, 1);
+        for (int i = 0; i < 200; i++) {
+            double close = 100 + 10 * Math.sin(i / 7.0);
+            sb.append(day.plusDays(i)).append(',').append(close).append(',').append(close).append(',')
+                    .append(close).append(',').append(close).append(",1000\n");
+        }
+        Files.writeString(csvFile, sb.toString());
+        server = new BacktestServer(new Logger(new ByteArrayOutputStream()), Map.of("AAPL", csvFile.toString()), 0, 4);
+        server.start();
+        client = HttpClient.newHttpClient();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.stop();
+        Files.deleteIfExists(csvFile);
+    }
+
+    private CompletableFuture<HttpResponse<String>> submit(String form) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + server.getPort() + "/jobs"))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(form)).build();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    @Test
+    public void testConcurrentJobs() throws Exception {
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+        for (int i = 0; i < 8; i++)
+            responses.add(submit("strategy=EMAStrategy&from=2020-02-01&to=2020-05-31&cash=" + (1000 + i)));
+        responses.add(submit("strategy=BuyAndHoldStrategy&args=AAPL"));
+
+        for (int i = 0; i < 8; i++) {
+            HttpResponse<String> response = responses.get(i).get();
+            assertEquals(200, response.statusCode());
+            String[] lines = response.body().split("\n");
+            assertEquals("Timestamp,TotalValue", lines[0]);
+            // February 1st to May 31st, one bar a day
+            assertEquals(121, lines.length - 2);
+            assertTrue(lines[1].startsWith("2020-02-01"));
+            assertTrue(lines[lines.length - 1].startsWith("# job="));
+            assertTrue(lines[1].endsWith("," + (1000.0 + i)));
+        }
+        HttpResponse<String> hold = responses.get(8).get();
+        // Without the first row, like a StockExchange after addStock()
+        assertEquals(199 + 2, hold.body().split("\n").length);
+        assertTrue(hold.body().contains("fills=1"));
+    }
+
+    @Test
+    public void testInvalidJobs() throws Exception {
+        assertEquals(400, submit("strategy=NoSuchStrategy").get().statusCode());
+        assertEquals(400, submit("strategy=accounts.Portfolio").get().statusCode());
+        assertEquals(400, submit("strategy=BuyAndHoldStrategy").get().statusCode());
+        assertEquals(400, submit("strategy=EMAStrategy&tickers=MSFT").get().statusCode());
+        assertEquals(400, submit("args=1").get().statusCode());
+        assertEquals(400, submit("strategy=BuyAndHoldStrategy&args=AAPL&from=2020-02-01&to=2020-01-01").get()
+                .statusCode());
+        HttpResponse<String> badDate = submit("strategy=BuyAndHoldStrategy&args=AAPL&from=2020-13-01").get();
+        assertEquals(400, badDate.statusCode());
+        assertTrue(badDate.body().contains("from"));
+    }
+
+    private static volatile boolean initialized = false;
+
+    /** Not a strategy, with code that must not run for a request naming it */
+    static class Initializing {
+        static {
+            initialized = true;
+        }
+    }
+
+    @Test
+    public void testNamedClassIsNotInitialized() throws Exception {
+        HttpResponse<String> response = submit("strategy=" + Initializing.class.getName()).get();
+        assertEquals(400, response.statusCode());
+        assertTrue(response.body().contains("is not a strategy"));
+        assertFalse(initialized);
+    }
+
+    /** Places an order without a type on the given bar, which the portfolio fails on the next */
+    public static class Failing extends Strategy {
+        private final int failAt;
+        private int bars = 0;
+
+        public Failing(Portfolio portfolio, Logger logger, int failAt) {
+            super(portfolio, logger);
+            this.failAt = failAt;
+        }
+
+        @Override
+        protected void onBars(Map<String, Bar> bars) {
+            if (++this.bars == failAt)
+                portfolio.placeOrder(new Order("AAPL", null, 1));
+        }
+    }
+
+    @Test
+    public void testFailedJobEndsWithAnError() throws Exception {
+        HttpResponse<String> response = submit("strategy=" + Failing.class.getName() + "&args=10").get();
+        // The values were already on the way
+        assertEquals(200, response.statusCode());
+        String[] lines = response.body().split("\n");
+        // The header, ten values and the error
+        assertEquals(12, lines.length);
+        assertTrue(lines[lines.length - 1].startsWith("# error=java.lang.NullPointerException"));
+        assertFalse(response.body().contains("# job="));
+    }
+}
@@ -0,0 +1,98 @@
+package app;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import accounts.Portfolio;
+import app.BacktestOrchestrator.StrategyConfig;
+import engine.Bar;
+import engine.BarSeries;
+import engine.StockExchange;
+import io.Logger;
+import strategies.BuyAndHoldStrategy;
+import strategies.EMAStrategy;
+
+public class CombinatorialCVTest {
+    private Logger logger;
+    private Map<String, BarSeries> data;
+
+    @Before
+    public void setUp() {
+        logger = new Logger(new ByteArrayOutputStream());
+        Random random = new Random(11);
+        List<Bar> aapl = new ArrayList<>(), spy = new ArrayList<>();
+        LocalDateTime start = LocalDateTime.of(2015, 1, 1, 0, 0);
+        double a = 100, s = 100;
+        for (int i = 0; i < 300; i++) {
+            a *= 1.003 + random.nextGaussian() * 0.01;
+            s *= 0.998 + random.nextGaussian() * 0.01;
+            aapl.add(new Bar(start.plusDays(i), a, a, a, a, 1000));
+            spy.add(new Bar(start.plusDays(i), s, s, s, s, 1000));
+        }
+        data = new LinkedHashMap<>();
+        data.put("AAPL", BarSeries.of(aapl));
+        data.put("SPY", BarSeries.of(spy));
+    }
+
+    @Test
+    public void testCombinationsAndMask() {
+        List<int[]> c = CombinatorialCV.combinations(6, 2);
+        assertEquals(15, c.size());
+        assertArrayEquals(new int[] { 0, 1 }, c.get(0));
+        assertArrayEquals(new int[] { 4, 5 }, c.get(14));
+
+        int[] starts = { 0, 10, 20, 30 };
+        boolean[] train = CombinatorialCV.trainMask(starts, new int[] { 1 }, 2, 3);
+        for (int t = 0; t < 30; t++)
+            assertEquals("bar " + t, t < 8 || t >= 23, train[t]);
+    }
+
+    @Test
+    public void testSingleCandidatePathsMatchTheRun() {
+        List<StrategyConfig> configs = List.of(new StrategyConfig("EMA", EMAStrategy::new));
+        CombinatorialCV.Result result = new CombinatorialCV(logger, data, configs, 1000.0).run(6, 2, 5, 5,
+                CombinatorialCV.maximize("sharpe"), 3);
+        assertEquals(15, result.splits().size());
+        assertEquals(5, result.paths().length);
+
+        StockExchange exchange = new StockExchange(logger);
+        data.forEach((ticker, series) -> exchange.addSource(ticker, series.source()));
+        Portfolio portfolio = new Portfolio(1000.0, logger);
+        exchange.addPortfolio(portfolio);
+        exchange.addStrategy(new EMAStrategy(portfolio, logger));
+        exchange.run();
+        for (double[] path : result.paths()) {
+            assertEquals(301, path.length);
+            assertEquals(portfolio.getTotalValue(), path[300], 1e-6);
+            assertEquals(portfolio.getHistory().get(150), path[150], 1e-6);
+        }
+    }
+
+    @Test
+    public void testPicksDominantCandidate() {
+        List<StrategyConfig> configs = List.of(
+                new StrategyConfig("SPY", (p, l) -> new BuyAndHoldStrategy(p, l, "SPY")),
+                new StrategyConfig("AAPL", (p, l) -> new BuyAndHoldStrategy(p, l, "AAPL")));
+        CombinatorialCV cv = new CombinatorialCV(logger, data, configs, 1000.0);
+        CombinatorialCV.Result result = cv.run(5, 2, 3, 3, CombinatorialCV.maximize("total_return"), 4);
+        assertArrayEquals(new int[] { 0, 10 }, result.picks(2));
+        assertEquals(4, result.paths().length);
+        assertTrue(result.distribution("total_return").percentile(0.0) > 0);
+
+        CombinatorialCV.Result single = cv.run(5, 2, 3, 3, CombinatorialCV.maximize("total_return"), 1);
+        for (int p = 0; p < 4; p++)
+            assertArrayEquals(single.paths()[p], result.paths()[p], 0.0);
+    }
+}
@@ -0,0 +1,101 @@
+package app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import accounts.Portfolio;
+import engine.Bar;
+import engine.ListBarSource;
+import engine.StockExchange;
+import io.Logger;
+import strategies.EMAStrategy;
+
+public class ForkPointTest {
+    private Logger logger;
+    private List<Bar> bars;
+
+    @Before
+    public void setUp() {
+        logger = new Logger(new ByteArrayOutputStream());
+        bars = new ArrayList<>();
+        LocalDateTime start = LocalDateTime.of(2020, 1, 1, 0, 0);
+        for (int i = 0; i < 120; i++) {
+            double close = 100 + 10 * Math.sin(i / 5.0);
+            bars.add(new Bar(start.plusDays(i), close, close + 1, close - 1, close, 1000));
+        }
+    }
+
+    private StockExchange exchange(List<Bar> data) {
+        StockExchange exchange = new StockExchange(logger);
+        exchange.addSource("AAPL", new ListBarSource(data));
+        return exchange;
+    }
+
+    private BacktestOrchestrator orchestrator(List<Bar> data) {
+        List<BacktestOrchestrator.StrategyConfig> configs = new ArrayList<>();
+        configs.add(new BacktestOrchestrator.StrategyConfig("EMA", (p, l) -> new EMAStrategy(p, l)));
+        return new BacktestOrchestrator(logger, exchange(data), configs, 1000.0);
+    }
+
+    @Test
+    public void testBranchOnSameDataMatchesFullRun() {
+        BacktestOrchestrator full = orchestrator(bars);
+        full.runBacktest();
+
+        BacktestOrchestrator trunk = orchestrator(bars);
+        trunk.runUntil(bars.get(59).timestamp());
+        ForkPoint fork = trunk.forkPoint();
+        BacktestOrchestrator branch = fork.branch(exchange(bars.subList(60, bars.size())), logger);
+        branch.runBacktest();
+
+        Portfolio expected = full.getPortfolios().get(0);
+        Portfolio actual = branch.getPortfolios().get(0);
+        assertEquals(expected.getHistory(), actual.getHistory());
+        assertEquals(expected.getCashReserve(), actual.getCashReserve(), 1e-9);
+        assertEquals(expected.getPositions(), actual.getPositions());
+        assertEquals(expected.getHistoryTracker().getSnapshots().size(),
+                actual.getHistoryTracker().getSnapshots().size());
+    }
+
+    @Test
+    public void testScenariosRunIndependently() {
+        BacktestOrchestrator trunk = orchestrator(bars);
+        trunk.runUntil(bars.get(59).timestamp());
+        ForkPoint fork = trunk.forkPoint();
+        int trunkSteps = trunk.getPortfolios().get(0).getHistory().size();
+
+        List<ForkPoint.Scenario> scenarios = new ArrayList<>();
+        for (int s = 0; s < 8; s++) {
+            double shock = 1.0 - 0.05 * s;
+            scenarios.add(new ForkPoint.Scenario("shock " + s, l -> {
+                List<Bar> future = new ArrayList<>();
+                for (Bar b : bars.subList(60, bars.size()))
+                    future.add(new Bar(b.timestamp(), b.open() * shock, b.high() * shock, b.low() * shock,
+                            b.close() * shock, b.volume()));
+                return exchange(future);
+            }, null));
+        }
+        List<BacktestOrchestrator> results = fork.runScenarios(scenarios, logger, 4);
+
+        // The unshocked branch matches a full run, the others differ from it
+        BacktestOrchestrator full = orchestrator(bars);
+        full.runBacktest();
+        double expected = full.getPortfolios().get(0).getTotalValue();
+        assertEquals(expected, results.get(0).getPortfolios().get(0).getTotalValue(), 1e-9);
+        for (int s = 1; s < results.size(); s++)
+            assertNotEquals(expected, results.get(s).getPortfolios().get(0).getTotalValue(), 1e-9);
+
+        // Branches share the history prefix, but don't change the trunk
+        assertEquals(trunkSteps, trunk.getPortfolios().get(0).getHistory().size());
+        assertEquals(full.getPortfolios().get(0).getHistory().subList(0, trunkSteps),
+                results.get(3).getPortfolios().get(0).getHistory().subList(0, trunkSteps));
+    }
+}
@@ -0,0 +1,93 @@
+package app;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import app.GeneticOptimizer.Parameter;
+import engine.Bar;
+import engine.BarSeries;
+import io.Logger;
+import strategies.TopKMomentumStrategy;
+
+public class GeneticOptimizerTest {
+    private Logger logger;
+    private Map<String, BarSeries> data;
+
+    @Before
+    public void setUp() {
+        logger = new Logger(new ByteArrayOutputStream());
+        Random random = new Random(5);
+        data = new LinkedHashMap<>();
+        LocalDateTime start = LocalDateTime.of(2018, 1, 1, 0, 0);
+        for (int t = 0; t < 6; t++) {
+            List<Bar> bars = new ArrayList<>();
+            double close = 50;
+            double drift = 0.0005 * (t - 2);
+            for (int i = 0; i < 250; i++) {
+                close *= 1 + drift + random.nextGaussian() * 0.015;
+                bars.add(new Bar(start.plusDays(i), close, close, close, close, 1000));
+            }
+            data.put("T" + t, BarSeries.of(bars));
+        }
+    }
+
+    private GeneticOptimizer optimizer() {
+        GeneticOptimizer optimizer = new GeneticOptimizer(logger, data,
+                List.of(Parameter.integer("lookback", 5, 60), Parameter.integer("k", 1, 4),
+                        Parameter.integer("rebalance", 1, 20)),
+                params -> (p, l) -> new TopKMomentumStrategy(p, l, params.get("lookback").intValue(),
+                        params.get("k").intValue(), params.get("rebalance").intValue()),
+                10000.0);
+        optimizer.setPopulation(12, 2);
+        optimizer.setGenerations(6);
+        optimizer.setConstraint(params -> params.get("rebalance") <= params.get("lookback"));
+        return optimizer;
+    }
+
+    @Test
+    public void testSeededRunsAreRepeatable() {
+        GeneticOptimizer.Result a = optimizer().run(WalkForward.maximize("total_return"), 99, 1);
+        GeneticOptimizer.Result b = optimizer().run(WalkForward.maximize("total_return"), 99, 3);
+        assertEquals(a.best(), b.best());
+        assertArrayEquals(a.bestByGen(), b.bestByGen(), 0.0);
+        assertEquals(a.evaluations(), b.evaluations());
+        assertTrue(a.best().get("rebalance") <= a.best().get("lookback"));
+        assertEquals(Math.rint(a.best().get("k")), a.best().get("k"), 0.0);
+    }
+
+    @Test
+    public void testFitnessNeverDropsAndCacheIsUsed() {
+        GeneticOptimizer optimizer = optimizer();
+        GeneticOptimizer.Result result = optimizer.run(WalkForward.maximize("sharpe"), 1, 2);
+        double[] best = result.bestByGen();
+        for (int g = 1; g < best.length; g++)
+            assertTrue(best[g] >= best[g - 1]);
+        // Elite vectors come back every generation
+        assertTrue(result.cacheHits() >= 2 * (result.generations() - 1));
+        assertTrue(result.evaluationsPerSecond() > 0);
+        assertEquals(result.generations() * 12, result.evaluations() + result.cacheHits());
+    }
+
+    @Test
+    public void testStopsOnConvergence() {
+        GeneticOptimizer optimizer = optimizer();
+        optimizer.setGenerations(100);
+        optimizer.setConvergence(2, 1e-12);
+        optimizer.setMutation(0.0, 0.0);
+        optimizer.setCrossoverRate(0.0);
+        GeneticOptimizer.Result result = optimizer.run(WalkForward.maximize("total_return"), 4, 2);
+        assertEquals(3, result.generations());
+    }
+}
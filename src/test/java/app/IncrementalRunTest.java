@@ -0,0 +1,195 @@
+package app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import accounts.BenchmarkTracker;
+import accounts.Portfolio;
+import engine.StockExchange;
+import io.Logger;
+import strategies.BuyAndHoldStrategy;
+import strategies.EMAStrategy;
+import strategies.IndicatorCache;
+
+public class IncrementalRunTest {
+    private Path dir;
+    private Path csvFile;
+    private Logger logger;
+    private ByteArrayOutputStream log;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("incremental");
+        csvFile = dir.resolve("aapl.csv");
+        log = new ByteArrayOutputStream();
+        logger = new Logger(log);
+        Files.writeString(csvFile, "Date,Open,High,Low,Close,Volume\n" + rows(0, 60));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private static String rows(int from, int to) {
+        StringBuilder sb = new StringBuilder();
+        LocalDate date = LocalDate.of(2020, 1, 1);
+        for (int i = from; i < to; i++) {
+            double close = 100 + 10 * Math.sin(i / 4.0);
+            sb.append(date.plusDays(i)).append(',').append(close).append(',').append(close + 1).append(',')
+                    .append(close - 1).append(',').append(close).append(",1000\n");
+        }
+        return sb.toString();
+    }
+
+    private BacktestOrchestrator orchestrator() throws IOException {
+        return orchestrator(Map.of());
+    }
+
+    private BacktestOrchestrator orchestrator(Map<String, Double> emaParams) throws IOException {
+        StockExchange exchange = new StockExchange(logger);
+        exchange.addStock("AAPL", csvFile.toString());
+        List<BacktestOrchestrator.StrategyConfig> configs = new ArrayList<>();
+        configs.add(new BacktestOrchestrator.StrategyConfig("EMA", emaParams, (p, l) -> new EMAStrategy(p, l)));
+        configs.add(new BacktestOrchestrator.StrategyConfig("Hold",
+                (p, l) -> new BuyAndHoldStrategy(p, l, "AAPL")));
+        return new BacktestOrchestrator(logger, exchange, configs, 1000.0);
+    }
+
+    @Test
+    public void testResumedRunMatchesFullRun() throws IOException {
+        Path checkpoints = dir.resolve("checkpoint");
+        orchestrator().runIncremental(checkpoints);
+
+        Files.writeString(csvFile, rows(60, 90), StandardOpenOption.APPEND);
+        BacktestOrchestrator resumed = orchestrator();
+        log.reset();
+        resumed.runIncremental(checkpoints);
+        assertTrue(log.toString().contains("Resumed from checkpoint"));
+
+        BacktestOrchestrator full = orchestrator();
+        full.runBacktest();
+
+        for (int i = 0; i < 2; i++) {
+            Portfolio expected = full.getPortfolios().get(i);
+            Portfolio actual = resumed.getPortfolios().get(i);
+            assertEquals(expected.getTotalValue(), actual.getTotalValue(), 1e-9);
+            assertEquals(expected.getCashReserve(), actual.getCashReserve(), 1e-9);
+            assertEquals(expected.getPositions(), actual.getPositions());
+            assertEquals(expected.getHistory(), actual.getHistory());
+        }
+    }
+
+    @Test
+    public void testChangedHistoryFallsBackToFullRun() throws IOException {
+        Path checkpoints = dir.resolve("checkpoint");
+        orchestrator().runIncremental(checkpoints);
+
+        // Rewrite the first rows, then append
+        Files.writeString(csvFile, "Date,Open,High,Low,Close,Volume\n" + rows(0, 90).replace("2020-01-02,", "2020-01-02,1"));
+        BacktestOrchestrator rerun = orchestrator();
+        log.reset();
+        rerun.runIncremental(checkpoints);
+        assertTrue(log.toString().contains("historical data of AAPL changed"));
+
+        BacktestOrchestrator full = orchestrator();
+        full.runBacktest();
+        assertEquals(full.getPortfolios().get(0).getHistory(), rerun.getPortfolios().get(0).getHistory());
+        assertEquals(89, rerun.getPortfolios().get(0).getHistory().size());
+    }
+
+    @Test
+    public void testIndicatorCacheIsUsedAfterResuming() throws IOException {
+        Path checkpoints = dir.resolve("checkpoint");
+        Path indicators = dir.resolve("indicators");
+        BacktestOrchestrator first = orchestrator();
+        first.setIndicatorCache(indicators);
+        first.runIncremental(checkpoints);
+
+        Files.writeString(csvFile, rows(60, 90), StandardOpenOption.APPEND);
+        BacktestOrchestrator resumed = orchestrator();
+        IndicatorCache cache = resumed.setIndicatorCache(indicators);
+        log.reset();
+        resumed.runIncremental(checkpoints);
+        assertTrue(log.toString().contains("Resumed from checkpoint"));
+        // The appended rows change the series, so its values are computed once
+        assertEquals(1, cache.getStats().misses());
+
+        BacktestOrchestrator full = orchestrator();
+        full.runBacktest();
+        assertEquals(full.getPortfolios().get(0).getHistory(), resumed.getPortfolios().get(0).getHistory());
+        assertEquals(full.getPortfolios().get(0).getTotalValue(), resumed.getPortfolios().get(0).getTotalValue(),
+                1e-9);
+    }
+
+    @Test
+    public void testRiskAndBenchmarkGoOnAfterResuming() throws IOException {
+        Path checkpoints = dir.resolve("checkpoint");
+        BacktestOrchestrator first = orchestrator();
+        first.setRiskMonitor(20, 0.95);
+        first.setBenchmark("AAPL");
+        first.runIncremental(checkpoints);
+
+        Files.writeString(csvFile, rows(60, 61), StandardOpenOption.APPEND);
+        BacktestOrchestrator resumed = orchestrator();
+        resumed.setRiskMonitor(20, 0.95);
+        resumed.setBenchmark("AAPL");
+        log.reset();
+        resumed.runIncremental(checkpoints);
+        assertTrue(log.toString().contains("Resumed from checkpoint"));
+
+        BacktestOrchestrator full = orchestrator();
+        full.setRiskMonitor(20, 0.95);
+        full.setBenchmark("AAPL");
+        full.runBacktest();
+
+        BenchmarkTracker expected = full.getBenchmarkTracker();
+        BenchmarkTracker actual = resumed.getBenchmarkTracker();
+        assertEquals(expected.getCumulative(0), actual.getCumulative(0));
+        assertEquals(expected.getRolling(0), actual.getRolling(0));
+        assertFalse(Double.isNaN(actual.getCumulative(0).beta()));
+        assertEquals(expected.getTimestamps().length, actual.getTimestamps().length);
+        assertEquals(full.getRiskMonitor().getVaR(0), resumed.getRiskMonitor().getVaR(0), 0.0);
+
+        // A different setup can't go on with the saved figures
+        BacktestOrchestrator changed = orchestrator();
+        changed.setRiskMonitor(30, 0.95);
+        log.reset();
+        changed.runIncremental(checkpoints);
+        assertTrue(log.toString().contains("different risk or benchmark setup"));
+    }
+
+    @Test
+    public void testChangedParamsFallBackToFullRun() throws IOException {
+        Path checkpoints = dir.resolve("checkpoint");
+        orchestrator(Map.of("fast", 12.0, "slow", 26.0)).runIncremental(checkpoints);
+
+        Files.writeString(csvFile, rows(60, 90), StandardOpenOption.APPEND);
+        log.reset();
+        orchestrator(Map.of("slow", 26.0, "fast", 12.0)).runIncremental(checkpoints);
+        assertTrue(log.toString().contains("Resumed from checkpoint"));
+
+        log.reset();
+        orchestrator(Map.of("fast", 10.0, "slow", 26.0)).runIncremental(checkpoints);
+        assertTrue(log.toString().contains("different strategy parameters"));
+    }
+}
@@ -0,0 +1,104 @@
+package app;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import accounts.Portfolio;
+import app.BacktestOrchestrator.StrategyConfig;
+import engine.Bar;
+import engine.BarSeries;
+import engine.StockExchange;
+import io.Logger;
+import strategies.BuyAndHoldStrategy;
+import strategies.EMAStrategy;
+
+public class WalkForwardTest {
+    private Logger logger;
+    private Map<String, BarSeries> data;
+    private final LocalDateTime start = LocalDateTime.of(2010, 1, 1, 0, 0);
+
+    @Before
+    public void setUp() {
+        logger = new Logger(new ByteArrayOutputStream());
+        Random random = new Random(3);
+        List<Bar> aapl = new ArrayList<>(), spy = new ArrayList<>();
+        double a = 100, s = 100;
+        for (int i = 0; i < 400; i++) {
+            a *= 1.002 + random.nextGaussian() * 0.01;
+            s *= 0.999 + random.nextGaussian() * 0.01;
+            aapl.add(new Bar(start.plusDays(i), a, a, a, a, 1000));
+            spy.add(new Bar(start.plusDays(i), s, s, s, s, 1000));
+        }
+        data = new LinkedHashMap<>();
+        data.put("AAPL", BarSeries.of(aapl));
+        data.put("SPY", BarSeries.of(spy));
+    }
+
+    @Test
+    public void testAnchoredSingleCandidateMatchesContinuousRun() {
+        List<StrategyConfig> configs = List.of(new StrategyConfig("EMA", EMAStrategy::new));
+        WalkForward.Result result = new WalkForward(logger, data, configs, 10000.0)
+                .run(WalkForward.Windows.anchored(100, 60), WalkForward.maximize("sharpe"), 3);
+        assertEquals(5, result.windows().size());
+        assertEquals(300, result.equity().length);
+        assertNull(result.windows().get(4).testTo());
+
+        // Retraining on the same config from the first bar gives the continuous run
+        StockExchange exchange = new StockExchange(logger);
+        data.forEach((ticker, series) -> exchange.addSource(ticker, series.source()));
+        Portfolio portfolio = new Portfolio(10000.0, logger);
+        exchange.addPortfolio(portfolio);
+        exchange.addStrategy(new EMAStrategy(portfolio, logger));
+        exchange.run();
+        List<Double> history = portfolio.getHistory();
+        for (int i = 0; i < 300; i++)
+            assertEquals(10000.0 * history.get(100 + i) / history.get(100), result.equity()[i], 1e-6);
+        assertEquals(BarSeries.toEpochSecond(start.plusDays(100)), result.timestamps()[0]);
+    }
+
+    @Test
+    public void testPicksBestCandidatePerWindow() {
+        List<StrategyConfig> configs = List.of(
+                new StrategyConfig("SPY", Map.of("ticker", 1.0), (p, l) -> new BuyAndHoldStrategy(p, l, "SPY")),
+                new StrategyConfig("AAPL", Map.of("ticker", 0.0), (p, l) -> new BuyAndHoldStrategy(p, l, "AAPL")));
+        WalkForward walkForward = new WalkForward(logger, data, configs, 10000.0);
+        WalkForward.Result result = walkForward.run(WalkForward.Windows.rolling(100, 100),
+                WalkForward.maximize("total_return"), 4);
+        assertEquals(3, result.windows().size());
+        for (WalkForward.WindowResult w : result.windows()) {
+            assertEquals("AAPL", w.label());
+            assertEquals(1, w.best());
+            assertEquals(0.0, w.params().get("ticker"), 0.0);
+        }
+        assertEquals(start.plusDays(100), result.windows().get(1).trainFrom());
+        assertEquals(start.plusDays(200), result.windows().get(1).testFrom());
+        assertTrue(result.metrics().get("total_return") > 0);
+
+        // The pick and the curve don't depend on the number of threads
+        WalkForward.Result single = walkForward.run(WalkForward.Windows.rolling(100, 100),
+                WalkForward.maximize("total_return"), 1);
+        assertArrayEquals(single.equity(), result.equity(), 0.0);
+    }
+
+    @Test
+    public void testTiesAndNaNs() {
+        assertTrue(WalkForward.better(1.0, 3, Double.NaN, 0));
+        assertTrue(WalkForward.better(1.0, 0, 1.0, 2));
+        assertTrue(!WalkForward.better(1.0, 2, 1.0, 0));
+        assertTrue(!WalkForward.better(Double.NaN, 0, -5.0, 1));
+        assertEquals(400, WalkForward.timeline(data).length);
+    }
+}
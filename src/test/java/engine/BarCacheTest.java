@@ -0,0 +1,143 @@
+package engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.Logger;
+
+public class BarCacheTest {
+    private Path a;
+    private Path b;
+
+    @Before
+    public void setUp() throws IOException {
+        a = Files.createTempFile("cache-a", ".csv");
+        b = Files.createTempFile("cache-b", ".csv");
+        write(a, 100);
+        write(b, 100);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(a);
+        Files.deleteIfExists(b);
+        Files.deleteIfExists(Path.of(a + ".idx"));
+    }
+
+    private static void write(Path file, int rows) throws IOException {
+        StringBuilder csv = new StringBuilder("Date,Open,High,Low,Close,Volume\n");
+        for (int i = 0; i < rows; i++)
+            csv.append(LocalDate.of(2020, 1, 1).plusDays(i)).append(",1,1,1,").append(i + 1).append(",10\n");
+        Files.writeString(file, csv);
+    }
+
+    @Test
+    public void testHitsMissesAndRanges() throws IOException {
+        BarCache cache = new BarCache(1 << 20);
+        BarSeries first = cache.get(a.toString());
+        assertSame(first, cache.get(a.toString()));
+        BarSeries range = cache.get(a.toString(), LocalDate.of(2020, 1, 11).atStartOfDay(),
+                LocalDate.of(2020, 1, 21).atStartOfDay());
+        assertEquals(10, range.size());
+        assertEquals(11.0, range.close()[0], 0.0);
+
+        BarCache.Stats stats = cache.getStats();
+        assertEquals(1, stats.hits());
+        assertEquals(2, stats.misses());
+        assertEquals(2, stats.entries());
+        assertEquals(110 * BarCache.BAR_BYTES, stats.bytes());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws IOException {
+        // Room for two series of 100 bars
+        BarCache cache = new BarCache(200 * BarCache.BAR_BYTES);
+        BarSeries seriesA = cache.get(a.toString());
+        cache.get(b.toString());
+        cache.get(a.toString());
+        cache.get(a.toString(), null, LocalDate.of(2020, 2, 1).atStartOfDay());
+        // b was used least recently, so it went
+        assertEquals(1, cache.getStats().evictions());
+        assertSame(seriesA, cache.get(a.toString()));
+        cache.get(b.toString());
+        assertEquals(4, cache.getStats().misses());
+
+        cache.setBudget(100 * BarCache.BAR_BYTES);
+        assertEquals(1, cache.getStats().entries());
+        cache.setBudget(0);
+        assertEquals(0, cache.getStats().bytes());
+    }
+
+    @Test
+    public void testChangedFileIsLoadedAgain() throws IOException {
+        BarCache cache = new BarCache(1 << 20);
+        BarSeries before = cache.get(a.toString());
+        write(a, 150);
+        BarSeries after = cache.get(a.toString());
+        assertNotSame(before, after);
+        assertEquals(150, after.size());
+        // The old version was dropped
+        assertEquals(1, cache.getStats().entries());
+
+        cache.invalidate(a.toString());
+        assertEquals(0, cache.getStats().entries());
+    }
+
+    @Test
+    public void testConcurrentLoadsShareOne() throws Exception {
+        BarCache cache = new BarCache(1 << 20);
+        int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<BarSeries>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++)
+            results.add(pool.submit(() -> {
+                start.await();
+                return cache.get(a.toString());
+            }));
+        start.countDown();
+        BarSeries loaded = results.get(0).get();
+        for (Future<BarSeries> f : results)
+            assertSame(loaded, f.get());
+        pool.shutdown();
+        assertEquals(1, cache.getStats().misses());
+        assertEquals(threads - 1, cache.getStats().hits());
+    }
+
+    @Test
+    public void testCachedStockMatchesAddStock() throws IOException {
+        List<Double> parsed = closes(false);
+        List<Double> cached = closes(true);
+        assertEquals(99, parsed.size());
+        assertEquals(parsed, cached);
+    }
+
+    private List<Double> closes(boolean cached) throws IOException {
+        StockExchange exchange = new StockExchange(new Logger(new ByteArrayOutputStream()));
+        if (cached)
+            exchange.addCachedStock("A", a.toString());
+        else
+            exchange.addStock("A", a.toString());
+        List<Double> closes = new ArrayList<>();
+        exchange.addBarListener(bars -> closes.add(bars.get("A").close()));
+        exchange.run();
+        return closes;
+    }
+}
@@ -0,0 +1,120 @@
+package engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.Logger;
+
+public class LazyUniverseTest {
+    private static final LocalDate START = LocalDate.of(2010, 1, 1);
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("universe");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : files.sorted(Comparator.reverseOrder()).toList())
+                Files.deleteIfExists(p);
+        }
+    }
+
+    /**
+     * Writes a file with a bar on every day from first, inclusive, to last,
+     * exclusive, with the day number as the close
+     */
+    private void write(String name, int first, int last) throws IOException {
+        StringBuilder csv = new StringBuilder("Date,Open,High,Low,Close,Volume\n");
+        for (int day = first; day < last; day++) {
+            double close = day + 1;
+            csv.append(START.plusDays(day)).append(',').append(close).append(',').append(close).append(',')
+                    .append(close).append(',').append(close).append(",100\n");
+        }
+        Files.writeString(dir.resolve(name), csv);
+    }
+
+    @Test
+    public void testTickersStartLateAndStayAligned() throws IOException {
+        // Ten tickers starting 100 days apart, each running for 600 days
+        for (int t = 0; t < 10; t++)
+            write("t" + t + ".csv", t * 100, t * 100 + 600);
+        Files.writeString(dir.resolve("empty.csv"), "Date,Open,High,Low,Close,Volume\n");
+        Files.writeString(dir.resolve("notes.txt"), "not data");
+
+        StockExchange exchange = new StockExchange(new Logger(new ByteArrayOutputStream()));
+        Map<String, Integer> counts = new HashMap<>();
+        List<Integer> sizes = new ArrayList<>();
+        exchange.addBarListener(bars -> {
+            sizes.add(bars.size());
+            for (Map.Entry<String, Bar> e : bars.entrySet()) {
+                counts.merge(e.getKey(), 1, Integer::sum);
+                // The close is the day number, so every bar is on its own day
+                LocalDateTime expected = START.plusDays((long) e.getValue().close() - 1).atStartOfDay();
+                assertEquals(expected, e.getValue().timestamp());
+            }
+        });
+        try (LazyUniverse universe = LazyUniverse.scan(dir, 3, 2)) {
+            assertEquals(10, universe.entries().size());
+            assertEquals("T0", universe.entries().get(0).ticker());
+            assertEquals(START.plusDays(900).atStartOfDay(), universe.entries().get(9).first());
+            assertEquals(0, universe.getOpenCount());
+
+            exchange.addUniverse(universe);
+            exchange.run();
+
+            assertEquals(1500, sizes.size());
+            for (int t = 0; t < 10; t++)
+                assertEquals(600, (int) counts.get("T" + t));
+            // Up to six tickers trade at once, but at most three files were open
+            assertEquals(6, (int) sizes.stream().max(Integer::compare).get());
+            assertTrue(universe.getMaxOpenFiles() <= 3);
+            assertTrue(universe.getOpenCount() > 10);
+            assertEquals(0, universe.getOpenFiles());
+        }
+    }
+
+    @Test
+    public void testForwardFillAcrossGaps() throws IOException {
+        write("a.csv", 0, 10);
+        StringBuilder gappy = new StringBuilder("Date,Open,High,Low,Close,Volume\n");
+        for (int day : new int[] { 2, 3, 6, 7 })
+            gappy.append(START.plusDays(day)).append(",1,1,1,").append(day + 1).append(",1\n");
+        Files.writeString(dir.resolve("b.csv"), gappy);
+
+        StockExchange exchange = new StockExchange(new Logger(new ByteArrayOutputStream()));
+        exchange.setMissingBars(TradingCalendar.MissingBars.FORWARD_FILL);
+        List<Bar> seen = new ArrayList<>();
+        exchange.addBarListener(bars -> seen.add(bars.get("B")));
+        try (LazyUniverse universe = LazyUniverse.scan(dir, 1, 0)) {
+            exchange.addUniverse(universe);
+            exchange.run();
+        }
+        assertEquals(10, seen.size());
+        assertEquals(null, seen.get(1));
+        assertEquals(4.0, seen.get(4).close(), 0.0);
+        assertEquals(START.plusDays(4).atStartOfDay(), seen.get(4).timestamp());
+        assertEquals(8.0, seen.get(7).close(), 0.0);
+        // B's file has ended, so it's no longer filled
+        assertEquals(null, seen.get(8));
+    }
+}
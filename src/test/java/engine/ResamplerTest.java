@@ -0,0 +1,119 @@
+package engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayOutputStream;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import accounts.Order;
+import accounts.Portfolio;
+import io.Logger;
+import resources.enums.OrderType;
+
+public class ResamplerTest {
+    private Logger logger;
+    private List<Bar> daily;
+
+    @Before
+    public void setUp() {
+        logger = new Logger(new ByteArrayOutputStream());
+        // Weekdays from Tuesday 2024-01-02 to Wednesday 2024-01-17
+        daily = new ArrayList<>();
+        LocalDateTime day = LocalDateTime.of(2024, 1, 2, 0, 0);
+        for (int i = 0; daily.size() < 12; i++, day = day.plusDays(1)) {
+            if (day.getDayOfWeek().getValue() > 5)
+                continue;
+            double close = 100 + i;
+            daily.add(new Bar(day, close - 0.5, close + 2, close - 3, close, 10 + i));
+        }
+    }
+
+    @Test
+    public void testTimeframeBuckets() {
+        Timeframe fiveMinutes = Timeframe.minutes(5);
+        LocalDateTime t = LocalDateTime.of(2024, 3, 15, 9, 33, 20);
+        assertEquals(LocalDateTime.of(2024, 3, 15, 9, 30), fiveMinutes.start(fiveMinutes.bucket(t)));
+        assertEquals(LocalDateTime.of(2024, 3, 15, 9, 0), Timeframe.hours(1).start(Timeframe.hours(1).bucket(t)));
+        assertEquals(LocalDateTime.of(2024, 3, 15, 0, 0), Timeframe.DAILY.start(Timeframe.DAILY.bucket(t)));
+        assertEquals(LocalDateTime.of(2024, 3, 11, 0, 0), Timeframe.WEEKLY.start(Timeframe.WEEKLY.bucket(t)));
+        assertEquals(LocalDateTime.of(2024, 3, 1, 0, 0), Timeframe.MONTHLY.start(Timeframe.MONTHLY.bucket(t)));
+        assertEquals(LocalDateTime.of(2024, 1, 1, 0, 0), Timeframe.months(3).start(Timeframe.months(3).bucket(t)));
+        // Sunday belongs to the week that started on Monday
+        assertEquals(Timeframe.WEEKLY.bucket(LocalDateTime.of(2024, 3, 11, 0, 0)),
+                Timeframe.WEEKLY.bucket(LocalDateTime.of(2024, 3, 17, 23, 59)));
+        assertEquals(LocalDateTime.of(1969, 12, 29, 0, 0),
+                Timeframe.WEEKLY.start(Timeframe.WEEKLY.bucket(LocalDateTime.of(1970, 1, 1, 0, 0))));
+    }
+
+    @Test
+    public void testWeeklyBarsFromDaily() {
+        StockExchange exchange = new StockExchange(logger);
+        exchange.addSource("AAPL", new ListBarSource(daily));
+        List<Bar> weekly = new ArrayList<>();
+        List<Integer> sentAt = new ArrayList<>();
+        List<LocalDateTime> seen = new ArrayList<>();
+        exchange.addBarListener(bars -> seen.add(bars.get("AAPL").timestamp()));
+        exchange.addBarListener(bars -> {
+            weekly.add(bars.get("AAPL"));
+            sentAt.add(seen.size());
+        }, Timeframe.WEEKLY);
+        exchange.run();
+
+        // Partial first week, full second week and partial last week
+        assertEquals(3, weekly.size());
+        List<Bar> week = daily.subList(4, 9);
+        Bar expected = new Bar(LocalDateTime.of(2024, 1, 8, 0, 0), week.get(0).open(),
+                week.stream().mapToDouble(Bar::high).max().getAsDouble(),
+                week.stream().mapToDouble(Bar::low).min().getAsDouble(), week.get(4).close(),
+                week.stream().mapToDouble(Bar::volume).sum());
+        assertEquals(expected, weekly.get(1));
+        assertEquals(LocalDateTime.of(2024, 1, 1, 0, 0), weekly.get(0).timestamp());
+        assertEquals(daily.get(3).close(), weekly.get(0).close(), 0.0);
+        assertEquals(daily.get(11).close(), weekly.get(2).close(), 0.0);
+
+        // A week is sent before its following bar reaches the daily listeners
+        assertEquals(List.of(4, 9, 12), sentAt);
+        assertEquals(daily.size(), seen.size());
+    }
+
+    @Test
+    public void testListenersShareOneAggregation() {
+        StockExchange exchange = new StockExchange(logger);
+        exchange.addSource("AAPL", new ListBarSource(daily));
+        exchange.addSource("MSFT", new ListBarSource(daily));
+        List<Bar> first = new ArrayList<>();
+        List<Bar> second = new ArrayList<>();
+        List<Bar> monthly = new ArrayList<>();
+        exchange.addBarListener(bars -> first.add(bars.get("MSFT")), Timeframe.WEEKLY);
+        exchange.addBarListener(bars -> second.add(bars.get("MSFT")), Timeframe.weeks(1));
+        exchange.addBarListener(bars -> monthly.add(bars.get("AAPL")), Timeframe.MONTHLY);
+        exchange.run();
+        assertEquals(3, first.size());
+        for (int i = 0; i < first.size(); i++)
+            assertSame(first.get(i), second.get(i));
+        assertEquals(1, monthly.size());
+        assertEquals(daily.stream().mapToDouble(Bar::volume).sum(), monthly.get(0).volume(), 0.0);
+    }
+
+    @Test
+    public void testWeeklyOrderFillsAtWeekClose() {
+        StockExchange exchange = new StockExchange(logger);
+        exchange.addSource("AAPL", new ListBarSource(daily));
+        Portfolio portfolio = new Portfolio(10000.0, logger);
+        exchange.addPortfolio(portfolio);
+        exchange.addBarListener(bars -> {
+            if (portfolio.getFills().isEmpty() && portfolio.getPendingOrders().isEmpty())
+                portfolio.placeOrder(new Order("AAPL", OrderType.BUY, 10));
+        }, Timeframe.WEEKLY);
+        exchange.run();
+        assertEquals(1, portfolio.getFills().size());
+        assertEquals(daily.get(3).close(), portfolio.getFills().get(0).price(), 0.0);
+        assertEquals(daily.get(4).timestamp(), portfolio.getFills().get(0).timestamp());
+    }
+}
@@ -3,13 +3,18 @@ package engine;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import org.junit.Before;
 import org.junit.Test;
 
 import accounts.Portfolio;
+import io.BarFileIndex;
 import io.Logger;
 
 public class StockExchangeTest {
@@ -51,4 +56,15 @@ public class StockExchangeTest {
         // After enough steps, step() should return false
         assertFalse(anyLeft);
     }
+
+    @Test
+    public void testAddStockWithDateRange() throws IOException {
+        StockExchange ranged = new StockExchange(logger);
+        ranged.addStock("AAPL", csvFile.toString(), LocalDateTime.of(2021, 1, 2, 0, 0), null);
+        List<Double> closes = new ArrayList<>();
+        ranged.addBarListener(bars -> closes.add(bars.get("AAPL").close()));
+        ranged.run();
+        assertEquals(List.of(106.0), closes);
+        Files.deleteIfExists(BarFileIndex.indexPath(csvFile));
+    }
 }
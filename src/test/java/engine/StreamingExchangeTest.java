@@ -0,0 +1,126 @@
+package engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import accounts.BarListener;
+import io.Logger;
+
+public class StreamingExchangeTest {
+    private static final List<String> TICKERS = List.of("AAPL", "MSFT", "SPY");
+    private static final LocalDateTime START = LocalDateTime.of(2020, 1, 1, 0, 0);
+
+    private static class Recorder implements BarListener {
+        final List<Map<String, Bar>> snapshots = new ArrayList<>();
+
+        @Override
+        public void acceptBars(Map<String, Bar> barMap) {
+            snapshots.add(Map.copyOf(barMap));
+        }
+    }
+
+    private static Bar bar(int day, double close) {
+        return new Bar(START.plusDays(day), close, close, close, close, 100);
+    }
+
+    @Test
+    public void testOutOfOrderBarsFormCompleteSnapshots() throws Exception {
+        Logger logger = new Logger(new ByteArrayOutputStream());
+        StreamingExchange exchange = new StreamingExchange(logger, Duration.ofDays(2), 4);
+        Recorder recorder = new Recorder();
+        exchange.addBarListener(recorder);
+
+        Thread producer = new Thread(() -> {
+            try {
+                Random random = new Random(1);
+                // Bars of two days at a time arrive shuffled
+                for (int day = 0; day < 50; day += 2) {
+                    List<String[]> batch = new ArrayList<>();
+                    for (int d = day; d < day + 2; d++)
+                        for (String t : TICKERS)
+                            batch.add(new String[] { t, Integer.toString(d) });
+                    Collections.shuffle(batch, random);
+                    for (String[] b : batch)
+                        exchange.publish(b[0], bar(Integer.parseInt(b[1]), 10 + Integer.parseInt(b[1])));
+                }
+                exchange.publish("AAPL", bar(3, 1));
+                exchange.endOfStream();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+        exchange.run();
+        producer.join();
+
+        assertEquals(50, recorder.snapshots.size());
+        for (int day = 0; day < 50; day++) {
+            Map<String, Bar> snapshot = recorder.snapshots.get(day);
+            assertEquals(3, snapshot.size());
+            for (Bar b : snapshot.values())
+                assertEquals(START.plusDays(day), b.timestamp());
+        }
+        assertEquals(1, exchange.getLateBars());
+        assertEquals(150, exchange.getLatency().getCount());
+        assertTrue(exchange.getLatency().percentile(0.5) <= exchange.getLatency().getMax());
+    }
+
+    @Test
+    public void testExpectedTickersAndSocketFeed() throws Exception {
+        Logger logger = new Logger(new ByteArrayOutputStream());
+        StreamingExchange exchange = new StreamingExchange(logger, Duration.ofDays(5), 16);
+        exchange.expectTickers(TICKERS);
+        Recorder recorder = new Recorder();
+        exchange.addBarListener(recorder);
+
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Thread sender = new Thread(() -> {
+                try (Socket client = server.accept(); PrintWriter out = new PrintWriter(client.getOutputStream())) {
+                    for (int day = 0; day < 20; day++)
+                        for (String t : TICKERS)
+                            out.println(t + "," + START.plusDays(day).toLocalDate() + ",1,1,1," + (day + 1) + ",10");
+                    out.println("garbage");
+                    out.println("SPY," + START.plusDays(20).toLocalDate() + ",1,1,1,0,10");
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            sender.start();
+            exchange.readFrom(new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort()));
+            exchange.run();
+            sender.join();
+        }
+
+        // The zero close bar is sent nowhere, like in the StockExchange
+        assertEquals(20, recorder.snapshots.size());
+        assertEquals(20.0, recorder.snapshots.get(19).get("MSFT").close(), 0.0);
+        assertEquals(START.plusDays(20), exchange.getLastTimestamp());
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100000; i++)
+            histogram.record(i * 1000L);
+        assertEquals(100000, histogram.getCount());
+        assertEquals(50_000_000, histogram.percentile(0.5), 50_000_000 * 0.07);
+        assertEquals(99_000_000, histogram.percentile(0.99), 99_000_000 * 0.07);
+        assertEquals(100_000_000, histogram.getMax());
+        assertEquals(100_000_000, histogram.percentile(1.0));
+    }
+}
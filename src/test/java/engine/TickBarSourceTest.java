@@ -0,0 +1,127 @@
+package engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.Logger;
+import io.TickReader;
+
+public class TickBarSourceTest {
+    private Path ticks;
+    private Path bars;
+
+    @Before
+    public void setUp() throws IOException {
+        ticks = Files.createTempFile("ticks", ".csv");
+        bars = Files.createTempFile("bars", ".csv");
+        Files.writeString(ticks, "Timestamp,Price,Size\n"
+                + "2021-03-01 09:30:00.100Z,10.0,100\n"
+                + "2021-03-01 09:30:30Z,10.5,50\n"
+                + "2021-03-01 09:30:59.999Z,9.5,100\n"
+                + "2021-03-01 09:31:00Z,9.0,300\n"
+                + "2021-03-01 09:33:10Z,11.0,100\n"
+                + "2021-03-01 09:33:20Z,12.0,100\n");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(ticks);
+        Files.deleteIfExists(bars);
+    }
+
+    private List<Bar> read(BarAggregator aggregator) throws IOException {
+        List<Bar> result = new ArrayList<>();
+        try (TickBarSource source = new TickBarSource(TickReader.open(ticks), aggregator)) {
+            while (source.goToNext())
+                result.add(source.getBar());
+            assertFalse(source.goToNext());
+        }
+        return result;
+    }
+
+    @Test
+    public void testTimeBars() throws IOException {
+        List<Bar> result = read(BarAggregator.time(Duration.ofMinutes(1)));
+        LocalDateTime t = LocalDateTime.of(2021, 3, 1, 9, 30);
+        assertEquals(3, result.size());
+        assertEquals(new Bar(t, 10.0, 10.5, 9.5, 9.5, 250), result.get(0));
+        assertEquals(new Bar(t.plusMinutes(1), 9.0, 9.0, 9.0, 9.0, 300), result.get(1));
+        assertEquals(new Bar(t.plusMinutes(3), 11.0, 12.0, 11.0, 12.0, 200), result.get(2));
+    }
+
+    @Test
+    public void testVolumeAndDollarBars() throws IOException {
+        List<Bar> volume = read(BarAggregator.volume(250));
+        LocalDateTime t = LocalDateTime.of(2021, 3, 1, 9, 30);
+        assertEquals(3, volume.size());
+        assertEquals(new Bar(t.plusNanos(100_000_000), 10.0, 10.5, 9.5, 9.5, 250), volume.get(0));
+        assertEquals(new Bar(t.plusMinutes(1), 9.0, 9.0, 9.0, 9.0, 300), volume.get(1));
+        // The last bar is below the threshold, and is completed at the end
+        assertEquals(200, volume.get(2).volume(), 0.0);
+
+        List<Bar> dollar = read(BarAggregator.dollar(3000));
+        assertEquals(2, dollar.size());
+        assertEquals(550, dollar.get(0).volume(), 0.0);
+        assertEquals(9.0, dollar.get(0).close(), 0.0);
+        assertEquals(200, dollar.get(1).volume(), 0.0);
+    }
+
+    @Test
+    public void testFeedsExchangeAndPersists() throws IOException {
+        StockExchange exchange = new StockExchange(new Logger(new ByteArrayOutputStream()));
+        exchange.addSource("AAPL",
+                new TickBarSource(TickReader.open(ticks), BarAggregator.time(Duration.ofMinutes(1))).persistTo(bars));
+        List<Double> closes = new ArrayList<>();
+        exchange.addBarListener(map -> closes.add(map.get("AAPL").close()));
+        exchange.run();
+        assertEquals(List.of(9.5, 9.0, 12.0), closes);
+
+        BarSeries series = BarSeries.load(bars.toString());
+        assertEquals(3, series.size());
+        assertEquals(LocalDateTime.of(2021, 3, 1, 9, 33), series.timestamp(2));
+        assertEquals(9.5, series.low()[0], 0.0);
+        assertTrue(Files.readString(bars).contains("2021-03-01 09:31:00Z,9.0"));
+    }
+
+    @Test
+    public void testBarFileIsClosedWhenTheReaderFailsToClose() throws IOException {
+        InputStream in = new FilterInputStream(Files.newInputStream(ticks)) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                throw new IOException("close failed");
+            }
+        };
+        TickBarSource source = new TickBarSource(new TickReader(Channels.newChannel(in)),
+                BarAggregator.time(Duration.ofMinutes(1))).persistTo(bars);
+        while (source.goToNext())
+            ;
+        try {
+            source.close();
+            fail("The failed close wasn't reported");
+        } catch (UncheckedIOException e) {
+            assertEquals("close failed", e.getCause().getMessage());
+        }
+        // Flushed and closed all the same
+        assertEquals(4, Files.readAllLines(bars).size());
+    }
+}
@@ -0,0 +1,186 @@
+package engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import io.Logger;
+
+public class TradingCalendarTest {
+    private static final LocalDateTime START = LocalDateTime.of(2021, 1, 4, 0, 0);
+
+    /**
+     * Bars on the given days after START, with a close of zero on the invalid
+     * ones
+     */
+    private static List<Bar> bars(int[] days, int... invalid) {
+        List<Bar> bars = new ArrayList<>();
+        for (int day : days) {
+            double close = 100 + day;
+            for (int bad : invalid)
+                if (bad == day)
+                    close = 0;
+            bars.add(new Bar(START.plusDays(day), close, close, close, close, 1000));
+        }
+        return bars;
+    }
+
+    private static Map<String, List<Bar>> universe() {
+        Map<String, List<Bar>> data = new LinkedHashMap<>();
+        // AAA trades every day, BBB has a holiday on day 2 and a bad close on day 5,
+        // CCC only starts on day 3 and ends on day 6
+        data.put("AAA", bars(new int[] { 0, 1, 2, 3, 4, 5, 6, 7 }));
+        data.put("BBB", bars(new int[] { 0, 1, 3, 4, 5, 6, 7 }, 5));
+        data.put("CCC", bars(new int[] { 3, 4, 6 }));
+        return data;
+    }
+
+    private static TradingCalendar calendar(Map<String, List<Bar>> data) {
+        Map<String, BarSeries> series = new LinkedHashMap<>();
+        data.forEach((ticker, bars) -> series.put(ticker, BarSeries.of(bars)));
+        return TradingCalendar.of(series);
+    }
+
+    @Test
+    public void testBitsAndReport() {
+        TradingCalendar calendar = calendar(universe());
+        assertEquals(8, calendar.sessionCount());
+        assertTrue(calendar.traded("AAA", 2));
+        assertFalse(calendar.traded("BBB", 2));
+        assertFalse(calendar.traded("BBB", 5));
+        assertTrue(calendar.traded("BBB", START.plusDays(6)));
+        assertFalse(calendar.traded("CCC", START.plusDays(1)));
+        assertFalse(calendar.traded("ZZZ", 0));
+        assertEquals(-1, calendar.sessionIndex(START.plusHours(1)));
+        assertEquals(3, calendar.firstSession(calendar.getTickers().find("CCC")));
+
+        TradingCalendar.AlignmentReport report = calendar.getReport();
+        assertEquals(8, report.sessions());
+        // Days 2 and 5 are incomplete: BBB misses both, CCC misses 5
+        assertEquals(6, report.completeSessions());
+        TradingCalendar.Coverage bbb = report.tickers().get(1);
+        assertEquals(6, bbb.traded());
+        assertEquals(2, bbb.missing());
+        assertEquals(1, bbb.invalid());
+        assertEquals(1, bbb.longestGap());
+        TradingCalendar.Coverage ccc = report.tickers().get(2);
+        assertEquals(START.plusDays(6), ccc.last());
+        assertEquals(1, ccc.missing());
+        assertEquals(4, report.lines().size());
+    }
+
+    @Test
+    public void testLongGapsAcrossWords() {
+        Map<String, BarSeries> series = new LinkedHashMap<>();
+        int[] all = new int[200];
+        int[] gappy = new int[200 - 70];
+        for (int i = 0; i < 200; i++)
+            all[i] = i;
+        for (int i = 0, j = 0; i < 200; i++)
+            if (i < 50 || i >= 120)
+                gappy[j++] = i;
+        series.put("AAA", BarSeries.of(bars(all)));
+        series.put("BBB", BarSeries.of(bars(gappy)));
+        TradingCalendar.AlignmentReport report = TradingCalendar.of(series).getReport();
+        assertEquals(70, report.tickers().get(1).longestGap());
+        assertEquals(130, report.completeSessions());
+    }
+
+    /**
+     * Runs the universe on an exchange with the calendar and returns the bars
+     * each session sent
+     */
+    private static List<Map<String, Bar>> run(TradingCalendar.MissingBars policy) {
+        Map<String, List<Bar>> data = universe();
+        StockExchange exchange = new StockExchange(new Logger(new ByteArrayOutputStream()));
+        data.forEach((ticker, bars) -> exchange.addSource(ticker, new ListBarSource(bars)));
+        exchange.setCalendar(calendar(data), policy);
+        List<Map<String, Bar>> sent = new ArrayList<>();
+        exchange.addBarListener(bars -> sent.add(Map.copyOf(bars)));
+        exchange.run();
+        return sent;
+    }
+
+    @Test
+    public void testExchangeKeepsTickersAligned() {
+        List<Map<String, Bar>> sent = run(TradingCalendar.MissingBars.EXCLUDE);
+        assertEquals(8, sent.size());
+        for (int day = 0; day < 8; day++)
+            for (Bar bar : sent.get(day).values())
+                assertEquals(START.plusDays(day), bar.timestamp());
+        assertNull(sent.get(2).get("BBB"));
+        assertNull(sent.get(5).get("BBB"));
+        assertNull(sent.get(5).get("CCC"));
+        assertEquals(103.0, sent.get(3).get("BBB").close(), 0.0);
+        assertEquals(2, sent.get(7).size());
+    }
+
+    @Test
+    public void testForwardFillWithinEachTickersSpan() {
+        List<Map<String, Bar>> sent = run(TradingCalendar.MissingBars.FORWARD_FILL);
+        Bar filled = sent.get(2).get("BBB");
+        assertEquals(START.plusDays(2), filled.timestamp());
+        assertEquals(101.0, filled.close(), 0.0);
+        assertEquals(0.0, filled.volume(), 0.0);
+        assertEquals(104.0, sent.get(5).get("BBB").close(), 0.0);
+        assertEquals(104.0, sent.get(5).get("CCC").close(), 0.0);
+        // Not before a ticker starts or after it ends
+        assertNull(sent.get(1).get("CCC"));
+        assertNull(sent.get(7).get("CCC"));
+    }
+
+    @Test
+    public void testLoadFromFiles() throws IOException {
+        Path a = Files.createTempFile("calendar", ".csv");
+        Path b = Files.createTempFile("calendar", ".csv");
+        try {
+            Files.writeString(a, "Date,Open,High,Low,Close,Volume\n2021-01-04,1,1,1,1,1\n2021-01-05,1,1,1,1,1\n"
+                    + "2021-01-06,1,1,1,1,1\n");
+            Files.writeString(b, "Date,Open,High,Low,Close,Volume\n2021-01-04,1,1,1,1,1\n2021-01-05,1,1,1,0,1\n"
+                    + "2021-01-06,1,1,1,abc,1\n2021-01-07,1,1,1,1,1\n");
+            Map<String, String> paths = new LinkedHashMap<>();
+            paths.put("A", a.toString());
+            paths.put("B", b.toString());
+            StockExchange exchange = new StockExchange(new Logger(new ByteArrayOutputStream()));
+            exchange.addStock("A", a.toString());
+            exchange.addStock("B", b.toString());
+            TradingCalendar calendar = exchange.useCalendar(TradingCalendar.MissingBars.EXCLUDE);
+            assertEquals(4, calendar.sessionCount());
+            assertFalse(calendar.traded("B", 1));
+            assertFalse(calendar.traded("B", 2));
+            assertTrue(calendar.traded("B", 3));
+            assertEquals(2, calendar.getReport().tickers().get(1).invalid());
+            assertEquals(calendar, exchange.getCalendar());
+
+            List<LocalDateTime> seen = new ArrayList<>();
+            exchange.addBarListener(bars -> seen.add(bars.values().iterator().next().timestamp()));
+            exchange.run();
+            // The first row of a file added with addStock is skipped, as without a
+            // calendar
+            assertEquals(List.of(LocalDateTime.of(2021, 1, 5, 0, 0), LocalDateTime.of(2021, 1, 6, 0, 0),
+                    LocalDateTime.of(2021, 1, 7, 0, 0)), seen);
+
+            // Rows with malformed timestamps only count as invalid
+            Files.writeString(a, "Date,Open,High,Low,Close,Volume\n2021-01-04,1,1,1,1,1\nnot a date,1,1,1,1,1\n");
+            TradingCalendar loaded = TradingCalendar.load(paths);
+            assertEquals(4, loaded.sessionCount());
+            assertEquals(1, loaded.getReport().tickers().get(0).invalid());
+        } finally {
+            Files.deleteIfExists(a);
+            Files.deleteIfExists(b);
+        }
+    }
+}
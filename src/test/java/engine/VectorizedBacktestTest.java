@@ -0,0 +1,124 @@
+package engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.BiFunction;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import accounts.Portfolio;
+import io.Logger;
+import strategies.EMAStrategy;
+import strategies.StopLossStrategy;
+import strategies.Strategy;
+import strategies.VectorizedStrategy;
+
+public class VectorizedBacktestTest {
+    private Logger logger;
+    private BarSeries series;
+
+    @Before
+    public void setUp() {
+        logger = new Logger(new ByteArrayOutputStream());
+        Random random = new Random(42);
+        List<Bar> bars = new ArrayList<>();
+        LocalDateTime start = LocalDateTime.of(2000, 1, 3, 0, 0);
+        double close = 50;
+        for (int i = 0; i < 2000; i++) {
+            close *= 1 + random.nextGaussian() * 0.02;
+            bars.add(new Bar(start.plusDays(i), close, close * 1.01, close * 0.99, close, 1000));
+        }
+        series = BarSeries.of(bars);
+    }
+
+    /**
+     * Runs the strategy through the event driven engine and checks that the
+     * vectorized run produces identical trades and values
+     */
+    private void assertSameAsEventEngine(BiFunction<Portfolio, Logger, Strategy> factory,
+            VectorizedStrategy vectorized) {
+        StockExchange exchange = new StockExchange(logger);
+        exchange.addSource("AAPL", series.source());
+        Portfolio portfolio = new Portfolio(10000.0, logger);
+        exchange.addPortfolio(portfolio);
+        exchange.addStrategy(factory.apply(portfolio, logger));
+        exchange.run();
+
+        VectorizedBacktest.Result result = VectorizedBacktest.run("AAPL", series, vectorized, 10000.0);
+        assertTrue(result.tradeCount() > 4);
+        assertEquals(portfolio.getFills(), result.fills());
+        assertEquals(portfolio.getHistory().size(), result.equity().length);
+        for (int i = 0; i < result.equity().length; i++)
+            assertEquals(portfolio.getHistory().get(i), result.equity()[i], 0.0);
+        assertEquals(portfolio.getCashReserve(), result.cash(), 0.0);
+        assertEquals(portfolio.getQuantity("AAPL"), result.position());
+        assertEquals(portfolio.getTotalValue(), result.finalValue(), 0.0);
+    }
+
+    @Test
+    public void testEMAMatchesEventEngine() {
+        assertSameAsEventEngine(EMAStrategy::new, EMAStrategy.vectorized());
+    }
+
+    @Test
+    public void testStopLossMatchesEventEngine() {
+        assertSameAsEventEngine(StopLossStrategy::new, StopLossStrategy.vectorized());
+    }
+
+    @Test
+    public void testLoadSkipsInvalidRows() throws IOException {
+        Path csv = Files.createTempFile("series", ".csv");
+        try {
+            Files.writeString(csv, "Date,Open,High,Low,Close,Volume\n2021-01-01,100,110,90,105,1000\n"
+                    + "2021-01-02,101,111,91,0,1100\n\n2021-01-03,101,111,91,abc,1100\n2021-01-04,1,2,1,2,3\n");
+            BarSeries loaded = BarSeries.load(csv.toString());
+            assertEquals(2, loaded.size());
+            assertEquals(105.0, loaded.close()[0], 0.0);
+            assertEquals(LocalDateTime.of(2021, 1, 4, 0, 0), loaded.timestamp(1));
+        } finally {
+            Files.deleteIfExists(csv);
+        }
+    }
+
+    @Test
+    public void testCsvFileMatchesEventEngine() throws IOException {
+        Path csv = Files.createTempFile("parity", ".csv");
+        try {
+            StringBuilder rows = new StringBuilder("Date,Open,High,Low,Close,Volume\n");
+            for (int i = 0; i < series.size(); i++)
+                rows.append(series.timestamp(i).toLocalDate()).append(',').append(series.open()[i]).append(',')
+                        .append(series.high()[i]).append(',').append(series.low()[i]).append(',')
+                        .append(series.close()[i]).append(',').append(series.volume()[i]).append('\n');
+            Files.writeString(csv, rows);
+
+            StockExchange exchange = new StockExchange(logger);
+            exchange.addStock("AAPL", csv.toString());
+            Portfolio portfolio = new Portfolio(10000.0, logger);
+            exchange.addPortfolio(portfolio);
+            exchange.addStrategy(new EMAStrategy(portfolio, logger));
+            exchange.run();
+
+            // addStock skips the first row, and so does loadAsExchange
+            BarSeries loaded = BarSeries.loadAsExchange(csv.toString());
+            assertEquals(series.size() - 1, loaded.size());
+            assertEquals(series.size(), BarSeries.load(csv.toString()).size());
+            VectorizedBacktest.Result result = VectorizedBacktest.run("AAPL", loaded, EMAStrategy.vectorized(),
+                    10000.0);
+            assertTrue(result.tradeCount() > 4);
+            assertEquals(portfolio.getFills(), result.fills());
+            assertEquals(portfolio.getTotalValue(), result.finalValue(), 0.0);
+        } finally {
+            Files.deleteIfExists(csv);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.ArrowFileWriter.Column;
+import io.ArrowFileWriter.Type;
+
+public class ArrowFileWriterTest {
+	private Path tempFile;
+
+	@Before
+	public void setUp() throws IOException {
+		tempFile = Files.createTempFile("test", ".arrow");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(tempFile);
+	}
+
+	private static int indexOf(byte[] data, byte[] pattern) {
+		for (int i = 0; i + pattern.length <= data.length; i++) {
+			if (Arrays.equals(data, i, i + pattern.length, pattern, 0, pattern.length))
+				return i;
+		}
+		return -1;
+	}
+
+	@Test
+	public void testFileLayout() throws IOException {
+		List<Column> columns = List.of(new Column("Timestamp", Type.TIMESTAMP), new Column("Ticker", Type.UTF8),
+				new Column("Value", Type.FLOAT64));
+		try (ArrowFileWriter out = new ArrowFileWriter(tempFile, columns, 4)) {
+			for (int i = 0; i < 10; i++) {
+				out.setTimestamp(0, LocalDateTime.of(2020, 1, 1, 0, 0).plusDays(i));
+				out.setString(1, "T" + i);
+				out.setDouble(2, i * 1.5);
+				out.endRow();
+			}
+		}
+		byte[] data = Files.readAllBytes(tempFile);
+		ByteBuffer bb = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+		byte[] magic = "ARROW1".getBytes(StandardCharsets.US_ASCII);
+
+		// Magic at both ends, and the schema message after the padded magic
+		assertArrayEquals(magic, Arrays.copyOf(data, 6));
+		assertArrayEquals(magic, Arrays.copyOfRange(data, data.length - 6, data.length));
+		assertEquals(-1, bb.getInt(8));
+		assertEquals(0, bb.getInt(12) % 8);
+
+		// The footer follows the end of stream marker
+		int footerLength = bb.getInt(data.length - 10);
+		int footerStart = data.length - 10 - footerLength;
+		assertEquals(-1, bb.getInt(footerStart - 8));
+		assertEquals(0, bb.getInt(footerStart - 4));
+
+		// Values of the second batch are stored contiguously, 8 byte aligned
+		ByteBuffer values = ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 4; i < 8; i++)
+			values.putDouble(i * 1.5);
+		int at = indexOf(data, values.array());
+		assertTrue(at > 0);
+		assertEquals(0, at % 8);
+		assertTrue(indexOf(data, "T8T9".getBytes(StandardCharsets.UTF_8)) > 0);
+	}
+
+	@Test
+	public void testEmptyTable() throws IOException {
+		new ArrowFileWriter(tempFile, List.of(new Column("Value", Type.FLOAT64))).close();
+		byte[] data = Files.readAllBytes(tempFile);
+		ByteBuffer bb = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+		// The end of stream marker follows the schema directly
+		int eos = 16 + bb.getInt(12);
+		assertEquals(-1, bb.getInt(eos));
+		assertEquals(0, bb.getInt(eos + 4));
+		assertArrayEquals("ARROW1".getBytes(StandardCharsets.US_ASCII),
+				Arrays.copyOfRange(data, data.length - 6, data.length));
+	}
+}
@@ -0,0 +1,110 @@
+package io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import engine.BarSeries;
+
+public class BarFileIndexTest {
+	private Path dir;
+	private Path csv;
+	private final LocalDate start = LocalDate.of(2000, 1, 1);
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("index");
+		csv = dir.resolve("data.csv");
+		StringBuilder rows = new StringBuilder("Date,Open,High,Low,Close,Volume\n");
+		for (int i = 0; i < 1000; i++) {
+			rows.append(start.plusDays(i)).append(',').append(i).append(',').append(i + 1).append(',')
+					.append(i).append(',').append(i + 1).append(",100\n");
+			if (i % 100 == 50)
+				rows.append('\n');
+		}
+		Files.writeString(csv, rows);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		try (var files = Files.list(dir)) {
+			for (Path p : files.toList())
+				Files.delete(p);
+		}
+		Files.delete(dir);
+	}
+
+	private List<Double> closes(CSVparser parser) {
+		List<Double> closes = new ArrayList<>();
+		while (parser.goToNext())
+			closes.add(parser.getBar().close());
+		return closes;
+	}
+
+	@Test
+	public void testRangeReadsOnlyTheRange() throws IOException {
+		LocalDateTime from = start.plusDays(300).atStartOfDay();
+		LocalDateTime to = start.plusDays(500).atStartOfDay();
+		try (CSVparser parser = CSVparser.range(csv.toString(), from, to)) {
+			List<Double> closes = closes(parser);
+			assertEquals(200, closes.size());
+			assertEquals(301.0, closes.get(0), 0.0);
+			assertEquals(500.0, closes.get(199), 0.0);
+			assertFalse(parser.goToNext());
+			parser.restart();
+			assertEquals(closes, closes(parser));
+		}
+		assertTrue(Files.exists(BarFileIndex.indexPath(csv)));
+
+		// The seek lands at most one stride before the range
+		BarFileIndex index = BarFileIndex.of(csv);
+		assertEquals(4, index.size());
+		long offset = index.offsetFor(from);
+		assertTrue(offset < Files.readString(csv).indexOf(start.plusDays(300).toString()));
+		assertTrue(offset > Files.readString(csv).indexOf(start.plusDays(300 - 2 * BarFileIndex.DEFAULT_STRIDE)
+				.toString()));
+
+		BarSeries series = BarSeries.load(csv.toString(), from, null);
+		assertEquals(700, series.size());
+		assertEquals(from, series.timestamp(0));
+		assertEquals(1000, BarSeries.load(csv.toString(), null, null).size());
+		assertEquals(0, BarSeries.load(csv.toString(), null, start.atStartOfDay()).size());
+	}
+
+	@Test
+	public void testIndexIsRebuiltWhenDataChanges() throws IOException {
+		BarFileIndex first = BarFileIndex.of(csv, 10);
+		assertEquals(100, first.size());
+		Files.writeString(csv, start.plusDays(1000) + ",1,2,1,2,3\n", StandardOpenOption.APPEND);
+		Files.setLastModifiedTime(csv, java.nio.file.attribute.FileTime.fromMillis(0));
+		BarFileIndex second = BarFileIndex.of(csv, 10);
+		assertEquals(101, second.size());
+		try (CSVparser parser = CSVparser.range(csv.toString(), start.plusDays(999).atStartOfDay(), null)) {
+			assertEquals(List.of(1000.0, 2.0), closes(parser));
+		}
+	}
+
+	@Test
+	public void testUnsortedFileIsFilteredNotCut() throws IOException {
+		Files.writeString(csv, "Date,Open,High,Low,Close,Volume\n2020-01-03,1,1,1,3,1\n2020-01-01,1,1,1,1,1\n"
+				+ "2020-01-02,1,1,1,2,1\n2020-01-05,1,1,1,5,1\n2020-01-04,1,1,1,4,1\n");
+		assertFalse(BarFileIndex.of(csv, 1).isSorted());
+		try (CSVparser parser = CSVparser.range(csv.toString(), LocalDateTime.of(2020, 1, 2, 0, 0),
+				LocalDateTime.of(2020, 1, 5, 0, 0))) {
+			assertEquals(List.of(3.0, 2.0, 4.0), closes(parser));
+		}
+	}
+}
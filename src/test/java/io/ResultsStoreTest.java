@@ -0,0 +1,134 @@
+package io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ResultsStoreTest {
+	private Path dir;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("store");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.walk(dir)) {
+			files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+		}
+	}
+
+	private static double[] curve(int seed) {
+		Random random = new Random(seed);
+		double[] equity = new double[500];
+		double value = 1000;
+		for (int i = 0; i < equity.length; i++) {
+			value *= 1 + random.nextGaussian() * 0.01;
+			equity[i] = value;
+		}
+		return equity;
+	}
+
+	@Test
+	public void testParallelAppendsAndQuery() throws Exception {
+		try (ResultsStore store = ResultsStore.open(dir)) {
+			ExecutorService pool = Executors.newFixedThreadPool(8);
+			List<Future<ResultsStore.Run>> futures = new ArrayList<>();
+			for (int i = 0; i < 200; i++) {
+				int seed = i;
+				futures.add(pool.submit(() -> store.append("EMA", Map.of("ema_period", (double) (seed % 100)),
+						"hash", Map.of("sharpe", new Random(seed).nextGaussian()), curve(seed))));
+			}
+			for (Future<ResultsStore.Run> f : futures)
+				f.get();
+			pool.shutdown();
+		}
+
+		try (ResultsStore store = ResultsStore.open(dir)) {
+			List<ResultsStore.Run> runs = store.runs();
+			assertEquals(200, runs.size());
+			for (int i = 0; i < runs.size(); i++)
+				assertEquals(i, runs.get(i).id());
+
+			List<ResultsStore.Run> top = store.top(20, "sharpe", r -> r.param("ema_period") < 50);
+			List<ResultsStore.Run> expected = runs.stream().filter(r -> r.param("ema_period") < 50)
+					.sorted(Comparator.comparingDouble((ResultsStore.Run r) -> -r.metric("sharpe"))).limit(20)
+					.toList();
+			assertEquals(expected, top);
+
+			ResultsStore.Run run = top.get(0);
+			int seed = -1;
+			for (int s = 0; s < 200; s++) {
+				if (new Random(s).nextGaussian() == run.metric("sharpe"))
+					seed = s;
+			}
+			assertArrayEquals(curve(seed), store.equity(run), 0.0);
+		}
+	}
+
+	@Test
+	public void testTornRecordIsIgnored() throws IOException {
+		try (ResultsStore store = ResultsStore.open(dir)) {
+			store.append("A", Map.of(), "", Map.of("sharpe", 1.0), curve(1));
+		}
+		// A crash in the middle of writing the next record
+		Files.write(dir.resolve(ResultsStore.INDEX_FILE), new byte[] { 0, 0, 1, 0, 5, 5 }, StandardOpenOption.APPEND);
+
+		try (ResultsStore store = ResultsStore.open(dir)) {
+			assertEquals(1, store.runs().size());
+			store.append("B", Map.of(), "", Map.of("sharpe", 2.0), curve(2));
+		}
+		try (ResultsStore store = ResultsStore.open(dir)) {
+			assertEquals(2, store.runs().size());
+			assertEquals("B", store.top(1, "sharpe", r -> true).get(0).strategy());
+			assertArrayEquals(curve(1), store.equity(store.runs().get(0)), 0.0);
+		}
+	}
+
+	@Test
+	public void testNullDataHashIsRejected() throws IOException {
+		try (ResultsStore store = ResultsStore.open(dir)) {
+			try {
+				store.append("EMA", Map.of(), null, Map.of(), curve(1));
+				fail("Appended a run without a data hash");
+			} catch (IllegalArgumentException e) {
+				assertTrue(e.getMessage().contains("data hash"));
+			}
+			// Nothing was written, so the store still works
+			assertEquals(0, store.append("EMA", Map.of(), "", Map.of(), curve(1)).id());
+		}
+		try (ResultsStore store = ResultsStore.open(dir)) {
+			assertEquals("", store.runs().get(0).dataHash());
+		}
+	}
+
+	@Test
+	public void testCurveCompression() throws IOException {
+		double[] equity = new double[10000];
+		for (int i = 0; i < equity.length; i++)
+			equity[i] = 1000.0 + (i / 50) * 3.0;
+		byte[] compressed = ResultsStore.compress(equity);
+		assertTrue(compressed.length < equity.length * 8 / 10);
+		assertArrayEquals(equity, ResultsStore.decompress(compressed, equity.length), 0.0);
+	}
+}
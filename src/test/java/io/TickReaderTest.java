@@ -0,0 +1,94 @@
+package io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TickReaderTest {
+
+	private static long nanos(String instant) {
+		Instant i = Instant.parse(instant);
+		return i.getEpochSecond() * 1_000_000_000L + i.getNano();
+	}
+
+	private static long timestamp(String text) {
+		byte[] b = text.getBytes(StandardCharsets.US_ASCII);
+		return TickReader.parseTimestamp(b, 0, b.length);
+	}
+
+	@Test
+	public void testTimestampFormats() {
+		assertEquals(nanos("2020-01-02T09:30:00Z"), timestamp("2020-01-02 09:30:00"));
+		assertEquals(nanos("2020-01-02T09:30:00.123Z"), timestamp("2020-01-02T09:30:00.123Z"));
+		assertEquals(nanos("2020-01-02T08:30:00.000000001Z"), timestamp("2020-01-02 09:30:00.000000001+01:00"));
+		assertEquals(nanos("2020-01-02T14:30:00Z"), timestamp("2020-01-02 09:30:00-0500"));
+		assertEquals(nanos("1969-12-31T00:00:00Z"), timestamp("1969-12-31"));
+		assertEquals(nanos("2020-01-02T09:30:00Z"), timestamp("1577957400"));
+		assertEquals(nanos("2020-01-02T09:30:00.123Z"), timestamp("1577957400123"));
+		assertEquals(nanos("2020-01-02T09:30:00.123456Z"), timestamp("1577957400123456"));
+		assertEquals(nanos("2020-01-02T09:30:00.123456789Z"), timestamp("1577957400123456789"));
+		assertEquals(Long.MIN_VALUE, timestamp("2020-13-02 09:30:00"));
+		assertEquals(Long.MIN_VALUE, timestamp("yesterday"));
+	}
+
+	@Test
+	public void testDoublesMatchParseDouble() {
+		Random random = new Random(7);
+		for (int i = 0; i < 10000; i++) {
+			String s = switch (i % 4) {
+				case 0 -> Double.toString(random.nextDouble() * 1000);
+				case 1 -> String.format("%.2f", random.nextDouble() * 500);
+				case 2 -> Long.toString(random.nextInt(1_000_000));
+				default -> Double.toString(-random.nextGaussian() * 1e-5);
+			};
+			byte[] b = s.getBytes(StandardCharsets.US_ASCII);
+			assertEquals(s, Double.parseDouble(s), TickReader.parseDouble(b, 0, b.length), 0.0);
+		}
+		for (String s : new String[] { "1.2.3", ".", "-", "+", "-.", " . " }) {
+			byte[] bad = s.getBytes(StandardCharsets.US_ASCII);
+			assertTrue(s, Double.isNaN(TickReader.parseDouble(bad, 0, bad.length)));
+		}
+		byte[] b = ".5".getBytes(StandardCharsets.US_ASCII);
+		assertEquals(0.5, TickReader.parseDouble(b, 0, b.length), 0.0);
+	}
+
+	@Test
+	public void testReadsRowsAcrossBufferRefills() throws IOException {
+		Path file = Files.createTempFile("ticks", ".csv");
+		try {
+			StringBuilder csv = new StringBuilder("Symbol,Time,Price,Size\r\n");
+			int rows = 100_000;
+			for (int i = 0; i < rows; i++) {
+				csv.append("AAPL,").append(1_577_957_400_000L + i).append(',').append(100 + i % 100 / 100.0)
+						.append(',').append(i % 7 + 1).append("\r\n");
+				if (i % 1000 == 0)
+					csv.append("AAPL,broken,,\r\n");
+			}
+			csv.append("AAPL,1577957500000,101.5,3");
+			Files.writeString(file, csv);
+			try (TickReader reader = TickReader.open(file)) {
+				for (int i = 0; i < rows; i++) {
+					assertTrue(reader.next());
+					assertEquals((1_577_957_400_000L + i) * 1_000_000L, reader.timestamp());
+					assertEquals(100 + i % 100 / 100.0, reader.price(), 0.0);
+					assertEquals(i % 7 + 1, reader.size(), 0.0);
+				}
+				assertTrue(reader.next());
+				assertEquals(101.5, reader.price(), 0.0);
+				assertFalse(reader.next());
+				assertEquals(100, reader.getSkipped());
+			}
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+}
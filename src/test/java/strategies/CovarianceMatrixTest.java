@@ -0,0 +1,117 @@
+package strategies;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CovarianceMatrixTest {
+
+    private static double[][] randomReturns(int bars, int n, long seed) {
+        Random random = new Random(seed);
+        double[][] returns = new double[bars][n];
+        for (int t = 0; t < bars; t++) {
+            double market = random.nextGaussian() * 0.01;
+            for (int i = 0; i < n; i++)
+                returns[t][i] = market * (0.5 + i % 3) + random.nextGaussian() * 0.01;
+        }
+        return returns;
+    }
+
+    /**
+     * Sample covariance of bars from, inclusive, to to, exclusive
+     */
+    private static double sampleCovariance(double[][] returns, int from, int to, int i, int j) {
+        double mi = 0, mj = 0;
+        for (int t = from; t < to; t++) {
+            mi += returns[t][i];
+            mj += returns[t][j];
+        }
+        mi /= to - from;
+        mj /= to - from;
+        double c = 0;
+        for (int t = from; t < to; t++)
+            c += (returns[t][i] - mi) * (returns[t][j] - mj);
+        return c / (to - from - 1);
+    }
+
+    @Test
+    public void testRollingMatchesWindowRecomputation() {
+        int n = 6, window = 50;
+        double[][] returns = randomReturns(237, n, 1);
+        CovarianceMatrix matrix = CovarianceMatrix.rolling(window);
+        for (int t = 0; t < returns.length; t++) {
+            matrix.update(returns[t], n);
+            if (t < 1)
+                continue;
+            int from = Math.max(0, t + 1 - window);
+            for (int i = 0; i < n; i++)
+                for (int j = 0; j < n; j++)
+                    assertEquals(sampleCovariance(returns, from, t + 1, i, j), matrix.covariance(i, j), 1e-14);
+        }
+        assertEquals(window, matrix.getCount());
+        assertTrue(matrix.correlation(0, 2) > 0.2);
+        assertEquals(1.0, matrix.correlation(2, 2), 1e-12);
+    }
+
+    @Test
+    public void testExponentialMatchesWeightedCovariance() {
+        int n = 4;
+        double halfLife = 20;
+        double[][] returns = randomReturns(300, n, 2);
+        CovarianceMatrix matrix = CovarianceMatrix.exponential(halfLife);
+        for (double[] r : returns)
+            matrix.update(r, n);
+
+        // Weights decaying by half every halfLife bars, the first bar is the start
+        double alpha = 1 - Math.pow(0.5, 1 / halfLife);
+        int bars = returns.length;
+        double[] mean = returns[0].clone();
+        double[][] expected = new double[n][n];
+        for (int t = 1; t < bars; t++) {
+            double[] d = new double[n];
+            for (int i = 0; i < n; i++) {
+                d[i] = returns[t][i] - mean[i];
+                mean[i] += alpha * d[i];
+            }
+            for (int i = 0; i < n; i++)
+                for (int j = 0; j < n; j++)
+                    expected[i][j] = (1 - alpha) * (expected[i][j] + alpha * d[i] * d[j]);
+        }
+        for (int i = 0; i < n; i++)
+            for (int j = 0; j < n; j++)
+                assertEquals(expected[i][j], matrix.covariance(i, j), 1e-15);
+        // About the variance of the returns, 0.01² plus the market part
+        assertEquals(0.0001 * (1 + 0.25), matrix.variance(0), 0.00008);
+    }
+
+    @Test
+    public void testLargeUniverseGrowsAndUpdatesInParallel() {
+        int n = CovarianceMatrix.PARALLEL_ROWS * 2;
+        double[][] returns = randomReturns(120, n, 3);
+        CovarianceMatrix matrix = CovarianceMatrix.rolling(40);
+        for (int t = 0; t < returns.length; t++) {
+            // Half of the universe only joins later, and counts as flat before
+            if (t < 60) {
+                double[] early = returns[t].clone();
+                Arrays.fill(early, n / 2, n, Double.NaN);
+                matrix.update(early, n / 2);
+                Arrays.fill(returns[t], n / 2, n, 0.0);
+            } else {
+                matrix.update(returns[t], n);
+            }
+        }
+        for (int i = 0; i < n; i += 17)
+            for (int j = 0; j < n; j += 13)
+                assertEquals(sampleCovariance(returns, 80, 120, i, j), matrix.covariance(i, j), 1e-14);
+
+        int[] ids = { 5, 200, 7 };
+        double[] extracted = matrix.extract(ids, 3);
+        assertEquals(matrix.covariance(200, 7), extracted[1 * 3 + 2], 0.0);
+        assertEquals(matrix.covariance(7, 200), extracted[2 * 3 + 1], 0.0);
+        assertEquals(matrix.variance(5), extracted[0], 0.0);
+    }
+}
@@ -0,0 +1,189 @@
+package strategies;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import accounts.Portfolio;
+import engine.Bar;
+import engine.BarSeries;
+import engine.StockExchange;
+import io.Logger;
+
+public class IndicatorCacheTest {
+    private Path dir;
+    private Path csv;
+    private Logger logger;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("indicators");
+        csv = dir.resolve("data.csv");
+        StringBuilder rows = new StringBuilder("Date,Open,High,Low,Close,Volume\n");
+        for (int i = 0; i < 300; i++)
+            rows.append(LocalDate.of(2020, 1, 1).plusDays(i)).append(",1,1,1,")
+                    .append(100 + 10 * Math.sin(i / 7.0)).append(",10\n");
+        Files.writeString(csv, rows);
+        logger = new Logger(new ByteArrayOutputStream());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : files.sorted(Comparator.reverseOrder()).toList())
+                Files.deleteIfExists(p);
+        }
+    }
+
+    private static BarSeries series(double... close) {
+        int n = close.length;
+        long[] ts = new long[n];
+        for (int i = 0; i < n; i++)
+            ts[i] = 86_400L * i;
+        return new BarSeries(ts, close.clone(), close.clone(), close.clone(), close, new double[n]);
+    }
+
+    /** Running sum, with a version that can be raised */
+    private static final class Sum implements IndicatorCache.Indicator {
+        private final int version;
+
+        Sum(int version) {
+            this.version = version;
+        }
+
+        public String name() {
+            return "sum";
+        }
+
+        public String parameters() {
+            return "";
+        }
+
+        public int version() {
+            return version;
+        }
+
+        public double[] compute(BarSeries series, int from) {
+            double[] out = new double[series.size() - from];
+            double sum = 0;
+            for (int i = 0; i < out.length; i++)
+                out[i] = sum += series.close()[from + i];
+            return out;
+        }
+    }
+
+    @Test
+    public void testStoredValuesAreMappedAgain() throws IOException {
+        IndicatorCache cache = new IndicatorCache(dir.resolve("cache"));
+        BarSeries data = series(1, 2, 3, 4);
+        DoubleBuffer first = cache.get(new Sum(1), "X", data, 1);
+        assertEquals(3, first.limit());
+        assertEquals(9.0, first.get(2), 0.0);
+
+        // A new cache on the same directory, like a later run
+        IndicatorCache later = new IndicatorCache(dir.resolve("cache"));
+        DoubleBuffer again = later.get(new Sum(1), "X", data, 1);
+        assertEquals(first, again);
+        assertEquals(1, later.getStats().hits());
+        assertEquals(0, later.getStats().misses());
+    }
+
+    @Test
+    public void testChangedDataOrVersionInvalidates() throws IOException {
+        IndicatorCache cache = new IndicatorCache(dir.resolve("cache"));
+        cache.get(new Sum(1), "X", series(1, 2, 3), 0);
+        assertEquals(10.0, cache.get(new Sum(1), "X", series(1, 2, 7), 0).get(2), 0.0);
+        cache.get(new Sum(2), "X", series(1, 2, 7), 0);
+        // Another ticker is kept apart
+        cache.get(new Sum(2), "Y", series(1, 2, 7), 0);
+
+        IndicatorCache.Stats stats = cache.getStats();
+        assertEquals(4, stats.misses());
+        assertEquals(2, stats.invalidated());
+        try (Stream<Path> files = Files.list(dir.resolve("cache").resolve("sum"))) {
+            assertEquals(2, files.count());
+        }
+    }
+
+    @Test
+    public void testCorruptFileIsWrittenAgain() throws IOException {
+        IndicatorCache cache = new IndicatorCache(dir.resolve("cache"));
+        cache.get(new Sum(1), "X", series(1, 2, 3), 0);
+        Path file;
+        try (Stream<Path> files = Files.list(dir.resolve("cache").resolve("sum"))) {
+            file = files.findFirst().get();
+        }
+        Files.write(file, new byte[] { 1, 2, 3 });
+        assertEquals(6.0, cache.get(new Sum(1), "X", series(1, 2, 3), 0).get(2), 0.0);
+        assertEquals(1, cache.getStats().invalidated());
+        assertEquals(2, cache.getStats().misses());
+    }
+
+    /** Records the EMA of the only ticker at every bar */
+    private static final class Recorder extends Strategy {
+        final EMASignal signal = new EMASignal(this, 20);
+        final List<Double> emas = new ArrayList<>();
+
+        Recorder(Portfolio portfolio, Logger logger) {
+            super(portfolio, logger);
+            addSignal(signal);
+        }
+
+        @Override
+        protected void onBars(Map<String, Bar> bars) {
+            emas.add(signal.getEma("A"));
+        }
+    }
+
+    private List<Double> run(IndicatorCache cache) throws IOException {
+        StockExchange exchange = new StockExchange(logger);
+        exchange.addStock("A", csv.toString());
+        Recorder recorder = new Recorder(new Portfolio(1000, logger), logger);
+        if (cache != null)
+            recorder.useIndicatorCache(cache, Map.of("A", BarSeries.load(csv.toString())));
+        exchange.addStrategy(recorder);
+        exchange.run();
+        return recorder.emas;
+    }
+
+    @Test
+    public void testCachedEmaMatchesComputed() throws IOException {
+        List<Double> computed = run(null);
+        IndicatorCache cache = new IndicatorCache(dir.resolve("cache"));
+        assertEquals(computed, run(cache));
+        assertEquals(1, cache.getStats().misses());
+        assertEquals(computed, run(cache));
+        assertEquals(1, cache.getStats().hits());
+        assertEquals(299, computed.size());
+    }
+
+    @Test
+    public void testEmaFallsBackWhenBarsDiffer() throws IOException {
+        List<Double> computed = run(null);
+        IndicatorCache cache = new IndicatorCache(dir.resolve("cache"));
+        StockExchange exchange = new StockExchange(logger);
+        exchange.addStock("A", csv.toString());
+        Recorder recorder = new Recorder(new Portfolio(1000, logger), logger);
+        // The stored series ends early, so the signal goes on computing
+        BarSeries shorter = BarSeries.load(csv.toString(), null, LocalDate.of(2020, 5, 1).atStartOfDay());
+        recorder.useIndicatorCache(cache, Map.of("A", shorter));
+        exchange.addStrategy(recorder);
+        exchange.run();
+        assertEquals(computed, recorder.emas);
+        assertEquals(1, cache.getStats().misses());
+    }
+}
@@ -0,0 +1,125 @@
+package strategies;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import accounts.Portfolio;
+import engine.Bar;
+import engine.ListBarSource;
+import engine.StockExchange;
+import io.Logger;
+
+public class PortfolioWeightsTest {
+
+    @Test
+    public void testMinimumVarianceOfTwoAssets() {
+        double v1 = 0.04, v2 = 0.09, c = 0.012;
+        double[] w = PortfolioWeights.minimumVariance(new double[] { v1, c, c, v2 }, 2);
+        double expected = (v2 - c) / (v1 + v2 - 2 * c);
+        assertEquals(expected, w[0], 1e-8);
+        assertEquals(1 - expected, w[1], 1e-8);
+    }
+
+    @Test
+    public void testLongOnlyConstraintAndExpectedReturns() {
+        // The third asset is riskier and highly correlated with the first, so it's
+        // shorted in the unconstrained solution
+        double[] cov = { 0.04, 0.01, 0.05, 0.01, 0.04, 0.01, 0.05, 0.01, 0.09 };
+        double[] w = PortfolioWeights.minimumVariance(cov, 3);
+        assertEquals(0.0, w[2], 1e-9);
+        assertEquals(0.5, w[0], 1e-8);
+        assertEquals(1.0, w[0] + w[1] + w[2], 1e-12);
+
+        double[] tilted = PortfolioWeights.meanVariance(new double[] { 0.0, 0.0, 0.2 }, cov, 3, 2.0);
+        assertTrue(tilted[2] > 0.3);
+        assertEquals(1.0, tilted[0] + tilted[1] + tilted[2], 1e-12);
+    }
+
+    @Test
+    public void testRiskParityEqualizesContributions() {
+        double[] cov = { 0.04, 0.006, 0.002, 0.006, 0.09, 0.01, 0.002, 0.01, 0.01 };
+        double[] w = PortfolioWeights.riskParity(cov, 3);
+        double[] contributions = PortfolioWeights.riskContributions(w, cov, 3);
+        for (double contribution : contributions)
+            assertEquals(1.0 / 3, contribution, 1e-9);
+        assertEquals(1.0, w[0] + w[1] + w[2], 1e-12);
+        assertTrue(w[2] > w[0] && w[0] > w[1]);
+
+        // Uncorrelated assets are held in inverse volatility
+        double[] diagonal = PortfolioWeights.riskParity(new double[] { 0.04, 0, 0, 0.01 }, 2);
+        assertEquals(1.0 / 3, diagonal[0], 1e-9);
+    }
+
+    @Test
+    public void testStrategyHoldsTheUniverse() {
+        Logger logger = new Logger(new ByteArrayOutputStream());
+        Random random = new Random(5);
+        StockExchange exchange = new StockExchange(logger);
+        String[] tickers = { "AAA", "BBB", "CCC" };
+        double[] volatility = { 0.01, 0.02, 0.04 };
+        LocalDateTime start = LocalDateTime.of(2020, 1, 1, 0, 0);
+        for (int s = 0; s < tickers.length; s++) {
+            List<Bar> bars = new ArrayList<>();
+            double close = 100;
+            for (int i = 0; i < 300; i++) {
+                close *= 1 + random.nextGaussian() * volatility[s];
+                bars.add(new Bar(start.plusDays(i), close, close, close, close, 1000));
+            }
+            exchange.addSource(tickers[s], new ListBarSource(bars));
+        }
+        Portfolio portfolio = new Portfolio(1_000_000.0, logger);
+        exchange.addPortfolio(portfolio);
+        exchange.addStrategy(new RiskBasedStrategy(portfolio, logger, RiskBasedStrategy.Method.RISK_PARITY, 30, 20));
+        exchange.run();
+
+        // Roughly inverse volatility, 4 : 2 : 1, apart from the drift since the last
+        // rebalance
+        double[] value = new double[tickers.length];
+        for (int s = 0; s < tickers.length; s++)
+            value[s] = portfolio.getQuantity(tickers[s]) * portfolio.getClosePrices().get(tickers[s]);
+        assertTrue(value[0] > value[1] && value[1] > value[2] && value[2] > 0);
+        assertTrue(value[0] / value[2] > 2.5 && value[0] / value[2] < 8);
+        assertTrue(portfolio.getInvestedRatio() > 0.9);
+    }
+
+    @Test
+    public void testStrategyHoldsALargeUniverse() {
+        // Sixty tickers give weights of about 1/60, below the rebalancer's drift
+        // threshold, so only entries being traded regardless gets them bought
+        Logger logger = new Logger(new ByteArrayOutputStream());
+        Random random = new Random(9);
+        StockExchange exchange = new StockExchange(logger);
+        int n = 60;
+        LocalDateTime start = LocalDateTime.of(2020, 1, 1, 0, 0);
+        for (int s = 0; s < n; s++) {
+            List<Bar> bars = new ArrayList<>();
+            double close = 50 + s;
+            for (int i = 0; i < 120; i++) {
+                close *= 1 + random.nextGaussian() * 0.01 * (1 + s % 3);
+                bars.add(new Bar(start.plusDays(i), close, close, close, close, 1000));
+            }
+            exchange.addSource("T" + s, new ListBarSource(bars));
+        }
+        Portfolio parity = new Portfolio(1_000_000.0, logger);
+        Portfolio minimum = new Portfolio(1_000_000.0, logger);
+        exchange.addPortfolio(parity);
+        exchange.addPortfolio(minimum);
+        exchange.addStrategy(new RiskBasedStrategy(parity, logger, RiskBasedStrategy.Method.RISK_PARITY, 20, 20));
+        exchange.addStrategy(
+                new RiskBasedStrategy(minimum, logger, RiskBasedStrategy.Method.MINIMUM_VARIANCE, 20, 20));
+        exchange.run();
+
+        assertEquals(n, parity.getPositions().values().stream().filter(q -> q > 0).count());
+        assertTrue(parity.getInvestedRatio() > 0.9);
+        assertTrue(minimum.getPositions().values().stream().anyMatch(q -> q > 0));
+        assertTrue(minimum.getInvestedRatio() > 0.9);
+    }
+}
@@ -0,0 +1,126 @@
+package strategies;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import accounts.Portfolio;
+import engine.Bar;
+import engine.ListBarSource;
+import engine.StockExchange;
+import io.Logger;
+
+public class RankSelectorTest {
+
+    private static double[] randomScores(long seed, int n) {
+        Random random = new Random(seed);
+        double[] scores = new double[n];
+        for (int i = 0; i < n; i++) {
+            // Rounded so there are ties, and some symbols have no score
+            scores[i] = random.nextDouble() < 0.1 ? Double.NaN : Math.round(random.nextGaussian() * 20) / 10.0;
+        }
+        return scores;
+    }
+
+    /**
+     * Ids with a score, fully sorted from highest to lowest with ties by id
+     */
+    private static int[] sortedIds(double[] scores) {
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < scores.length; i++)
+            if (!Double.isNaN(scores[i]))
+                ids.add(i);
+        ids.sort(Comparator.<Integer>comparingDouble(i -> -scores[i]).thenComparing(i -> i));
+        return ids.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    @Test
+    public void testTopAndBottomMatchFullSort() {
+        RankSelector selector = new RankSelector();
+        for (int k : new int[] { 1, 5, 50, 1000 }) {
+            double[] scores = randomScores(k, 500);
+            int[] sorted = sortedIds(scores);
+            int[] out = new int[k];
+
+            int count = selector.top(scores, scores.length, k, out);
+            assertEquals(Math.min(k, sorted.length), count);
+            for (int i = 0; i < count; i++)
+                assertEquals(sorted[i], out[i]);
+
+            count = selector.bottom(scores, scores.length, k, out);
+            assertEquals(Math.min(k, sorted.length), count);
+            for (int i = 0; i < count; i++)
+                assertEquals(scores[sorted[sorted.length - 1 - i]], scores[out[i]], 0.0);
+        }
+    }
+
+    @Test
+    public void testDecilesAreOrderedAndEven() {
+        double[] scores = randomScores(7, 1003);
+        int[] bucketOf = new int[scores.length];
+        int m = new RankSelector().buckets(scores, scores.length, 10, bucketOf);
+
+        int[] sizes = new int[10];
+        double[] min = new double[10], max = new double[10];
+        Arrays.fill(min, Double.POSITIVE_INFINITY);
+        Arrays.fill(max, Double.NEGATIVE_INFINITY);
+        for (int id = 0; id < scores.length; id++) {
+            if (Double.isNaN(scores[id])) {
+                assertEquals(-1, bucketOf[id]);
+                continue;
+            }
+            int b = bucketOf[id];
+            sizes[b]++;
+            min[b] = Math.min(min[b], scores[id]);
+            max[b] = Math.max(max[b], scores[id]);
+        }
+        int total = 0;
+        for (int b = 0; b < 10; b++) {
+            total += sizes[b];
+            assertTrue(Math.abs(sizes[b] - m / 10.0) < 1.0);
+            if (b > 0)
+                assertTrue(max[b - 1] <= min[b]);
+        }
+        assertEquals(m, total);
+    }
+
+    @Test
+    public void testTopKMomentumHoldsTheStrongestTickers() {
+        Logger logger = new Logger(new ByteArrayOutputStream());
+        StockExchange exchange = new StockExchange(logger);
+        LocalDateTime start = LocalDateTime.of(2020, 1, 1, 0, 0);
+        // Ticker i grows by i per mille per bar, so the last three are the strongest
+        for (int t = 0; t < 10; t++) {
+            List<Bar> bars = new ArrayList<>();
+            double close = 100;
+            for (int i = 0; i < 60; i++) {
+                close *= 1 + t / 1000.0;
+                bars.add(new Bar(start.plusDays(i), close, close, close, close, 1000));
+            }
+            exchange.addSource("T" + t, new ListBarSource(bars));
+        }
+        Portfolio portfolio = new Portfolio(10000.0, logger);
+        exchange.addPortfolio(portfolio);
+        exchange.addStrategy(new TopKMomentumStrategy(portfolio, logger, 20, 3, 5));
+        exchange.run();
+
+        List<String> held = new ArrayList<>();
+        portfolio.getPositions().forEach((ticker, quantity) -> {
+            if (quantity > 0)
+                held.add(ticker);
+        });
+        held.sort(null);
+        assertArrayEquals(new String[] { "T7", "T8", "T9" }, held.toArray());
+        assertTrue(portfolio.getCashReserve() < 10000.0 / 3);
+    }
+}
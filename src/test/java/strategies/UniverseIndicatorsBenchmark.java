@@ -0,0 +1,90 @@
+package strategies;
+
+import java.io.OutputStream;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import accounts.Portfolio;
+import engine.Bar;
+import io.Logger;
+
+/**
+ * Compares updating indicators for a 3,000 symbol universe with the per-symbol
+ * maps of EMASignal against the UniverseKernels. Not run by surefire, start it
+ * with
+ *
+ * <pre>
+ * mvn test-compile
+ * java --add-modules jdk.incubator.vector -cp target/classes:target/test-classes:$(cat cp.txt) strategies.UniverseIndicatorsBenchmark
+ * </pre>
+ *
+ * where cp.txt comes from mvn dependency:build-classpath -Dmdep.outputFile=cp.txt
+ */
+public class UniverseIndicatorsBenchmark {
+	private static final int SYMBOLS = 3000;
+	private static final int BARS = 1000;
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) {
+		Random random = new Random(7);
+		double[][] closes = new double[BARS][SYMBOLS];
+		double[] price = new double[SYMBOLS];
+		java.util.Arrays.fill(price, 100.0);
+		for (int t = 0; t < BARS; t++)
+			for (int s = 0; s < SYMBOLS; s++)
+				closes[t][s] = price[s] *= 1 + random.nextGaussian() * 0.02;
+
+		LocalDateTime start = LocalDateTime.of(2000, 1, 3, 0, 0);
+		@SuppressWarnings("unchecked")
+		Map<String, Bar>[] barMaps = new Map[BARS];
+		for (int t = 0; t < BARS; t++) {
+			barMaps[t] = new HashMap<>();
+			for (int s = 0; s < SYMBOLS; s++) {
+				double c = closes[t][s];
+				barMaps[t].put("S" + s, new Bar(start.plusDays(t), c, c, c, c, 100));
+			}
+		}
+		Logger logger = new Logger(OutputStream.nullOutputStream());
+		Strategy strategy = new BuyAndHoldStrategy(new Portfolio(1000, logger), logger, "S0");
+
+		System.out.println("Kernels: " + UniverseKernels.best().getClass().getSimpleName() + ", " + SYMBOLS
+				+ " symbols x " + BARS + " bars, ns per bar");
+		for (int round = 0; round < ROUNDS; round++) {
+			long t0 = System.nanoTime();
+			EMASignal mapEma = new EMASignal(strategy, 20);
+			for (int t = 0; t < BARS; t++)
+				mapEma.update(barMaps[t]);
+			long t1 = System.nanoTime();
+			double[] scalarEma = new double[SYMBOLS];
+			java.util.Arrays.fill(scalarEma, Double.NaN);
+			for (int t = 0; t < BARS; t++)
+				UniverseKernels.scalar().ema(scalarEma, closes[t], 2.0 / 21, SYMBOLS);
+			long t2 = System.nanoTime();
+			double[] vectorEma = new double[SYMBOLS];
+			java.util.Arrays.fill(vectorEma, Double.NaN);
+			UniverseKernels best = UniverseKernels.best();
+			for (int t = 0; t < BARS; t++)
+				best.ema(vectorEma, closes[t], 2.0 / 21, SYMBOLS);
+			long t3 = System.nanoTime();
+			UniverseIndicators scalarAll = new UniverseIndicators(20, 60, UniverseKernels.scalar());
+			for (int t = 0; t < BARS; t++)
+				scalarAll.update(closes[t], SYMBOLS);
+			long t4 = System.nanoTime();
+			UniverseIndicators vectorAll = new UniverseIndicators(20, 60, best);
+			for (int t = 0; t < BARS; t++)
+				vectorAll.update(closes[t], SYMBOLS);
+			long t5 = System.nanoTime();
+			UniverseSignal signal = new UniverseSignal(strategy, 20, 60);
+			for (int t = 0; t < BARS; t++)
+				signal.update(barMaps[t]);
+			long t6 = System.nanoTime();
+
+			System.out.printf(
+					"EMA: map %,d  scalar %,d  vector %,d | all indicators: scalar %,d  vector %,d  from bar maps %,d%n",
+					(t1 - t0) / BARS, (t2 - t1) / BARS, (t3 - t2) / BARS, (t4 - t3) / BARS, (t5 - t4) / BARS,
+					(t6 - t5) / BARS);
+		}
+	}
+}
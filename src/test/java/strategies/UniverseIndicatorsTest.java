@@ -0,0 +1,103 @@
+package strategies;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import accounts.Portfolio;
+import engine.Bar;
+import io.Logger;
+
+public class UniverseIndicatorsTest {
+    private static final int SYMBOLS = 37;
+    private static final int STEPS = 300;
+
+    private static double[][] randomCloses(long seed) {
+        Random random = new Random(seed);
+        double[][] closes = new double[STEPS][SYMBOLS];
+        double[] price = new double[SYMBOLS];
+        for (int s = 0; s < SYMBOLS; s++)
+            price[s] = 10 + random.nextDouble() * 100;
+        for (int t = 0; t < STEPS; t++) {
+            for (int s = 0; s < SYMBOLS; s++) {
+                price[s] *= 1 + random.nextGaussian() * 0.02;
+                // Some symbols miss bars, and some only start later
+                boolean missing = random.nextDouble() < 0.05 || t < s;
+                closes[t][s] = missing ? Double.NaN : price[s];
+            }
+        }
+        return closes;
+    }
+
+    @Test
+    public void testVectorKernelsMatchScalar() {
+        assertEquals("strategies.VectorKernels", UniverseKernels.best().getClass().getName());
+        UniverseIndicators scalar = new UniverseIndicators(10, 20, UniverseKernels.scalar());
+        UniverseIndicators vector = new UniverseIndicators(10, 20, UniverseKernels.best());
+        for (double[] close : randomCloses(1)) {
+            scalar.update(close, SYMBOLS);
+            vector.update(close, SYMBOLS);
+            for (int s = 0; s < SYMBOLS; s++) {
+                assertEquals(scalar.getEma(s), vector.getEma(s), 0.0);
+                assertEquals(scalar.getReturn(s), vector.getReturn(s), 0.0);
+                assertEquals(scalar.getReturnVariance(s), vector.getReturnVariance(s), 0.0);
+                assertEquals(scalar.getZScore(s), vector.getZScore(s), 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void testRollingStatsMatchDirectComputation() {
+        int window = 20;
+        double[][] closes = randomCloses(2);
+        UniverseIndicators indicators = new UniverseIndicators(10, window);
+        for (int t = 0; t < STEPS; t++) {
+            indicators.update(closes[t], SYMBOLS);
+            for (int s = 0; s < SYMBOLS; s++) {
+                double sum = 0, sumSq = 0;
+                int count = 0;
+                for (int k = Math.max(0, t - window + 1); k <= t; k++) {
+                    if (Double.isNaN(closes[k][s]))
+                        continue;
+                    sum += closes[k][s];
+                    sumSq += closes[k][s] * closes[k][s];
+                    count++;
+                }
+                if (count < 2 || Double.isNaN(closes[t][s]))
+                    continue;
+                double mean = sum / count;
+                double variance = (sumSq - sum * mean) / (count - 1);
+                double expected = (closes[t][s] - mean) / Math.sqrt(variance);
+                assertEquals(expected, indicators.getZScore(s), 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void testEmaMatchesEMASignal() {
+        Logger logger = new Logger(new ByteArrayOutputStream());
+        Strategy strategy = new BuyAndHoldStrategy(new Portfolio(1000, logger), logger, "S0");
+        EMASignal emaSignal = new EMASignal(strategy, 10);
+        UniverseSignal universeSignal = new UniverseSignal(strategy, 10, 20);
+        LocalDateTime start = LocalDateTime.of(2020, 1, 1, 0, 0);
+        double[][] closes = randomCloses(3);
+        for (int t = 0; t < STEPS; t++) {
+            Map<String, Bar> bars = new HashMap<>();
+            for (int s = 0; s < SYMBOLS; s++) {
+                double c = closes[t][s];
+                if (!Double.isNaN(c))
+                    bars.put("S" + s, new Bar(start.plusDays(t), c, c, c, c, 100));
+            }
+            emaSignal.update(bars);
+            universeSignal.update(bars);
+            for (String symbol : bars.keySet())
+                assertEquals(emaSignal.getEma(symbol), universeSignal.getEma(symbol), 0.0);
+        }
+    }
+}
@@ -4,27 +4,49 @@ import pandas as pd
 import matplotlib.pyplot as plt
 
 
+ARROW_SUFFIX = '.history.arrow'
+# Rolling benchmark figures written next to the results, they have no TotalValue
+BENCHMARK_MARK = '.benchmark.'
+
+
 def load_csv(path: str):
     df = pd.read_csv(path)
     df['Timestamp'] = pd.to_datetime(df['Timestamp'])
     return df
 
 
+def load_arrow(path: str):
+    import pyarrow as pa
+    with pa.memory_map(path) as source:
+        return pa.ipc.open_file(source).read_pandas()
+
+
+def load(path: str):
+    return load_arrow(path) if path.endswith(ARROW_SUFFIX) else load_csv(path)
+
+
+def label_of(filename: str):
+    if filename.endswith(ARROW_SUFFIX):
+        return filename[:-len(ARROW_SUFFIX)]
+    return os.path.splitext(filename)[0]
+
+
 def main():
-    parser = argparse.ArgumentParser(description="Plot backtest results from CSV files")
+    parser = argparse.ArgumentParser(description="Plot backtest results from CSV or Arrow files")
     parser.add_argument('directory', nargs='?', default='results', help='Directory with result csv files')
     parser.add_argument('--output', help='Optional PNG file to save the plot')
     args = parser.parse_args()
 
-    files = [f for f in os.listdir(args.directory) if f.endswith('.csv')]
+    files = [f for f in os.listdir(args.directory)
+             if (f.endswith('.csv') or f.endswith(ARROW_SUFFIX)) and BENCHMARK_MARK not in f]
     if not files:
         print('No result files found in', args.directory)
         return
 
     plt.figure(figsize=(10, 6))
     for f in files:
-        df = load_csv(os.path.join(args.directory, f))
-        label = os.path.splitext(f)[0]
+        df = load(os.path.join(args.directory, f))
+        label = label_of(f)
         plt.plot(df['Timestamp'], df['TotalValue'], label=label)
 
     plt.legend()